@@ -0,0 +1,104 @@
+/*
+ *  This file is part of INDI for Java Server.
+ *
+ *  INDI for Java Server is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java Server is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java Server.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi.benchmark;
+
+import java.io.IOException;
+import java.io.Writer;
+import laazotea.indi.INDIBLOBValue;
+
+/**
+ * Measures the writing of the Base64 contents of a BLOB with the pixels of an
+ * image, either plain or compressed (as sent by a BLOB Property with a
+ * compression threshold). The result of each operation is the number of
+ * characters written, to compare the link usage.
+ *
+ * @version 1.3, October 18, 2026
+ */
+public class BLOBCompressionBenchmark extends Benchmark {
+
+  /**
+   * The size of the image (in bytes).
+   */
+  private int size;
+  /**
+   * <code>true</code> to compress the image.
+   */
+  private boolean compress;
+  /**
+   * The image.
+   */
+  private INDIBLOBValue value;
+  /**
+   * The number of characters written.
+   */
+  private long characters;
+  /**
+   * A <code>Writer</code> that discards the characters.
+   */
+  private Writer out;
+
+  /**
+   * Constructs a new benchmark.
+   *
+   * @param name The name of the benchmark.
+   * @param size The size of the image (in bytes).
+   * @param compress <code>true</code> to compress the image.
+   */
+  public BLOBCompressionBenchmark(String name, int size, boolean compress) {
+    super(name);
+
+    this.size = size;
+    this.compress = compress;
+  }
+
+  @Override
+  public void setUp() {
+    value = new INDIBLOBValue(Messages.imageBytes(size), ".fits");
+
+    out = new Writer() {
+
+      @Override
+      public void write(char[] cbuf, int off, int len) {
+        characters += len;
+      }
+
+      @Override
+      public void flush() {
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+  }
+
+  @Override
+  public long run(int operations) throws IOException {
+    characters = 0;
+
+    for (int i = 0 ; i < operations ; i++) {
+      if (compress) {
+        value.writeCompressedBase64(out);
+      } else {
+        value.writeBase64(out);
+      }
+    }
+
+    return characters;
+  }
+}
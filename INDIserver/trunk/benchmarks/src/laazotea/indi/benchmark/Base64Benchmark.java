@@ -0,0 +1,82 @@
+/*
+ *  This file is part of INDI for Java Server.
+ *
+ *  INDI for Java Server is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java Server is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java Server.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi.benchmark;
+
+import laazotea.indi.Base64;
+
+/**
+ * Measures the Base64 encoding or decoding of the contents of a BLOB.
+ *
+ * @version 1.3, October 18, 2026
+ */
+public class Base64Benchmark extends Benchmark {
+
+  /**
+   * The size of the data (in bytes, before encoding).
+   */
+  private int size;
+  /**
+   * <code>true</code> to measure the encoding, <code>false</code> to measure
+   * the decoding.
+   */
+  private boolean encode;
+  /**
+   * The data.
+   */
+  private byte[] data;
+  /**
+   * The encoded data.
+   */
+  private String encoded;
+
+  /**
+   * Constructs a new benchmark.
+   *
+   * @param name The name of the benchmark.
+   * @param size The size of the data (in bytes, before encoding).
+   * @param encode <code>true</code> to measure the encoding,
+   * <code>false</code> to measure the decoding.
+   */
+  public Base64Benchmark(String name, int size, boolean encode) {
+    super(name);
+
+    this.size = size;
+    this.encode = encode;
+  }
+
+  @Override
+  public void setUp() throws Exception {
+    data = Messages.randomBytes(size);
+    encoded = Base64.encodeBytes(data, Base64.DO_BREAK_LINES);
+  }
+
+  @Override
+  public long run(int operations) throws Exception {
+    long length = 0;
+
+    for (int i = 0 ; i < operations ; i++) {
+      if (encode) {
+        length += Base64.encodeBytes(data).length();
+      } else {
+        length += Base64.decode(encoded).length;
+      }
+    }
+
+    return length;
+  }
+}
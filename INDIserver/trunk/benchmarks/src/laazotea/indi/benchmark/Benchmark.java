@@ -0,0 +1,79 @@
+/*
+ *  This file is part of INDI for Java Server.
+ *
+ *  INDI for Java Server is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java Server is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java Server.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi.benchmark;
+
+/**
+ * A benchmark of a hot path of the library, run by
+ * <code>BenchmarkRunner</code>. A benchmark repeats an operation a number of
+ * times chosen by the runner, which measures the time per operation.
+ *
+ * @version 1.3, October 18, 2026
+ * @see BenchmarkRunner
+ */
+public abstract class Benchmark {
+
+  /**
+   * The name of the benchmark.
+   */
+  private String name;
+
+  /**
+   * Constructs a new benchmark.
+   *
+   * @param name The name of the benchmark (used to select it in the command
+   * line and to report its results).
+   */
+  protected Benchmark(String name) {
+    this.name = name;
+  }
+
+  /**
+   * Gets the name of the benchmark.
+   *
+   * @return The name of the benchmark.
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Prepares the data of the benchmark. Not measured.
+   *
+   * @throws Exception If the benchmark cannot be prepared.
+   */
+  public void setUp() throws Exception {
+  }
+
+  /**
+   * Repeats the measured operation.
+   *
+   * @param operations The number of times the operation must be repeated.
+   * @return Any value computed from the results of the operations (for
+   * example their length), so the work cannot be optimized away.
+   * @throws Exception If the operation fails.
+   */
+  public abstract long run(int operations) throws Exception;
+
+  /**
+   * Releases the resources of the benchmark. Not measured.
+   *
+   * @throws Exception If the resources cannot be released.
+   */
+  public void tearDown() throws Exception {
+  }
+}
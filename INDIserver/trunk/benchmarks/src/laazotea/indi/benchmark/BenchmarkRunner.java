@@ -0,0 +1,233 @@
+/*
+ *  This file is part of INDI for Java Server.
+ *
+ *  INDI for Java Server is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java Server is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java Server.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi.benchmark;
+
+import java.util.ArrayList;
+import java.util.Locale;
+import laazotea.indi.driver.PropertySetBenchmark;
+import laazotea.indi.server.FanOutBenchmark;
+import laazotea.indi.server.LX200StackBenchmark;
+
+/**
+ * Runs the benchmarks of the hot paths of the library, offline and against in
+ * memory streams, so regressions can be measured comparing the results of two
+ * builds in the same machine. Every benchmark is warmed up and then measured
+ * during some iterations of a fixed time, reporting the mean time per
+ * operation and its standard deviation.
+ *
+ * Usage: <code>BenchmarkRunner [-w warmupIterations] [-i iterations] [-t
+ * iterationMillis] [name filters...]</code>. Only the benchmarks whose name
+ * contains any of the filters are run (all if there is no filter).
+ *
+ * @version 1.3, October 18, 2026
+ * @see Benchmark
+ */
+public class BenchmarkRunner {
+
+  /**
+   * The number of warm up iterations.
+   */
+  private int warmupIterations = 5;
+  /**
+   * The number of measured iterations.
+   */
+  private int iterations = 10;
+  /**
+   * The duration of each iteration (in milliseconds).
+   */
+  private long iterationMillis = 1000;
+  /**
+   * Accumulates the values returned by the benchmarks so their work cannot be
+   * optimized away.
+   */
+  private static volatile long sink;
+
+  /**
+   * Gets all the benchmarks.
+   *
+   * @return All the benchmarks.
+   */
+  public static ArrayList<Benchmark> getBenchmarks() {
+    ArrayList<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+    benchmarks.add(new ProtocolReaderBenchmark("reader.setNumberVector", Messages.setNumberVectors(1000)));
+    benchmarks.add(new ProtocolReaderBenchmark("reader.getPropertiesReply", Messages.getPropertiesReply(20)));
+    benchmarks.add(new ProtocolReaderBenchmark("reader.setBLOBVector.4MB", Messages.setBLOBVector(4 * 1024 * 1024)));
+    benchmarks.add(new XMLToStringBenchmark("xmlToString.setNumberVector", Messages.setNumberVectors(1)));
+    benchmarks.add(new XMLToStringBenchmark("xmlToString.defSwitchVector", Messages.defSwitchVector("LX200 Basic", "SLEW_RATE", 4)));
+    benchmarks.add(new PropertySetBenchmark("property.getXMLPropertySet.number"));
+    benchmarks.add(new SexagesimalFormatBenchmark("sexagesimal.format", "%010.6m", false));
+    benchmarks.add(new SexagesimalFormatBenchmark("number.getValueAsString.sexagesimal", "%010.6m", true));
+    benchmarks.add(new SexagesimalBenchmark("sexagesimal.legacy.format", "%010.6m", SexagesimalBenchmark.Operation.LEGACY_FORMAT));
+    benchmarks.add(new SexagesimalBenchmark("sexagesimal.format.string", "%010.6m", SexagesimalBenchmark.Operation.FORMAT));
+    benchmarks.add(new SexagesimalBenchmark("sexagesimal.format.stringBuilder", "%010.6m", SexagesimalBenchmark.Operation.FORMAT_STRING_BUILDER));
+    benchmarks.add(new SexagesimalBenchmark("sexagesimal.format.charArray", "%010.6m", SexagesimalBenchmark.Operation.FORMAT_CHAR_ARRAY));
+    benchmarks.add(new SexagesimalBenchmark("sexagesimal.format.charArray.9", "%010.9m", SexagesimalBenchmark.Operation.FORMAT_CHAR_ARRAY));
+    benchmarks.add(new SexagesimalBenchmark("sexagesimal.legacy.parse", "%010.6m", SexagesimalBenchmark.Operation.LEGACY_PARSE));
+    benchmarks.add(new SexagesimalBenchmark("sexagesimal.parse", "%010.6m", SexagesimalBenchmark.Operation.PARSE));
+    benchmarks.add(new SexagesimalFormatBenchmark("number.getValueAsString.decimal", "%.4f", true));
+    benchmarks.add(new TimestampBenchmark("timestamp.legacy.format", TimestampBenchmark.Operation.LEGACY_FORMAT));
+    benchmarks.add(new TimestampBenchmark("timestamp.format", TimestampBenchmark.Operation.FORMAT));
+    benchmarks.add(new TimestampBenchmark("timestamp.append", TimestampBenchmark.Operation.APPEND));
+    benchmarks.add(new TimestampBenchmark("timestamp.legacy.parse", TimestampBenchmark.Operation.LEGACY_PARSE));
+    benchmarks.add(new TimestampBenchmark("timestamp.parse", TimestampBenchmark.Operation.PARSE));
+    benchmarks.add(new Base64Benchmark("base64.encode.1MB", 1024 * 1024, true));
+    benchmarks.add(new Base64Benchmark("base64.decode.1MB", 1024 * 1024, false));
+    benchmarks.add(new BLOBCompressionBenchmark("blob.writeBase64.4MB", 4 * 1024 * 1024, false));
+    benchmarks.add(new BLOBCompressionBenchmark("blob.writeCompressedBase64.4MB", 4 * 1024 * 1024, true));
+    benchmarks.add(new FanOutBenchmark("server.fanOut.1", 1, true));
+    benchmarks.add(new FanOutBenchmark("server.fanOut.10", 10, true));
+    benchmarks.add(new FanOutBenchmark("server.fanOut.100", 100, true));
+    benchmarks.add(new FanOutBenchmark("server.fanOut.10.noMetrics", 10, false));
+    benchmarks.add(new LX200StackBenchmark("stack.lx200.alignment", "latency=0,jitter=0,baud=0"));
+    benchmarks.add(new LX200StackBenchmark("stack.lx200.alignment.9600baud", "latency=10,jitter=5,baud=9600,seed=1"));
+    benchmarks.add(new CircularByteBufferBenchmark("circularByteBuffer.roundTrip", true));
+    benchmarks.add(new CircularByteBufferBenchmark("circularByteBuffer.chunk4KB", false));
+
+    return benchmarks;
+  }
+
+  /**
+   * Runs the selected benchmarks.
+   *
+   * @param args The options and name filters.
+   * @throws Exception If any benchmark fails.
+   */
+  public static void main(String[] args) throws Exception {
+    BenchmarkRunner runner = new BenchmarkRunner();
+    ArrayList<String> filters = new ArrayList<String>();
+
+    for (int i = 0 ; i < args.length ; i++) {
+      if (args[i].equals("-w") && (i + 1 < args.length)) {
+        runner.warmupIterations = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-i") && (i + 1 < args.length)) {
+        runner.iterations = Math.max(1, Integer.parseInt(args[++i]));
+      } else if (args[i].equals("-t") && (i + 1 < args.length)) {
+        runner.iterationMillis = Math.max(1, Long.parseLong(args[++i]));
+      } else {
+        filters.add(args[i]);
+      }
+    }
+
+    ArrayList<Benchmark> benchmarks = getBenchmarks();
+
+    System.out.println(String.format(Locale.US, "%-40s %15s %12s %15s", "Benchmark", "ns/op", "+-", "ops/s"));
+
+    for (int i = 0 ; i < benchmarks.size() ; i++) {
+      Benchmark b = benchmarks.get(i);
+
+      if (isSelected(b, filters)) {
+        runner.run(b);
+      }
+    }
+
+    System.exit(0);  // Some benchmarks leave Server threads running
+  }
+
+  /**
+   * Determines if a benchmark has been selected in the command line.
+   *
+   * @param b The benchmark.
+   * @param filters The name filters.
+   * @return <code>true</code> if the benchmark must be run.
+   * <code>false</code> otherwise.
+   */
+  private static boolean isSelected(Benchmark b, ArrayList<String> filters) {
+    if (filters.isEmpty()) {
+      return true;
+    }
+
+    for (int i = 0 ; i < filters.size() ; i++) {
+      if (b.getName().contains(filters.get(i))) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Runs a benchmark and prints its results.
+   *
+   * @param b The benchmark.
+   * @throws Exception If the benchmark fails.
+   */
+  private void run(Benchmark b) throws Exception {
+    b.setUp();
+
+    try {
+      int operations = calibrate(b);
+
+      for (int i = 0 ; i < warmupIterations ; i++) {
+        sink += b.run(operations);
+      }
+
+      double[] nsPerOp = new double[iterations];
+      double mean = 0;
+
+      for (int i = 0 ; i < iterations ; i++) {
+        long start = System.nanoTime();
+
+        sink += b.run(operations);
+
+        nsPerOp[i] = (System.nanoTime() - start) / (double) operations;
+        mean += nsPerOp[i];
+      }
+
+      mean /= iterations;
+
+      double variance = 0;
+
+      for (int i = 0 ; i < iterations ; i++) {
+        variance += (nsPerOp[i] - mean) * (nsPerOp[i] - mean);
+      }
+
+      double deviation = Math.sqrt(variance / iterations);
+
+      System.out.println(String.format(Locale.US, "%-40s %15.1f %12.1f %15.1f", b.getName(), mean, deviation, 1e9 / mean));
+    } finally {
+      b.tearDown();
+    }
+  }
+
+  /**
+   * Finds the number of operations that last about an iteration.
+   *
+   * @param b The benchmark.
+   * @return The number of operations of each iteration.
+   * @throws Exception If the benchmark fails.
+   */
+  private int calibrate(Benchmark b) throws Exception {
+    long target = iterationMillis * 1000000L;
+    int operations = 1;
+
+    while (true) {
+      long start = System.nanoTime();
+
+      sink += b.run(operations);
+
+      long elapsed = System.nanoTime() - start;
+
+      if ((elapsed >= target / 4) || (operations >= Integer.MAX_VALUE / 2)) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, (long) operations * target / Math.max(1, elapsed)));
+      }
+
+      operations *= 2;
+    }
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ *  This file is part of INDI for Java Server.
+ *
+ *  INDI for Java Server is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java Server is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java Server.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi.benchmark;
+
+import com.Ostermiller.util.CircularByteBuffer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Measures a <code>CircularByteBuffer</code> shared by two threads: either the
+ * latency (each operation is the round trip of a byte through two buffers, a
+ * ping pong that wakes up a blocked reader twice) or the throughput (each
+ * operation is the transfer of a 4 KB chunk from a writer to a reader thread).
+ *
+ * @version 1.3, October 18, 2026
+ */
+public class CircularByteBufferBenchmark extends Benchmark {
+
+  /**
+   * The size of the chunks written in the throughput test.
+   */
+  private static final int CHUNK = 4096;
+  /**
+   * <code>true</code> to measure the latency, <code>false</code> to measure
+   * the throughput.
+   */
+  private boolean roundTrip;
+
+  /**
+   * Constructs a new benchmark.
+   *
+   * @param name The name of the benchmark.
+   * @param roundTrip <code>true</code> to measure the latency,
+   * <code>false</code> to measure the throughput.
+   */
+  public CircularByteBufferBenchmark(String name, boolean roundTrip) {
+    super(name);
+
+    this.roundTrip = roundTrip;
+  }
+
+  @Override
+  public long run(int operations) throws Exception {
+    if (roundTrip) {
+      return roundTrips(operations);
+    }
+
+    return transfer(operations);
+  }
+
+  /**
+   * Sends bytes to an echo thread and waits for them to come back.
+   *
+   * @param operations The number of round trips.
+   * @return The sum of the received bytes.
+   * @throws Exception If the test fails.
+   */
+  private long roundTrips(int operations) throws Exception {
+    final CircularByteBuffer ping = new CircularByteBuffer(1024);
+    final CircularByteBuffer pong = new CircularByteBuffer(1024);
+
+    Thread echo = new Thread(new Runnable() {
+
+      @Override
+      public void run() {
+        try {
+          InputStream in = ping.getInputStream();
+          OutputStream out = pong.getOutputStream();
+
+          int b = in.read();
+
+          while (b != -1) {
+            out.write(b);
+            b = in.read();
+          }
+
+          out.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    });
+
+    echo.start();
+
+    OutputStream out = ping.getOutputStream();
+    InputStream in = pong.getInputStream();
+    long sum = 0;
+
+    for (int i = 0 ; i < operations ; i++) {
+      out.write(i & 0x7f);
+      sum += in.read();
+    }
+
+    out.close();
+    echo.join();
+
+    return sum;
+  }
+
+  /**
+   * Transfers chunks from a writer thread through a 64 KB buffer.
+   *
+   * @param operations The number of chunks.
+   * @return The number of transferred bytes.
+   * @throws Exception If the test fails.
+   */
+  private long transfer(final int operations) throws Exception {
+    final CircularByteBuffer buffer = new CircularByteBuffer(65536);
+
+    Thread writer = new Thread(new Runnable() {
+
+      @Override
+      public void run() {
+        try {
+          OutputStream out = buffer.getOutputStream();
+          byte[] chunk = new byte[CHUNK];
+
+          for (int i = 0 ; i < operations ; i++) {
+            out.write(chunk);
+          }
+
+          out.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    });
+
+    writer.start();
+
+    InputStream in = buffer.getInputStream();
+    byte[] b = new byte[CHUNK];
+    long total = 0;
+
+    int n = in.read(b);
+
+    while (n != -1) {
+      total += n;
+      n = in.read(b);
+    }
+
+    writer.join();
+
+    return total;
+  }
+}
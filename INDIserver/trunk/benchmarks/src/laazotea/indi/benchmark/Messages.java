@@ -0,0 +1,238 @@
+/*
+ *  This file is part of INDI for Java Server.
+ *
+ *  INDI for Java Server is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java Server is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java Server.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi.benchmark;
+
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Random;
+import laazotea.indi.Base64;
+import laazotea.indi.INDIIncrementalParser;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Realistic INDI messages used by the benchmarks, similar to the ones sent by
+ * a telescope Driver.
+ *
+ * @version 1.3, October 18, 2026
+ */
+public class Messages {
+
+  /**
+   * The timestamp of the messages.
+   */
+  private static final String TIMESTAMP = "2012-04-01T21:13:42";
+
+  /**
+   * Generates a stream of small <code>setNumberVector</code> messages with the
+   * coordinates of a slewing telescope.
+   *
+   * @param count The number of messages.
+   * @return The messages.
+   */
+  public static String setNumberVectors(int count) {
+    StringBuilder sb = new StringBuilder();
+
+    for (int i = 0 ; i < count ; i++) {
+      double ra = (i * 0.0137) % 24;
+      double dec = ((i * 0.0411) % 180) - 90;
+
+      sb.append("<setNumberVector device=\"LX200 Basic\" name=\"EQUATORIAL_EOD_COORD\" state=\"Busy\" timeout=\"60\" timestamp=\"").append(TIMESTAMP).append("\">\n");
+      sb.append("  <oneNumber name=\"RA\">").append(String.format(Locale.US, "%10.6f", ra)).append("</oneNumber>\n");
+      sb.append("  <oneNumber name=\"DEC\">").append(String.format(Locale.US, "%10.6f", dec)).append("</oneNumber>\n");
+      sb.append("</setNumberVector>\n");
+    }
+
+    return sb.toString();
+  }
+
+  /**
+   * Generates the burst of definitions with which some Devices reply to a
+   * <code>getProperties</code> message.
+   *
+   * @param devices The number of Devices.
+   * @return The messages.
+   */
+  public static String getPropertiesReply(int devices) {
+    StringBuilder sb = new StringBuilder();
+
+    for (int d = 0 ; d < devices ; d++) {
+      String device = "Telescope " + d;
+
+      sb.append(defSwitchVector(device, "CONNECTION", 2));
+      sb.append("<defTextVector device=\"").append(device).append("\" name=\"DEVICE_PORT\" label=\"Port\" group=\"Communication\" state=\"Idle\" perm=\"rw\" timeout=\"0\" timestamp=\"").append(TIMESTAMP).append("\">\n");
+      sb.append("  <defText name=\"PORT\" label=\"Port\">/dev/rfcomm0</defText>\n");
+      sb.append("</defTextVector>\n");
+      sb.append("<defNumberVector device=\"").append(device).append("\" name=\"EQUATORIAL_EOD_COORD\" label=\"Eq. Coordinates\" group=\"Main Control\" state=\"Idle\" perm=\"rw\" timeout=\"60\" timestamp=\"").append(TIMESTAMP).append("\">\n");
+      sb.append("  <defNumber name=\"RA\" label=\"RA H:M:S\" format=\"%010.6m\" min=\"0\" max=\"24\" step=\"0\">5.5875</defNumber>\n");
+      sb.append("  <defNumber name=\"DEC\" label=\"Dec D:M:S\" format=\"%010.6m\" min=\"-90\" max=\"90\" step=\"0\">22.0145</defNumber>\n");
+      sb.append("</defNumberVector>\n");
+      sb.append(defSwitchVector(device, "ON_COORD_SET", 3));
+      sb.append(defSwitchVector(device, "SLEW_RATE", 4));
+      sb.append(defSwitchVector(device, "TELESCOPE_MOTION_NS", 2));
+      sb.append(defSwitchVector(device, "TELESCOPE_MOTION_WE", 2));
+      sb.append("<defLightVector device=\"").append(device).append("\" name=\"STATUS\" label=\"Status\" group=\"Main Control\" state=\"Idle\" timestamp=\"").append(TIMESTAMP).append("\">\n");
+      sb.append("  <defLight name=\"TRACKING\" label=\"Tracking\">Ok</defLight>\n");
+      sb.append("  <defLight name=\"SLEWING\" label=\"Slewing\">Idle</defLight>\n");
+      sb.append("</defLightVector>\n");
+      sb.append("<defBLOBVector device=\"").append(device).append("\" name=\"CCD1\" label=\"Image\" group=\"Image\" state=\"Idle\" perm=\"ro\" timeout=\"0\" timestamp=\"").append(TIMESTAMP).append("\">\n");
+      sb.append("  <defBLOB name=\"CCD1\" label=\"Image\"/>\n");
+      sb.append("</defBLOBVector>\n");
+    }
+
+    return sb.toString();
+  }
+
+  /**
+   * Generates a <code>defSwitchVector</code> message.
+   *
+   * @param device The Device name.
+   * @param name The Property name.
+   * @param switches The number of switches.
+   * @return The message.
+   */
+  public static String defSwitchVector(String device, String name, int switches) {
+    StringBuilder sb = new StringBuilder();
+
+    sb.append("<defSwitchVector device=\"").append(device).append("\" name=\"").append(name).append("\" label=\"").append(name).append("\" group=\"Main Control\" state=\"Idle\" perm=\"rw\" rule=\"OneOfMany\" timeout=\"0\" timestamp=\"").append(TIMESTAMP).append("\">\n");
+
+    for (int i = 0 ; i < switches ; i++) {
+      sb.append("  <defSwitch name=\"S").append(i).append("\" label=\"Switch ").append(i).append("\">").append(i == 0 ? "On" : "Off").append("</defSwitch>\n");
+    }
+
+    sb.append("</defSwitchVector>\n");
+
+    return sb.toString();
+  }
+
+  /**
+   * Generates a <code>setBLOBVector</code> message with random data.
+   *
+   * @param size The size of the data (in bytes, before encoding).
+   * @return The message.
+   */
+  public static String setBLOBVector(int size) {
+    byte[] data = randomBytes(size);
+
+    StringBuilder sb = new StringBuilder(size * 4 / 3 + size / 38 + 512);
+
+    sb.append("<setBLOBVector device=\"CCD Simulator\" name=\"CCD1\" state=\"Ok\" timeout=\"0\" timestamp=\"").append(TIMESTAMP).append("\">\n");
+    sb.append("  <oneBLOB name=\"CCD1\" size=\"").append(size).append("\" format=\".fits\">\n");
+
+    try {
+      sb.append(Base64.encodeBytes(data, Base64.DO_BREAK_LINES));
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+
+    sb.append("\n  </oneBLOB>\n");
+    sb.append("</setBLOBVector>\n");
+
+    return sb.toString();
+  }
+
+  /**
+   * Generates some random (not compressible) bytes, always the same ones.
+   *
+   * @param size The number of bytes.
+   * @return The bytes.
+   */
+  public static byte[] randomBytes(int size) {
+    byte[] data = new byte[size];
+
+    new Random(42).nextBytes(data);
+
+    return data;
+  }
+
+  /**
+   * Generates the pixels of a 16 bit image (big endian, as in FITS files):
+   * a noisy sky background with some stars, always the same ones.
+   *
+   * @param size The number of bytes.
+   * @return The bytes.
+   */
+  public static byte[] imageBytes(int size) {
+    byte[] data = new byte[size];
+    Random random = new Random(42);
+
+    for (int i = 0 ; i + 1 < size ; i += 2) {
+      int pixel = 1000 + (int) (random.nextGaussian() * 20);
+
+      if (random.nextInt(5000) == 0) {
+        pixel += 30000;
+      }
+
+      data[i] = (byte) (pixel >> 8);
+      data[i + 1] = (byte) pixel;
+    }
+
+    return data;
+  }
+
+  /**
+   * Parses the first message of a stream as the Server does, keeping its
+   * original text.
+   *
+   * @param xml The messages.
+   * @return The first message.
+   * @throws Exception If the messages cannot be parsed.
+   */
+  public static Element parse(String xml) throws Exception {
+    ArrayList<Element> messages = parseAll(xml);
+
+    if (messages.isEmpty()) {
+      throw new IllegalArgumentException("No message");
+    }
+
+    return messages.get(0);
+  }
+
+  /**
+   * Parses all the messages of a stream as the Server does, keeping their
+   * original text.
+   *
+   * @param xml The messages.
+   * @return The messages.
+   * @throws Exception If the messages cannot be parsed.
+   */
+  public static ArrayList<Element> parseAll(String xml) throws Exception {
+    INDIIncrementalParser parser = new INDIIncrementalParser();
+    ArrayList<Element> messages = new ArrayList<Element>();
+
+    Document doc = parser.parse(xml);
+
+    if (doc == null) {
+      return messages;
+    }
+
+    NodeList nodes = doc.getDocumentElement().getChildNodes();
+
+    for (int i = 0 ; i < nodes.getLength() ; i++) {
+      Node n = nodes.item(i);
+
+      if (n instanceof Element) {
+        messages.add((Element) n);
+      }
+    }
+
+    return messages;
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ *  This file is part of INDI for Java Server.
+ *
+ *  INDI for Java Server is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java Server is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java Server.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import laazotea.indi.INDIProtocolParser;
+import laazotea.indi.INDIProtocolReader;
+import laazotea.indi.INDIRawMessage;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Measures the reading and parsing of a stream of messages by a
+ * <code>INDIProtocolReader</code>. Each operation reads the whole stream from
+ * memory (in the calling thread).
+ *
+ * @version 1.3, October 18, 2026
+ */
+public class ProtocolReaderBenchmark extends Benchmark implements INDIProtocolParser {
+
+  /**
+   * The text of the stream.
+   */
+  private String xml;
+  /**
+   * The bytes of the stream.
+   */
+  private byte[] bytes;
+  /**
+   * The number of messages parsed.
+   */
+  private long messages;
+
+  /**
+   * Constructs a new benchmark.
+   *
+   * @param name The name of the benchmark.
+   * @param xml The stream of messages to parse.
+   */
+  public ProtocolReaderBenchmark(String name, String xml) {
+    super(name);
+
+    this.xml = xml;
+  }
+
+  @Override
+  public void setUp() throws Exception {
+    bytes = xml.getBytes(INDIRawMessage.ENCODING);
+  }
+
+  @Override
+  public long run(int operations) throws Exception {
+    messages = 0;
+
+    for (int i = 0 ; i < operations ; i++) {
+      new INDIProtocolReader(this).run();
+    }
+
+    return messages;
+  }
+
+  @Override
+  public void parseXML(Document doc) {
+    NodeList nodes = doc.getDocumentElement().getChildNodes();
+
+    for (int i = 0 ; i < nodes.getLength() ; i++) {
+      if (nodes.item(i).getNodeType() == Node.ELEMENT_NODE) {
+        messages++;
+      }
+    }
+  }
+
+  @Override
+  public InputStream getInputStream() {
+    return new ByteArrayInputStream(bytes);
+  }
+
+  @Override
+  public void finishReader() {
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ *  This file is part of INDI for Java Server.
+ *
+ *  INDI for Java Server is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java Server is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java Server.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi.benchmark;
+
+import laazotea.indi.INDISexagesimalFormatter;
+
+/**
+ * Compares the original sexagesimal formatting and parsing (a
+ * <code>LegacySexagesimalFormatter</code>) with the current one of
+ * <code>INDISexagesimalFormatter</code>, into <code>String</code>s,
+ * <code>StringBuilder</code>s and arrays of characters. The set up checks that
+ * both produce the same results for the measured values.
+ *
+ * @version 1.3, October 18, 2026
+ */
+public class SexagesimalBenchmark extends Benchmark {
+
+  /**
+   * The measured operations.
+   */
+  public enum Operation {
+
+    LEGACY_FORMAT, FORMAT, FORMAT_STRING_BUILDER, FORMAT_CHAR_ARRAY, LEGACY_PARSE, PARSE
+  }
+  /**
+   * The number of different values formatted and parsed (a day in seconds).
+   */
+  private static final int VALUES = 86400;
+  /**
+   * The number format.
+   */
+  private String format;
+  /**
+   * The measured operation.
+   */
+  private Operation operation;
+  /**
+   * The original formatter.
+   */
+  private LegacySexagesimalFormatter legacy;
+  /**
+   * The current formatter.
+   */
+  private INDISexagesimalFormatter formatter;
+  /**
+   * The formatted values, to parse them.
+   */
+  private String[] formatted;
+  /**
+   * The <code>StringBuilder</code> to which the values are formatted.
+   */
+  private StringBuilder sb;
+  /**
+   * The array to which the values are formatted.
+   */
+  private char[] chars;
+
+  /**
+   * Constructs a new benchmark.
+   *
+   * @param name The name of the benchmark.
+   * @param format The sexagesimal number format.
+   * @param operation The measured operation.
+   */
+  public SexagesimalBenchmark(String name, String format, Operation operation) {
+    super(name);
+
+    this.format = format;
+    this.operation = operation;
+  }
+
+  /**
+   * Gets one of the measured values (hours of a day, with some negative
+   * ones).
+   *
+   * @param i The index of the value.
+   * @return The value.
+   */
+  private static double getValue(int i) {
+    double value = (i % VALUES) / 3600.0;
+
+    return (i % 7 == 0) ? -value : value;
+  }
+
+  @Override
+  public void setUp() throws Exception {
+    legacy = new LegacySexagesimalFormatter(format);
+    formatter = new INDISexagesimalFormatter(format);
+    formatted = new String[VALUES];
+    sb = new StringBuilder(INDISexagesimalFormatter.MAX_FORMATTED_LENGTH);
+    chars = new char[INDISexagesimalFormatter.MAX_FORMATTED_LENGTH];
+
+    for (int i = 0 ; i < VALUES ; i++) {
+      double value = getValue(i);
+
+      formatted[i] = legacy.format(value);
+
+      if (!formatted[i].equals(formatter.format(value))) {
+        throw new IllegalStateException("Different formatting of " + value + ": " + formatted[i] + " / " + formatter.format(value));
+      }
+
+      double parsed = legacy.parseSexagesimal(formatted[i]);
+
+      if (Double.compare(parsed, formatter.parseSexagesimal(formatted[i])) != 0) {
+        throw new IllegalStateException("Different parsing of " + formatted[i] + ": " + parsed + " / " + formatter.parseSexagesimal(formatted[i]));
+      }
+    }
+  }
+
+  @Override
+  public long run(int operations) {
+    long result = 0;
+
+    for (int i = 0 ; i < operations ; i++) {
+      int index = i % VALUES;
+
+      switch (operation) {
+        case LEGACY_FORMAT:
+          result += legacy.format(getValue(index)).length();
+          break;
+        case FORMAT:
+          result += formatter.format(getValue(index)).length();
+          break;
+        case FORMAT_STRING_BUILDER:
+          sb.setLength(0);
+          result += formatter.format(getValue(index), sb).length();
+          break;
+        case FORMAT_CHAR_ARRAY:
+          result += formatter.format(getValue(index), chars, 0);
+          break;
+        case LEGACY_PARSE:
+          result += (long) legacy.parseSexagesimal(formatted[index]);
+          break;
+        case PARSE:
+          result += (long) formatter.parseSexagesimal(formatted[index]);
+          break;
+      }
+    }
+
+    return result;
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ *  This file is part of INDI for Java Server.
+ *
+ *  INDI for Java Server is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java Server is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java Server.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi.benchmark;
+
+import laazotea.indi.INDISexagesimalFormatter;
+import laazotea.indi.driver.INDINumberElement;
+import laazotea.indi.driver.INDINumberProperty;
+import laazotea.indi.Constants.PropertyPermissions;
+import laazotea.indi.Constants.PropertyStates;
+
+/**
+ * Measures the formatting of numbers, directly with a
+ * <code>INDISexagesimalFormatter</code> or through a
+ * <code>INDINumberElement</code> (as done when its Property is sent).
+ *
+ * @version 1.3, October 18, 2026
+ */
+public class SexagesimalFormatBenchmark extends Benchmark {
+
+  /**
+   * The number format.
+   */
+  private String format;
+  /**
+   * <code>true</code> to format through a Number Element.
+   */
+  private boolean throughElement;
+  /**
+   * The formatter.
+   */
+  private INDISexagesimalFormatter formatter;
+  /**
+   * The Number Element.
+   */
+  private INDINumberElement element;
+
+  /**
+   * Constructs a new benchmark.
+   *
+   * @param name The name of the benchmark.
+   * @param format The number format.
+   * @param throughElement <code>true</code> to format through a Number
+   * Element. <code>false</code> to use the formatter directly (the format
+   * must be a sexagesimal one).
+   */
+  public SexagesimalFormatBenchmark(String name, String format, boolean throughElement) {
+    super(name);
+
+    this.format = format;
+    this.throughElement = throughElement;
+  }
+
+  @Override
+  public void setUp() throws Exception {
+    if (throughElement) {
+      INDINumberProperty p = new INDINumberProperty(new BenchmarkDriver(), "EQUATORIAL_EOD_COORD", PropertyStates.IDLE, PropertyPermissions.RW);
+
+      element = new INDINumberElement(p, "RA", 0, 0, 24, 0, format);
+    } else {
+      formatter = new INDISexagesimalFormatter(format);
+    }
+  }
+
+  @Override
+  public long run(int operations) {
+    long length = 0;
+
+    for (int i = 0 ; i < operations ; i++) {
+      double value = (i % 86400) / 3600.0;
+
+      if (throughElement) {
+        element.setValue(value);
+
+        length += element.getValueAsString().length();
+      } else {
+        length += formatter.format(value).length();
+      }
+    }
+
+    return length;
+  }
+}
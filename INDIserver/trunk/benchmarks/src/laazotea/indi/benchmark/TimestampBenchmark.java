@@ -0,0 +1,110 @@
+/*
+ *  This file is part of INDI for Java Server.
+ *
+ *  INDI for Java Server is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java Server is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java Server.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi.benchmark;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import laazotea.indi.INDIDateFormat;
+
+/**
+ * Measures the formatting of the current timestamp and the parsing of
+ * timestamps by <code>INDIDateFormat</code>, and compares them with the
+ * <code>SimpleDateFormat</code> it used originally.
+ *
+ * @version 1.3, October 18, 2026
+ */
+public class TimestampBenchmark extends Benchmark {
+
+  /**
+   * The measured operations.
+   */
+  public enum Operation {
+
+    LEGACY_FORMAT, FORMAT, APPEND, LEGACY_PARSE, PARSE
+  }
+  /**
+   * The measured operation.
+   */
+  private Operation operation;
+  /**
+   * The original format of the timestamps.
+   */
+  private SimpleDateFormat legacy;
+  /**
+   * The <code>StringBuilder</code> to which the timestamps are appended.
+   */
+  private StringBuilder sb;
+  /**
+   * The timestamp to be parsed.
+   */
+  private String timestamp;
+
+  /**
+   * Constructs a new benchmark.
+   *
+   * @param name The name of the benchmark.
+   * @param operation The measured operation.
+   */
+  public TimestampBenchmark(String name, Operation operation) {
+    super(name);
+
+    this.operation = operation;
+  }
+
+  @Override
+  public void setUp() throws Exception {
+    legacy = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS");
+    sb = new StringBuilder(64);
+
+    Date now = new Date();
+
+    timestamp = legacy.format(now);
+
+    if (!timestamp.equals(INDIDateFormat.formatTimestamp(now))) {
+      throw new IllegalStateException("Different formatting: " + timestamp + " / " + INDIDateFormat.formatTimestamp(now));
+    }
+  }
+
+  @Override
+  public long run(int operations) throws Exception {
+    long result = 0;
+
+    for (int i = 0 ; i < operations ; i++) {
+      switch (operation) {
+        case LEGACY_FORMAT:
+          result += legacy.format(new Date()).length();
+          break;
+        case FORMAT:
+          result += INDIDateFormat.getCurrentTimestamp().length();
+          break;
+        case APPEND:
+          sb.setLength(0);
+          result += INDIDateFormat.appendCurrentTimestamp(sb).length();
+          break;
+        case LEGACY_PARSE:
+          result += legacy.parse(timestamp).getTime();
+          break;
+        case PARSE:
+          result += INDIDateFormat.parseTimestamp(timestamp).getTime();
+          break;
+      }
+    }
+
+    return result;
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ *  This file is part of INDI for Java Server.
+ *
+ *  INDI for Java Server is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java Server is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java Server.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi.benchmark;
+
+import laazotea.indi.XMLToString;
+import org.w3c.dom.Element;
+
+/**
+ * Measures the serialization of a message with <code>XMLToString</code>.
+ *
+ * @version 1.3, October 18, 2026
+ */
+public class XMLToStringBenchmark extends Benchmark {
+
+  /**
+   * The text of the message.
+   */
+  private String xml;
+  /**
+   * The parsed message.
+   */
+  private Element element;
+
+  /**
+   * Constructs a new benchmark.
+   *
+   * @param name The name of the benchmark.
+   * @param xml The message to serialize.
+   */
+  public XMLToStringBenchmark(String name, String xml) {
+    super(name);
+
+    this.xml = xml;
+  }
+
+  @Override
+  public void setUp() throws Exception {
+    element = Messages.parse(xml);
+  }
+
+  @Override
+  public long run(int operations) {
+    long length = 0;
+
+    for (int i = 0 ; i < operations ; i++) {
+      length += XMLToString.transform(element).length();
+    }
+
+    return length;
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ *  This file is part of INDI for Java Driver.
+ *
+ *  INDI for Java Driver is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java Driver is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java Driver.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi.driver;
+
+import laazotea.indi.Constants.PropertyPermissions;
+import laazotea.indi.Constants.PropertyStates;
+import laazotea.indi.benchmark.Benchmark;
+import laazotea.indi.benchmark.BenchmarkDriver;
+
+/**
+ * Measures the generation of the <code>setNumberVector</code> message of a
+ * Property with the coordinates of a telescope, as done by
+ * <code>INDIDriver.updateProperty</code>. It is in the package of the Driver
+ * classes to reach <code>getXMLPropertySet</code>.
+ *
+ * @version 1.3, October 18, 2026
+ */
+public class PropertySetBenchmark extends Benchmark {
+
+  /**
+   * The Property.
+   */
+  private INDINumberProperty property;
+  /**
+   * The RA Element of the Property.
+   */
+  private INDINumberElement ra;
+  /**
+   * The DEC Element of the Property.
+   */
+  private INDINumberElement dec;
+
+  /**
+   * Constructs a new benchmark.
+   *
+   * @param name The name of the benchmark.
+   */
+  public PropertySetBenchmark(String name) {
+    super(name);
+  }
+
+  @Override
+  public void setUp() {
+    property = new INDINumberProperty(new BenchmarkDriver(), "EQUATORIAL_EOD_COORD", "Eq. Coordinates", "Main Control", PropertyStates.IDLE, PropertyPermissions.RW, 60);
+    ra = new INDINumberElement(property, "RA", "RA H:M:S", 0, 0, 24, 0, "%010.6m");
+    dec = new INDINumberElement(property, "DEC", "Dec D:M:S", 0, -90, 90, 0, "%010.6m");
+  }
+
+  @Override
+  public long run(int operations) {
+    long length = 0;
+
+    for (int i = 0 ; i < operations ; i++) {
+      ra.setValue((i % 86400) / 3600.0);
+      dec.setValue(((i % 64800) / 360.0) - 90);
+
+      length += property.getXMLPropertySet().length();
+    }
+
+    return length;
+  }
+}
@@ -0,0 +1,196 @@
+/*
+ *  This file is part of INDI for Java Server.
+ *
+ *  INDI for Java Server is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java Server is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java Server.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import laazotea.indi.INDIMetrics;
+import laazotea.indi.INDIRawMessage;
+import laazotea.indi.benchmark.Benchmark;
+import laazotea.indi.benchmark.Messages;
+import org.w3c.dom.Element;
+
+/**
+ * Measures the distribution of a <code>setNumberVector</code> message sent by
+ * a Device to a number of Clients by a <code>DefaultINDIServer</code>
+ * (routing, property cache and serialization). The Clients live in memory and
+ * discard the bytes they receive, recording their metrics like the real
+ * writers. It is in the package of the Server classes to reach its
+ * notification methods.
+ *
+ * @version 1.3, October 18, 2026
+ */
+public class FanOutBenchmark extends Benchmark {
+
+  /**
+   * A Client that writes its messages to a stream that discards them.
+   */
+  private static class MemoryClient extends INDIClient {
+
+    /**
+     * The number of the Client.
+     */
+    private int number;
+    /**
+     * The number of bytes received.
+     */
+    private long bytes;
+    /**
+     * The stream to which the messages are written.
+     */
+    private OutputStream out;
+    /**
+     * The written message, to record its metrics.
+     */
+    private ArrayList<INDIRawMessage> written;
+
+    /**
+     * Constructs a new Client that listens to all the Devices.
+     *
+     * @param server The Server.
+     * @param number The number of the Client.
+     */
+    public MemoryClient(AbstractINDIServer server, int number) {
+      super(server);
+
+      this.number = number;
+
+      out = new OutputStream() {
+
+        @Override
+        public void write(int b) {
+          bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+          bytes += len;
+        }
+      };
+
+      written = new ArrayList<INDIRawMessage>(1);
+
+      setListenToAllDevices(true);
+    }
+
+    @Override
+    public String getInetAddress() {
+      return "memory:" + number;
+    }
+
+    @Override
+    protected void queueMessage(INDIRawMessage message) {
+      try {
+        message.writeTo(out);
+      } catch (IOException e) {
+      }
+
+      written.add(message);
+      messagesWritten(written, 0);
+      written.clear();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      return null;
+    }
+  }
+  /**
+   * The number of Clients.
+   */
+  private int clients;
+  /**
+   * <code>true</code> to record the metrics of the Server.
+   */
+  private boolean metrics;
+  /**
+   * The Server.
+   */
+  private DefaultINDIServer server;
+  /**
+   * The message sent by the Device.
+   */
+  private Element message;
+  /**
+   * The Clients.
+   */
+  private MemoryClient[] memoryClients;
+
+  /**
+   * Constructs a new benchmark.
+   *
+   * @param name The name of the benchmark.
+   * @param clients The number of Clients.
+   * @param metrics <code>true</code> to record the metrics of the Server.
+   */
+  public FanOutBenchmark(String name, int clients, boolean metrics) {
+    super(name);
+
+    this.clients = clients;
+    this.metrics = metrics;
+  }
+
+  @Override
+  public void setUp() throws Exception {
+    INDIMetrics.getDefault().setEnabled(metrics);
+
+    server = new DefaultINDIServer(0);
+
+    message = Messages.parse(Messages.setNumberVectors(1));
+
+    ArrayList<Element> definitions = Messages.parseAll(Messages.getPropertiesReply(1).replace("Telescope 0", "LX200 Basic"));
+
+    for (int i = 0 ; i < definitions.size() ; i++) {
+      server.notifyDeviceListenersDefXXXVector(null, definitions.get(i));
+    }
+
+    memoryClients = new MemoryClient[clients];
+
+    for (int i = 0 ; i < clients ; i++) {
+      memoryClients[i] = new MemoryClient(server, i);
+
+      server.addClient(memoryClients[i]);
+    }
+  }
+
+  @Override
+  public long run(int operations) {
+    for (int i = 0 ; i < operations ; i++) {
+      server.notifyDeviceListenersSetXXXVector(null, message);
+    }
+
+    long bytes = 0;
+
+    for (int i = 0 ; i < clients ; i++) {
+      bytes += memoryClients[i].bytes;
+    }
+
+    return bytes;
+  }
+
+  @Override
+  public void tearDown() {
+    for (int i = 0 ; i < clients ; i++) {
+      server.removeClient(memoryClients[i]);
+    }
+
+    INDIMetrics.getDefault().setEnabled(true);
+  }
+}
@@ -0,0 +1,250 @@
+/*
+ *  This file is part of INDI for Java Server.
+ *
+ *  INDI for Java Server is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java Server is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java Server.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi.server;
+
+import de.hallenbeck.indiserver.communication_drivers.lx200simulator;
+import de.hallenbeck.indiserver.device_drivers.lx200basic;
+import java.io.InputStream;
+import java.io.OutputStream;
+import laazotea.indi.INDIIncrementalParser;
+import laazotea.indi.INDIRawMessage;
+import laazotea.indi.benchmark.Benchmark;
+import org.w3c.dom.Document;
+
+/**
+ * Measures the round trip of a Client request through the whole stack without
+ * hardware: a Client changes the <code>ALIGNMENT</code> switch of a
+ * <code>lx200basic</code> Driver loaded in a <code>DefaultINDIServer</code>,
+ * which sends the LX200 commands to a <code>lx200simulator</code> (three
+ * commands, two of them with a response) and then updates the Property, which
+ * goes back through the <code>INDIJavaDevice</code> and the Server to the
+ * Client. The simulator may add the latency and transfer time of a real serial
+ * line. It is in the package of the Server classes to reach its Clients.
+ *
+ * @version 1.3, October 18, 2026
+ */
+public class LX200StackBenchmark extends Benchmark {
+
+  /**
+   * The options of the simulator of the next Driver (it is created by the
+   * Server, so they cannot be passed to its constructor).
+   */
+  private static volatile String simulatorOptions;
+
+  /**
+   * A <code>lx200basic</code> Driver connected to a simulated telescope.
+   */
+  public static class SimulatedLX200 extends lx200basic {
+
+    /**
+     * Constructs a new Driver that uses the <code>lx200simulator</code>.
+     *
+     * @param in The stream from which to read the messages of the Server.
+     * @param out The stream to which to write the messages to the Server.
+     * @throws ClassNotFoundException Never.
+     */
+    public SimulatedLX200(InputStream in, OutputStream out) throws ClassNotFoundException {
+      super(in, out);
+
+      set_communication_driver(lx200simulator.class.getName());
+      set_device(simulatorOptions);
+    }
+  }
+
+  /**
+   * A Client that keeps the last messages of the properties it waits for.
+   */
+  private static class WaitingClient extends INDIClient {
+
+    /**
+     * The number of <code>setSwitchVector</code> messages received.
+     */
+    private volatile long updates;
+    /**
+     * The last <code>setSwitchVector</code> message received.
+     */
+    private String lastUpdate;
+    /**
+     * The number of bytes received.
+     */
+    private volatile long bytes;
+
+    /**
+     * Constructs a new Client that listens to all the Devices.
+     *
+     * @param server The Server.
+     */
+    public WaitingClient(AbstractINDIServer server) {
+      super(server);
+
+      setListenToAllDevices(true);
+    }
+
+    @Override
+    public String getInetAddress() {
+      return "memory:lx200";
+    }
+
+    @Override
+    protected synchronized void queueMessage(INDIRawMessage message) {
+      bytes += message.getSize();
+
+      if (message.getElementName().equals("setSwitchVector")) {
+        updates++;
+        lastUpdate = message.getXML();
+
+        notifyAll();
+      }
+    }
+
+    /**
+     * Waits for a <code>setSwitchVector</code> message.
+     *
+     * @param after The number of messages received before the awaited one.
+     * @param property The name of the Property (the message is ignored if it
+     * is another one).
+     * @param state The state of the Property (<code>null</code> for any).
+     * @return The number of messages received.
+     * @throws Exception If the message does not arrive in 10 seconds.
+     */
+    public synchronized long await(long after, String property, String state) throws Exception {
+      long deadline = System.currentTimeMillis() + 10000;
+
+      while (true) {
+        if ((updates > after) && lastUpdate.contains("name=\"" + property + "\"")
+                && ((state == null) || lastUpdate.contains("state=\"" + state + "\""))) {
+          return updates;
+        }
+
+        long wait = deadline - System.currentTimeMillis();
+
+        if (wait <= 0) {
+          throw new Exception("No answer of the Driver for " + property);
+        }
+
+        wait(wait);
+      }
+    }
+
+    /**
+     * Sends a message to the Server.
+     *
+     * @param parser The parser of the message.
+     * @param xml The message.
+     */
+    public void send(INDIIncrementalParser parser, String xml) {
+      parser.reset();
+      Document doc = parser.parse(xml);
+
+      parseXML(doc);
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      return null;
+    }
+  }
+  /**
+   * The options of the simulator.
+   */
+  private String options;
+  /**
+   * The Server.
+   */
+  private DefaultINDIServer server;
+  /**
+   * The Client.
+   */
+  private WaitingClient client;
+  /**
+   * The parser of the messages of the Client.
+   */
+  private INDIIncrementalParser parser;
+  /**
+   * The two alignment requests, sent alternately.
+   */
+  private String[] requests;
+
+  /**
+   * Constructs a new benchmark.
+   *
+   * @param name The name of the benchmark.
+   * @param options The options of the <code>lx200simulator</code> (latency,
+   * jitter, baud rate).
+   */
+  public LX200StackBenchmark(String name, String options) {
+    super(name);
+
+    this.options = options;
+  }
+
+  @Override
+  public void setUp() throws Exception {
+    simulatorOptions = options;
+    parser = new INDIIncrementalParser();
+
+    server = new DefaultINDIServer(0);
+    server.loadJavaDriver(SimulatedLX200.class);
+
+    client = new WaitingClient(server);
+    server.addClient(client);
+
+    String device = SimulatedLX200.class.getName();
+
+    client.send(parser, "<getProperties version=\"1.7\" />");
+    client.send(parser, newSwitch(device, "CONNECTION", "CONNECT"));
+    client.await(0, "CONNECTION", "Ok");
+
+    requests = new String[] {newSwitch(device, "ALIGNMENT", "ALTAZ"), newSwitch(device, "ALIGNMENT", "POLAR")};
+  }
+
+  /**
+   * Builds a <code>newSwitchVector</code> message that turns on a switch.
+   *
+   * @param device The name of the Device.
+   * @param property The name of the Property.
+   * @param element The switch.
+   * @return The message.
+   */
+  private static String newSwitch(String device, String property, String element) {
+    return "<newSwitchVector device=\"" + device + "\" name=\"" + property + "\"><oneSwitch name=\"" + element + "\">On</oneSwitch></newSwitchVector>";
+  }
+
+  @Override
+  public long run(int operations) throws Exception {
+    long received = client.updates;
+
+    for (int i = 0 ; i < operations ; i++) {
+      client.send(parser, requests[i & 1]);
+      received = client.await(received, "ALIGNMENT", null);
+    }
+
+    return client.bytes;
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    long received = client.updates;
+
+    client.send(parser, newSwitch(SimulatedLX200.class.getName(), "CONNECTION", "DISCONNECT"));
+    client.await(received, "CONNECTION", "Idle");
+
+    server.removeClient(client);
+    server.destroyJavaDriver(SimulatedLX200.class);
+  }
+}
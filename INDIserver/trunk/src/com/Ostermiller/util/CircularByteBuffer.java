@@ -155,6 +155,7 @@ public class CircularByteBuffer {
 			markPosition = 0;
 			outputStreamClosed = false;
 			inputStreamClosed = false;
+			notifyAll();
 		}
 	}
 
@@ -447,6 +448,7 @@ public class CircularByteBuffer {
 		@Override public void close() throws IOException {
 			synchronized (CircularByteBuffer.this){
 				inputStreamClosed = true;
+				CircularByteBuffer.this.notifyAll();
 			}
 		}
 
@@ -469,6 +471,7 @@ public class CircularByteBuffer {
 				if (buffer.length - 1 > readAheadLimit) {
 					markSize = readAheadLimit;
 					markPosition = readPosition;
+					CircularByteBuffer.this.notifyAll();
 				}
 			}
 		}
@@ -496,8 +499,8 @@ public class CircularByteBuffer {
 		 * @since ostermillerutils 1.00.00
 		 */
 		@Override public int read() throws IOException {
-			while (true){
-				synchronized (CircularByteBuffer.this){
+			synchronized (CircularByteBuffer.this){
+				while (true){
 					if (inputStreamClosed) throw new IOException("InputStream has been closed; cannot read from a closed InputStream.");
 					int available = CircularByteBuffer.this.available();
 					if (available > 0){
@@ -507,15 +510,12 @@ public class CircularByteBuffer {
 							readPosition = 0;
 						}
 						ensureMark();
+						CircularByteBuffer.this.notifyAll();
 						return result;
 					} else if (outputStreamClosed){
 						return -1;
 					}
-				}
-				try {
-					Thread.sleep(100);
-				} catch(Exception x){
-					throw new IOException("Blocking read operation interrupted.");
+					waitForWriter();
 				}
 			}
 		}
@@ -551,8 +551,8 @@ public class CircularByteBuffer {
 		 * @since ostermillerutils 1.00.00
 		 */
 		@Override public int read(byte[] cbuf, int off, int len) throws IOException {
-			while (true){
-				synchronized (CircularByteBuffer.this){
+			synchronized (CircularByteBuffer.this){
+				while (true){
 					if (inputStreamClosed) throw new IOException("InputStream has been closed; cannot read from a closed InputStream.");
 					int available = CircularByteBuffer.this.available();
 					if (available > 0){
@@ -570,15 +570,12 @@ public class CircularByteBuffer {
 							readPosition = 0;
 						}
 						ensureMark();
+						CircularByteBuffer.this.notifyAll();
 						return length;
 					} else if (outputStreamClosed){
 						return -1;
 					}
-				}
-				try {
-					Thread.sleep(100);
-				} catch(Exception x){
-					throw new IOException("Blocking read operation interrupted.");
+					waitForWriter();
 				}
 			}
 		}
@@ -597,6 +594,7 @@ public class CircularByteBuffer {
 			synchronized (CircularByteBuffer.this){
 				if (inputStreamClosed) throw new IOException("InputStream has been closed; cannot reset a closed InputStream.");
 				readPosition = markPosition;
+				CircularByteBuffer.this.notifyAll();
 			}
 		}
 
@@ -613,8 +611,8 @@ public class CircularByteBuffer {
 		 * @since ostermillerutils 1.00.00
 		 */
 		@Override public long skip(long n) throws IOException, IllegalArgumentException {
-			while (true){
-				synchronized (CircularByteBuffer.this){
+			synchronized (CircularByteBuffer.this){
+				while (true){
 					if (inputStreamClosed) throw new IOException("InputStream has been closed; cannot skip bytes on a closed InputStream.");
 					int available = CircularByteBuffer.this.available();
 					if (available > 0){
@@ -630,18 +628,29 @@ public class CircularByteBuffer {
 							readPosition = 0;
 						}
 						ensureMark();
+						CircularByteBuffer.this.notifyAll();
 						return length;
 					} else if (outputStreamClosed){
 						return 0;
 					}
-				}
-				try {
-					Thread.sleep(100);
-				} catch(Exception x){
-					throw new IOException("Blocking read operation interrupted.");
+					waitForWriter();
 				}
 			}
 		}
+
+		/**
+		 * Wait until the writer adds some bytes or closes the buffer.
+		 * Must be called while holding the lock of the buffer.
+		 *
+		 * @throws IOException if the wait is interrupted.
+		 */
+		private void waitForWriter() throws IOException {
+			try {
+				CircularByteBuffer.this.wait();
+			} catch(InterruptedException x){
+				throw new IOException("Blocking read operation interrupted.");
+			}
+		}
 	}
 
 	/**
@@ -672,6 +681,7 @@ public class CircularByteBuffer {
 					flush();
 				}
 				outputStreamClosed = true;
+				CircularByteBuffer.this.notifyAll();
 			}
 		}
 
@@ -723,8 +733,8 @@ public class CircularByteBuffer {
 		 * @since ostermillerutils 1.00.00
 		 */
 		@Override public void write(byte[] cbuf, int off, int len) throws IOException {
-			while (len > 0){
-				synchronized (CircularByteBuffer.this){
+			synchronized (CircularByteBuffer.this){
+				while (len > 0){
 					if (outputStreamClosed) throw new IOException("OutputStream has been closed; cannot write to a closed OutputStream.");
 					if (inputStreamClosed) throw new IOException("Buffer closed by InputStream; cannot write to a closed buffer.");
 					int spaceLeft = spaceLeft();
@@ -751,12 +761,11 @@ public class CircularByteBuffer {
 					}
 					off += written;
 					len -= written;
-				}
-				if (len > 0){
-					try {
-						Thread.sleep(100);
-					} catch(Exception x){
-						throw new IOException("Waiting for available space in buffer interrupted.");
+					if (written > 0){
+						CircularByteBuffer.this.notifyAll();
+					}
+					if (len > 0){
+						waitForReader();
 					}
 				}
 			}
@@ -778,8 +787,8 @@ public class CircularByteBuffer {
 		 */
 		@Override public void write(int c) throws IOException {
 			boolean written = false;
-			while (!written){
-				synchronized (CircularByteBuffer.this){
+			synchronized (CircularByteBuffer.this){
+				while (!written){
 					if (outputStreamClosed) throw new IOException("OutputStream has been closed; cannot write to a closed OutputStream.");
 					if (inputStreamClosed) throw new IOException("Buffer closed by InputStream; cannot write to a closed buffer.");
 					int spaceLeft = spaceLeft();
@@ -795,15 +804,25 @@ public class CircularByteBuffer {
 							writePosition = 0;
 						}
 						written = true;
+						CircularByteBuffer.this.notifyAll();
+					} else {
+						waitForReader();
 					}
 				}
-				if (!written){
-					try {
-						Thread.sleep(100);
-					} catch(Exception x){
-						throw new IOException("Waiting for available space in buffer interrupted.");
-					}
-				}
+			}
+		}
+
+		/**
+		 * Wait until the reader frees some space or closes the buffer.
+		 * Must be called while holding the lock of the buffer.
+		 *
+		 * @throws IOException if the wait is interrupted.
+		 */
+		private void waitForReader() throws IOException {
+			try {
+				CircularByteBuffer.this.wait();
+			} catch(InterruptedException x){
+				throw new IOException("Waiting for available space in buffer interrupted.");
 			}
 		}
 	}
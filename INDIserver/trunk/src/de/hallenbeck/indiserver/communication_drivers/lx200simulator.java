@@ -0,0 +1,582 @@
+/*
+ *
+ * This file is part of INDIserver.
+ *
+ * INDIserver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * INDIserver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with INDIserver.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2012 Alexander Tuschen <atuschen75 at gmail dot com>
+ *
+ */
+package de.hallenbeck.indiserver.communication_drivers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.Calendar;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * In-process simulator of a LX200 telescope with an Autostar #497 handbox, so the
+ * whole path lx200basic - INDIDriver - INDIJavaDevice - Server - Clients can be run,
+ * load-tested and profiled without hardware.
+ * 
+ * The commands written by the driver are interpreted by a simple mount model:
+ * both axes accelerate and decelerate towards the target of a slew (:MS#) at the 
+ * selected slew rate, the manual movements (:Mn# ...) last until stopped (:Q#), and 
+ * in Land alignment (:AL#) tracking is off and the RA drifts with the sidereal time
+ * until :AA# or :AP# turn it on again. :D# returns a distance bar
+ * while slewing. The responses go back through the ring buffer of the serial driver
+ * after a configurable latency (plus a random jitter) and the transfer time of their 
+ * bytes at the configured baud rate, in the order of the commands.
+ * 
+ * The device string of connect() holds the options as comma separated name=value 
+ * pairs, i.e. "latency=20,jitter=5,baud=9600,seed=1":
+ * latency  fixed response latency in ms (default 10)
+ * jitter   maximum random extra latency in ms (default 5)
+ * baud     transfer rate in baud, 0 for unlimited (default 9600)
+ * seed     seed of the jitter, to repeat a run exactly (default: random)
+ * lat      latitude of the site in degrees, positive north (default 50)
+ * long     longitude of the site in degrees, positive west as in the Autostar (default 352)
+ * Any other value (like a bluetooth address) is ignored.
+ *
+ */
+public class lx200simulator extends serial implements communication_driver_interface {
+
+	/* Slew rates in degrees per second */
+	private static final double RATE_MAX = 4.5;
+	private static final double RATE_FIND = 1.5;
+	private static final double RATE_CENTERING = 0.1337; // 32x sidereal
+	private static final double RATE_GUIDE = 0.00836; // 2x sidereal
+	/** Acceleration of both axes in degrees per second^2 */
+	private static final double ACCELERATION = 3.0;
+	/** Sidereal hours per solar second */
+	private static final double SIDEREAL_RATE = 1.00273790935 / 3600.0;
+	/** A slew ends when both axes are closer than 1 arcsec to the target */
+	private static final double PRECISION = 1.0 / 3600.0;
+	/** Degree sign of the Autostar (shown as '*' by the serial driver) */
+	private static final char DEGREE = (char) 0xDF;
+	
+	/**
+	 * A response waiting to be delivered
+	 */
+	private static class Response {
+		private final byte[] bytes;
+		private final long due;
+		
+		private Response(byte[] bytes, long due) {
+			this.bytes = bytes;
+			this.due = due;
+		}
+	}
+	
+	/* Options */
+	private int latency = 10;
+	private int jitter = 5;
+	private int baud = 9600;
+	private Random random = new Random();
+	private double latitude = 50.0;
+	private double longitude = 352.0;
+	
+	/* Mount model, guarded by this */
+	private double ra;
+	private double dec;
+	private double targetRA = 0;
+	private double targetDEC = 0;
+	private double raSpeed = 0;   // degrees per second
+	private double decSpeed = 0;  // degrees per second
+	private int raMove = 0;       // -1 west, 1 east, 0 none
+	private int decMove = 0;      // -1 south, 1 north, 0 none
+	private boolean slewing = false;
+	private boolean tracking = true;
+	private double rate = RATE_MAX;
+	private char alignment = 'P';
+	private boolean highPrecision = false;
+	private int site = 1;
+	private double utcOffset = 0;
+	private long modelTime;
+	
+	/* Command being received */
+	private final StringBuilder command = new StringBuilder();
+	private boolean inCommand = false;
+	
+	/* Delivery of the responses */
+	private final LinkedBlockingQueue<Response> responses = new LinkedBlockingQueue<Response>();
+	private long lastDue = 0;
+	private PipedOutputStream responseStream;
+	private Thread responder;
+	
+	/**
+	 * Class Constructor
+	 */
+	public lx200simulator() {
+		
+	}
+	
+	/**
+	 * Set the latency of the responses
+	 * @param latency_ms fixed latency in ms
+	 * @param jitter_ms maximum random extra latency in ms
+	 */
+	public void set_latency(int latency_ms, int jitter_ms) {
+		latency = latency_ms;
+		jitter = jitter_ms;
+	}
+	
+	/**
+	 * Set the transfer rate of the simulated serial line
+	 * @param baud_rate baud, 0 for unlimited
+	 */
+	public void set_baud_rate(int baud_rate) {
+		baud = baud_rate;
+	}
+
+	/**
+	 * "Connect" to the simulated telescope, pointing at the meridian
+	 * @param device options (see class description)
+	 */
+	@Override
+	public void connect(String device) throws IOException {
+		parseOptions(device);
+		
+		synchronized (this) {
+			modelTime = System.nanoTime();
+			ra = getSiderealTime();
+			dec = latitude;
+			targetRA = ra;
+			targetDEC = dec;
+			slewing = false;
+			raMove = 0;
+			decMove = 0;
+			raSpeed = 0;
+			decSpeed = 0;
+			command.setLength(0);
+			inCommand = false;
+		}
+		
+		PipedInputStream in = new PipedInputStream(4096);
+		responseStream = new PipedOutputStream(in);
+		InStream = in;
+		OutStream = new OutputStream() {
+			@Override
+			public void write(int b) {
+				received((char) (b & 0xFF));
+			}
+		};
+		
+		responses.clear();
+		lastDue = 0;
+		final PipedOutputStream out = responseStream;
+		responder = new Thread("LX200 simulator") {
+			@Override
+			public void run() {
+				try {
+					while (!isInterrupted()) {
+						Response r = responses.take();
+						long wait;
+						while ((wait = r.due - System.nanoTime()) > 0) {
+							Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+						}
+						out.write(r.bytes);
+						out.flush(); // Wakes up the reader
+					}
+				} catch (InterruptedException e) {
+					// Disconnected
+				} catch (IOException e) {
+					// Reader closed
+				}
+			}
+		};
+		responder.setDaemon(true);
+		responder.start();
+		
+		super.connect(device);
+	}
+
+	@Override
+	public void disconnect() {
+		super.disconnect();
+		if (responder != null) responder.interrupt();
+		responder = null;
+		try {
+			if (responseStream != null) responseStream.close();
+		} catch (IOException e) {
+		}
+	}
+	
+	/**
+	 * Parse the options of the device string
+	 * @param device options
+	 */
+	private void parseOptions(String device) {
+		if (device == null) return;
+		String[] options = device.split(",");
+		for (String option : options) {
+			int eq = option.indexOf('=');
+			if (eq == -1) continue;
+			String name = option.substring(0, eq).trim();
+			String value = option.substring(eq + 1).trim();
+			try {
+				if (name.equals("latency")) latency = Integer.parseInt(value);
+				else if (name.equals("jitter")) jitter = Integer.parseInt(value);
+				else if (name.equals("baud")) baud = Integer.parseInt(value);
+				else if (name.equals("seed")) random = new Random(Long.parseLong(value));
+				else if (name.equals("lat")) latitude = Double.parseDouble(value);
+				else if (name.equals("long")) longitude = Double.parseDouble(value);
+			} catch (NumberFormatException e) {
+				// Keep the default
+			}
+		}
+	}
+	
+	/**
+	 * Interpret a char written by the driver. Commands start with ':' and end with '#',
+	 * except the ACK char (alignment query) that is a command on its own.
+	 * @param c char
+	 */
+	private synchronized void received(char c) {
+		if (!inCommand) {
+			if (c == 6) reply(String.valueOf(alignment));
+			else if (c == ':') {
+				inCommand = true;
+				command.setLength(0);
+			}
+			return;
+		}
+		if (c == '#') {
+			inCommand = false;
+			execute(command.toString());
+		} else {
+			command.append(c);
+		}
+	}
+	
+	/**
+	 * Queue a response, to be delivered after the latency and the transfer time 
+	 * of the previous ones
+	 * @param response String (chars above 0x7F are sent as single bytes)
+	 */
+	private void reply(String response) {
+		byte[] bytes = new byte[response.length()];
+		for (int i = 0; i < bytes.length; i++) bytes[i] = (byte) response.charAt(i);
+		
+		long now = System.nanoTime();
+		long delay = latency * 1000000L;
+		if (jitter > 0) delay += (long) (random.nextDouble() * jitter * 1000000L);
+		long due = Math.max(now + delay, lastDue);
+		if (baud > 0) due += bytes.length * 10 * 1000000000L / baud; // 8N1: 10 bits per byte
+		lastDue = due;
+		
+		responses.add(new Response(bytes, due));
+	}
+	
+	/**
+	 * Execute a command (without ':' and '#') and queue its response
+	 * @param cmd command
+	 */
+	private void execute(String cmd) {
+		advance();
+		
+		if (cmd.equals("GR")) reply(formatRA(ra));
+		else if (cmd.equals("GD")) reply(formatDEC(dec));
+		else if (cmd.equals("Gr")) reply(formatRA(targetRA));
+		else if (cmd.equals("Gd")) reply(formatDEC(targetDEC));
+		else if (cmd.equals("D")) reply(slewing ? "|#" : "#");
+		else if (cmd.startsWith("Sr")) {
+			double v = parseSexa(cmd.substring(2));
+			if (Double.isNaN(v) || (v < 0) || (v >= 24)) reply("0");
+			else {
+				targetRA = v;
+				reply("1");
+			}
+		} else if (cmd.startsWith("Sd")) {
+			double v = parseSexa(cmd.substring(2));
+			if (Double.isNaN(v) || (v < -90) || (v > 90)) reply("0");
+			else {
+				targetDEC = v;
+				reply("1");
+			}
+		} else if (cmd.equals("MS")) {
+			if (getAltitude(targetRA, targetDEC) < 0) reply("1Object Below Horizon #");
+			else {
+				raMove = 0;
+				decMove = 0;
+				slewing = true;
+				reply("0");
+			}
+		} else if (cmd.equals("CM")) {
+			ra = targetRA;
+			dec = targetDEC;
+			reply(" Coordinates     matched.        #");
+		} else if (cmd.startsWith("Q")) {
+			if (cmd.equals("Q")) {
+				slewing = false;
+				raMove = 0;
+				decMove = 0;
+				raSpeed = 0;
+				decSpeed = 0;
+			} else if (cmd.equals("Qe") || cmd.equals("Qw")) raMove = 0;
+			else if (cmd.equals("Qn") || cmd.equals("Qs")) decMove = 0;
+		} 
+		else if (cmd.equals("Me")) raMove = 1;
+		else if (cmd.equals("Mw")) raMove = -1;
+		else if (cmd.equals("Mn")) decMove = 1;
+		else if (cmd.equals("Ms")) decMove = -1;
+		else if (cmd.equals("RS")) rate = RATE_MAX;
+		else if (cmd.equals("RM")) rate = RATE_FIND;
+		else if (cmd.equals("RC")) rate = RATE_CENTERING;
+		else if (cmd.equals("RG")) rate = RATE_GUIDE;
+		else if (cmd.equals("AA") || cmd.equals("AP") || cmd.equals("AL")) {
+			alignment = cmd.charAt(1);
+			tracking = (alignment != 'L'); // Land mode does not track
+		}
+		else if (cmd.equals("U")) highPrecision = !highPrecision;
+		else if (cmd.equals("P")) {
+			highPrecision = !highPrecision;
+			reply(highPrecision ? "HIGH PRECISION" : "LOW  PRECISION");
+		} 
+		else if (cmd.equals("GW")) reply(((alignment == 'A') ? "A" : "P") + (tracking ? "T" : "N") + "1");
+		else if (cmd.equals("GVP")) reply("Autostar#");
+		else if (cmd.equals("GVN")) reply("43Eg#");
+		else if (cmd.equals("GVD")) reply("Jul 05 2006#");
+		else if (cmd.equals("GVT")) reply("10:24:30#");
+		else if (cmd.equals("ED")) reply(" Select Item:    Object#");
+		else if (cmd.startsWith("EK")) { /* Keys do nothing */ }
+		else if (cmd.equals("GL")) reply(format(getLocalTime(), "%02d:%02d:%02d#"));
+		else if (cmd.equals("GC")) reply(formatDate());
+		else if (cmd.equals("GG")) reply(String.format("%+03d#", Math.round(-utcOffset)));
+		else if (cmd.equals("GS")) reply(format(getSiderealTime(), "%02d:%02d:%02d#"));
+		else if (cmd.equals("GT")) reply("60.1#");
+		else if (cmd.equals("Gt")) reply(formatSite(latitude, true));
+		else if (cmd.equals("Gg")) reply(formatSite(longitude, false));
+		else if (cmd.equals("GM") || cmd.equals("GN") || cmd.equals("GO") || cmd.equals("GP")) {
+			reply("SITE " + (cmd.charAt(1) - 'M' + 1) + "#");
+		} 
+		else if (cmd.startsWith("W") && (cmd.length() == 2)) site = cmd.charAt(1) - '0';
+		else if (cmd.startsWith("St")) {
+			double v = parseSexa(cmd.substring(2));
+			if (!Double.isNaN(v)) latitude = v;
+			reply(Double.isNaN(v) ? "0" : "1");
+		} else if (cmd.startsWith("Sg")) {
+			double v = parseSexa(cmd.substring(2));
+			if (!Double.isNaN(v)) longitude = v;
+			reply(Double.isNaN(v) ? "0" : "1");
+		} else if (cmd.startsWith("SG")) {
+			try {
+				utcOffset = -Double.parseDouble(cmd.substring(2).trim());
+				reply("1");
+			} catch (NumberFormatException e) {
+				reply("0");
+			}
+		} 
+		else if (cmd.startsWith("SL")) reply("1");
+		else if (cmd.startsWith("SC")) reply("1Updating Planetary Data#                              #");
+		else if (cmd.startsWith("S")) reply("1"); // Site names, sidereal time
+		else if (cmd.equals("h?")) reply("1");
+		// Focuser, home and unknown commands have no response
+	}
+	
+	/**
+	 * Move the mount model up to now
+	 */
+	private void advance() {
+		long now = System.nanoTime();
+		double elapsed = (now - modelTime) / 1e9;
+		modelTime = now;
+		
+		if (!tracking) ra = normalizeRA(ra + elapsed * SIDEREAL_RATE);
+		
+		// Integrate the motion in steps of at most 10ms
+		while (elapsed > 0) {
+			if (!slewing && (raMove == 0) && (decMove == 0) && (raSpeed == 0) && (decSpeed == 0)) break;
+			double dt = Math.min(elapsed, 0.01);
+			elapsed -= dt;
+			
+			if (slewing) {
+				double raDistance = targetRA - ra;
+				if (raDistance > 12) raDistance -= 24;
+				if (raDistance < -12) raDistance += 24;
+				
+				raSpeed = approach(raSpeed, raDistance * 15, dt);
+				decSpeed = approach(decSpeed, targetDEC - dec, dt);
+				
+				ra = step(ra, raDistance * 15, raSpeed, dt, true);
+				dec = step(dec, targetDEC - dec, decSpeed, dt, false);
+				
+				if ((Math.abs(raDistance * 15) < PRECISION) && (Math.abs(targetDEC - dec) < PRECISION)) {
+					ra = targetRA;
+					dec = targetDEC;
+					raSpeed = 0;
+					decSpeed = 0;
+					slewing = false;
+				}
+			} else {
+				raSpeed = accelerate(raSpeed, raMove * rate, dt);
+				decSpeed = accelerate(decSpeed, decMove * rate, dt);
+				ra = normalizeRA(ra + raSpeed * dt / 15);
+				dec = Math.max(-90, Math.min(90, dec + decSpeed * dt));
+			}
+		}
+	}
+	
+	/**
+	 * Speed of an axis approaching its target: the slew rate, limited by the distance
+	 * needed to stop
+	 * @param speed current speed (degrees/s)
+	 * @param distance distance to the target (degrees)
+	 * @param dt time step (s)
+	 * @return new speed
+	 */
+	private double approach(double speed, double distance, double dt) {
+		double max = Math.min(rate, Math.sqrt(2 * ACCELERATION * Math.abs(distance)));
+		return accelerate(speed, Math.signum(distance) * max, dt);
+	}
+	
+	/**
+	 * Change a speed towards another one with the acceleration of the mount
+	 */
+	private double accelerate(double speed, double wanted, double dt) {
+		double dv = ACCELERATION * dt;
+		if (Math.abs(wanted - speed) <= dv) return wanted;
+		return speed + Math.signum(wanted - speed) * dv;
+	}
+	
+	/**
+	 * Move an axis a time step without overshooting its target
+	 * @param position RA (hours) or DEC (degrees)
+	 * @param distance distance to the target (degrees)
+	 * @param speed speed (degrees/s)
+	 * @param dt time step (s)
+	 * @param isRA position is RA
+	 * @return new position
+	 */
+	private double step(double position, double distance, double speed, double dt, boolean isRA) {
+		double move = speed * dt;
+		if (Math.abs(move) > Math.abs(distance)) move = distance;
+		if (isRA) return normalizeRA(position + move / 15);
+		return position + move;
+	}
+	
+	private static double normalizeRA(double ra) {
+		ra = ra % 24;
+		return (ra < 0) ? ra + 24 : ra;
+	}
+	
+	/**
+	 * Local sidereal time of the site
+	 * @return hours
+	 */
+	private double getSiderealTime() {
+		double days = (System.currentTimeMillis() - 946728000000L) / 86400000.0; // Since J2000.0
+		double gmst = 18.697374558 + 24.06570982441908 * days;
+		return normalizeRA(gmst - longitude / 15);
+	}
+	
+	/**
+	 * Altitude of a position at the site
+	 * @return degrees
+	 */
+	private double getAltitude(double ra, double dec) {
+		double ha = Math.toRadians((getSiderealTime() - ra) * 15);
+		double lat = Math.toRadians(latitude);
+		double d = Math.toRadians(dec);
+		return Math.toDegrees(Math.asin(Math.sin(lat) * Math.sin(d) + Math.cos(lat) * Math.cos(d) * Math.cos(ha)));
+	}
+	
+	/**
+	 * Local time of the handbox
+	 * @return hours
+	 */
+	private double getLocalTime() {
+		Calendar cal = getLocalCalendar();
+		return cal.get(Calendar.HOUR_OF_DAY) + cal.get(Calendar.MINUTE) / 60.0 + cal.get(Calendar.SECOND) / 3600.0;
+	}
+	
+	private Calendar getLocalCalendar() {
+		Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+		cal.add(Calendar.MINUTE, (int) Math.round(utcOffset * 60));
+		return cal;
+	}
+	
+	private String formatDate() {
+		Calendar cal = getLocalCalendar();
+		return String.format("%02d/%02d/%02d#", cal.get(Calendar.MONTH) + 1, cal.get(Calendar.DAY_OF_MONTH), cal.get(Calendar.YEAR) % 100);
+	}
+	
+	/**
+	 * Format a value as HH:MM:SS (or any pattern with three integer fields)
+	 */
+	private static String format(double value, String pattern) {
+		long seconds = Math.round(value * 3600);
+		return String.format(pattern, seconds / 3600, (seconds / 60) % 60, seconds % 60);
+	}
+	
+	/**
+	 * Format a RA as the Autostar: HH:MM:SS# or HH:MM.T# in low precision
+	 */
+	private String formatRA(double value) {
+		if (highPrecision) return format(value, "%02d:%02d:%02d#");
+		long tenths = Math.round(value * 600) % (24 * 600);
+		return String.format("%02d:%02d.%01d#", tenths / 600, (tenths / 10) % 60, tenths % 10);
+	}
+	
+	/**
+	 * Format a DEC as the Autostar: sDD*MM:SS# or sDD*MM# in low precision
+	 */
+	private String formatDEC(double value) {
+		char sign = (value < 0) ? '-' : '+';
+		if (highPrecision) {
+			long seconds = Math.round(Math.abs(value) * 3600);
+			return String.format("%c%02d%c%02d:%02d#", sign, seconds / 3600, DEGREE, (seconds / 60) % 60, seconds % 60);
+		}
+		long minutes = Math.round(Math.abs(value) * 60);
+		return String.format("%c%02d%c%02d#", sign, minutes / 60, DEGREE, minutes % 60);
+	}
+	
+	/**
+	 * Format a site latitude (sDD*MM#) or longitude (DDD*MM#)
+	 */
+	private static String formatSite(double value, boolean isLatitude) {
+		long minutes = Math.round(Math.abs(value) * 60);
+		if (isLatitude) return String.format("%c%02d%c%02d#", (value < 0) ? '-' : '+', minutes / 60, DEGREE, minutes % 60);
+		return String.format("%03d%c%02d#", minutes / 60, DEGREE, minutes % 60);
+	}
+	
+	/**
+	 * Parse a sexagesimal value sent by the driver (HH:MM:SS, sDD*MM:SS, sDD*MM ...)
+	 * @return value or NaN if not valid
+	 */
+	private static double parseSexa(String value) {
+		String[] parts = value.trim().split("[:*\\u00DF' ]+");
+		double result = 0;
+		double scale = 1;
+		boolean negative = false;
+		try {
+			for (int i = 0; (i < parts.length) && (i < 3); i++) {
+				String part = parts[i];
+				if (i == 0) {
+					negative = part.startsWith("-");
+					if (negative || part.startsWith("+")) part = part.substring(1);
+				}
+				result += Math.abs(Double.parseDouble(part)) / scale;
+				scale *= 60;
+			}
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+		return negative ? -result : result;
+	}
+}
@@ -20,15 +20,18 @@
  */
 package de.hallenbeck.indiserver.communication_drivers;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 
 /**
  * Serial communication driver for devices with /dev/ttyS or /dev/ttyUSB support
  * Base class for all other communication drivers as they all use serial communication
+ * 
+ * Once connected, a reader thread blocks on the InputStream and stores everything
+ * the device sends in a ring buffer. The read methods wait (without polling) until
+ * a complete answer is in the buffer, so they return as soon as it arrives and no
+ * CPU is used while the device is silent.
  * @author atuschen
  *
  */
@@ -37,12 +40,24 @@ public class serial implements communication_driver_interface {
 
 	protected InputStream InStream;
 	protected OutputStream OutStream;
-	protected InputStreamReader InReader;
-	protected BufferedReader BufReader;
     private int timeout = 100; 
     
- 
-
+    /**
+     * Ring buffer with the bytes received from the device and not read yet.
+     * Its monitor guards all the reading state and is notified when bytes arrive.
+     */
+    private final byte[] ring = new byte[4096];
+    private int ringStart = 0;
+    private int ringCount = 0;
+    /**
+     * Number of bytes of the ring buffer already searched for the stop char
+     */
+    private int scanned = 0;
+    /**
+     * Error of the reader thread (null while it is running)
+     */
+    private IOException readError = null;
+    private Thread readerThread = null;
     
     /**
      * Class Constructor
@@ -51,14 +66,123 @@ public class serial implements communication_driver_interface {
         
     }
 
+	/**
+	 * Starts the reader thread. Subclasses open InStream and OutStream and then
+	 * call super.connect()
+	 */
 	@Override
     public void connect(String device) throws IOException {
-		// TODO Open serial device and construct Readers;
+		if (InStream != null) startReader(InStream);
 	}
 
 	@Override
 	public void disconnect() {
-
+		Thread t;
+		synchronized (ring) {
+			t = readerThread;
+			readerThread = null;
+			if (readError == null) readError = new IOException("Disconnected");
+			ring.notifyAll();
+		}
+		if (t != null) t.interrupt();
+	}
+	
+	/**
+	 * Start a thread reading the device into the ring buffer
+	 * @param in stream of the device
+	 */
+	private void startReader(final InputStream in) {
+		synchronized (ring) {
+			ringStart = 0;
+			ringCount = 0;
+			scanned = 0;
+			readError = null;
+			
+			readerThread = new Thread("Serial reader") {
+				@Override
+				public void run() {
+					byte[] chunk = new byte[256];
+					try {
+						while (!isInterrupted()) {
+							int n = in.read(chunk);
+							if (n == -1) throw new IOException("Connection closed");
+							received(this, chunk, n);
+						}
+					} catch (IOException e) {
+						synchronized (ring) {
+							if ((readerThread == this) && (readError == null)) readError = e;
+							ring.notifyAll();
+						}
+					}
+				}
+			};
+			readerThread.setDaemon(true);
+			readerThread.start();
+		}
+	}
+	
+	/**
+	 * Store bytes received by the reader thread and wake up the waiting reads.
+	 * If the buffer is full the oldest bytes are discarded.
+	 * @param reader the reader thread
+	 * @param bytes received bytes
+	 * @param n number of received bytes
+	 */
+	private void received(Thread reader, byte[] bytes, int n) {
+		synchronized (ring) {
+			if (readerThread != reader) return; // Old reader of a closed connection
+			
+			for (int i = 0; i < n; i++) {
+				if (ringCount == ring.length) {
+					ringStart = (ringStart + 1) % ring.length;
+					ringCount--;
+					if (scanned > 0) scanned--;
+				}
+				ring[(ringStart + ringCount) % ring.length] = bytes[i];
+				ringCount++;
+			}
+			ring.notifyAll();
+		}
+	}
+	
+	/**
+	 * Take the first bytes of the ring buffer as a String. Non-ASCII bytes (like
+	 * the degree sign of the Autostar) are returned as '*'.
+	 * Must be called holding the monitor of the ring buffer.
+	 * @param length number of bytes
+	 * @return String
+	 */
+	private String takeFrame(int length) {
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			byte b = ring[(ringStart + i) % ring.length];
+			chars[i] = (b < 0) ? '*' : (char) b; // Workaround for Autostar Degree-sign
+		}
+		ringStart = (ringStart + length) % ring.length;
+		ringCount -= length;
+		scanned = 0;
+		return new String(chars);
+	}
+	
+	/**
+	 * Wait for more bytes until the deadline
+	 * Must be called holding the monitor of the ring buffer.
+	 * @param deadline System.nanoTime() of the timeout 
+	 * @throws IOException timeout or reader error
+	 */
+	private void awaitBytes(long deadline) throws IOException {
+		if (readError != null) throw readError;
+		if (readerThread == null) throw new IOException("Not connected");
+		
+		long remaining = (deadline - System.nanoTime()) / 1000000;
+		if (remaining <= 0) throw new IOException("Timeout");
+		
+		try {
+			ring.wait(remaining);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted");
+		}
 	}
 	
 	/**
@@ -89,63 +213,52 @@ public class serial implements communication_driver_interface {
 		
 	}
 
+	/**
+	 * Wait until a frame terminated by stopchar has been received
+	 * @return the frame including stopchar
+	 */
 	@Override
 	public synchronized String read(char stopchar) throws IOException {
-		char c = (char) 255 ;
-		char[] chararray = new char[255];
-		String ret = null;
-		
-		//Try to read until stopchar is detected or a timeout occurs
-		
-		int pos = 0;
+		long deadline = System.nanoTime() + timeout * 1000000L;
 		
-		long endTimeMillis = System.currentTimeMillis() + timeout;
-		
-		while ((c != stopchar) && (System.currentTimeMillis()<endTimeMillis)) {
-			int b=0;
-			if (BufReader.ready()) b = BufReader.read(chararray, pos, 1);
-			if (b == 1) {
-				if (chararray[pos]== (char) 65533) chararray[pos]=42; // Workaround for Autostar Degree-sign
-				c = chararray[pos];
-				pos++;
-			} 
+		synchronized (ring) {
+			while (true) {
+				for (; scanned < ringCount; scanned++) {
+					byte b = ring[(ringStart + scanned) % ring.length];
+					char c = (b < 0) ? '*' : (char) b;
+					if (c == stopchar) return takeFrame(scanned + 1);
+				}
+				awaitBytes(deadline);
+			}
 		}
-		if (c != stopchar) throw new IOException("Timeout");
-		
-		ret = String.copyValueOf(chararray);
-
-		return ret;
 	}
 
+	/**
+	 * Wait until a frame of a fixed number of bytes has been received
+	 * @return the frame
+	 */
 	@Override
 	public synchronized String read(int bytes) throws IOException {
-		char[] chararray = new char[255];
-		String ret = null;
-		
-		//Try to read num bytes or until a timeout occurs
-
-		int pos = 0;
-		long endTimeMillis = System.currentTimeMillis() + timeout;
+		long deadline = System.nanoTime() + timeout * 1000000L;
 		
-		while ((pos != bytes) && (System.currentTimeMillis()<endTimeMillis)) {
-			int b=0;
-			if (BufReader.ready()) b = BufReader.read(chararray, pos, 1);
-			if (b == 1) pos++;
+		synchronized (ring) {
+			while (ringCount < bytes) {
+				awaitBytes(deadline);
+			}
+			return takeFrame(bytes);
 		}
-		if (pos != bytes) throw new IOException("Timeout");
-		
-		ret = String.copyValueOf(chararray);
-		ret = ret.trim();
-		
-		return ret;
 	}
 	
+	/**
+	 * Discard everything received and not read yet
+	 */
 	@Override
 	public synchronized void emptyBuffer() throws IOException {
-		//while (BufReader.ready()) {
-	//		int b = BufReader.read();
-		//}
-			
+		synchronized (ring) {
+			ringStart = 0;
+			ringCount = 0;
+			scanned = 0;
+		}
 	}
 
 }
@@ -0,0 +1,341 @@
+/*
+ *
+ * This file is part of INDIserver.
+ *
+ * INDIserver is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * INDIserver is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with INDIserver.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2012 Alexander Tuschen <atuschen75 at gmail dot com>
+ *
+ */
+
+package de.hallenbeck.indiserver.device_drivers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.hallenbeck.indiserver.communication_drivers.communication_driver_interface;
+
+/**
+ * Command scheduler in front of the communication driver of a LX200 telescope.
+ * Commands are queued with the shape of their response and a priority, and are
+ * sent by a single thread: higher priorities first, and in order within a priority.
+ * Several queued commands of the same priority are sent in one write and their
+ * responses are read back in order (the Autostar answers the commands one after
+ * another), so polling the coordinates takes a single round-trip.
+ * Each command gets a Future with its response.
+ * 
+ * An abort (:Q#) is always sent alone and before any pending command, so it
+ * pre-empts the queued coordinate polls.
+ *
+ */
+public class lx200_command_scheduler {
+
+	/**
+	 * Shapes of the responses of the LX200 commands
+	 */
+	public enum Response {
+		/** No response (i.e. movement commands) */
+		NONE,
+		/** A single char */
+		CHAR,
+		/** A String terminated by # */
+		STRING,
+		/** A fixed number of chars */
+		FIXED
+	}
+	
+	/**
+	 * Priority classes of the commands, highest first
+	 */
+	public enum Priority {
+		ABORT, GUIDE, USER, POLL
+	}
+	
+	/**
+	 * A queued command and the Future of its response
+	 */
+	public static class Command extends FutureTask<String> implements Comparable<Command> {
+		
+		private final String command;
+		private final Response response;
+		private final int length;
+		private final int trailingStrings;
+		private final Priority priority;
+		private final long sequence;
+		
+		private Command(String command, Response response, int length, int trailingStrings, Priority priority, long sequence) {
+			super(new Callable<String>() {
+				public String call() {
+					return null; // Completed by the scheduler
+				}
+			});
+			this.command = command;
+			this.response = response;
+			this.length = length;
+			this.trailingStrings = trailingStrings;
+			this.priority = priority;
+			this.sequence = sequence;
+		}
+		
+		public String getCommand() {
+			return command;
+		}
+		
+		public Priority getPriority() {
+			return priority;
+		}
+		
+		private void complete(String value) {
+			set(value);
+		}
+		
+		private void fail(Throwable e) {
+			setException(e);
+		}
+		
+		/**
+		 * Can this command be sent in the same write as other ones?
+		 */
+		private boolean isBatchable() {
+			return (priority != Priority.ABORT) && (trailingStrings == 0);
+		}
+
+		@Override
+		public int compareTo(Command other) {
+			if (priority != other.priority) return priority.compareTo(other.priority);
+			return (sequence < other.sequence) ? -1 : ((sequence == other.sequence) ? 0 : 1);
+		}
+	}
+	
+	/**
+	 * Maximum number of commands sent in one write
+	 */
+	private static final int MAX_BATCH = 4;
+	
+	private volatile communication_driver_interface com_driver = null;
+	private final PriorityBlockingQueue<Command> queue = new PriorityBlockingQueue<Command>();
+	private final AtomicLong sequence = new AtomicLong();
+	private volatile Thread worker = null;
+	private volatile int timeout = 1000;
+	
+	/**
+	 * Class Constructor
+	 */
+	public lx200_command_scheduler() {
+		
+	}
+	
+	/**
+	 * Set the timeout of every response
+	 * @param timeout_ms milliseconds
+	 */
+	public void set_timeout(int timeout_ms) {
+		timeout = timeout_ms;
+	}
+	
+	/**
+	 * Start sending the queued commands. Until then (and after stop) the
+	 * commands fail with an IOException.
+	 * @param com_driver connected communication driver
+	 */
+	public synchronized void start(communication_driver_interface com_driver) {
+		if (worker != null) return;
+		
+		this.com_driver = com_driver;
+		worker = new Thread("LX200 command scheduler") {
+			@Override
+			public void run() {
+				while (worker == this) {
+					try {
+						runBatch(takeBatch());
+					} catch (InterruptedException e) {
+						break;
+					}
+				}
+				failPending();
+			}
+		};
+		worker.setDaemon(true);
+		worker.start();
+	}
+	
+	/**
+	 * Stop sending commands. The pending ones fail with an IOException.
+	 */
+	public synchronized void stop() {
+		Thread t = worker;
+		worker = null;
+		if (t != null) t.interrupt();
+		failPending();
+	}
+	
+	/**
+	 * Queue a command
+	 * @param command command string
+	 * @param response shape of the response
+	 * @param length number of chars of a FIXED response
+	 * @param priority priority class
+	 * @return Future of the response (the chars received, "" if none)
+	 */
+	public Future<String> submit(String command, Response response, int length, Priority priority) {
+		return submit(command, response, length, 0, priority);
+	}
+	
+	/**
+	 * Queue a command whose response is followed by some #-terminated Strings
+	 * that are read and discarded (like the "Updating planetary data" of :SC)
+	 * @param command command string
+	 * @param response shape of the response
+	 * @param length number of chars of a FIXED response
+	 * @param trailingStrings number of #-terminated Strings to discard
+	 * @param priority priority class
+	 * @return Future of the response (the chars received, "" if none)
+	 */
+	public Future<String> submit(String command, Response response, int length, int trailingStrings, Priority priority) {
+		Command c = new Command(command, response, length, trailingStrings, priority, sequence.getAndIncrement());
+		queue.add(c);
+		if (worker == null) failPending();
+		return c;
+	}
+	
+	/**
+	 * Queue a command and wait for its response
+	 * @return the response
+	 * @throws IOException error or timeout of the communication
+	 */
+	public String execute(String command, Response response, int length, Priority priority) throws IOException {
+		return await(submit(command, response, length, priority));
+	}
+	
+	/**
+	 * Wait for the response of a queued command
+	 * @param future Future of the response
+	 * @return the response
+	 * @throws IOException error or timeout of the communication
+	 */
+	public static String await(Future<String> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			IOException ioe = new IOException(String.valueOf(e.getCause()));
+			ioe.initCause(e.getCause());
+			throw ioe;
+		}
+	}
+	
+	/**
+	 * Fail all the queued commands
+	 */
+	private void failPending() {
+		Command c;
+		while ((c = queue.poll()) != null) {
+			c.fail(new IOException("Not connected"));
+		}
+	}
+	
+	/**
+	 * Wait for the next command and take the following ones that can be sent with it
+	 * @return commands to be sent in one write
+	 */
+	private ArrayList<Command> takeBatch() throws InterruptedException {
+		ArrayList<Command> batch = new ArrayList<Command>(MAX_BATCH);
+		
+		Command first = queue.take();
+		while (first.isCancelled()) first = queue.take();
+		batch.add(first);
+		
+		while (first.isBatchable() && (batch.size() < MAX_BATCH)) {
+			Command next = queue.poll();
+			if (next == null) break;
+			if (next.isCancelled()) continue;
+			if ((next.priority != first.priority) || !next.isBatchable()) {
+				queue.add(next); // keeps its place, sequence numbers are unique
+				break;
+			}
+			batch.add(next);
+		}
+		return batch;
+	}
+	
+	/**
+	 * Send the commands in one write and read their responses in order
+	 * @param batch commands
+	 */
+	private void runBatch(ArrayList<Command> batch) {
+		int i = 0;
+		try {
+			com_driver.set_timeout(timeout);
+			com_driver.emptyBuffer();
+			
+			if (batch.size() == 1) {
+				com_driver.sendCommand(batch.get(0).command);
+			} else {
+				StringBuilder sb = new StringBuilder();
+				for (Command c : batch) sb.append(c.command);
+				com_driver.sendCommand(sb.toString());
+			}
+			
+			for (; i < batch.size(); i++) {
+				Command c = batch.get(i);
+				String res = readResponse(c);
+				for (int j = 0; j < c.trailingStrings; j++) {
+					try {
+						com_driver.read('#');
+					} catch (IOException e) {
+						// Only informative Strings, ignore them
+					}
+				}
+				c.complete(res);
+			}
+		} catch (IOException e) {
+			// The following responses can not be matched any more
+			for (; i < batch.size(); i++) {
+				batch.get(i).fail(e);
+			}
+		} catch (RuntimeException e) {
+			for (; i < batch.size(); i++) {
+				batch.get(i).fail(e);
+			}
+		}
+	}
+	
+	/**
+	 * Read the response of a command
+	 * @param c command
+	 * @return response
+	 * @throws IOException error or timeout
+	 */
+	private String readResponse(Command c) throws IOException {
+		switch (c.response) {
+			case CHAR:
+				return com_driver.read(1);
+			case STRING:
+				return com_driver.read('#');
+			case FIXED:
+				return com_driver.read(c.length);
+			default:
+				return "";
+		}
+	}
+}
@@ -28,6 +28,7 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.concurrent.Future;
 
 
 
@@ -49,6 +50,8 @@ import laazotea.indi.driver.INDISwitchProperty;
 import laazotea.indi.driver.INDITextElement;
 import laazotea.indi.driver.INDITextElementAndValue;
 import laazotea.indi.driver.INDITextProperty;
+import de.hallenbeck.indiserver.device_drivers.lx200_command_scheduler.Priority;
+import de.hallenbeck.indiserver.device_drivers.lx200_command_scheduler.Response;
 
 /**
  * Driver for LX200 compatible telescopes, only covering the basic commandset.
@@ -94,7 +97,7 @@ public class lx200basic extends telescope implements device_driver_interface {
 				updateProperty(EquatorialCoordsRNP,"Slewing...");
 
 				// Loop until slewing completed or aborted
-				while ((!AbortSlew) && (getCommandString(DistanceBarsCmd).length()==1)) {
+				while ((!AbortSlew) && (getCommandString(DistanceBarsCmd, Priority.POLL).length()==1)) {
 
 					//Continually update equatorial coordinates without updating the property
 					getEqCoords(false);
@@ -117,6 +120,10 @@ public class lx200basic extends telescope implements device_driver_interface {
 	}
 		
 	protected static volatile boolean AbortSlew = false; 
+	/**
+	 * Scheduler of all the commands sent to the telescope (running while connected)
+	 */
+	protected final lx200_command_scheduler scheduler = new lx200_command_scheduler();
 	protected static INDISexagesimalFormatter sexa = new INDISexagesimalFormatter("%10.6m");
 	private final static int majorVersion = 0;
 	private final static int minorVersion = 1;	
@@ -494,6 +501,8 @@ public class lx200basic extends telescope implements device_driver_interface {
 		
 		AbortSlewSP = new INDISwitchProperty(this, "TELESCOPE_ABORT_MOTION", "Abort Slew", BASIC_GROUP,PropertyStates.IDLE, PropertyPermissions.RW, 0, SwitchRules.ONE_OF_MANY);
 		AbortSlewS = new INDISwitchElement(AbortSlewSP, "ABORT", "Abort", SwitchStatus.OFF);
+		// Aborting must not wait for the requests blocked on the serial port
+		setPriorityProperty(AbortSlewSP, true);
 		
 		/**********************************************************************************************/
 		/************************************** GROUP: Motion *****************************************/
@@ -597,16 +606,20 @@ public class lx200basic extends telescope implements device_driver_interface {
 	 * Connect to telescope and update INDI-Properties
 	 */ 
 	public void connect() throws IOException{
-		try {
-			set_communication_driver("de.hallenbeck.indiserver.communication_drivers.bluetooth_serial");
-		} catch (ClassNotFoundException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+		// Bluetooth is only the default, a driver set before (like the lx200simulator) is kept
+		if (com_driver == null) {
+			try {
+				set_communication_driver("de.hallenbeck.indiserver.communication_drivers.bluetooth_serial");
+			} catch (ClassNotFoundException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+			}
 		}
-		set_device("00:80:37:14:9F:E7");
+		if (device == null) set_device("00:80:37:14:9F:E7");
 		
 		if (!isConnected()) {
 			super.connect();
+			scheduler.start(com_driver);
 			// Test serial connection
 			// by getting Alignment information
 			getAlignmentMode();
@@ -617,30 +630,38 @@ public class lx200basic extends telescope implements device_driver_interface {
 			throw new IOException("No serial connection");
 			
 		} else {
-			this.addProperty(AlignmentSP);
-		    this.addProperty(EquatorialCoordsWNP);
-		    this.addProperty(EquatorialCoordsRNP);
-		    this.addProperty(OnCoordSetSP);
-		    this.addProperty(AbortSlewSP);
-		    this.addProperty(SlewModeSP);
-		    this.addProperty(TrackModeSP);
-		    this.addProperty(TrackFreqNP);
-		    this.addProperty(MovementNSSP);
-		    this.addProperty(MovementWESP);
-		    this.addProperty(MovementNSSP);
-		    this.addProperty(GuideNSNP);
-		    this.addProperty(GuideWENP);
-		    this.addProperty(SlewAccuracyNP);
-		    this.addProperty(UsePulseCommandSP);
-		    this.addProperty(FocusMotionSP);
-		    this.addProperty(FocusTimerNP);
-		    this.addProperty(FocusModesSP);
-		    this.addProperty(TimeTP);
-		    this.addProperty(UTCOffsetNP);
-		    this.addProperty(SDTimeNP);
-		    this.addProperty(SitesSP);
-		    this.addProperty(SiteNameTP);
-		    this.addProperty(GeoNP);
+			// Define all the Properties in a single write to the clients
+			beginBatch();
+			try {
+				this.addProperty(AlignmentSP);
+				this.addProperty(EquatorialCoordsWNP);
+				this.addProperty(EquatorialCoordsRNP);
+				// Coordinates are polled continually while slewing, send at most 10 updates per second
+				setMaximumUpdateRate(EquatorialCoordsRNP, 10);
+				this.addProperty(OnCoordSetSP);
+				this.addProperty(AbortSlewSP);
+				this.addProperty(SlewModeSP);
+				this.addProperty(TrackModeSP);
+				this.addProperty(TrackFreqNP);
+				this.addProperty(MovementNSSP);
+				this.addProperty(MovementWESP);
+				this.addProperty(MovementNSSP);
+				this.addProperty(GuideNSNP);
+				this.addProperty(GuideWENP);
+				this.addProperty(SlewAccuracyNP);
+				this.addProperty(UsePulseCommandSP);
+				this.addProperty(FocusMotionSP);
+				this.addProperty(FocusTimerNP);
+				this.addProperty(FocusModesSP);
+				this.addProperty(TimeTP);
+				this.addProperty(UTCOffsetNP);
+				this.addProperty(SDTimeNP);
+				this.addProperty(SitesSP);
+				this.addProperty(SiteNameTP);
+				this.addProperty(GeoNP);
+			} finally {
+				endBatch();
+			}
 		    
 		    
 			getFirmwareInformation();
@@ -687,32 +708,39 @@ public class lx200basic extends telescope implements device_driver_interface {
 	public void disconnect() {
 			
 		if (isConnected()) {
-			this.removeProperty(AlignmentSP);
-		    this.removeProperty(EquatorialCoordsWNP);
-		    this.removeProperty(EquatorialCoordsRNP);
-		    this.removeProperty(OnCoordSetSP);
-		    this.removeProperty(AbortSlewSP);
-		    this.removeProperty(SlewModeSP);
-		    this.removeProperty(TrackModeSP);
-		    this.removeProperty(TrackFreqNP);
-		    this.removeProperty(MovementNSSP);
-		    this.removeProperty(MovementWESP);
-		    this.removeProperty(MovementNSSP);
-		    this.removeProperty(GuideNSNP);
-		    this.removeProperty(GuideWENP);
-		    this.removeProperty(SlewAccuracyNP);
-		    this.removeProperty(UsePulseCommandSP);
-		    this.removeProperty(FocusMotionSP);
-		    this.removeProperty(FocusTimerNP);
-		    this.removeProperty(FocusModesSP);
-		    this.removeProperty(TimeTP);
-		    this.removeProperty(UTCOffsetNP);
-		    this.removeProperty(SDTimeNP);
-		    this.removeProperty(SitesSP);
-		    this.removeProperty(SiteNameTP);
-		    this.removeProperty(GeoNP);
+			// Delete all the Properties in a single write to the clients
+			beginBatch();
+			try {
+				this.removeProperty(AlignmentSP);
+				this.removeProperty(EquatorialCoordsWNP);
+				this.removeProperty(EquatorialCoordsRNP);
+				this.removeProperty(OnCoordSetSP);
+				this.removeProperty(AbortSlewSP);
+				this.removeProperty(SlewModeSP);
+				this.removeProperty(TrackModeSP);
+				this.removeProperty(TrackFreqNP);
+				this.removeProperty(MovementNSSP);
+				this.removeProperty(MovementWESP);
+				this.removeProperty(MovementNSSP);
+				this.removeProperty(GuideNSNP);
+				this.removeProperty(GuideWENP);
+				this.removeProperty(SlewAccuracyNP);
+				this.removeProperty(UsePulseCommandSP);
+				this.removeProperty(FocusMotionSP);
+				this.removeProperty(FocusTimerNP);
+				this.removeProperty(FocusModesSP);
+				this.removeProperty(TimeTP);
+				this.removeProperty(UTCOffsetNP);
+				this.removeProperty(SDTimeNP);
+				this.removeProperty(SitesSP);
+				this.removeProperty(SiteNameTP);
+				this.removeProperty(GeoNP);
+			} finally {
+				endBatch();
+			}
 		    
 			super.disconnect();
+			scheduler.stop();
 			AbortSlew=true;
 			ConnectS.setValue(SwitchStatus.OFF);
 			DisconnectS.setValue(SwitchStatus.ON);
@@ -768,13 +796,8 @@ public class lx200basic extends telescope implements device_driver_interface {
 
 				// send to Autostar
 				getCommandChar(TimeCmd);
-				getCommandChar(DateCmd);
-				try {
-					com_driver.read('#'); // Return String "Updating planetary data... #"
-					com_driver.read('#'); // Return String "                           #"
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
+				// Returns also "Updating planetary data... #" and "                           #"
+				awaitResponse(submitCommand(DateCmd, Response.CHAR, 1, 2, Priority.USER));
 				
 				// Verify by read and update Properties
 				getDateTime();
@@ -1229,8 +1252,11 @@ public class lx200basic extends telescope implements device_driver_interface {
 	protected synchronized void getEqCoords(boolean updateState) {
 		if (isConnected()) {
 			try {
-				double RA = sexa.parseSexagesimal(getCommandString(getCurrentRACmd));
-				double DEC = sexa.parseSexagesimal(getCommandString(getCurrentDECCmd));
+				// Both queries are sent at once
+				Future<String> RAResponse = submitCommand(getCurrentRACmd, Response.STRING, 0, 0, Priority.POLL);
+				Future<String> DECResponse = submitCommand(getCurrentDECCmd, Response.STRING, 0, 0, Priority.POLL);
+				double RA = sexa.parseSexagesimal(cleanString(awaitResponse(RAResponse)));
+				double DEC = sexa.parseSexagesimal(cleanString(awaitResponse(DECResponse)));
 				RARN.setValue(RA);
 				DECRN.setValue(DEC);
 				if (updateState) EquatorialCoordsRNP.setState(PropertyStates.OK);
@@ -1269,7 +1295,7 @@ public class lx200basic extends telescope implements device_driver_interface {
 	 * @param command
 	 * @return double
 	 */
-	protected synchronized double getCommandSexa(String command){
+	protected double getCommandSexa(String command){
 		double tmp = sexa.parseSexagesimal(getCommandString(command));
 		return tmp;
 	}
@@ -1279,7 +1305,7 @@ public class lx200basic extends telescope implements device_driver_interface {
 	 * @param command
 	 * @return integer 
 	 */
-	protected synchronized int getCommandInt(String command){
+	protected int getCommandInt(String command){
 		return Integer.parseInt(getCommandString(command,1));
 		
 	}
@@ -1289,20 +1315,11 @@ public class lx200basic extends telescope implements device_driver_interface {
 	 * @param command
 	 * @return char
 	 */
-	protected synchronized char getCommandChar(String command) {
+	protected char getCommandChar(String command) {
 		char tmp='-';
 		if (command!=null){
-			com_driver.set_timeout(1000);
-
-			try {
-				com_driver.emptyBuffer();
-				com_driver.sendCommand(command);
-				tmp = com_driver.read(1).charAt(0);
-				
-			} catch (IOException e) {
-				updateProperty(ConnectSP,e.getMessage());
-				disconnect();
-			}
+			String res = awaitResponse(submitCommand(command, Response.CHAR, 1, 0, Priority.USER));
+			if (res.length() > 0) tmp = res.charAt(0);
 		}
 		return tmp;
 	}
@@ -1312,38 +1329,22 @@ public class lx200basic extends telescope implements device_driver_interface {
 	 * @param command 
 	 * @return string 
 	 */
-	protected synchronized String getCommandString(String command) {
-		String tmp="";
-		try {
-			com_driver.emptyBuffer();
-			com_driver.sendCommand(command);
-			com_driver.set_timeout(1000);
-			tmp = com_driver.read('#');
-			tmp = tmp.replaceAll("#", "");
-			tmp = tmp.replaceAll("<", "");
-			tmp = tmp.replaceAll(">", "");
-			tmp = tmp.trim();
-			
-		} catch (IOException e) {
-			updateProperty(ConnectSP,e.getMessage());
-			disconnect();
-		}
-		return tmp;
+	protected String getCommandString(String command) {
+		return getCommandString(command, Priority.USER);
 	}
 	
-	protected synchronized String getCommandString(String command, int bytes) {
-		String tmp="";
-		try {
-			com_driver.emptyBuffer();
-			com_driver.sendCommand(command);
-			com_driver.set_timeout(1000);
-			tmp = com_driver.read(bytes);
-			
-		} catch (IOException e) {
-			updateProperty(ConnectSP,e.getMessage());
-			disconnect();
-		}
-		return tmp;
+	/**
+	 * Get a string from the device without the #-suffix and < >
+	 * @param command 
+	 * @param priority priority class of the command 
+	 * @return string 
+	 */
+	protected String getCommandString(String command, Priority priority) {
+		return cleanString(awaitResponse(submitCommand(command, Response.STRING, 0, 0, priority)));
+	}
+	
+	protected String getCommandString(String command, int bytes) {
+		return awaitResponse(submitCommand(command, Response.FIXED, bytes, 0, Priority.USER));
 	}
 	
 	/**
@@ -1351,15 +1352,54 @@ public class lx200basic extends telescope implements device_driver_interface {
 	 * for some commands there is no return (i.e. movement)
 	 * @param command
 	 */
-	protected synchronized void sendCommand(String command) {
+	protected void sendCommand(String command) {
+		awaitResponse(submitCommand(command, Response.NONE, 0, 0, Priority.USER));
+	}
+	
+	/**
+	 * Queue a command in the scheduler. Stop commands (:Q) are always sent with
+	 * abort priority and guide pulses (:Mg) with guide priority. 
+	 * @param command 
+	 * @param response shape of the response
+	 * @param bytes length of a FIXED response
+	 * @param trailingStrings number of #-terminated Strings following the response
+	 * @param priority priority class of the command
+	 * @return Future of the response
+	 */
+	protected Future<String> submitCommand(String command, Response response, int bytes, int trailingStrings, Priority priority) {
+		if (command.startsWith("#:Q")) {
+			priority = Priority.ABORT;
+		} else if (command.startsWith("#:Mg")) {
+			priority = Priority.GUIDE;
+		}
+		return scheduler.submit(command, response, bytes, trailingStrings, priority);
+	}
+	
+	/**
+	 * Wait for the response of a command. On errors the telescope is disconnected. 
+	 * @param response Future of the response
+	 * @return response ("" on errors)
+	 */
+	protected String awaitResponse(Future<String> response) {
 		try {
-			com_driver.emptyBuffer();
-			com_driver.sendCommand(command);
-			
+			return lx200_command_scheduler.await(response);
 		} catch (IOException e) {
 			updateProperty(ConnectSP,e.getMessage());
 			disconnect();
 		}
+		return "";
+	}
+	
+	/**
+	 * Remove the #-suffix and < > of a string returned by the device
+	 * @param tmp
+	 * @return string
+	 */
+	protected static String cleanString(String tmp) {
+		tmp = tmp.replaceAll("#", "");
+		tmp = tmp.replaceAll("<", "");
+		tmp = tmp.replaceAll(">", "");
+		return tmp.trim();
 	}
 	
 }
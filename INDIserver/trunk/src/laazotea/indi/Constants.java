@@ -413,4 +413,81 @@ public class Constants {
 
     return "";
   }
+
+  /**
+   * Possible BLOB enable settings of a Client (how it wants to receive the
+   * <code>setBLOBVector</code> messages of a Device or Property).
+   */
+  public enum BLOBEnables {
+
+    /**
+     * Never (no BLOBs, the default).
+     */
+    NEVER,
+    /**
+     * Also (BLOBs and the rest of the messages).
+     */
+    ALSO,
+    /**
+     * Only (just BLOBs).
+     */
+    ONLY
+  };
+
+  /**
+   * Parses a BLOB Enable setting.
+   *
+   * @param enable a string representation of the BLOB Enable setting to be
+   * parsed ("Never" or "Also" or "Only").
+   * @return The BLOB Enable setting.
+   * @throws IllegalArgumentException if the
+   * <code>enable</code> is not a valid one.
+   */
+  public static BLOBEnables parseBLOBEnable(String enable) throws IllegalArgumentException {
+    if (enable.compareTo("Never") == 0) {
+      return BLOBEnables.NEVER;
+    } else if (enable.compareTo("Also") == 0) {
+      return BLOBEnables.ALSO;
+    } else if (enable.compareTo("Only") == 0) {
+      return BLOBEnables.ONLY;
+    }
+
+    throw new IllegalArgumentException("Invalid BLOBEnables String: '" + enable + "'");
+  }
+
+  /**
+   * Checks if a string corresponds to a valid BLOB Enable setting.
+   *
+   * @param enable The string to check
+   * @return
+   * <code>true</code> if it corresponds to a valid BLOB Enable setting.
+   * <code>false</code> otherwise.
+   */
+  public static boolean isValidBLOBEnable(String enable) {
+    try {
+      parseBLOBEnable(enable);
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Gets a String representation of the BLOB Enable setting.
+   *
+   * @param enable The BLOB Enable setting
+   * @return A String representation of the BLOB Enable setting.
+   */
+  public static String getBLOBEnableAsString(BLOBEnables enable) {
+    if (enable == BLOBEnables.NEVER) {
+      return "Never";
+    } else if (enable == BLOBEnables.ALSO) {
+      return "Also";
+    } else if (enable == BLOBEnables.ONLY) {
+      return "Only";
+    }
+
+    return "";
+  }
 }
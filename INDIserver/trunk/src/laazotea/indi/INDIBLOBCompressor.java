@@ -0,0 +1,322 @@
+/*
+ *  This file is part of INDI for Java.
+ *
+ *  INDI for Java is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * A class to compress BLOB data in the zlib format of the <code>.z</code>
+ * BLOBs. The data is split in blocks that are compressed in parallel by a
+ * shared pool of threads (one per processor) and written in order as they are
+ * ready, so big frames are streamed without compressing them in a single
+ * thread nor keeping them compressed in memory. Each block ends with a sync
+ * flush, so the result is a single standard zlib stream that any INDI Client
+ * can inflate.
+ * <p>
+ * The sync flush is only available since Java 7 (Android 4.4). On older
+ * platforms the data is compressed by a single <code>Deflater</code> in the
+ * calling thread.
+ *
+ * @version 1.3, October 18, 2026
+ */
+public final class INDIBLOBCompressor {
+
+  /**
+   * The size of the blocks compressed in parallel.
+   */
+  private static final int BLOCK_SIZE = 128 * 1024;
+  /**
+   * The size of the dictionary (the end of the previous block) used to
+   * compress each block.
+   */
+  private static final int DICTIONARY_SIZE = 32 * 1024;
+  /**
+   * The <code>Deflater.SYNC_FLUSH</code> mode.
+   */
+  private static final int SYNC_FLUSH = 2;
+  /**
+   * The <code>Deflater.deflate(byte[], int, int, int)</code> method (
+   * <code>null</code> if not available).
+   */
+  private static final Method SYNC_DEFLATE = getSyncDeflate();
+  /**
+   * The number of threads of the pool.
+   */
+  private static final int THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+  /**
+   * The pool of threads, created when first used.
+   */
+  private static ExecutorService executor = null;
+
+  /**
+   * A class that cannot be instantiated.
+   */
+  private INDIBLOBCompressor() {
+  }
+
+  /**
+   * Gets the <code>Deflater</code> method that allows sync flushes.
+   *
+   * @return The method or <code>null</code> if it is not available.
+   */
+  private static Method getSyncDeflate() {
+    try {
+      return Deflater.class.getMethod("deflate", byte[].class, int.class, int.class, int.class);
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Gets the pool of threads that compress the blocks.
+   *
+   * @return The pool of threads.
+   */
+  private static synchronized ExecutorService getExecutor() {
+    if (executor == null) {
+      executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "INDI BLOB compressor");
+
+          t.setDaemon(true);
+
+          return t;
+        }
+      });
+    }
+
+    return executor;
+  }
+
+  /**
+   * Compresses some data in the zlib format.
+   *
+   * @param in The stream with the data, read until its end (and not closed).
+   * @param out The stream to which the compressed data is written (it is not
+   * flushed nor closed).
+   * @throws IOException If there is any problem reading or writing the data.
+   */
+  public static void compress(InputStream in, OutputStream out) throws IOException {
+    if (SYNC_DEFLATE == null) {
+      compressSerially(in, out);
+    } else {
+      compressInParallel(in, out);
+    }
+  }
+
+  /**
+   * Compresses some data with a single <code>Deflater</code>.
+   *
+   * @param in The stream with the data.
+   * @param out The stream to which the compressed data is written.
+   * @throws IOException If there is any problem reading or writing the data.
+   */
+  private static void compressSerially(InputStream in, OutputStream out) throws IOException {
+    Deflater deflater = new Deflater();
+    DeflaterOutputStream dos = new DeflaterOutputStream(out, deflater, BLOCK_SIZE);
+    byte[] block = new byte[BLOCK_SIZE];
+
+    try {
+      int n = in.read(block, 0, block.length);
+
+      while (n != -1) {
+        dos.write(block, 0, n);
+        n = in.read(block, 0, block.length);
+      }
+
+      dos.finish();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /**
+   * Compresses some data in blocks compressed by the pool of threads. A few
+   * blocks per thread are read ahead.
+   *
+   * @param in The stream with the data.
+   * @param out The stream to which the compressed data is written.
+   * @throws IOException If there is any problem reading or writing the data.
+   */
+  private static void compressInParallel(InputStream in, OutputStream out) throws IOException {
+    ExecutorService pool = getExecutor();
+    ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+    Adler32 checksum = new Adler32();
+
+    out.write(0x78);  // zlib header: deflate with a 32 KB window, default level
+    out.write(0x9c);
+
+    try {
+      byte[] previous = null;
+      int previousLength = 0;
+      byte[] block = new byte[BLOCK_SIZE];
+      int n = readBlock(in, block);
+
+      while (n > 0) {
+        checksum.update(block, 0, n);
+
+        pending.add(pool.submit(new BlockTask(block, n, previous, previousLength)));
+
+        if (pending.size() >= 2 * THREADS) {
+          out.write(pending.remove().get());
+        }
+
+        previous = block;
+        previousLength = n;
+        block = new byte[BLOCK_SIZE];
+        n = readBlock(in, block);
+      }
+
+      while (!pending.isEmpty()) {
+        out.write(pending.remove().get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+
+      throw new InterruptedIOException("Interrupted while compressing");
+    } catch (ExecutionException e) {
+      IOException ioe = new IOException("Could not compress the data");
+
+      ioe.initCause(e.getCause());
+
+      throw ioe;
+    } finally {
+      while (!pending.isEmpty()) {
+        pending.remove().cancel(false);
+      }
+    }
+
+    out.write(0x03);  // An empty final block
+    out.write(0x00);
+
+    long adler = checksum.getValue();
+
+    out.write((int) (adler >>> 24));
+    out.write((int) (adler >>> 16));
+    out.write((int) (adler >>> 8));
+    out.write((int) adler);
+  }
+
+  /**
+   * Reads a block of data, until it is full or the stream ends.
+   *
+   * @param in The stream.
+   * @param block The block.
+   * @return The number of bytes read.
+   * @throws IOException If there is any problem reading the data.
+   */
+  private static int readBlock(InputStream in, byte[] block) throws IOException {
+    int count = 0;
+
+    while (count < block.length) {
+      int n = in.read(block, count, block.length - count);
+
+      if (n == -1) {
+        break;
+      }
+
+      count += n;
+    }
+
+    return count;
+  }
+
+  /**
+   * A task that compresses a block (as raw deflate data ending with a sync
+   * flush), using the end of the previous block as dictionary.
+   */
+  private static class BlockTask implements Callable<byte[]> {
+
+    /**
+     * The block.
+     */
+    private byte[] block;
+    /**
+     * The number of bytes of the block.
+     */
+    private int length;
+    /**
+     * The previous block (<code>null</code> if none).
+     */
+    private byte[] previous;
+    /**
+     * The number of bytes of the previous block.
+     */
+    private int previousLength;
+
+    /**
+     * Constructs a new task.
+     *
+     * @param block The block.
+     * @param length The number of bytes of the block.
+     * @param previous The previous block (<code>null</code> if none).
+     * @param previousLength The number of bytes of the previous block.
+     */
+    public BlockTask(byte[] block, int length, byte[] previous, int previousLength) {
+      this.block = block;
+      this.length = length;
+      this.previous = previous;
+      this.previousLength = previousLength;
+    }
+
+    @Override
+    public byte[] call() throws Exception {
+      Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+
+      try {
+        if (previous != null) {
+          int d = Math.min(DICTIONARY_SIZE, previousLength);
+
+          deflater.setDictionary(previous, previousLength - d, d);
+        }
+
+        deflater.setInput(block, 0, length);
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 64);
+        byte[] buffer = new byte[16384];
+        int n;
+
+        do {
+          n = (Integer) SYNC_DEFLATE.invoke(deflater, buffer, 0, buffer.length, SYNC_FLUSH);
+          compressed.write(buffer, 0, n);
+        } while (n == buffer.length);
+
+        return compressed.toByteArray();
+      } finally {
+        deflater.end();
+      }
+    }
+  }
+}
@@ -0,0 +1,222 @@
+/*
+ *  This file is part of INDI for Java.
+ *
+ *  INDI for Java is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * The Base64 encoded contents of a <code>&lt;oneBLOB&gt;</code> element as
+ * received, kept out of the XML document by <code>INDIIncrementalParser</code>.
+ * The characters are stored as ASCII bytes in fixed size chunks, so a big BLOB
+ * never needs a single huge array and can be forwarded chunk by chunk without
+ * being decoded or copied. Once its element has been parsed a payload is never
+ * modified.
+ *
+ * @version 1.3, October 18, 2026
+ * @see INDIIncrementalParser#getBLOBPayload
+ */
+public final class INDIBLOBPayload {
+
+  /**
+   * The size of the chunks.
+   */
+  private static final int CHUNK_SIZE = 65536;
+  /**
+   * The chunks with the characters.
+   */
+  private ArrayList<byte[]> chunks;
+  /**
+   * The number of characters.
+   */
+  private long length;
+
+  /**
+   * Constructs a new empty payload.
+   */
+  INDIBLOBPayload() {
+    chunks = new ArrayList<byte[]>();
+    length = 0;
+  }
+
+  /**
+   * Adds some characters to the payload. Base64 data only contains ASCII
+   * characters: any other character is stored as <code>?</code>.
+   *
+   * @param chars The characters.
+   * @param start The position of the first character to add.
+   * @param end The position after the last character to add.
+   */
+  void append(CharSequence chars, int start, int end) {
+    int i = start;
+
+    while (i < end) {
+      int used = (int) (length % CHUNK_SIZE);
+
+      if (used == 0) {
+        chunks.add(new byte[CHUNK_SIZE]);
+      }
+
+      byte[] chunk = chunks.get(chunks.size() - 1);
+      int n = Math.min(end - i, CHUNK_SIZE - used);
+
+      for (int j = 0 ; j < n ; j++) {
+        char c = chars.charAt(i + j);
+
+        chunk[used + j] = (c < 0x80) ? (byte) c : (byte) '?';
+      }
+
+      i += n;
+      length += n;
+    }
+  }
+
+  /**
+   * Gets the number of characters (and bytes) of the payload.
+   *
+   * @return The number of characters of the payload.
+   */
+  public long getLength() {
+    return length;
+  }
+
+  /**
+   * Gets the number of bytes used in a chunk.
+   *
+   * @param index The index of the chunk.
+   * @return The number of bytes used in the chunk.
+   */
+  private int getChunkLength(int index) {
+    if (index < chunks.size() - 1) {
+      return CHUNK_SIZE;
+    }
+
+    return (int) (length - (long) index * CHUNK_SIZE);
+  }
+
+  /**
+   * Writes the payload to a stream.
+   *
+   * @param os The stream.
+   * @throws IOException If there is any problem writing to the stream.
+   */
+  public void writeTo(OutputStream os) throws IOException {
+    for (int i = 0 ; i < chunks.size() ; i++) {
+      os.write(chunks.get(i), 0, getChunkLength(i));
+    }
+  }
+
+  /**
+   * Adds read only buffers with the chunks of the payload to a collection,
+   * to write them to a channel without copying them.
+   *
+   * @param buffers The collection to which the buffers are added.
+   */
+  public void addBuffers(Collection<ByteBuffer> buffers) {
+    for (int i = 0 ; i < chunks.size() ; i++) {
+      buffers.add(ByteBuffer.wrap(chunks.get(i), 0, getChunkLength(i)).asReadOnlyBuffer());
+    }
+  }
+
+  /**
+   * Appends the characters of the payload to a <code>StringBuilder</code>.
+   *
+   * @param sb The <code>StringBuilder</code>.
+   */
+  public void appendTo(StringBuilder sb) {
+    appendTo(sb, length);
+  }
+
+  /**
+   * Appends the first characters of the payload to a
+   * <code>StringBuilder</code>.
+   *
+   * @param sb The <code>StringBuilder</code>.
+   * @param max The maximum number of characters to append.
+   */
+  public void appendTo(StringBuilder sb, long max) {
+    long remaining = Math.min(max, length);
+
+    for (int i = 0 ; (i < chunks.size()) && (remaining > 0) ; i++) {
+      byte[] chunk = chunks.get(i);
+      int n = (int) Math.min(getChunkLength(i), remaining);
+
+      for (int j = 0 ; j < n ; j++) {
+        sb.append((char) chunk[j]);
+      }
+
+      remaining -= n;
+    }
+  }
+
+  /**
+   * Gets a stream to read the characters of the payload (as ASCII bytes).
+   *
+   * @return A stream to read the payload.
+   */
+  public InputStream getInputStream() {
+    return new InputStream() {
+
+      private int chunk = 0;
+      private int pos = 0;
+
+      @Override
+      public int read() {
+        byte[] b = new byte[1];
+
+        if (read(b, 0, 1) == -1) {
+          return -1;
+        }
+
+        return b[0] & 0xff;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) {
+        while ((chunk < chunks.size()) && (pos == getChunkLength(chunk))) {
+          chunk++;
+          pos = 0;
+        }
+
+        if (chunk >= chunks.size()) {
+          return -1;
+        }
+
+        int n = Math.min(len, getChunkLength(chunk) - pos);
+
+        System.arraycopy(chunks.get(chunk), pos, b, off, n);
+        pos += n;
+
+        return n;
+      }
+    };
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder((int) Math.min(Integer.MAX_VALUE, length));
+
+    appendTo(sb);
+
+    return sb.toString();
+  }
+}
@@ -17,33 +17,76 @@
  */
 package laazotea.indi;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.zip.DataFormatException;
-import java.util.zip.Inflater;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.zip.InflaterOutputStream;
+import java.util.zip.ZipException;
+import org.w3c.dom.CharacterData;
 import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 
 
 /**
- * A class representing a INDI BLOB Value (some bytes and a format).
+ * A class representing a INDI BLOB Value (some bytes and a format). The bytes
+ * may be kept in an array, in a <code>ByteBuffer</code> or in a file. They are
+ * encoded to and decoded from Base64 in small chunks, so a big BLOB is never
+ * held as a whole more than once in memory.
  *
  * @author S. Alonso (Zerjillo) [zerjio at zerjio.com]
  * @version 1.10, March 19, 2012
  */
 public class INDIBLOBValue {
   /**
-   * The BLOB data
+   * The size of the chunks in which the data is encoded (a multiple of 3, so
+   * the chunks can be encoded independently).
+   */
+  private static final int CHUNK_SIZE = 48 * 1024;
+  /**
+   * The size above which the received BLOBs are decoded to a file.
+   */
+  private static int fileThreshold = Integer.MAX_VALUE;
+  /**
+   * The directory of the files of the received BLOBs (<code>null</code> for
+   * the default temporary directory).
+   */
+  private static File fileDirectory = null;
+  /**
+   * The BLOB data (<code>null</code> if it is in a buffer or a file)
    */
   private byte[] BLOBData;
   /**
-   * The format of the data
+   * The buffer with the BLOB data (<code>null</code> if it is in an array or
+   * a file)
    */
-  private String format;
+  private ByteBuffer buffer;
+  /**
+   * The file with the BLOB data (<code>null</code> if it is in an array or a
+   * buffer)
+   */
+  private File file;
   /**
-   * The encoded data
+   * <code>true</code> if the file was created to decode a received BLOB, so it
+   * must be deleted when the value is released.
    */
-  private String base64EncodedData;
+  private boolean temporaryFile;
+  /**
+   * The size of the BLOB data
+   */
+  private int size;
+  /**
+   * The format of the data
+   */
+  private String format;
   
   /**
    * Constructs a new BLOB Value from its coresponding bytes and format.
@@ -54,16 +97,58 @@ public class INDIBLOBValue {
   public INDIBLOBValue(byte[] BLOBData, String format) {
     this.format = format;
     this.BLOBData = BLOBData;
-    this.base64EncodedData = null;
+    this.size = BLOBData.length;
+  }
+
+  /**
+   * Constructs a new BLOB Value from a buffer and a format. The data are the
+   * bytes between the position and the limit of the buffer, which must not be
+   * modified while the value is in use.
+   * 
+   * @param buffer the buffer with the data for the BLOB
+   * @param format the format of the data
+   */
+  public INDIBLOBValue(ByteBuffer buffer, String format) {
+    this.format = format;
+    this.buffer = buffer.slice().asReadOnlyBuffer();
+    this.size = this.buffer.remaining();
+  }
+
+  /**
+   * Constructs a new BLOB Value from a file and a format. The file is read
+   * (in chunks) every time the data is needed, so it must not be modified
+   * while the value is in use.
+   * 
+   * @param file the file with the data for the BLOB
+   * @param format the format of the data
+   * @throws IllegalArgumentException if the file does not exist or is too
+   * big.
+   */
+  public INDIBLOBValue(File file, String format) throws IllegalArgumentException {
+    if (!file.isFile()) {
+      throw new IllegalArgumentException("BLOB file not found");
+    }
+
+    if (file.length() > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("BLOB file too big");
+    }
+
+    this.format = format;
+    this.file = file;
+    this.size = (int) file.length();
   }
 
   /**
-   * Constructs a new BLOB Value from a XML &lt;oneBLOB&gt; element.
+   * Constructs a new BLOB Value from a XML &lt;oneBLOB&gt; element. The
+   * Base64 data is decoded (and decompressed if its format ends in
+   * <code>.z</code>) in chunks, directly from the payload kept by
+   * <code>INDIIncrementalParser</code> if there is one, into an array of the
+   * final size or, for big BLOBs (see <code>setFileThreshold</code>), into a
+   * temporary file.
    * @param xml the &lt;oneBLOB&gt; XML element
    * @throws IllegalArgumentException if the XML element is not correct.
    */
   public INDIBLOBValue(Element xml) throws IllegalArgumentException {
-    int size = 0;
     String f;
  
     try {
@@ -73,67 +158,352 @@ public class INDIBLOBValue {
       throw new IllegalArgumentException("Size number not correct");
     }
 
+    if (size < 0) {
+      throw new IllegalArgumentException("Size number not correct");
+    }
+
     if (!xml.hasAttribute("format")) {
       throw new IllegalArgumentException("No format attribute");
     }
 
     f = xml.getAttribute("format").trim();
 
-    byte[] val;
+    boolean compressed = f.endsWith(".z");
+
+    DataSink sink;
 
-    base64EncodedData = xml.getTextContent().trim();
-    
     try {
-      val = Base64.decode(base64EncodedData);
+      if (size > fileThreshold) {
+        file = File.createTempFile("indiblob", ".tmp", fileDirectory);
+        file.deleteOnExit();  // In case the value is never released
+        temporaryFile = true;
+
+        sink = new DataSink(new BufferedOutputStream(new FileOutputStream(file), CHUNK_SIZE));
+      } else {
+        BLOBData = new byte[size];
+
+        sink = new DataSink(BLOBData);
+      }
     } catch (IOException e) {
-      base64EncodedData = null;
-      throw new IllegalArgumentException("Not BASE64 coded data");
+      throw new IllegalArgumentException("Could not store the BLOB data");
     }
 
-    if (f.endsWith(".z")) { // gzipped. Decompress
-      Inflater decompresser = new Inflater();
-      decompresser.setInput(val);
+    try {
+      InflaterOutputStream inflater = null;
+      Base64.OutputStream decoder;
+
+      if (compressed) { // gzipped. Decompress
+        inflater = new InflaterOutputStream(sink);
+        decoder = new Base64.OutputStream(inflater, Base64.DECODE);
+      } else {
+        decoder = new Base64.OutputStream(sink, Base64.DECODE);
+      }
 
-      byte[] newvalue = new byte[size];
+      decodeContents(xml, decoder);
 
-      try {
-        decompresser.inflate(newvalue);
+      decoder.flushBase64();
 
-        val = newvalue;
-      } catch (DataFormatException e) {
-        throw new IllegalArgumentException("Not correctly GZIPped");
+      if (inflater != null) {
+        inflater.finish();
       }
 
-      decompresser.end();
+      sink.close();
+    } catch (ZipException e) {
+      discardData(sink);
+      throw new IllegalArgumentException("Not correctly GZIPped");
+    } catch (IOException e) {
+      discardData(sink);
+      throw new IllegalArgumentException("Not BASE64 coded data");
+    }
 
+    if (compressed) {
       f = f.substring(0, f.length() - 2);
-    }
 
-    if (val.length != size) {
+      if (file != null) {  // The uncompressed data may not have the declared size
+        size = (int) file.length();
+      }
+    } else if (sink.getCount() != size) {
+      discardData(sink);
       throw new IllegalArgumentException("Size of BLOB not correct");
     }
 
     format = f;
-    BLOBData = val;
   }
+
   /**
-   * Gets the BLOB data
+   * Writes the Base64 contents of a &lt;oneBLOB&gt; element to a decoder in
+   * chunks.
+   *
+   * @param xml the &lt;oneBLOB&gt; XML element
+   * @param decoder the decoder
+   * @throws IOException if the data is not correct.
+   */
+  private static void decodeContents(Element xml, OutputStream decoder) throws IOException {
+    byte[] chunk = new byte[CHUNK_SIZE];
+
+    INDIBLOBPayload payload = INDIIncrementalParser.getBLOBPayload(xml);
+
+    if (payload != null) {
+      InputStream in = payload.getInputStream();
+      int n = in.read(chunk, 0, chunk.length);
+
+      while (n != -1) {
+        decoder.write(chunk, 0, n);
+        n = in.read(chunk, 0, chunk.length);
+      }
+
+      return;
+    }
+
+    for (Node n = xml.getFirstChild() ; n != null ; n = n.getNextSibling()) {
+      if (n instanceof CharacterData) {
+        String data = ((CharacterData) n).getData();
+
+        for (int i = 0 ; i < data.length() ; i += chunk.length) {
+          int len = Math.min(chunk.length, data.length() - i);
+
+          for (int j = 0 ; j < len ; j++) {
+            chunk[j] = (byte) data.charAt(i + j);
+          }
+
+          decoder.write(chunk, 0, len);
+        }
+      }
+    }
+  }
+
+  /**
+   * Discards the data being decoded after an error.
+   *
+   * @param sink The stream to which the data was being written.
+   */
+  private void discardData(DataSink sink) {
+    try {
+      sink.close();
+    } catch (IOException e) {
+    }
+
+    release();
+
+    file = null;
+    BLOBData = null;
+  }
+
+  /**
+   * Releases the resources of the value: the temporary file to which a
+   * received BLOB was decoded (see <code>setFileThreshold</code>) is deleted.
+   * The files given to the constructor are never deleted. The data of a
+   * released value that was in a temporary file cannot be read anymore.
+   */
+  public void release() {
+    if (temporaryFile) {
+      file.delete();
+
+      temporaryFile = false;
+    }
+  }
+
+  /**
+   * Sets the size above which the received BLOBs (see the constructor from a
+   * XML element) are decoded to a temporary file instead of to memory. The
+   * files are deleted when the values are released (see <code>release</code>)
+   * or, at the latest, when the virtual machine exits. By default the BLOBs
+   * are always decoded to memory.
+   *
+   * @param threshold The size in bytes above which the BLOBs are decoded to a
+   * file.
+   * @param directory The directory for the files (<code>null</code> for the
+   * default temporary directory).
+   */
+  public static synchronized void setFileThreshold(int threshold, File directory) {
+    fileThreshold = threshold;
+    fileDirectory = directory;
+  }
+
+  /**
+   * Gets the BLOB data. If the data is in a buffer or a file it is copied to
+   * a new array on every call: prefer <code>getInputStream</code> for big
+   * BLOBs.
    * @return the BLOB data
    */
   public byte[] getBLOBData() {
-    return BLOBData;
+    if (BLOBData != null) {
+      return BLOBData;
+    }
+
+    byte[] data = new byte[size];
+
+    if (buffer != null) {
+      buffer.duplicate().get(data);
+
+      return data;
+    }
+
+    try {
+      InputStream in = getInputStream();
+      int read = 0;
+
+      while (read < size) {
+        int n = in.read(data, read, size - read);
+
+        if (n == -1) {
+          break;
+        }
+
+        read += n;
+      }
+
+      in.close();
+    } catch (IOException e) {
+    }
+
+    return data;
   }
 
   /**
-   * Gets the BLOB data in base64
+   * Gets a stream to read the BLOB data.
+   * @return a stream to read the BLOB data
+   * @throws IOException if the file with the data cannot be opened.
+   */
+  public InputStream getInputStream() throws IOException {
+    if (BLOBData != null) {
+      return new ByteArrayInputStream(BLOBData);
+    }
+
+    if (file != null) {
+      return new BufferedInputStream(new FileInputStream(file), CHUNK_SIZE);
+    }
+
+    final ByteBuffer b = buffer.duplicate();
+
+    return new InputStream() {
+
+      @Override
+      public int read() {
+        if (!b.hasRemaining()) {
+          return -1;
+        }
+
+        return b.get() & 0xff;
+      }
+
+      @Override
+      public int read(byte[] dest, int off, int len) {
+        if (!b.hasRemaining()) {
+          return -1;
+        }
+
+        int n = Math.min(len, b.remaining());
+
+        b.get(dest, off, n);
+
+        return n;
+      }
+    };
+  }
+
+  /**
+   * Gets the file with the BLOB data.
+   * @return the file with the BLOB data or <code>null</code> if the data is
+   * not in a file.
+   */
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Gets the BLOB data in base64. The whole encoded data is built on every
+   * call: prefer <code>writeBase64</code> to send big BLOBs.
    * @return the BLOB data
    */
   public String getBase64BLOBData() {
-    if (base64EncodedData == null) {
-      base64EncodedData = Base64.encodeBytes(getBLOBData());
+    StringWriter sw = new StringWriter(size / 3 * 4 + 4);
+
+    try {
+      writeBase64(sw);
+    } catch (IOException e) {
+    }
+
+    return sw.toString();
+  }
+
+  /**
+   * Writes the BLOB data in base64 to a <code>Writer</code>, encoding it in
+   * chunks.
+   * @param out the <code>Writer</code>
+   * @throws IOException if there is some problem reading the data or writing
+   * it.
+   */
+  public void writeBase64(Writer out) throws IOException {
+    WriterOutputStream os = new WriterOutputStream(out);
+
+    writeBase64(os, os);
+  }
+
+  /**
+   * Writes the BLOB data in base64 to a stream, encoding it in chunks.
+   * @param out the stream
+   * @throws IOException if there is some problem reading the data or writing
+   * it.
+   */
+  public void writeBase64(OutputStream out) throws IOException {
+    BufferedOutputStream os = new BufferedOutputStream(out, CHUNK_SIZE);
+
+    writeBase64(os, os);
+  }
+
+  /**
+   * Writes the BLOB data compressed in the zlib format (as in the
+   * <code>.z</code> BLOB formats) and in base64 to a <code>Writer</code>. The
+   * data is compressed in blocks in parallel (see
+   * <code>INDIBLOBCompressor</code>) while it is written.
+   * @param out the <code>Writer</code>
+   * @throws IOException if there is some problem reading the data, compressing
+   * it or writing it.
+   */
+  public void writeCompressedBase64(Writer out) throws IOException {
+    WriterOutputStream os = new WriterOutputStream(out);
+    Base64.OutputStream encoder = new Base64.OutputStream(os, Base64.ENCODE);
+    InputStream in = getInputStream();
+
+    try {
+      INDIBLOBCompressor.compress(in, encoder);
+    } finally {
+      in.close();
+    }
+
+    encoder.flushBase64();
+    os.flush();
+  }
+
+  /**
+   * Writes the BLOB data in base64 to a buffered stream.
+   * @param os the buffered stream
+   * @param buffered the buffered stream, flushed at the end
+   * @throws IOException if there is some problem reading the data or writing
+   * it.
+   */
+  private void writeBase64(OutputStream os, OutputStream buffered) throws IOException {
+    Base64.OutputStream encoder = new Base64.OutputStream(os, Base64.ENCODE);
+
+    if (BLOBData != null) {
+      encoder.write(BLOBData, 0, BLOBData.length);
+    } else {
+      InputStream in = getInputStream();
+      byte[] chunk = new byte[CHUNK_SIZE];
+
+      int n = in.read(chunk, 0, chunk.length);
+
+      while (n != -1) {
+        encoder.write(chunk, 0, n);
+        n = in.read(chunk, 0, chunk.length);
+      }
+
+      in.close();
     }
-    
-    return base64EncodedData;
+
+    encoder.flushBase64();
+    buffered.flush();
   }
   
   /**
@@ -149,7 +519,7 @@ public class INDIBLOBValue {
    * @return the size of the BLOB data
    */
   public int getSize() {
-    return BLOBData.length; 
+    return size; 
   }
   
   /**
@@ -160,8 +530,148 @@ public class INDIBLOBValue {
   public void saveBLOBData(File file) throws IOException {
     FileOutputStream fos = new FileOutputStream(file);
 
-    fos.write(BLOBData);
+    try {
+      if (BLOBData != null) {
+        fos.write(BLOBData);
+      } else {
+        InputStream in = getInputStream();
+        byte[] chunk = new byte[CHUNK_SIZE];
+
+        int n = in.read(chunk, 0, chunk.length);
 
-    fos.close();
-  }  
+        while (n != -1) {
+          fos.write(chunk, 0, n);
+          n = in.read(chunk, 0, chunk.length);
+        }
+
+        in.close();
+      }
+    } finally {
+      fos.close();
+    }
+  }
+
+  /**
+   * The destination of the decoded data: an array of the expected size or a
+   * stream. It counts the bytes written (the ones that do not fit in the
+   * array are counted but discarded).
+   */
+  private static class DataSink extends OutputStream {
+    /**
+     * The array (<code>null</code> if writing to a stream).
+     */
+    private byte[] data;
+    /**
+     * The stream (<code>null</code> if writing to an array).
+     */
+    private OutputStream os;
+    /**
+     * The number of bytes written.
+     */
+    private long count;
+
+    /**
+     * Constructs a sink that writes to an array.
+     * @param data the array
+     */
+    public DataSink(byte[] data) {
+      this.data = data;
+    }
+
+    /**
+     * Constructs a sink that writes to a stream.
+     * @param os the stream
+     */
+    public DataSink(OutputStream os) {
+      this.os = os;
+    }
+
+    /**
+     * Gets the number of bytes written.
+     * @return the number of bytes written
+     */
+    public long getCount() {
+      return count;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (os != null) {
+        os.write(b, off, len);
+      } else if (count < data.length) {
+        System.arraycopy(b, off, data, (int) count, (int) Math.min(len, data.length - count));
+      }
+
+      count += len;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (os != null) {
+        os.close();
+      }
+    }
+  }
+
+  /**
+   * A stream that writes the (ASCII) bytes as characters to a
+   * <code>Writer</code>, buffering them.
+   */
+  private static class WriterOutputStream extends OutputStream {
+    /**
+     * The <code>Writer</code>.
+     */
+    private Writer out;
+    /**
+     * The buffered characters.
+     */
+    private char[] chars;
+    /**
+     * The number of buffered characters.
+     */
+    private int count;
+
+    /**
+     * Constructs a stream that writes to a <code>Writer</code>.
+     * @param out the <code>Writer</code>
+     */
+    public WriterOutputStream(Writer out) {
+      this.out = out;
+
+      chars = new char[8192];
+      count = 0;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      if (count == chars.length) {
+        flush();
+      }
+
+      chars[count++] = (char) (b & 0xff);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      for (int i = 0 ; i < len ; i++) {
+        write(b[off + i]);
+      }
+    }
+
+    /**
+     * Writes the buffered characters to the <code>Writer</code> (which is not
+     * flushed).
+     * @throws IOException if there is some problem writing.
+     */
+    @Override
+    public void flush() throws IOException {
+      out.write(chars, 0, count);
+      count = 0;
+    }
+  }
 }
@@ -17,12 +17,16 @@
  */
 package laazotea.indi;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.TimeZone;
 
 /**
- * A simple class to format and parse INDI timestamps.
+ * A simple class to format and parse INDI timestamps
+ * (<code>yyyy-MM-ddTHH:mm:ss.SSS</code> and
+ * <code>yyyy-MM-ddTHH:mm:ss</code>, in the default time zone). It is thread
+ * safe: the timestamps are formatted and parsed by hand, and the formatted
+ * date and time of the current second are cached, so formatting the current
+ * timestamp usually only writes its milliseconds.
  *
  * @author S. Alonso (Zerjillo) [zerjio at zerjio.com]
  * @version 1.10, March 19, 2012
@@ -30,13 +34,44 @@ import java.util.Date;
 public class INDIDateFormat {
 
   /**
-   * The first possible format for INDI timestamps.
+   * The length of a formatted timestamp.
    */
-  private static SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS");
+  private static final int TIMESTAMP_LENGTH = 23;
   /**
-   * The second possible format for INDI timestamps.
+   * The separators of the fields of a timestamp.
    */
-  private static SimpleDateFormat dateFormat2 = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+  private static final char[] SEPARATORS = {'-', '-', 'T', ':', ':'};
+  /**
+   * The date and time (until the seconds) of the last formatted timestamp.
+   */
+  private static volatile Prefix lastPrefix = new Prefix(Long.MIN_VALUE, new char[0]);
+
+  /**
+   * The formatted date and time (<code>yyyy-MM-ddTHH:mm:ss.</code>) of a
+   * second. It is immutable.
+   */
+  private static final class Prefix {
+
+    /**
+     * The second (since the epoch).
+     */
+    private final long second;
+    /**
+     * The formatted date and time.
+     */
+    private final char[] chars;
+
+    /**
+     * Constructs a new prefix.
+     *
+     * @param second The second (since the epoch).
+     * @param chars The formatted date and time.
+     */
+    private Prefix(long second, char[] chars) {
+      this.second = second;
+      this.chars = chars;
+    }
+  }
 
   /**
    * Parses a timestamp expressed in the INDI format. If the timestamp does not
@@ -47,23 +82,89 @@ public class INDIDateFormat {
    * <code>time</code> is not correct.
    */
   public static Date parseTimestamp(String time) {
-    Date timestamp = new Date();
-
-    time = time.trim();
-    
-    if (!(time.length() == 0)) {
-      try {
-        timestamp = dateFormat.parse(time);
-      } catch (ParseException e) {
-        try {
-          timestamp = dateFormat2.parse(time);
-        } catch (ParseException ee) {
-          timestamp = new Date();  // Not correct format, returning current timestamp.
+    long millis = parseTimestampMillis(time.trim());
+
+    if (millis == Long.MIN_VALUE) {
+      return new Date();  // Not correct format, returning current timestamp.
+    }
+
+    return new Date(millis);
+  }
+
+  /**
+   * Parses a timestamp with the <code>yyyy-MM-ddTHH:mm:ss</code> format,
+   * optionally followed by a dot and the fraction of the second. Like in a
+   * lenient <code>SimpleDateFormat</code>, the fields may have any number of
+   * digits, out of range values are carried to the next field and any text
+   * after the timestamp is ignored.
+   *
+   * @param time The timestamp.
+   * @return The milliseconds since the epoch or <code>Long.MIN_VALUE</code> if
+   * the format is not correct.
+   */
+  private static long parseTimestampMillis(String time) {
+    int[] fields = new int[6];
+    int pos = 0;
+
+    for (int f = 0 ; f < 6 ; f++) {
+      if (f > 0) {
+        if ((pos >= time.length()) || (time.charAt(pos) != SEPARATORS[f - 1])) {
+          return Long.MIN_VALUE;
         }
+
+        pos++;
+      }
+
+      int start = pos;
+      int value = 0;
+
+      while ((pos < time.length()) && (pos - start < 9) && isDigit(time.charAt(pos))) {
+        value = value * 10 + (time.charAt(pos) - '0');
+        pos++;
       }
+
+      if (pos == start) {
+        return Long.MIN_VALUE;
+      }
+
+      fields[f] = value;
     }
 
-    return timestamp;
+    int millis = 0;
+
+    if ((pos < time.length()) && (time.charAt(pos) == '.')) {
+      pos++;
+
+      int scale = 100;
+
+      while ((pos < time.length()) && isDigit(time.charAt(pos))) {
+        millis += (time.charAt(pos) - '0') * scale;
+        scale /= 10;
+        pos++;
+      }
+    }
+
+    long localMillis = (((daysFromCivil(fields[0], fields[1], fields[2]) * 24 + fields[3]) * 60 + fields[4]) * 60 + fields[5]) * 1000 + millis;
+
+    TimeZone zone = TimeZone.getDefault();
+    int rawOffset = zone.getRawOffset();
+    int offset = zone.getOffset(localMillis - rawOffset);
+
+    if ((offset != rawOffset) && (zone.getOffset(localMillis - offset) != offset)) {
+      offset = rawOffset;  // Skipped local time: taken as standard time
+    }
+
+    return localMillis - offset;
+  }
+
+  /**
+   * Checks if a character is a decimal digit.
+   *
+   * @param c The character.
+   * @return <code>true</code> if it is a digit from 0 to 9.
+   */
+  private static boolean isDigit(char c) {
+    return (c >= '0') && (c <= '9');
   }
 
   /**
@@ -73,7 +174,7 @@ public class INDIDateFormat {
    * @return the formatted timestamp
    */
   public static String formatTimestamp(Date timestamp) {
-    return dateFormat.format(timestamp);
+    return appendTimestamp(new StringBuilder(TIMESTAMP_LENGTH), timestamp.getTime()).toString();
   }
 
   /**
@@ -83,6 +184,137 @@ public class INDIDateFormat {
    * @return the current timestamp according to the INDI specification.
    */
   public static String getCurrentTimestamp() {
-    return formatTimestamp(new Date());
+    return appendCurrentTimestamp(new StringBuilder(TIMESTAMP_LENGTH)).toString();
+  }
+
+  /**
+   * Appends the current timestamp according to the INDI specification to a
+   * <code>StringBuilder</code>.
+   *
+   * @param sb The <code>StringBuilder</code>.
+   * @return The <code>StringBuilder</code>.
+   */
+  public static StringBuilder appendCurrentTimestamp(StringBuilder sb) {
+    return appendTimestamp(sb, System.currentTimeMillis());
+  }
+
+  /**
+   * Appends a timestamp according to the INDI format to a
+   * <code>StringBuilder</code>.
+   *
+   * @param sb The <code>StringBuilder</code>.
+   * @param millis The timestamp (milliseconds since the epoch).
+   * @return The <code>StringBuilder</code>.
+   */
+  public static StringBuilder appendTimestamp(StringBuilder sb, long millis) {
+    long second = millis / 1000;
+    int milli = (int) (millis % 1000);
+
+    if (milli < 0) {
+      second--;
+      milli += 1000;
+    }
+
+    Prefix prefix = lastPrefix;
+
+    if (prefix.second != second) {
+      prefix = new Prefix(second, formatPrefix(second * 1000));
+
+      lastPrefix = prefix;
+    }
+
+    sb.append(prefix.chars);
+    sb.append((char) ('0' + milli / 100)).append((char) ('0' + (milli / 10) % 10)).append((char) ('0' + milli % 10));
+
+    return sb;
+  }
+
+  /**
+   * Formats the date and time until the seconds of a timestamp, in the
+   * default time zone.
+   *
+   * @param millis The timestamp (milliseconds since the epoch), at the
+   * beginning of a second.
+   * @return The formatted date and time, followed by a dot.
+   */
+  private static char[] formatPrefix(long millis) {
+    long local = millis + TimeZone.getDefault().getOffset(millis);
+    long days = local / 86400000;
+    int secondOfDay = (int) ((local % 86400000) / 1000);
+
+    if (secondOfDay < 0) {
+      days--;
+      secondOfDay += 86400;
+    }
+
+    // Civil date of a day since the epoch (proleptic Gregorian calendar)
+    long z = days + 719468;
+    long era = (z >= 0 ? z : z - 146096) / 146097;
+    long dayOfEra = z - era * 146097;
+    long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+    long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    long mp = (5 * dayOfYear + 2) / 153;
+    int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+    int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+    long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+    StringBuilder sb = new StringBuilder(TIMESTAMP_LENGTH);
+
+    if ((year >= 0) && (year < 1000)) {
+      appendTwoDigits(sb, (int) (year / 100));
+      appendTwoDigits(sb, (int) (year % 100));
+    } else {
+      sb.append(year);
+    }
+
+    sb.append('-');
+    appendTwoDigits(sb, month);
+    sb.append('-');
+    appendTwoDigits(sb, day);
+    sb.append('T');
+    appendTwoDigits(sb, secondOfDay / 3600);
+    sb.append(':');
+    appendTwoDigits(sb, (secondOfDay / 60) % 60);
+    sb.append(':');
+    appendTwoDigits(sb, secondOfDay % 60);
+    sb.append('.');
+
+    char[] chars = new char[sb.length()];
+
+    sb.getChars(0, chars.length, chars, 0);
+
+    return chars;
+  }
+
+  /**
+   * Appends a number from 0 to 99 with two digits.
+   *
+   * @param sb The <code>StringBuilder</code>.
+   * @param n The number.
+   */
+  private static void appendTwoDigits(StringBuilder sb, int n) {
+    sb.append((char) ('0' + n / 10)).append((char) ('0' + n % 10));
+  }
+
+  /**
+   * Gets the days since the epoch of a date of the proleptic Gregorian
+   * calendar. Out of range months and days are carried to the next fields.
+   *
+   * @param year The year.
+   * @param month The month (1 to 12).
+   * @param day The day of the month (1 to 31).
+   * @return The days since the epoch.
+   */
+  private static long daysFromCivil(long year, long month, long day) {
+    year += Math.floor((month - 1) / 12.0);
+    month = ((month - 1) % 12 + 12) % 12 + 1;
+
+    long y = (month <= 2) ? year - 1 : year;
+    long era = (y >= 0 ? y : y - 399) / 400;
+    long yearOfEra = y - era * 400;
+    long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+    long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+
+    return era * 146097 + dayOfEra - 719468;
   }
 }
@@ -0,0 +1,956 @@
+/*
+ *  This file is part of INDI for Java.
+ *
+ *  INDI for Java is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+/**
+ * An incremental parser for the INDI protocol stream. The INDI stream is a
+ * sequence of top level XML elements without a root element. This parser is
+ * fed with the characters as they arrive and keeps its scanning state between
+ * calls, so every character is examined only once. Each complete top level
+ * element is parsed exactly once and returned wrapped in a
+ * <code>&lt;INDI&gt;</code> root element, as expected by the
+ * <code>INDIProtocolParser</code> implementations.
+ *
+ * XML declarations, comments and any text outside the top level elements are
+ * discarded. The original text of each top level element is kept attached to
+ * it (see <code>getRawXML</code>) so that it can be forwarded without being
+ * serialized again.
+ *
+ * The Base64 contents of the <code>&lt;oneBLOB&gt;</code> elements of the
+ * BLOB vectors are not kept in the buffer nor in the document: they are
+ * stored in chunks as they arrive in a <code>INDIBLOBPayload</code> attached
+ * to the (empty) <code>&lt;oneBLOB&gt;</code> element (see
+ * <code>getBLOBPayload</code>), so a big BLOB is never held as a single
+ * String.
+ *
+ * @version 1.3, October 18, 2026
+ * @see INDIProtocolReader
+ */
+public class INDIIncrementalParser {
+
+  /**
+   * The key of the user data with the original text of the parsed top level
+   * elements.
+   */
+  private static final String RAW_XML_KEY = "laazotea.indi.rawXML";
+  /**
+   * The key of the user data with the payloads removed from the original text
+   * of the parsed top level elements.
+   */
+  private static final String RAW_PAYLOADS_KEY = "laazotea.indi.rawPayloads";
+  /**
+   * The key of the user data with the payload of the parsed
+   * <code>&lt;oneBLOB&gt;</code> elements.
+   */
+  private static final String BLOB_PAYLOAD_KEY = "laazotea.indi.BLOBPayload";
+  /**
+   * The name of the elements whose contents are kept out of the document.
+   */
+  private static final String BLOB_ELEMENT = "oneBLOB";
+  /**
+   * Outside any tag (character data).
+   */
+  private static final int TEXT = 0;
+  /**
+   * Inside a start tag (<code>&lt;name ...&gt;</code>).
+   */
+  private static final int START_TAG = 1;
+  /**
+   * Inside an end tag (<code>&lt;/name&gt;</code>).
+   */
+  private static final int END_TAG = 2;
+  /**
+   * Inside a processing instruction (<code>&lt;? ... ?&gt;</code>).
+   */
+  private static final int PROCESSING_INSTRUCTION = 3;
+  /**
+   * Inside a comment (<code>&lt;!-- ... --&gt;</code>).
+   */
+  private static final int COMMENT = 4;
+  /**
+   * Inside a CDATA section (<code>&lt;![CDATA[ ... ]]&gt;</code>).
+   */
+  private static final int CDATA = 5;
+  /**
+   * Inside any other declaration (<code>&lt;! ... &gt;</code>).
+   */
+  private static final int DECLARATION = 6;
+  /**
+   * The builder used to parse the complete elements.
+   */
+  private DocumentBuilder docBuilder;
+  /**
+   * The characters received but not yet returned as part of a complete
+   * element.
+   */
+  private StringBuilder pending;
+  /**
+   * The position in <code>pending</code> up to which the characters have
+   * already been scanned.
+   */
+  private int scanPos;
+  /**
+   * The position in <code>pending</code> where the current top level element
+   * starts (-1 if not inside a top level element).
+   */
+  private int elementStart;
+  /**
+   * The current scanning state.
+   */
+  private int state;
+  /**
+   * The current depth of nested elements.
+   */
+  private int depth;
+  /**
+   * The quote character of the attribute value being scanned (0 if none).
+   */
+  private char quote;
+  /**
+   * The last character scanned inside the current tag.
+   */
+  private char lastTagChar;
+  /**
+   * The position in <code>pending</code> where the contents of the current
+   * end tag, comment, CDATA section or processing instruction start.
+   */
+  private int constructStart;
+  /**
+   * The name of the current top level element. Used to recover from not well
+   * formed elements: its end tag always closes the top level element.
+   */
+  private String topLevelName;
+  /**
+   * The position in <code>pending</code> where the current start tag starts.
+   */
+  private int tagStart;
+  /**
+   * The payload of the <code>&lt;oneBLOB&gt;</code> element being received
+   * (<code>null</code> if not inside one).
+   */
+  private INDIBLOBPayload payload;
+  /**
+   * The payloads of the <code>&lt;oneBLOB&gt;</code> elements of the current
+   * top level element (<code>null</code> for self closed ones).
+   */
+  private ArrayList<INDIBLOBPayload> elementPayloads;
+  /**
+   * The position of each payload in the text of the current top level
+   * element, once the payloads have been removed (-1 for self closed
+   * elements).
+   */
+  private ArrayList<Integer> elementPayloadOffsets;
+
+  /**
+   * The limits of a complete top level element in the buffer.
+   */
+  private static class Range {
+
+    /**
+     * The start of the element.
+     */
+    private int start;
+    /**
+     * The end of the element.
+     */
+    private int end;
+    /**
+     * The payloads removed from the element (<code>null</code> if none).
+     */
+    private RawPayloads payloads;
+  }
+
+  /**
+   * The payloads removed from the text of a top level element, in order.
+   */
+  static final class RawPayloads {
+
+    /**
+     * The position of each payload in the text without payloads (-1 for self
+     * closed <code>&lt;oneBLOB&gt;</code> elements).
+     */
+    final int[] offsets;
+    /**
+     * The payloads (<code>null</code> for self closed
+     * <code>&lt;oneBLOB&gt;</code> elements).
+     */
+    final INDIBLOBPayload[] payloads;
+
+    /**
+     * Constructs the payloads of an element.
+     *
+     * @param offsets The position of each payload.
+     * @param payloads The payloads.
+     */
+    RawPayloads(int[] offsets, INDIBLOBPayload[] payloads) {
+      this.offsets = offsets;
+      this.payloads = payloads;
+    }
+  }
+
+  /**
+   * Constructs a new incremental parser.
+   *
+   * @throws ParserConfigurationException if there is no suitable XML parser in
+   * the system.
+   */
+  public INDIIncrementalParser() throws ParserConfigurationException {
+    DocumentBuilderFactory docBuilderFactory = DocumentBuilderFactory.newInstance();
+    docBuilder = docBuilderFactory.newDocumentBuilder();
+    docBuilder.setErrorHandler(new ErrorHandler() {
+
+      @Override
+      public void warning(SAXParseException e) throws SAXException {
+      }
+
+      @Override
+      public void fatalError(SAXParseException e) throws SAXException {
+      }
+
+      @Override
+      public void error(SAXParseException e) throws SAXException {
+      }
+    });
+
+    pending = new StringBuilder();
+    elementPayloads = new ArrayList<INDIBLOBPayload>();
+    elementPayloadOffsets = new ArrayList<Integer>();
+
+    reset();
+  }
+
+  /**
+   * Discards any partially received element and resets the scanning state.
+   */
+  public void reset() {
+    pending.setLength(0);
+    scanPos = 0;
+    elementStart = -1;
+    state = TEXT;
+    depth = 0;
+    quote = 0;
+    lastTagChar = 0;
+    constructStart = 0;
+    topLevelName = null;
+    tagStart = 0;
+    payload = null;
+    elementPayloads.clear();
+    elementPayloadOffsets.clear();
+  }
+
+  /**
+   * Feeds the parser with some new characters of the stream.
+   *
+   * @param chars The buffer with the new characters.
+   * @param off The offset of the first new character in <code>chars</code>.
+   * @param len The number of new characters.
+   * @return A XML document whose <code>&lt;INDI&gt;</code> root element
+   * contains every top level element completed by these characters, or
+   * <code>null</code> if no element has been completed.
+   */
+  public Document parse(char[] chars, int off, int len) {
+    pending.append(chars, off, len);
+
+    return scan();
+  }
+
+  /**
+   * Feeds the parser with some new characters of the stream.
+   *
+   * @param chars The new characters.
+   * @return A XML document whose <code>&lt;INDI&gt;</code> root element
+   * contains every top level element completed by these characters, or
+   * <code>null</code> if no element has been completed.
+   */
+  public Document parse(CharSequence chars) {
+    pending.append(chars);
+
+    return scan();
+  }
+
+  /**
+   * Gets the number of characters received and not yet parsed (the size of
+   * the element being received).
+   *
+   * @return The number of characters received and not yet parsed.
+   */
+  public int getPendingLength() {
+    return pending.length();
+  }
+
+  /**
+   * Scans the new characters in the buffer looking for complete top level
+   * elements. Only the characters not previously scanned are examined.
+   *
+   * @return A XML document with the complete elements or <code>null</code> if
+   * there is none.
+   */
+  private Document scan() {
+    ArrayList<Range> complete = null;
+    int consumed = 0;  // Characters at the beginning of pending that may be discarded
+    int length = pending.length();
+    int i = scanPos;
+
+    scanning:
+    while (i < length) {
+      if (payload != null) {  // Inside a <oneBLOB>: move its contents out of the buffer
+        int end = pending.indexOf("<", i);
+
+        if (end == -1) {
+          end = length;
+        }
+
+        payload.append(pending, i, end);
+        pending.delete(i, end);
+        length = pending.length();
+
+        if (i >= length) {
+          break;  // Wait for the rest of the contents
+        }
+
+        payload = null;
+      }
+
+      char c = pending.charAt(i);
+
+      switch (state) {
+        case TEXT:
+          if (c == '<') {
+            if (i + 1 >= length) {
+              break scanning;  // Wait for the next character
+            }
+
+            char next = pending.charAt(i + 1);
+
+            if (next == '/') {
+              state = END_TAG;
+              i += 2;
+              constructStart = i;
+            } else if (next == '?') {
+              state = PROCESSING_INSTRUCTION;
+              i += 2;
+              constructStart = i;
+            } else if (next == '!') {
+              if (startsWith(i, "<!--")) {
+                state = COMMENT;
+                i += 4;
+                constructStart = i;
+              } else if (startsWith(i, "<![CDATA[")) {
+                state = CDATA;
+                i += 9;
+                constructStart = i;
+              } else if (mayStartWith(i, "<!--") || mayStartWith(i, "<![CDATA[")) {
+                break scanning;  // Not enough characters to decide
+              } else {
+                state = DECLARATION;
+                i += 2;
+              }
+            } else {
+              if (depth == 0) {
+                elementStart = i;
+              }
+
+              tagStart = i;
+              state = START_TAG;
+              quote = 0;
+              lastTagChar = 0;
+              i++;
+            }
+          } else {
+            i++;
+          }
+
+          if ((depth == 0) && (state != START_TAG)) {
+            consumed = i;  // Text (or whatever) outside the top level elements
+          }
+          break;
+        case START_TAG:
+          if (quote != 0) {
+            if (c == quote) {
+              quote = 0;
+            }
+          } else if ((c == '"') || (c == '\'')) {
+            quote = c;
+          } else if (c == '>') {
+            state = TEXT;
+
+            if (lastTagChar != '/') {
+              if (depth == 0) {
+                topLevelName = getTagName(elementStart + 1, i);
+              }
+
+              depth++;
+
+              if ((depth == 2) && isBLOBElement(i)) {
+                payload = new INDIBLOBPayload();
+
+                elementPayloads.add(payload);
+                elementPayloadOffsets.add(i + 1 - elementStart);
+              }
+            } else if (depth == 0) {  // Self closed top level element
+              complete = addComplete(complete, elementStart, i + 1);
+              consumed = i + 1;
+              elementStart = -1;
+            } else if ((depth == 1) && isBLOBElement(i)) {
+              elementPayloads.add(null);
+              elementPayloadOffsets.add(-1);
+            }
+          } else if (!Character.isWhitespace(c)) {
+            lastTagChar = c;
+          }
+
+          i++;
+          break;
+        case END_TAG:
+          if (c == '>') {
+            state = TEXT;
+
+            if (depth > 0) {
+              if (isTagName(constructStart, i, topLevelName)) {
+                depth = 0;
+              } else {
+                depth--;
+              }
+
+              if (depth == 0) {
+                complete = addComplete(complete, elementStart, i + 1);
+                consumed = i + 1;
+                elementStart = -1;
+              }
+            }
+
+            if (depth == 0) {
+              consumed = i + 1;
+            }
+          }
+
+          i++;
+          break;
+        case PROCESSING_INSTRUCTION:
+          i = closeConstruct(i, "?>");
+          break;
+        case COMMENT:
+          i = closeConstruct(i, "-->");
+          break;
+        case CDATA:
+          i = closeConstruct(i, "]]>");
+          break;
+        case DECLARATION:
+          if (c == '>') {
+            state = TEXT;
+          }
+
+          i++;
+          break;
+      }
+
+      if ((depth == 0) && (state == TEXT) && (elementStart == -1)) {
+        consumed = i;
+      }
+    }
+
+    Document doc = null;
+
+    if (complete != null) {
+      doc = parseElements(complete);
+    }
+
+    pending.delete(0, consumed);
+    scanPos = i - consumed;
+
+    if (elementStart != -1) {
+      elementStart -= consumed;
+    }
+
+    constructStart = Math.max(0, constructStart - consumed);
+
+    return doc;
+  }
+
+  /**
+   * Checks if a construct (comment, CDATA section or processing instruction)
+   * is closed at a particular position and, if so, sets the state to
+   * <code>TEXT</code>.
+   *
+   * @param i The current position.
+   * @param end The closing sequence of the construct.
+   * @return The next position to be scanned.
+   */
+  private int closeConstruct(int i, String end) {
+    int endPos = i - end.length() + 1;
+
+    if ((endPos >= constructStart) && startsWith(endPos, end)) {
+      state = TEXT;
+    }
+
+    return i + 1;
+  }
+
+  /**
+   * Checks if the current start tag is a <code>&lt;oneBLOB&gt;</code> inside
+   * a BLOB vector, whose contents are kept out of the buffer.
+   *
+   * @param end The position of the <code>&gt;</code> of the tag.
+   * @return <code>true</code> if the contents of the element are a BLOB
+   * payload. <code>false</code> otherwise.
+   */
+  private boolean isBLOBElement(int end) {
+    int nameEnd = tagStart + 1 + BLOB_ELEMENT.length();
+
+    return (topLevelName != null) && topLevelName.endsWith("BLOBVector")
+            && (nameEnd <= end) && startsWith(tagStart + 1, BLOB_ELEMENT) && isNameEnd(pending.charAt(nameEnd));
+  }
+
+  /**
+   * Gets the name of a tag.
+   *
+   * @param start The position of the first character after the
+   * <code>&lt;</code> of the tag.
+   * @param end The position of the <code>&gt;</code> of the tag.
+   * @return The name of the tag.
+   */
+  private String getTagName(int start, int end) {
+    int nameEnd = start;
+
+    while ((nameEnd < end) && !isNameEnd(pending.charAt(nameEnd))) {
+      nameEnd++;
+    }
+
+    return pending.substring(start, nameEnd);
+  }
+
+  /**
+   * Checks if the name of an end tag is a particular one.
+   *
+   * @param start The position of the first character after the
+   * <code>&lt;/</code> of the end tag.
+   * @param end The position of the <code>&gt;</code> of the end tag.
+   * @param name The name to check.
+   * @return <code>true</code> if the end tag has that name.
+   * <code>false</code> otherwise.
+   */
+  private boolean isTagName(int start, int end, String name) {
+    if ((name == null) || !startsWith(start, name)) {
+      return false;
+    }
+
+    for (int j = start + name.length() ; j < end ; j++) {
+      if (!Character.isWhitespace(pending.charAt(j))) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Checks if a character ends the name of a tag.
+   *
+   * @param c The character.
+   * @return <code>true</code> if <code>c</code> can not be part of the name.
+   * <code>false</code> otherwise.
+   */
+  private boolean isNameEnd(char c) {
+    return Character.isWhitespace(c) || (c == '/') || (c == '>');
+  }
+
+  /**
+   * Checks if the buffer contains a particular sequence at a position.
+   *
+   * @param pos The position in the buffer.
+   * @param s The sequence to check.
+   * @return <code>true</code> if the sequence is at <code>pos</code>.
+   * <code>false</code> otherwise.
+   */
+  private boolean startsWith(int pos, String s) {
+    if (pos + s.length() > pending.length()) {
+      return false;
+    }
+
+    for (int j = 0 ; j < s.length() ; j++) {
+      if (pending.charAt(pos + j) != s.charAt(j)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Checks if the (incomplete) end of the buffer is a prefix of a particular
+   * sequence starting at a position.
+   *
+   * @param pos The position in the buffer.
+   * @param s The sequence to check.
+   * @return <code>true</code> if the buffer ends before the sequence could be
+   * completely checked and all available characters match.
+   * <code>false</code> otherwise.
+   */
+  private boolean mayStartWith(int pos, String s) {
+    if (pos + s.length() <= pending.length()) {
+      return false;
+    }
+
+    for (int j = 0 ; pos + j < pending.length() ; j++) {
+      if (pending.charAt(pos + j) != s.charAt(j)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Adds the limits of a complete element (and the payloads removed from it)
+   * to a list (created if needed).
+   *
+   * @param list The list (may be <code>null</code>).
+   * @param start The start of the element.
+   * @param end The end of the element.
+   * @return The list with the new element.
+   */
+  private ArrayList<Range> addComplete(ArrayList<Range> list, int start, int end) {
+    if (list == null) {
+      list = new ArrayList<Range>();
+    }
+
+    Range r = new Range();
+    r.start = start;
+    r.end = end;
+
+    if (!elementPayloads.isEmpty()) {
+      int[] offsets = new int[elementPayloadOffsets.size()];
+
+      for (int j = 0 ; j < offsets.length ; j++) {
+        offsets[j] = elementPayloadOffsets.get(j);
+      }
+
+      r.payloads = new RawPayloads(offsets, elementPayloads.toArray(new INDIBLOBPayload[elementPayloads.size()]));
+
+      elementPayloads.clear();
+      elementPayloadOffsets.clear();
+    }
+
+    list.add(r);
+
+    return list;
+  }
+
+  /**
+   * Parses a set of complete elements of the buffer. They are parsed in a
+   * single pass. If any of them is not well formed they are parsed one by one
+   * discarding the wrong ones.
+   *
+   * @param complete The limits of the complete elements.
+   * @return A XML document with the elements wrapped in a
+   * <code>&lt;INDI&gt;</code> element.
+   */
+  private Document parseElements(ArrayList<Range> complete) {
+    int first = complete.get(0).start;
+    int last = complete.get(complete.size() - 1).end;
+
+    Document doc = parseRange(first, last);
+
+    if (doc != null) {
+      int j = 0;
+      Node n = doc.getDocumentElement().getFirstChild();
+
+      while ((n != null) && (j < complete.size())) {
+        if (n instanceof Element) {
+          setRawXML((Element) n, complete.get(j));
+          j++;
+        }
+
+        n = n.getNextSibling();
+      }
+
+      return doc;
+    }
+
+    doc = parseRange(0, 0);  // An empty <INDI> document to collect the correct elements
+
+    if (doc == null) {
+      return null;
+    }
+
+    Element root = doc.getDocumentElement();
+
+    for (int j = 0 ; j < complete.size() ; j++) {
+      Range limits = complete.get(j);
+      Document single = parseRange(limits.start, limits.end);
+
+      if (single != null) {
+        Node n = single.getDocumentElement().getFirstChild();
+
+        while (n != null) {
+          Node imported = root.appendChild(doc.importNode(n, true));
+
+          if (imported instanceof Element) {
+            setRawXML((Element) imported, limits);
+          }
+
+          n = n.getNextSibling();
+        }
+      }
+    }
+
+    if (!root.hasChildNodes()) {
+      return null;
+    }
+
+    return doc;
+  }
+
+  /**
+   * Attaches to a parsed element the text from which it has been parsed and
+   * the payloads of its <code>&lt;oneBLOB&gt;</code> children.
+   *
+   * @param element The element.
+   * @param limits The limits of the element in the buffer.
+   */
+  private void setRawXML(Element element, Range limits) {
+    element.setUserData(RAW_XML_KEY, pending.substring(limits.start, limits.end), null);
+
+    if (limits.payloads == null) {
+      return;
+    }
+
+    element.setUserData(RAW_PAYLOADS_KEY, limits.payloads, null);
+
+    INDIBLOBPayload[] payloads = limits.payloads.payloads;
+    int j = 0;
+    Node n = element.getFirstChild();
+
+    while ((n != null) && (j < payloads.length)) {
+      if ((n instanceof Element) && n.getNodeName().equals(BLOB_ELEMENT)) {
+        if (payloads[j] != null) {
+          n.setUserData(BLOB_PAYLOAD_KEY, payloads[j], null);
+        }
+
+        j++;
+      }
+
+      n = n.getNextSibling();
+    }
+  }
+
+  /**
+   * Gets the text from which a top level element has been parsed. It can be
+   * forwarded as is, avoiding to transform the element back to text. If the
+   * element has BLOB payloads (see <code>getBLOBPayload</code>) they are not
+   * included in this text: use <code>INDIRawMessage.fromElement</code> to
+   * forward it.
+   *
+   * @param element The element.
+   * @return The text from which the element has been parsed or
+   * <code>null</code> if it has not been parsed by an
+   * <code>INDIIncrementalParser</code>.
+   */
+  public static String getRawXML(Element element) {
+    Object raw = element.getUserData(RAW_XML_KEY);
+
+    if (raw instanceof String) {
+      return (String) raw;
+    }
+
+    return null;
+  }
+
+  /**
+   * Gets the payloads removed from the text of a top level element.
+   *
+   * @param element The element.
+   * @return The payloads removed from the text of the element or
+   * <code>null</code> if there are none.
+   */
+  static RawPayloads getRawPayloads(Element element) {
+    Object raw = element.getUserData(RAW_PAYLOADS_KEY);
+
+    if (raw instanceof RawPayloads) {
+      return (RawPayloads) raw;
+    }
+
+    return null;
+  }
+
+  /**
+   * Gets the Base64 contents of a <code>&lt;oneBLOB&gt;</code> element of a
+   * BLOB vector, which are not part of the document.
+   *
+   * @param element The <code>&lt;oneBLOB&gt;</code> element.
+   * @return The contents of the element or <code>null</code> if they are part
+   * of the document (the element has not been parsed by an
+   * <code>INDIIncrementalParser</code>).
+   */
+  public static INDIBLOBPayload getBLOBPayload(Element element) {
+    Object payload = element.getUserData(BLOB_PAYLOAD_KEY);
+
+    if (payload instanceof INDIBLOBPayload) {
+      return (INDIBLOBPayload) payload;
+    }
+
+    return null;
+  }
+
+  /**
+   * Imports a top level element parsed by a <code>INDIIncrementalParser</code>
+   * into another document, keeping its original text and the payloads of its
+   * <code>&lt;oneBLOB&gt;</code> children (which are not copied by
+   * <code>Document.importNode</code>).
+   *
+   * @param doc The document into which the element is imported.
+   * @param element The element.
+   * @return The imported element.
+   */
+  public static Element importElement(Document doc, Element element) {
+    Element imported = (Element) doc.importNode(element, true);
+
+    Object raw = element.getUserData(RAW_XML_KEY);
+
+    if (raw != null) {
+      imported.setUserData(RAW_XML_KEY, raw, null);
+    }
+
+    raw = element.getUserData(RAW_PAYLOADS_KEY);
+
+    if (raw != null) {
+      imported.setUserData(RAW_PAYLOADS_KEY, raw, null);
+    }
+
+    Node from = element.getFirstChild();
+    Node to = imported.getFirstChild();
+
+    while ((from != null) && (to != null)) {
+      Object payload = from.getUserData(BLOB_PAYLOAD_KEY);
+
+      if (payload != null) {
+        to.setUserData(BLOB_PAYLOAD_KEY, payload, null);
+      }
+
+      from = from.getNextSibling();
+      to = to.getNextSibling();
+    }
+
+    return imported;
+  }
+
+  /**
+   * Parses a range of the buffer wrapped in a <code>&lt;INDI&gt;</code>
+   * element.
+   *
+   * @param start The start of the range.
+   * @param end The end of the range.
+   * @return The parsed document or <code>null</code> if the range is not well
+   * formed.
+   */
+  private Document parseRange(int start, int end) {
+    try {
+      return docBuilder.parse(new InputSource(new WrappedRangeReader(pending, start, end)));
+    } catch (SAXException e) {
+    } catch (IOException e) {
+    }
+
+    return null;
+  }
+
+  /**
+   * A <code>Reader</code> over a range of a <code>CharSequence</code> wrapped
+   * in a <code>&lt;INDI&gt;</code> element, to avoid copying the characters
+   * into a new String before parsing them.
+   */
+  private static class WrappedRangeReader extends Reader {
+
+    private static final String HEAD = "<INDI>";
+    private static final String TAIL = "</INDI>";
+    private CharSequence chars;
+    private int start;
+    private int end;
+    private int pos;
+
+    /**
+     * Constructs a new reader.
+     *
+     * @param chars The characters.
+     * @param start The start of the range.
+     * @param end The end of the range.
+     */
+    public WrappedRangeReader(CharSequence chars, int start, int end) {
+      this.chars = chars;
+      this.start = start;
+      this.end = end;
+      this.pos = 0;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+      int total = HEAD.length() + (end - start) + TAIL.length();
+
+      if (pos >= total) {
+        return -1;
+      }
+
+      int n = 0;
+
+      while ((n < len) && (pos < total)) {
+        if (pos < HEAD.length()) {
+          cbuf[off + n] = HEAD.charAt(pos);
+          pos++;
+          n++;
+        } else if (pos < HEAD.length() + (end - start)) {
+          int from = start + pos - HEAD.length();
+          int count = Math.min(len - n, end - from);
+
+          if (chars instanceof StringBuilder) {
+            ((StringBuilder) chars).getChars(from, from + count, cbuf, off + n);
+          } else {
+            for (int j = 0 ; j < count ; j++) {
+              cbuf[off + n + j] = chars.charAt(from + j);
+            }
+          }
+
+          pos += count;
+          n += count;
+        } else {
+          cbuf[off + n] = TAIL.charAt(pos - HEAD.length() - (end - start));
+          pos++;
+          n++;
+        }
+      }
+
+      return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+  }
+}
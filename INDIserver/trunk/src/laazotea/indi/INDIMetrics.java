@@ -0,0 +1,870 @@
+/*
+ *  This file is part of INDI for Java.
+ *
+ *  INDI for Java is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The metrics of the flow of messages through the Server and the Drivers:
+ * messages and bytes received and sent, parse and serialization times,
+ * fan-out latencies (from the reading of a message of a Device to its writing
+ * to the last Client) and outbound queue depths, kept per Client, Device,
+ * Property and Driver. They allow to tell if a slow session is caused by a
+ * Device, the parser or a Client.
+ * <p>
+ * The counters are striped and the histograms are lock free, so recording
+ * does not make the threads that send and receive the messages contend. The
+ * metrics are published by the <code>INDIMetricsReporter</code>s added to the
+ * registry, as text or JSON.
+ *
+ * @version 1.3, October 18, 2026
+ * @see INDIMetricsReporter
+ */
+public final class INDIMetrics {
+
+  /**
+   * The kinds of objects whose metrics are recorded.
+   */
+  public enum Scope {
+
+    /**
+     * The Clients connected to the Server, by their host and port.
+     */
+    CLIENT("client", "clients"),
+    /**
+     * The Devices loaded by the Server, by their identifier.
+     */
+    DEVICE("device", "devices"),
+    /**
+     * The Properties, by their Device and Property names
+     * (<code>device.property</code>).
+     */
+    PROPERTY("property", "properties"),
+    /**
+     * The Java Drivers, by their name.
+     */
+    DRIVER("driver", "drivers");
+    /**
+     * The name of the scope in the text reports.
+     */
+    private final String textName;
+    /**
+     * The name of the scope in the JSON reports.
+     */
+    private final String jsonName;
+
+    /**
+     * Constructs a new scope.
+     *
+     * @param textName The name of the scope in the text reports.
+     * @param jsonName The name of the scope in the JSON reports.
+     */
+    private Scope(String textName, String jsonName) {
+      this.textName = textName;
+      this.jsonName = jsonName;
+    }
+  }
+
+  /**
+   * The counters of every object.
+   */
+  public enum Counter {
+
+    /**
+     * The number of messages received.
+     */
+    MESSAGES_IN("messagesIn"),
+    /**
+     * The number of bytes received (characters for the Readers).
+     */
+    BYTES_IN("bytesIn"),
+    /**
+     * The number of messages sent.
+     */
+    MESSAGES_OUT("messagesOut"),
+    /**
+     * The number of bytes sent (characters for the Writers).
+     */
+    BYTES_OUT("bytesOut");
+    /**
+     * The name of the counter in the reports.
+     */
+    private final String reportName;
+
+    /**
+     * Constructs a new counter.
+     *
+     * @param reportName The name of the counter in the reports.
+     */
+    private Counter(String reportName) {
+      this.reportName = reportName;
+    }
+  }
+
+  /**
+   * The distributions of values of every object.
+   */
+  public enum Distribution {
+
+    /**
+     * The time (in nanoseconds) to parse the received characters.
+     */
+    PARSE_TIME("parseTime", true),
+    /**
+     * The time (in nanoseconds) to serialize a message.
+     */
+    SERIALIZATION_TIME("serializationTime", true),
+    /**
+     * The time (in nanoseconds) from the reading of a message of a Device to
+     * its writing to the last Client that receives it.
+     */
+    FAN_OUT_LATENCY("fanOutLatency", true),
+    /**
+     * The time (in nanoseconds) from the reading of a message of a Device to
+     * its writing to a particular Client.
+     */
+    DELIVERY_LATENCY("deliveryLatency", true),
+    /**
+     * The number of messages waiting in an outbound queue.
+     */
+    QUEUE_DEPTH("queueDepth", false);
+    /**
+     * The name of the distribution in the reports.
+     */
+    private final String reportName;
+    /**
+     * <code>true</code> if the values are times in nanoseconds.
+     */
+    private final boolean time;
+
+    /**
+     * Constructs a new distribution.
+     *
+     * @param reportName The name of the distribution in the reports.
+     * @param time <code>true</code> if the values are times in nanoseconds.
+     */
+    private Distribution(String reportName, boolean time) {
+      this.reportName = reportName;
+      this.time = time;
+    }
+  }
+
+  /**
+   * A value read when the metrics are reported (for example the current depth
+   * of a queue).
+   */
+  public interface Gauge {
+
+    /**
+     * Gets the current value.
+     *
+     * @return The current value.
+     */
+    long getValue();
+  }
+  /**
+   * The percentiles included in the reports.
+   */
+  private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+  /**
+   * The names of the percentiles in the reports.
+   */
+  private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p999"};
+  /**
+   * The registry used by the Server and the Drivers.
+   */
+  private static final INDIMetrics DEFAULT = new INDIMetrics();
+  /**
+   * Set when the metrics are being recorded.
+   */
+  private volatile boolean enabled;
+  /**
+   * The metrics of every object, by scope and name.
+   */
+  private final EnumMap<Scope, ConcurrentHashMap<String, Stats>> stats;
+  /**
+   * The reporters that publish the metrics.
+   */
+  private final CopyOnWriteArrayList<INDIMetricsReporter> reporters;
+
+  /**
+   * Constructs a new empty registry, which records the metrics.
+   */
+  public INDIMetrics() {
+    enabled = true;
+    stats = new EnumMap<Scope, ConcurrentHashMap<String, Stats>>(Scope.class);
+    reporters = new CopyOnWriteArrayList<INDIMetricsReporter>();
+
+    for (Scope scope : Scope.values()) {
+      stats.put(scope, new ConcurrentHashMap<String, Stats>());
+    }
+  }
+
+  /**
+   * Gets the registry used by the Server and the Drivers.
+   *
+   * @return The registry used by the Server and the Drivers.
+   */
+  public static INDIMetrics getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * Determines if the metrics are being recorded. The code that records them
+   * should check it before measuring anything.
+   *
+   * @return <code>true</code> if the metrics are being recorded.
+   * <code>false</code> otherwise.
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Enables or disables the recording of the metrics. The metrics already
+   * recorded are kept.
+   *
+   * @param enabled <code>true</code> to record the metrics (the default).
+   * <code>false</code> otherwise.
+   */
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /**
+   * Gets the metrics of an object, creating them if needed.
+   *
+   * @param scope The kind of object.
+   * @param name The name of the object.
+   * @return The metrics of the object.
+   */
+  public Stats getStats(Scope scope, String name) {
+    ConcurrentHashMap<String, Stats> map = stats.get(scope);
+    Stats s = map.get(name);
+
+    if (s == null) {
+      Stats created = new Stats(name);
+
+      s = map.putIfAbsent(name, created);
+
+      if (s == null) {
+        s = created;
+      }
+    }
+
+    return s;
+  }
+
+  /**
+   * Gets the metrics of a Property, creating them if needed.
+   *
+   * @param device The name of the Device.
+   * @param property The name of the Property.
+   * @return The metrics of the Property.
+   */
+  public Stats getPropertyStats(String device, String property) {
+    return getStats(Scope.PROPERTY, device + "." + property);
+  }
+
+  /**
+   * Removes the metrics of an object (for example when a Client
+   * disconnects).
+   *
+   * @param scope The kind of object.
+   * @param name The name of the object.
+   */
+  public void remove(Scope scope, String name) {
+    stats.get(scope).remove(name);
+  }
+
+  /**
+   * Removes all the metrics.
+   */
+  public void clear() {
+    for (ConcurrentHashMap<String, Stats> map : stats.values()) {
+      map.clear();
+    }
+  }
+
+  /**
+   * Starts tracing the fan-out of a message read from a Device.
+   *
+   * @param stats The metrics in which the fan-out latency will be recorded.
+   * @param readTime The time (<code>System.nanoTime()</code>) in which the
+   * message was read.
+   * @return The trace of the fan-out, or <code>null</code> if the metrics are
+   * not being recorded.
+   * @see INDIRawMessage#setFanOut(INDIMetrics.FanOut)
+   */
+  public FanOut startFanOut(Stats stats, long readTime) {
+    if (!enabled) {
+      return null;
+    }
+
+    return new FanOut(stats, readTime);
+  }
+
+  /**
+   * Adds a reporter and starts it.
+   *
+   * @param reporter The reporter.
+   * @throws IOException If the reporter cannot be started.
+   */
+  public void addReporter(INDIMetricsReporter reporter) throws IOException {
+    reporter.start(this);
+
+    reporters.add(reporter);
+  }
+
+  /**
+   * Stops a reporter and removes it.
+   *
+   * @param reporter The reporter.
+   */
+  public void removeReporter(INDIMetricsReporter reporter) {
+    if (reporters.remove(reporter)) {
+      reporter.stop();
+    }
+  }
+
+  /**
+   * Gets the reporters of the metrics.
+   *
+   * @return The reporters of the metrics.
+   */
+  public List<INDIMetricsReporter> getReporters() {
+    return new ArrayList<INDIMetricsReporter>(reporters);
+  }
+
+  /**
+   * Gets the metrics of a scope sorted by name.
+   *
+   * @param scope The scope.
+   * @return The metrics of the scope sorted by name.
+   */
+  private TreeMap<String, Stats> getSorted(Scope scope) {
+    return new TreeMap<String, Stats>(stats.get(scope));
+  }
+
+  /**
+   * Gets a human readable report of the metrics.
+   *
+   * @return A human readable report of the metrics.
+   */
+  public String getText() {
+    StringBuilder sb = new StringBuilder(4096);
+
+    try {
+      writeText(sb);
+    } catch (IOException e) {  // Not thrown by a StringBuilder
+    }
+
+    return sb.toString();
+  }
+
+  /**
+   * Writes a human readable report of the metrics: one block per object with
+   * a line per counter, distribution and gauge. The times are written in
+   * microseconds.
+   *
+   * @param out The destination of the report.
+   * @throws IOException If there is any problem writing the report.
+   */
+  public void writeText(Appendable out) throws IOException {
+    for (Scope scope : Scope.values()) {
+      for (Stats s : getSorted(scope).values()) {
+        out.append(scope.textName).append(' ').append(s.name).append('\n');
+
+        for (Counter c : Counter.values()) {
+          INDIStripedCounter counter = s.counters.get(c.ordinal());
+
+          if (counter != null) {
+            out.append("  ").append(c.reportName).append(' ').append(Long.toString(counter.sum())).append('\n');
+          }
+        }
+
+        for (Distribution d : Distribution.values()) {
+          INDIHistogram histogram = s.histograms.get(d.ordinal());
+
+          if (histogram != null) {
+            INDIHistogram.Snapshot h = histogram.getSnapshot();
+
+            out.append("  ").append(d.reportName).append(" count=").append(Long.toString(h.getCount()));
+            out.append(" mean=");
+            appendTextValue(out, (long) h.getMean(), d.time);
+
+            for (int i = 0 ; i < PERCENTILES.length ; i++) {
+              out.append(' ').append(PERCENTILE_NAMES[i]).append('=');
+              appendTextValue(out, h.getValueAtPercentile(PERCENTILES[i]), d.time);
+            }
+
+            out.append(" max=");
+            appendTextValue(out, h.getMax(), d.time);
+            out.append('\n');
+          }
+        }
+
+        for (Map.Entry<String, Gauge> g : new TreeMap<String, Gauge>(s.gauges).entrySet()) {
+          out.append("  ").append(g.getKey()).append(' ').append(Long.toString(g.getValue().getValue())).append('\n');
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes a value of a distribution for the text report.
+   *
+   * @param out The destination of the report.
+   * @param value The value.
+   * @param time <code>true</code> if the value is a time in nanoseconds, to
+   * be written in microseconds.
+   * @throws IOException If there is any problem writing the value.
+   */
+  private static void appendTextValue(Appendable out, long value, boolean time) throws IOException {
+    if (!time) {
+      out.append(Long.toString(value));
+
+      return;
+    }
+
+    String fraction = Long.toString(value % 1000);
+
+    out.append(Long.toString(value / 1000)).append('.');
+
+    for (int i = fraction.length() ; i < 3 ; i++) {
+      out.append('0');
+    }
+
+    out.append(fraction).append("us");
+  }
+
+  /**
+   * Gets a JSON report of the metrics.
+   *
+   * @return A JSON report of the metrics.
+   */
+  public String getJSON() {
+    StringBuilder sb = new StringBuilder(4096);
+
+    try {
+      writeJSON(sb);
+    } catch (IOException e) {  // Not thrown by a StringBuilder
+    }
+
+    return sb.toString();
+  }
+
+  /**
+   * Writes a JSON report of the metrics: an object with an object per scope,
+   * whose members are the objects of the scope by name. The distributions are
+   * objects with their count, mean, percentiles and maximum. The times are
+   * written in nanoseconds.
+   *
+   * @param out The destination of the report.
+   * @throws IOException If there is any problem writing the report.
+   */
+  public void writeJSON(Appendable out) throws IOException {
+    out.append("{\"enabled\":").append(enabled ? "true" : "false");
+
+    for (Scope scope : Scope.values()) {
+      out.append(",\"").append(scope.jsonName).append("\":{");
+
+      boolean first = true;
+
+      for (Stats s : getSorted(scope).values()) {
+        if (!first) {
+          out.append(',');
+        }
+
+        first = false;
+
+        appendJSONString(out, s.name);
+        out.append(":{");
+
+        boolean firstMember = true;
+
+        for (Counter c : Counter.values()) {
+          INDIStripedCounter counter = s.counters.get(c.ordinal());
+
+          if (counter != null) {
+            out.append(firstMember ? "\"" : ",\"").append(c.reportName).append("\":").append(Long.toString(counter.sum()));
+            firstMember = false;
+          }
+        }
+
+        for (Distribution d : Distribution.values()) {
+          INDIHistogram histogram = s.histograms.get(d.ordinal());
+
+          if (histogram != null) {
+            INDIHistogram.Snapshot h = histogram.getSnapshot();
+
+            out.append(firstMember ? "\"" : ",\"").append(d.reportName).append("\":{\"count\":").append(Long.toString(h.getCount()));
+            out.append(",\"mean\":").append(Long.toString(Math.round(h.getMean())));
+
+            for (int i = 0 ; i < PERCENTILES.length ; i++) {
+              out.append(",\"").append(PERCENTILE_NAMES[i]).append("\":").append(Long.toString(h.getValueAtPercentile(PERCENTILES[i])));
+            }
+
+            out.append(",\"max\":").append(Long.toString(h.getMax())).append('}');
+            firstMember = false;
+          }
+        }
+
+        for (Map.Entry<String, Gauge> g : new TreeMap<String, Gauge>(s.gauges).entrySet()) {
+          out.append(firstMember ? "" : ",");
+          appendJSONString(out, g.getKey());
+          out.append(':').append(Long.toString(g.getValue().getValue()));
+          firstMember = false;
+        }
+
+        out.append('}');
+      }
+
+      out.append('}');
+    }
+
+    out.append('}');
+  }
+
+  /**
+   * Writes a JSON string.
+   *
+   * @param out The destination of the string.
+   * @param s The string.
+   * @throws IOException If there is any problem writing the string.
+   */
+  private static void appendJSONString(Appendable out, String s) throws IOException {
+    out.append('"');
+
+    for (int i = 0 ; i < s.length() ; i++) {
+      char c = s.charAt(i);
+
+      if ((c == '"') || (c == '\\')) {
+        out.append('\\').append(c);
+      } else if (c < 0x20) {
+        String hex = Integer.toHexString(c);
+
+        out.append("\\u00");
+
+        if (hex.length() < 2) {
+          out.append('0');
+        }
+
+        out.append(hex);
+      } else {
+        out.append(c);
+      }
+    }
+
+    out.append('"');
+  }
+
+  /**
+   * The metrics of a Client, Device, Property or Driver. The counters and
+   * distributions are created when first used, so only the recorded ones are
+   * reported.
+   */
+  public static final class Stats {
+
+    /**
+     * The name of the object.
+     */
+    private final String name;
+    /**
+     * The counters, by <code>Counter</code>.
+     */
+    private final AtomicReferenceArray<INDIStripedCounter> counters;
+    /**
+     * The distributions, by <code>Distribution</code>.
+     */
+    private final AtomicReferenceArray<INDIHistogram> histograms;
+    /**
+     * The gauges, by name.
+     */
+    private final ConcurrentHashMap<String, Gauge> gauges;
+
+    /**
+     * Constructs the metrics of an object.
+     *
+     * @param name The name of the object.
+     */
+    private Stats(String name) {
+      this.name = name;
+
+      counters = new AtomicReferenceArray<INDIStripedCounter>(Counter.values().length);
+      histograms = new AtomicReferenceArray<INDIHistogram>(Distribution.values().length);
+      gauges = new ConcurrentHashMap<String, Gauge>();
+    }
+
+    /**
+     * Gets the name of the object.
+     *
+     * @return The name of the object.
+     */
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * Gets a counter, creating it if needed.
+     *
+     * @param counter The counter.
+     * @return The counter.
+     */
+    private INDIStripedCounter getCounter(Counter counter) {
+      INDIStripedCounter c = counters.get(counter.ordinal());
+
+      if (c == null) {
+        counters.compareAndSet(counter.ordinal(), null, new INDIStripedCounter());
+
+        c = counters.get(counter.ordinal());
+      }
+
+      return c;
+    }
+
+    /**
+     * Gets a distribution, creating it if needed.
+     *
+     * @param distribution The distribution.
+     * @return The distribution.
+     */
+    private INDIHistogram getHistogram(Distribution distribution) {
+      INDIHistogram h = histograms.get(distribution.ordinal());
+
+      if (h == null) {
+        histograms.compareAndSet(distribution.ordinal(), null, new INDIHistogram());
+
+        h = histograms.get(distribution.ordinal());
+      }
+
+      return h;
+    }
+
+    /**
+     * Adds a value to a counter.
+     *
+     * @param counter The counter.
+     * @param value The value to add.
+     */
+    public void add(Counter counter, long value) {
+      getCounter(counter).add(value);
+    }
+
+    /**
+     * Adds 1 to a counter.
+     *
+     * @param counter The counter.
+     */
+    public void increment(Counter counter) {
+      getCounter(counter).increment();
+    }
+
+    /**
+     * Counts a message and its size.
+     *
+     * @param messages The counter of messages (<code>MESSAGES_IN</code> or
+     * <code>MESSAGES_OUT</code>).
+     * @param bytes The counter of bytes (<code>BYTES_IN</code> or
+     * <code>BYTES_OUT</code>).
+     * @param size The size of the message.
+     */
+    public void count(Counter messages, Counter bytes, long size) {
+      getCounter(messages).increment();
+      getCounter(bytes).add(size);
+    }
+
+    /**
+     * Gets the value of a counter.
+     *
+     * @param counter The counter.
+     * @return The value of the counter (0 if never used).
+     */
+    public long get(Counter counter) {
+      INDIStripedCounter c = counters.get(counter.ordinal());
+
+      return (c == null) ? 0 : c.sum();
+    }
+
+    /**
+     * Records a value in a distribution.
+     *
+     * @param distribution The distribution.
+     * @param value The value.
+     */
+    public void record(Distribution distribution, long value) {
+      getHistogram(distribution).record(value);
+    }
+
+    /**
+     * Gets a copy of the values of a distribution.
+     *
+     * @param distribution The distribution.
+     * @return A copy of the values of the distribution (<code>null</code> if
+     * nothing has been recorded).
+     */
+    public INDIHistogram.Snapshot getSnapshot(Distribution distribution) {
+      INDIHistogram h = histograms.get(distribution.ordinal());
+
+      return (h == null) ? null : h.getSnapshot();
+    }
+
+    /**
+     * Sets a gauge, read every time the metrics are reported.
+     *
+     * @param name The name of the gauge.
+     * @param gauge The gauge (<code>null</code> to remove it).
+     */
+    public void setGauge(String name, Gauge gauge) {
+      if (gauge == null) {
+        gauges.remove(name);
+      } else {
+        gauges.put(name, gauge);
+      }
+    }
+  }
+
+  /**
+   * The trace of the fan-out of a message read from a Device. The thread that
+   * sends the message to the Clients adds every recipient and then calls
+   * <code>finish</code>. The writers of the Clients call
+   * <code>delivered</code> when they write it. The fan-out latency is
+   * recorded when the message has been written to the last Client.
+   */
+  public static final class FanOut {
+
+    /**
+     * The metrics in which the fan-out latency is recorded.
+     */
+    private final Stats stats;
+    /**
+     * The time in which the message was read.
+     */
+    private final long readTime;
+    /**
+     * The number of recipients that have not written the message yet, plus 1
+     * while the sender is adding recipients. 0 when finished.
+     */
+    private final AtomicInteger pending;
+    /**
+     * The number of recipients. Only modified by the sender.
+     */
+    private int recipients;
+
+    /**
+     * Constructs a new trace.
+     *
+     * @param stats The metrics in which the fan-out latency is recorded.
+     * @param readTime The time in which the message was read.
+     */
+    private FanOut(Stats stats, long readTime) {
+      this.stats = stats;
+      this.readTime = readTime;
+
+      pending = new AtomicInteger(1);
+      recipients = 0;
+    }
+
+    /**
+     * Gets the time (<code>System.nanoTime()</code>) in which the message
+     * was read.
+     *
+     * @return The time in which the message was read.
+     */
+    public long getReadTime() {
+      return readTime;
+    }
+
+    /**
+     * Adds a recipient of the message. Must be called by the sender before
+     * sending the message to the recipient.
+     */
+    public void addRecipient() {
+      int p = pending.get();
+
+      while (p > 0) {
+        if (pending.compareAndSet(p, p + 1)) {
+          recipients++;
+
+          return;
+        }
+
+        p = pending.get();
+      }
+    }
+
+    /**
+     * Called by the sender when the message has been sent (queued) to all
+     * its recipients.
+     */
+    public void finish() {
+      release(0, true);
+    }
+
+    /**
+     * Called by the writers of the recipients when the message has been
+     * written.
+     *
+     * @param time The time (<code>System.nanoTime()</code>) in which the
+     * message was written.
+     * @return <code>true</code> if the fan-out was in progress.
+     * <code>false</code> if it had already finished (for example if the
+     * message has been sent again from the cache of Properties).
+     */
+    public boolean delivered(long time) {
+      return release(time, false);
+    }
+
+    /**
+     * Releases a recipient (or the sender), recording the fan-out latency
+     * when it is the last one.
+     *
+     * @param time The current time.
+     * @param now <code>true</code> to read the current time only if needed,
+     * ignoring <code>time</code>.
+     * @return <code>true</code> if the fan-out was in progress.
+     * <code>false</code> if it had already finished.
+     */
+    private boolean release(long time, boolean now) {
+      int p = pending.get();
+
+      while (p > 0) {
+        if (pending.compareAndSet(p, p - 1)) {
+          if ((p == 1) && (recipients > 0)) {
+            stats.record(Distribution.FAN_OUT_LATENCY, (now ? System.nanoTime() : time) - readTime);
+          }
+
+          return true;
+        }
+
+        p = pending.get();
+      }
+
+      return false;
+    }
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ *  This file is part of INDI for Java.
+ *
+ *  INDI for Java is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi;
+
+import java.io.PrintStream;
+
+/**
+ * A reporter that periodically prints the metrics to a stream (for example
+ * <code>System.err</code>), as text or JSON.
+ *
+ * @version 1.3, October 18, 2026
+ */
+public class INDIMetricsLogReporter implements INDIMetricsReporter {
+
+  /**
+   * The stream to which the metrics are printed.
+   */
+  private PrintStream out;
+  /**
+   * The time (in milliseconds) between two reports.
+   */
+  private long periodMillis;
+  /**
+   * <code>true</code> to print JSON reports, <code>false</code> for text.
+   */
+  private boolean json;
+  /**
+   * The thread that prints the reports.
+   */
+  private Thread thread;
+
+  /**
+   * Constructs a new reporter.
+   *
+   * @param out The stream to which the metrics are printed.
+   * @param periodMillis The time (in milliseconds) between two reports.
+   * @param json <code>true</code> to print JSON reports (one per line),
+   * <code>false</code> to print text ones.
+   */
+  public INDIMetricsLogReporter(PrintStream out, long periodMillis, boolean json) {
+    this.out = out;
+    this.periodMillis = Math.max(1, periodMillis);
+    this.json = json;
+  }
+
+  @Override
+  public synchronized void start(final INDIMetrics metrics) {
+    if (thread != null) {
+      return;
+    }
+
+    thread = new Thread("INDI metrics reporter") {
+
+      @Override
+      public void run() {
+        try {
+          while (!isInterrupted()) {
+            Thread.sleep(periodMillis);
+
+            if (json) {
+              out.println(metrics.getJSON());
+            } else {
+              out.print(metrics.getText());
+            }
+
+            out.flush();
+          }
+        } catch (InterruptedException e) {
+        }
+      }
+    };
+
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  @Override
+  public synchronized void stop() {
+    if (thread != null) {
+      thread.interrupt();
+      thread = null;
+    }
+  }
+}
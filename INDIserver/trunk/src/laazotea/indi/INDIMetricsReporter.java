@@ -0,0 +1,44 @@
+/*
+ *  This file is part of INDI for Java.
+ *
+ *  INDI for Java is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi;
+
+import java.io.IOException;
+
+/**
+ * A publisher of the metrics of the Server and the Drivers (to a log, a local
+ * endpoint, ...). It is started when added to the registry and stopped when
+ * removed from it.
+ *
+ * @version 1.3, October 18, 2026
+ * @see INDIMetrics#addReporter(INDIMetricsReporter)
+ */
+public interface INDIMetricsReporter {
+
+  /**
+   * Starts publishing some metrics.
+   *
+   * @param metrics The metrics to publish.
+   * @throws IOException If the reporter cannot be started.
+   */
+  void start(INDIMetrics metrics) throws IOException;
+
+  /**
+   * Stops publishing the metrics.
+   */
+  void stop();
+}
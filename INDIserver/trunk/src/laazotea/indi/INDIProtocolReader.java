@@ -20,14 +20,7 @@ package laazotea.indi;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.StringReader;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import org.w3c.dom.Document;
-import org.xml.sax.ErrorHandler;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
-import org.xml.sax.SAXParseException;
 
 /**
  * A class that reads from a input stream and sends the read messages to a parser.
@@ -44,6 +37,16 @@ public class INDIProtocolReader extends Thread {
    * Used to friendly stop the reader.
    */
   private boolean stop;
+  /**
+   * The metrics in which the received characters and the parse times are
+   * recorded (<code>null</code> if none).
+   */
+  private volatile INDIMetrics.Stats stats;
+  /**
+   * The time (<code>System.nanoTime()</code>) in which the characters of the
+   * messages being parsed were read.
+   */
+  private long readTime;
   
   /**
    * Creates the reader.
@@ -54,43 +57,29 @@ public class INDIProtocolReader extends Thread {
   }
   
   /**
-   * The main body of the reader.
+   * The main body of the reader. The read characters are fed to an
+   * incremental parser, so each message is parsed only once, as soon as it is
+   * complete.
    */
   @Override
   public void run() {
-    DocumentBuilderFactory docBuilderFactory;
+    INDIIncrementalParser incrementalParser;
 
-    DocumentBuilder docBuilder;
     try {
-      docBuilderFactory = DocumentBuilderFactory.newInstance();
-      docBuilder = docBuilderFactory.newDocumentBuilder();
-      docBuilder.setErrorHandler(new ErrorHandler() {
-
-        @Override
-        public void warning(SAXParseException e) throws SAXException {
-        }
-
-        @Override
-        public void fatalError(SAXParseException e) throws SAXException {
-        }
-
-        @Override
-        public void error(SAXParseException e) throws SAXException {
-        }
-      });
+      incrementalParser = new INDIIncrementalParser();
     } catch (Exception e) {
       e.printStackTrace();
       return;
     }
 
-    int BUFFER_SIZE = 1000000;
-
-    StringBuffer bufferedInput = new StringBuffer();
+    int BUFFER_SIZE = 16384;
 
     char[] buffer = new char[BUFFER_SIZE];
 
     stop = false;
 
+    INDIMetrics metrics = INDIMetrics.getDefault();
+
     BufferedReader in = new BufferedReader(new InputStreamReader(parser.getInputStream()));
 
     try {
@@ -98,26 +87,19 @@ public class INDIProtocolReader extends Thread {
         int nReaded = in.read(buffer, 0, BUFFER_SIZE);
 
         if (nReaded != -1) {
-          bufferedInput.append(buffer, 0, nReaded);  // Appending to the buffer
+          readTime = System.nanoTime();
 
-          boolean errorParsing = false;
+          Document doc = incrementalParser.parse(buffer, 0, nReaded);
 
-          try {
-            String d = "<INDI>" + bufferedInput + "</INDI>";
-            //System.err.println(d);
-            d = d.replaceAll("\\<\\?xml version='...'\\?\\>", "");
-            d = d.replaceAll("\\<\\?xml version=\"...\"\\?\\>", "");
-            //    System.err.println(d);
+          INDIMetrics.Stats s = stats;
 
-            Document doc = docBuilder.parse(new InputSource(new StringReader(d)));
-
-            parser.parseXML(doc);
-          } catch (SAXException e) {
-            errorParsing = true;
+          if ((s != null) && metrics.isEnabled()) {
+            s.add(INDIMetrics.Counter.BYTES_IN, nReaded);
+            s.record(INDIMetrics.Distribution.PARSE_TIME, System.nanoTime() - readTime);
           }
 
-          if (!errorParsing) {
-            bufferedInput.setLength(0);  // Empty the buffer because it has been already parsed
+          if (doc != null) {
+            parser.parseXML(doc);
           }
         } else {  // If -1 readed, end
           stop = true;
@@ -130,6 +112,25 @@ public class INDIProtocolReader extends Thread {
     parser.finishReader();
   }
   
+  /**
+   * Sets the metrics in which the number of received characters and the
+   * parse times are recorded.
+   * @param stats The metrics (<code>null</code> to record nothing).
+   */
+  public void setMetrics(INDIMetrics.Stats stats) {
+    this.stats = stats;
+  }
+
+  /**
+   * Gets the time in which the characters of the messages being parsed were
+   * read. Only meaningful in the <code>parseXML</code> method of the parser.
+   * @return The time (<code>System.nanoTime()</code>) in which the messages
+   * being parsed were read.
+   */
+  public long getReadTime() {
+    return readTime;
+  }
+
   /**
    * Sets the stop parameter. If set to <code>true</code> the reader will gracefully stop after the next read.
    * @param stop
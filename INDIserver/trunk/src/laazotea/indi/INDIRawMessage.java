@@ -0,0 +1,471 @@
+/*
+ *  This file is part of INDI for Java.
+ *
+ *  INDI for Java is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.w3c.dom.Element;
+
+/**
+ * An immutable INDI message already serialized to bytes. It allows to
+ * serialize a message once and send the same bytes to any number of
+ * recipients. Messages parsed by <code>INDIIncrementalParser</code> keep their
+ * original text, so they are forwarded without any transformation.
+ *
+ * The Base64 contents of the BLOBs of a message (see
+ * <code>INDIBLOBPayload</code>) are not copied into the message: they are
+ * written from their chunks between the encoded pieces of the rest of the
+ * text, so big BLOBs are forwarded without building them as a whole.
+ *
+ * @version 1.3, October 18, 2026
+ */
+public final class INDIRawMessage {
+
+  /**
+   * The encoding of the messages.
+   */
+  public static final String ENCODING = "UTF-8";
+  /**
+   * The <code>size</code> attribute of a <code>oneBLOB</code> element.
+   */
+  private static final Pattern SIZE_ATTRIBUTE = Pattern.compile("(\\ssize\\s*=\\s*)(\"[^\"]*\"|'[^']*')");
+  /**
+   * The <code>format</code> attribute of a compressed <code>oneBLOB</code>
+   * element.
+   */
+  private static final Pattern COMPRESSED_FORMAT_ATTRIBUTE = Pattern.compile("(\\sformat\\s*=\\s*([\"'])[^\"']*)\\.z(\\2)");
+  /**
+   * The text of the message (without the BLOB payloads).
+   */
+  private final String xml;
+  /**
+   * The encoded message (without the BLOB payloads). Never modified.
+   */
+  private final byte[] bytes;
+  /**
+   * The BLOB payloads of the message (<code>null</code> if none).
+   */
+  private final INDIBLOBPayload[] payloads;
+  /**
+   * The position in <code>bytes</code> of each BLOB payload.
+   */
+  private final int[] payloadOffsets;
+  /**
+   * The position in <code>xml</code> of each BLOB payload.
+   */
+  private final int[] payloadCharOffsets;
+  /**
+   * The size of the encoded message (with the BLOB payloads).
+   */
+  private final int size;
+  /**
+   * The name of the message element (<code>setNumberVector</code>,
+   * <code>message</code>, ...).
+   */
+  private final String elementName;
+  /**
+   * The <code>device</code> attribute of the message (empty if none).
+   */
+  private final String device;
+  /**
+   * The <code>name</code> attribute of the message (empty if none).
+   */
+  private final String property;
+  /**
+   * The trace of the fan-out of the message to the Clients, if the metrics
+   * are being recorded. It is not part of the contents of the message.
+   */
+  private volatile INDIMetrics.FanOut fanOut;
+
+  /**
+   * Constructs a new message from its text.
+   *
+   * @param xml The text of the message.
+   * @param elementName The name of the message element.
+   * @param device The <code>device</code> attribute of the message.
+   * @param property The <code>name</code> attribute of the message.
+   */
+  public INDIRawMessage(String xml, String elementName, String device, String property) {
+    this.xml = xml;
+    this.bytes = encode(xml);
+    this.payloads = null;
+    this.payloadOffsets = null;
+    this.payloadCharOffsets = null;
+    this.size = bytes.length;
+    this.elementName = elementName;
+    this.device = device;
+    this.property = property;
+  }
+
+  /**
+   * Constructs a new message from its text and the BLOB payloads removed from
+   * it.
+   *
+   * @param xml The text of the message without the payloads.
+   * @param raw The payloads and their positions in <code>xml</code>.
+   * @param elementName The name of the message element.
+   * @param device The <code>device</code> attribute of the message.
+   * @param property The <code>name</code> attribute of the message.
+   */
+  private INDIRawMessage(String xml, INDIIncrementalParser.RawPayloads raw, String elementName, String device, String property) {
+    int n = 0;
+
+    for (int i = 0 ; i < raw.payloads.length ; i++) {
+      if (raw.payloads[i] != null) {
+        n++;
+      }
+    }
+
+    this.xml = xml;
+    this.bytes = encode(xml);
+    this.payloads = new INDIBLOBPayload[n];
+    this.payloadOffsets = new int[n];
+    this.payloadCharOffsets = new int[n];
+    this.elementName = elementName;
+    this.device = device;
+    this.property = property;
+
+    long total = bytes.length;
+    n = 0;
+
+    for (int i = 0 ; i < raw.payloads.length ; i++) {
+      if (raw.payloads[i] != null) {
+        payloads[n] = raw.payloads[i];
+        payloadCharOffsets[n] = raw.offsets[i];
+        payloadOffsets[n] = encode(xml.substring(0, raw.offsets[i])).length;
+        total += payloads[n].getLength();
+        n++;
+      }
+    }
+
+    this.size = (int) Math.min(Integer.MAX_VALUE, total);
+  }
+
+  /**
+   * Constructs a new message from its text, without information about its
+   * element, device or property.
+   *
+   * @param xml The text of the message.
+   */
+  public INDIRawMessage(String xml) {
+    this(xml, "", "", "");
+  }
+
+  /**
+   * Creates a message from a XML element. The original text of the element is
+   * used if it is available. Otherwise the element is serialized.
+   *
+   * @param xml The element.
+   * @return The message.
+   */
+  public static INDIRawMessage fromElement(Element xml) {
+    String text = INDIIncrementalParser.getRawXML(xml);
+
+    if (text == null) {
+      text = XMLToString.transform(xml);
+    } else {
+      INDIIncrementalParser.RawPayloads raw = INDIIncrementalParser.getRawPayloads(xml);
+
+      if (raw != null) {
+        return new INDIRawMessage(text, raw, xml.getNodeName(), xml.getAttribute("device").trim(), xml.getAttribute("name").trim());
+      }
+    }
+
+    return new INDIRawMessage(text, xml.getNodeName(), xml.getAttribute("device").trim(), xml.getAttribute("name").trim());
+  }
+
+  /**
+   * Encodes a text.
+   *
+   * @param xml The text.
+   * @return The encoded text.
+   */
+  private static byte[] encode(String xml) {
+    try {
+      return xml.getBytes(ENCODING);
+    } catch (UnsupportedEncodingException e) {
+      return xml.getBytes();
+    }
+  }
+
+  /**
+   * Gets the text of the message. If the message has BLOB payloads the whole
+   * text is built on every call: prefer <code>writeTo</code> or
+   * <code>addBuffers</code> to send it.
+   *
+   * @return The text of the message.
+   */
+  public String getXML() {
+    return getXML(Long.MAX_VALUE);
+  }
+
+  /**
+   * Gets the text of the message with its BLOB payloads cut to a maximum
+   * length. Used to keep the text of big BLOBs without their whole contents.
+   * The BLOBs that were not separated from the text (the small ones) are not
+   * cut.
+   *
+   * The cut payloads keep a whole number of Base64 quanta and the
+   * <code>size</code> of their <code>oneBLOB</code> elements is rewritten to
+   * the number of bytes they still hold, so the message is still well formed.
+   * A <code>.z</code> suffix is removed from their <code>format</code>, as a
+   * cut compressed BLOB cannot be uncompressed. Their data is not the
+   * original one anyway: such messages are only useful to test the protocol.
+   *
+   * @param maxPayloadLength The maximum number of characters of every BLOB
+   * payload.
+   * @return The text of the message.
+   */
+  public String getXML(long maxPayloadLength) {
+    if (payloads == null) {
+      return xml;
+    }
+
+    long length = xml.length();
+
+    for (int i = 0 ; i < payloads.length ; i++) {
+      length += Math.min(maxPayloadLength, payloads[i].getLength());
+    }
+
+    StringBuilder sb = new StringBuilder((int) Math.min(Integer.MAX_VALUE, length));
+    int last = 0;
+
+    for (int i = 0 ; i < payloads.length ; i++) {
+      sb.append(xml, last, payloadCharOffsets[i]);
+
+      if (payloads[i].getLength() > maxPayloadLength) {
+        int tag = sb.lastIndexOf("<");
+        int start = sb.length();
+
+        payloads[i].appendTo(sb, maxPayloadLength);
+
+        long size = cutToQuanta(sb, start);
+
+        sb.replace(tag, start, rewriteCutBLOBTag(sb.substring(tag, start), size));
+      } else {
+        payloads[i].appendTo(sb);
+      }
+
+      last = payloadCharOffsets[i];
+    }
+
+    sb.append(xml, last, xml.length());
+
+    return sb.toString();
+  }
+
+  /**
+   * Removes the last characters of a cut Base64 text until it has a whole
+   * number of quanta (groups of 4 characters, not counting the whitespace).
+   *
+   * @param sb The text.
+   * @param start The beginning of the Base64 text in <code>sb</code>.
+   * @return The number of bytes encoded by the remaining Base64 text.
+   */
+  private static long cutToQuanta(StringBuilder sb, int start) {
+    long chars = 0;
+    long padding = 0;
+
+    for (int i = start ; i < sb.length() ; i++) {
+      char c = sb.charAt(i);
+
+      if (!Character.isWhitespace(c)) {
+        chars++;
+
+        if (c == '=') {
+          padding++;
+        }
+      }
+    }
+
+    int end = sb.length();
+
+    while (chars % 4 != 0) {
+      char c = sb.charAt(--end);
+
+      if (!Character.isWhitespace(c)) {
+        chars--;
+
+        if (c == '=') {
+          padding--;
+        }
+      }
+    }
+
+    sb.setLength(end);
+
+    return chars / 4 * 3 - padding;
+  }
+
+  /**
+   * Rewrites the start tag of a <code>oneBLOB</code> element whose payload has
+   * been cut: its <code>size</code> becomes the size of the remaining data and
+   * its <code>format</code> loses any <code>.z</code> suffix.
+   *
+   * @param tag The start tag.
+   * @param size The number of bytes of the cut payload.
+   * @return The rewritten start tag.
+   */
+  private static String rewriteCutBLOBTag(String tag, long size) {
+    Matcher m = SIZE_ATTRIBUTE.matcher(tag);
+
+    if (m.find()) {
+      tag = tag.substring(0, m.start()) + m.group(1) + "\"" + size + "\"" + tag.substring(m.end());
+    }
+
+    return COMPRESSED_FORMAT_ATTRIBUTE.matcher(tag).replaceFirst("$1$3");
+  }
+
+  /**
+   * Gets the encoded message. The returned array is shared and must not be
+   * modified. If the message has BLOB payloads the whole message is encoded on
+   * every call: prefer <code>writeTo</code> or <code>addBuffers</code> to
+   * send it.
+   *
+   * @return The encoded message.
+   */
+  public byte[] getBytes() {
+    if (payloads == null) {
+      return bytes;
+    }
+
+    ByteArrayOutputStream os = new ByteArrayOutputStream(size);
+
+    try {
+      writeTo(os);
+    } catch (IOException e) {
+    }
+
+    return os.toByteArray();
+  }
+
+  /**
+   * Gets the size of the encoded message.
+   *
+   * @return The size in bytes of the encoded message.
+   */
+  public int getSize() {
+    return size;
+  }
+
+  /**
+   * Gets the name of the message element.
+   *
+   * @return The name of the message element.
+   */
+  public String getElementName() {
+    return elementName;
+  }
+
+  /**
+   * Gets the <code>device</code> attribute of the message.
+   *
+   * @return The <code>device</code> attribute of the message.
+   */
+  public String getDevice() {
+    return device;
+  }
+
+  /**
+   * Gets the <code>name</code> attribute of the message.
+   *
+   * @return The <code>name</code> attribute of the message.
+   */
+  public String getProperty() {
+    return property;
+  }
+
+  /**
+   * Gets the trace of the fan-out of the message to the Clients.
+   *
+   * @return The trace of the fan-out (<code>null</code> if it is not being
+   * traced).
+   */
+  public INDIMetrics.FanOut getFanOut() {
+    return fanOut;
+  }
+
+  /**
+   * Sets the trace of the fan-out of the message to the Clients, whose
+   * writers notify it when they write the message.
+   *
+   * @param fanOut The trace of the fan-out.
+   */
+  public void setFanOut(INDIMetrics.FanOut fanOut) {
+    this.fanOut = fanOut;
+  }
+
+  /**
+   * Writes the encoded message to a stream.
+   *
+   * @param os The stream.
+   * @throws IOException If there is any problem writing to the stream.
+   */
+  public void writeTo(OutputStream os) throws IOException {
+    if (payloads == null) {
+      os.write(bytes);
+
+      return;
+    }
+
+    int last = 0;
+
+    for (int i = 0 ; i < payloads.length ; i++) {
+      os.write(bytes, last, payloadOffsets[i] - last);
+      payloads[i].writeTo(os);
+      last = payloadOffsets[i];
+    }
+
+    os.write(bytes, last, bytes.length - last);
+  }
+
+  /**
+   * Adds read only buffers with the pieces of the encoded message to a
+   * collection, to write them to a channel without copying the BLOB payloads.
+   *
+   * @param buffers The collection to which the buffers are added.
+   */
+  public void addBuffers(Collection<ByteBuffer> buffers) {
+    if (payloads == null) {
+      buffers.add(ByteBuffer.wrap(bytes).asReadOnlyBuffer());
+
+      return;
+    }
+
+    int last = 0;
+
+    for (int i = 0 ; i < payloads.length ; i++) {
+      buffers.add(ByteBuffer.wrap(bytes, last, payloadOffsets[i] - last).asReadOnlyBuffer());
+      payloads[i].addBuffers(buffers);
+      last = payloadOffsets[i];
+    }
+
+    buffers.add(ByteBuffer.wrap(bytes, last, bytes.length - last).asReadOnlyBuffer());
+  }
+
+  @Override
+  public String toString() {
+    return getXML();
+  }
+}
@@ -17,19 +17,58 @@
  */
 package laazotea.indi;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.util.Formatter;
 import java.util.Locale;
 import java.util.NoSuchElementException;
 import java.util.StringTokenizer;
 
 /**
- * A class to format and parse numbers in sexagesimal format.
+ * A class to format and parse numbers in sexagesimal format. The instances are
+ * immutable and may be shared by several threads. The usual numbers are
+ * formatted and parsed without creating any intermediate object: they can be
+ * formatted directly into a <code>StringBuilder</code> or an array of
+ * characters.
  *
  * @author S. Alonso (Zerjillo) [zerjio at zerjio.com]
  * @version 1.10, March 19, 2012
  */
 public class INDISexagesimalFormatter {
 
+  /**
+   * The maximum number of characters of a finite number below 2<sup>31</sup>
+   * formatted by any instance.
+   */
+  public static final int MAX_FORMATTED_LENGTH = 20;
+  /**
+   * The biggest mantissa parsed exactly (2<sup>53</sup>).
+   */
+  private static final long MAX_EXACT_MANTISSA = 1L << 53;
+  /**
+   * The powers of ten that are exactly represented as doubles.
+   */
+  private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+  /**
+   * The powers of ten used to round minutes and seconds.
+   */
+  private static final long[] POWERS_OF_TEN_LONG = {1, 10, 100};
+  /**
+   * The distance to a tie below which a number is rounded through its decimal
+   * representation.
+   */
+  private static final double TIE_MARGIN = 1e-9;
+  /**
+   * A buffer per thread to format numbers into <code>String</code>s and
+   * <code>StringBuilder</code>s.
+   */
+  private static final ThreadLocal<char[]> BUFFER = new ThreadLocal<char[]>() {
+
+    @Override
+    protected char[] initialValue() {
+      return new char[MAX_FORMATTED_LENGTH];
+    }
+  };
   private String format;
   private int length;
   private int fractionLength;
@@ -173,39 +212,40 @@ public class INDISexagesimalFormatter {
    * <code>String</code> is formatted as a maximum of three doubles separated by
    * : ; or a blank space. The first number represents the number of degrees,
    * the second is the number of minutes and the third is the number of seconds.
+   * Any character other than digits, signs, dots and separators is ignored.
+   * <p>
+   * The number is parsed in place, without creating intermediate
+   * <code>String</code>s.
    *
    * @param number The number to be parsed.
    * @return The parsed double.
    * @throws IllegalArgumentException if the number format is not correct.
    */
   public double parseSexagesimal(String number) throws IllegalArgumentException {
-    number = number.trim();
+    int start = 0;
+    int end = number.length();
 
-    if (number.length() == 0) {
+    while ((start < end) && (number.charAt(start) <= ' ')) {  // Like String.trim()
+      start++;
+    }
+
+    while ((end > start) && (number.charAt(end - 1) <= ' ')) {
+      end--;
+    }
+
+    if (start == end) {
       throw new IllegalArgumentException("Empty number");
     }
-    
-  //delete all chars other than number-related ones
-    int i=0;
-    String tmp = "";
-    while (i<number.length()) {
-        
-        if (((number.charAt(i) > (char) 41)
-          && (number.charAt(i) < (char) 60))
-          || (number.charAt(i) == (char) 32)) tmp = tmp + number.charAt(i); 
-        i++;
-    }
-    number = tmp;
-    number = number.replace(' ', ':');
-    number = number.replace(';', ':');
-    number = number.replace('*', ':');
-    
-    //number = number.replace(' ', ':');
-    //number = number.replace(';', ':');
 
-    int charCount = number.length() - number.replaceAll(":", "").length();
+    int separators = 0;
 
-    if (charCount > 2) {
+    for (int i = start ; i < end ; i++) {
+      if (isSeparator(number.charAt(i))) {
+        separators++;
+      }
+    }
+
+    if (separators > 2) {
       throw new IllegalArgumentException("Too many components for the sexagesimal formatter");
     }
 
@@ -213,44 +253,56 @@ public class INDISexagesimalFormatter {
     double minutes = 0;
     double seconds = 0;
 
-    StringTokenizer st = new StringTokenizer(number, ":", false);
+    int component = 0;
+    int tokenStart = -1;
 
-    String d = st.nextToken().trim();
+    for (int i = start ; i <= end ; i++) {
+      char c = (i < end) ? number.charAt(i) : ':';
 
-    try {
-      degrees = Double.parseDouble(d);
-    } catch (NumberFormatException e) {
-      throw new IllegalArgumentException("Number format incorrect");
-    }
+      if (isSeparator(c)) {
+        if (tokenStart != -1) {
+          double n = parseComponent(number, tokenStart, i);
 
-    if (st.hasMoreTokens()) {
-      String m = st.nextToken().trim();
+          if (component == 0) {
+            if (Double.isNaN(n)) {
+              throw new IllegalArgumentException("Number format incorrect");
+            }
 
-      try {
-        minutes = Double.parseDouble(m);
-      } catch (NumberFormatException e) {
-        throw new IllegalArgumentException("Minutes format incorrect");
-      }
+            degrees = n;
+          } else if (component == 1) {
+            if (Double.isNaN(n)) {
+              throw new IllegalArgumentException("Minutes format incorrect");
+            }
 
-      if (minutes < 0) {
-        throw new IllegalArgumentException("Minutes cannot be negative");
-      }
+            if (n < 0) {
+              throw new IllegalArgumentException("Minutes cannot be negative");
+            }
 
-      if (st.hasMoreTokens()) {
-        String s = st.nextToken().trim();
+            minutes = n;
+          } else {
+            if (Double.isNaN(n)) {
+              throw new IllegalArgumentException("Seconds format incorrect");
+            }
 
-        try {
-          seconds = Double.parseDouble(s);
-        } catch (NumberFormatException e) {
-          throw new IllegalArgumentException("Seconds format incorrect");
-        }
+            if (n < 0) {
+              throw new IllegalArgumentException("Seconds cannot be negative");
+            }
+
+            seconds = n;
+          }
 
-        if (seconds < 0) {
-          throw new IllegalArgumentException("Seconds cannot be negative");
+          component++;
+          tokenStart = -1;
         }
+      } else if ((tokenStart == -1) && isNumberChar(c)) {
+        tokenStart = i;
       }
     }
 
+    if (component == 0) {  // Nothing but ignored characters
+      throw new NoSuchElementException();
+    }
+
     double res = degrees;
     if (degrees > 0) {
       res += (minutes / 60.0) + (seconds / 3600.0);
@@ -261,13 +313,171 @@ public class INDISexagesimalFormatter {
     return res;
   }
 
+  /**
+   * Checks if a character separates the components of a sexagesimal number.
+   *
+   * @param c The character.
+   * @return <code>true</code> if it is <code>:</code>, <code>;</code>,
+   * <code>*</code> or a blank space.
+   */
+  private static boolean isSeparator(char c) {
+    return (c == ':') || (c == ';') || (c == '*') || (c == ' ');
+  }
+
+  /**
+   * Checks if a character may be part of a component of a sexagesimal number
+   * (any other character is ignored).
+   *
+   * @param c The character.
+   * @return <code>true</code> if it is a digit, a sign, a dot, a comma or a
+   * slash.
+   */
+  private static boolean isNumberChar(char c) {
+    return (c >= '+') && (c <= '9');
+  }
+
+  /**
+   * Parses a component of a sexagesimal number, ignoring the characters that
+   * cannot be part of it. The component must be a decimal number as accepted by
+   * <code>Double.parseDouble</code>. The usual short numbers are parsed
+   * directly and exactly (a long mantissa divided by a power of ten), the rest
+   * by <code>Double.parseDouble</code>.
+   *
+   * @param s The <code>String</code> with the component.
+   * @param start The position of the first character of the component.
+   * @param end The position after the last character of the component.
+   * @return The component or <code>NaN</code> if it is not a correct number.
+   */
+  private static double parseComponent(String s, int start, int end) {
+    boolean negative = false;
+    boolean signAllowed = true;
+    boolean dot = false;
+    int digits = 0;
+    int decimals = 0;
+    long mantissa = 0;
+    boolean exact = true;
+
+    for (int i = start ; i < end ; i++) {
+      char c = s.charAt(i);
+
+      if (!isNumberChar(c)) {
+        continue;
+      }
+
+      if ((c == '+') || (c == '-')) {
+        if (!signAllowed) {
+          return Double.NaN;
+        }
+
+        negative = c == '-';
+      } else if (c == '.') {
+        if (dot) {
+          return Double.NaN;
+        }
+
+        dot = true;
+      } else if ((c >= '0') && (c <= '9')) {
+        if (mantissa < MAX_EXACT_MANTISSA / 10) {
+          mantissa = mantissa * 10 + (c - '0');
+        } else {
+          exact = false;
+        }
+
+        digits++;
+
+        if (dot) {
+          decimals++;
+        }
+      } else {  // , or /
+        return Double.NaN;
+      }
+
+      signAllowed = false;
+    }
+
+    if (digits == 0) {
+      return Double.NaN;
+    }
+
+    if (exact && (decimals < POWERS_OF_TEN.length)) {
+      double n = mantissa / POWERS_OF_TEN[decimals];
+
+      return negative ? -n : n;
+    }
+
+    StringBuilder sb = new StringBuilder(end - start);
+
+    for (int i = start ; i < end ; i++) {
+      if (isNumberChar(s.charAt(i))) {
+        sb.append(s.charAt(i));
+      }
+    }
+
+    return Double.parseDouble(sb.toString());
+  }
+
   /**
    * Fomats a number according to the number format os this formatter.
    * @param number the number to be formatted.
    * @return The formatted number as a <code>String</code>.
    */
   public String format(Double number) {
-    String fractionalPart = ":";
+    return format(number.doubleValue());
+  }
+
+  /**
+   * Fomats a number according to the number format os this formatter.
+   * @param number the number to be formatted.
+   * @return The formatted number as a <code>String</code>.
+   */
+  public String format(double number) {
+    if (!isFastFormat(number)) {
+      return formatWithFormatter(number);
+    }
+
+    char[] buffer = BUFFER.get();
+
+    return new String(buffer, 0, format(number, buffer, 0));
+  }
+
+  /**
+   * Fomats a number according to the number format os this formatter and
+   * appends it to a <code>StringBuilder</code>, without creating any
+   * intermediate object.
+   *
+   * @param number the number to be formatted.
+   * @param sb The <code>StringBuilder</code> to which the formatted number is
+   * appended.
+   * @return The <code>StringBuilder</code>.
+   */
+  public StringBuilder format(double number, StringBuilder sb) {
+    if (!isFastFormat(number)) {
+      return sb.append(formatWithFormatter(number));
+    }
+
+    char[] buffer = BUFFER.get();
+
+    return sb.append(buffer, 0, format(number, buffer, 0));
+  }
+
+  /**
+   * Fomats a number according to the number format os this formatter into an
+   * array of characters, without creating any intermediate object. Finite
+   * numbers below 2<sup>31</sup> need at most
+   * <code>MAX_FORMATTED_LENGTH</code> characters.
+   *
+   * @param number the number to be formatted.
+   * @param dest The array to which the formatted number is written.
+   * @param offset The position of <code>dest</code> where the first character
+   * is written.
+   * @return The number of characters written.
+   * @throws IndexOutOfBoundsException if the formatted number does not fit in
+   * <code>dest</code>.
+   */
+  public int format(double number, char[] dest, int offset) {
+    if (!isFastFormat(number)) {
+      return copyFormatted(formatWithFormatter(number), dest, offset);
+    }
 
     int integerPart;
 
@@ -279,7 +489,223 @@ public class INDISexagesimalFormatter {
 
     double fractional = Math.abs(number - integerPart);
 
-    //   System.out.println(fractional);
+    long minutes;
+    long seconds = 0;
+    int decimals;
+
+    if (fractionLength < 6) {
+      decimals = (fractionLength == 5) ? 1 : 0;
+      minutes = roundHalfUp(fractional * 60, decimals);
+
+      if (minutes >= 60 * POWERS_OF_TEN_LONG[decimals]) {
+        minutes = 0;
+        integerPart = carry(integerPart);
+      }
+    } else {
+      minutes = (long) Math.floor(fractional * 60);
+
+      double rest = fractional - ((double) minutes / 60.0);
+
+      double s = rest * 3600;
+
+      if (s < 0) {  // A rounding error, formatted as -0 by the original algorithm
+        return copyFormatted(formatWithFormatter(number), dest, offset);
+      }
+
+      decimals = 0;
+      if (fractionLength == 8) {
+        decimals = 1;
+      } else if (fractionLength == 9) {
+        decimals = 2;
+      }
+
+      seconds = roundHalfUp(s, decimals);
+
+      if (seconds >= 60 * POWERS_OF_TEN_LONG[decimals]) {
+        seconds = 0;
+        minutes++;
+      }
+
+      if (minutes >= 60) {
+        minutes = 0;
+        integerPart = carry(integerPart);
+      }
+    }
+
+    int pos = writeInteger(integerPart, dest, offset);
+
+    dest[pos++] = ':';
+
+    if (fractionLength < 6) {
+      pos = writeFixed(minutes, decimals, dest, pos);
+    } else {
+      pos = writeFixed(minutes, 0, dest, pos);
+      dest[pos++] = ':';
+      pos = writeFixed(seconds, decimals, dest, pos);
+    }
+
+    return pos - offset;
+  }
+
+  /**
+   * Copies a formatted number to an array of characters.
+   *
+   * @param formatted The formatted number.
+   * @param dest The array.
+   * @param offset The position where the first character is written.
+   * @return The number of characters written.
+   */
+  private static int copyFormatted(String formatted, char[] dest, int offset) {
+    if (offset + formatted.length() > dest.length) {
+      throw new IndexOutOfBoundsException("Formatted number does not fit in the array");
+    }
+
+    formatted.getChars(0, formatted.length(), dest, offset);
+
+    return formatted.length();
+  }
+
+  /**
+   * Checks if a number can be formatted by the allocation free algorithm.
+   *
+   * @param number The number.
+   * @return <code>true</code> if the number is finite and its integer part
+   * (plus one) fits in an <code>int</code>.
+   */
+  private static boolean isFastFormat(double number) {
+    return (number > -Integer.MAX_VALUE) && (number < Integer.MAX_VALUE);
+  }
+
+  /**
+   * Adds one (in absolute value) to the integer part of a number whose
+   * fractional part has been rounded up to 60.
+   *
+   * @param integerPart The integer part.
+   * @return The new integer part.
+   */
+  private static int carry(int integerPart) {
+    if (integerPart >= 0) {
+      return integerPart + 1;
+    }
+
+    return integerPart - 1;
+  }
+
+  /**
+   * Rounds a non negative number to some decimals with the half up rounding
+   * of <code>java.util.Formatter</code> (which rounds the shortest decimal
+   * representation of the number, not its exact binary value). Only the
+   * numbers very close to a tie are rounded through a
+   * <code>BigDecimal</code>.
+   *
+   * @param value The number.
+   * @param decimals The number of decimals (0, 1 or 2).
+   * @return The rounded number multiplied by 10<sup>decimals</sup>.
+   */
+  private static long roundHalfUp(double value, int decimals) {
+    double scaled = value * POWERS_OF_TEN[decimals];
+    double floor = Math.floor(scaled);
+    double diff = scaled - floor - 0.5;
+
+    if (diff > TIE_MARGIN) {
+      return (long) floor + 1;
+    } else if (diff < -TIE_MARGIN) {
+      return (long) floor;
+    }
+
+    return new BigDecimal(Double.toString(value)).setScale(decimals, RoundingMode.HALF_UP).unscaledValue().longValue();
+  }
+
+  /**
+   * Writes an integer in an array of characters.
+   *
+   * @param n The integer (not <code>Integer.MIN_VALUE</code>).
+   * @param dest The array.
+   * @param pos The position where the first character is written.
+   * @return The position after the last written character.
+   */
+  private static int writeInteger(int n, char[] dest, int pos) {
+    if (n < 0) {
+      dest[pos++] = '-';
+      n = -n;
+    }
+
+    int digits = 1;
+
+    for (int aux = n ; aux >= 10 ; aux /= 10) {
+      digits++;
+    }
+
+    int end = pos + digits;
+
+    if (end > dest.length) {
+      throw new IndexOutOfBoundsException("Formatted number does not fit in the array");
+    }
+
+    for (int i = end - 1 ; i >= pos ; i--) {
+      dest[i] = (char) ('0' + (n % 10));
+      n /= 10;
+    }
+
+    return end;
+  }
+
+  /**
+   * Writes a number below 60 (minutes or seconds) in an array of characters
+   * with two digits for the integer part and some decimals, like the
+   * <code>%02.0f</code>, <code>%04.1f</code> and <code>%05.2f</code> formats.
+   *
+   * @param scaled The number multiplied by 10<sup>decimals</sup>.
+   * @param decimals The number of decimals.
+   * @param dest The array.
+   * @param pos The position where the first character is written.
+   * @return The position after the last written character.
+   */
+  private static int writeFixed(long scaled, int decimals, char[] dest, int pos) {
+    int end = pos + 2 + ((decimals > 0) ? decimals + 1 : 0);
+
+    if (end > dest.length) {
+      throw new IndexOutOfBoundsException("Formatted number does not fit in the array");
+    }
+
+    int i = end - 1;
+
+    for (int d = 0 ; d < decimals ; d++) {
+      dest[i--] = (char) ('0' + (scaled % 10));
+      scaled /= 10;
+    }
+
+    if (decimals > 0) {
+      dest[i--] = '.';
+    }
+
+    dest[i--] = (char) ('0' + (scaled % 10));
+    dest[i] = (char) ('0' + ((scaled / 10) % 10));
+
+    return end;
+  }
+
+  /**
+   * Fomats a number according to the number format os this formatter with a
+   * <code>java.util.Formatter</code>. It is the original algorithm, used for
+   * the numbers (infinite, not a number or too big) that the allocation free
+   * one does not handle.
+   *
+   * @param number the number to be formatted.
+   * @return The formatted number as a <code>String</code>.
+   */
+  private String formatWithFormatter(double number) {
+    String fractionalPart = ":";
+
+    int integerPart;
+
+    if (number > 0) {
+      integerPart = (int) Math.floor(number);
+    } else {
+      integerPart = (int) Math.ceil(number);
+    }
+
+    double fractional = Math.abs(number - integerPart);
 
     if (fractionLength < 6) {
       double minutes = fractional * 60;
@@ -341,22 +767,6 @@ public class INDISexagesimalFormatter {
       fractionalPart += formatter.format("%02.0f:" + form, minutes, seconds);
     }
 
-
-    String res = integerPart + fractionalPart;
-
-    res = padLeft(res, length);
-
-    return res;
-  }
-
-  /**
-   * Pads a String to the left with spaces.
-   * @param s The <code>String</code> to be padded.
-   * @param n The maximum size of the padded <code>String</code>.
-   * @return The padded <code>String</code>
-   */
-  private String padLeft(String s, int n) {
-    //return String.format("%1$#" + n + "s", s);
-	  return s;
+    return integerPart + fractionalPart;
   }
 }
@@ -0,0 +1,120 @@
+/*
+ *  This file is part of INDI for Java.
+ *
+ *  INDI for Java is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that many threads may increment without contending on a single
+ * memory location. The count is split in some stripes (each one in its own
+ * cache line) and every thread adds to the stripe chosen by its identifier.
+ * Reading the counter sums all the stripes, so it is meant for counters that
+ * are incremented much more often than read.
+ *
+ * @version 1.3, October 18, 2026
+ * @see INDIMetrics
+ */
+public final class INDIStripedCounter {
+
+  /**
+   * The number of <code>long</code> values between two stripes, so every
+   * stripe is in a different cache line.
+   */
+  private static final int PADDING = 8;
+  /**
+   * The number of stripes (a power of two).
+   */
+  private static final int STRIPES = getStripes();
+  /**
+   * The stripes.
+   */
+  private final AtomicLongArray cells;
+
+  /**
+   * Constructs a new counter with a value of 0.
+   */
+  public INDIStripedCounter() {
+    cells = new AtomicLongArray(STRIPES * PADDING);
+  }
+
+  /**
+   * Gets the number of stripes: the first power of two greater or equal than
+   * twice the number of processors (up to 64).
+   *
+   * @return The number of stripes.
+   */
+  private static int getStripes() {
+    int n = Math.min(64, 2 * Runtime.getRuntime().availableProcessors());
+    int stripes = 1;
+
+    while (stripes < n) {
+      stripes <<= 1;
+    }
+
+    return stripes;
+  }
+
+  /**
+   * Gets the position of the stripe of the current thread.
+   *
+   * @return The position of the stripe in <code>cells</code>.
+   */
+  private static int getCell() {
+    long id = Thread.currentThread().getId();
+    int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+
+    return ((h ^ (h >>> 16)) & (STRIPES - 1)) * PADDING;
+  }
+
+  /**
+   * Adds a value to the counter.
+   *
+   * @param value The value to add.
+   */
+  public void add(long value) {
+    cells.getAndAdd(getCell(), value);
+  }
+
+  /**
+   * Adds 1 to the counter.
+   */
+  public void increment() {
+    cells.getAndIncrement(getCell());
+  }
+
+  /**
+   * Gets the value of the counter. It is not an atomic snapshot: the values
+   * added while summing the stripes may or may not be included.
+   *
+   * @return The value of the counter.
+   */
+  public long sum() {
+    long sum = 0;
+
+    for (int i = 0 ; i < STRIPES ; i++) {
+      sum += cells.get(i * PADDING);
+    }
+
+    return sum;
+  }
+
+  @Override
+  public String toString() {
+    return Long.toString(sum());
+  }
+}
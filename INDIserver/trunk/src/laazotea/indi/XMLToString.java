@@ -18,14 +18,36 @@ import org.w3c.dom.Element;
  */
 public class XMLToString {
 
+  /**
+   * The transformers, one per thread as they are not thread safe. Creating
+   * them is expensive, so they are reused.
+   */
+  private static final ThreadLocal<Transformer> transformers = new ThreadLocal<Transformer>() {
+
+    @Override
+    protected Transformer initialValue() {
+      try {
+        TransformerFactory transFactory = TransformerFactory.newInstance();
+
+        Transformer transformer = transFactory.newTransformer();
+        transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+
+        return transformer;
+      } catch (Exception e) {
+        return null;
+      }
+    }
+  };
+
   public static String transform(Element xml) {
     try {
-      TransformerFactory transFactory = TransformerFactory.newInstance();
+      Transformer transformer = transformers.get();
 
-      Transformer transformer = transFactory.newTransformer();
+      if (transformer == null) {
+        return "";
+      }
 
       StringWriter buffer = new StringWriter();
-      transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
       transformer.transform(new DOMSource(xml),
               new StreamResult(buffer));
       String str = buffer.toString();
@@ -35,4 +57,73 @@ public class XMLToString {
 
     return "";
   }
-}
\ No newline at end of file
+
+  /**
+   * Escapes the characters of a text that cannot appear as they are in the
+   * value of an attribute or in the contents of a XML element.
+   *
+   * @param text The text.
+   * @return The escaped text (the same <code>String</code> if there is
+   * nothing to escape).
+   */
+  public static String escape(String text) {
+    for (int i = 0; i < text.length(); i++) {
+      if (needsEscape(text.charAt(i))) {
+        StringBuilder sb = new StringBuilder(text.length() + 16);
+
+        appendEscaped(sb, text);
+
+        return sb.toString();
+      }
+    }
+
+    return text;
+  }
+
+  /**
+   * Appends a text to a <code>StringBuilder</code> escaping the characters
+   * that cannot appear as they are in the value of an attribute or in the
+   * contents of a XML element.
+   *
+   * @param sb The <code>StringBuilder</code>.
+   * @param text The text.
+   */
+  public static void appendEscaped(StringBuilder sb, String text) {
+    int start = 0;
+
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+
+      if (needsEscape(c)) {
+        sb.append(text, start, i);
+
+        if (c == '&') {
+          sb.append("&amp;");
+        } else if (c == '<') {
+          sb.append("&lt;");
+        } else if (c == '>') {
+          sb.append("&gt;");
+        } else if (c == '"') {
+          sb.append("&quot;");
+        } else {
+          sb.append("&apos;");
+        }
+
+        start = i + 1;
+      }
+    }
+
+    sb.append(text, start, text.length());
+  }
+
+  /**
+   * Determines if a character must be escaped.
+   *
+   * @param c The character.
+   * @return <code>true</code> if the character must be escaped.
+   * <code>false</code> otherwise.
+   */
+  private static boolean needsEscape(char c) {
+    return (c == '&') || (c == '<') || (c == '>') || (c == '"') || (c == '\'');
+  }
+}
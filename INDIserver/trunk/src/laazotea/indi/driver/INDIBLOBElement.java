@@ -17,7 +17,11 @@
  */
 package laazotea.indi.driver;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import laazotea.indi.INDIBLOBValue;
+import laazotea.indi.XMLToString;
 import org.w3c.dom.Element;
 
 /**
@@ -77,18 +81,47 @@ public class INDIBLOBElement extends INDIElement {
       throw new IllegalArgumentException("Value for a BLOB Element must be a INDIBLOBValue");
     }
 
+    INDIBLOBValue old = value;
+
     this.value = b;
+
+    if ((old != null) && (old != b)) {  // Deletes its temporary file, if any
+      old.release();
+    }
   }
 
   @Override
   public String getXMLOneElement() {
-    int size = value.getSize();
+    StringWriter xml = new StringWriter(value.getSize() / 3 * 4 + 128);
+
+    try {
+      writeXMLOneElement(xml);
+    } catch (IOException e) {
+    }
 
-    String data = value.getBase64BLOBData();
+    return xml.toString();
+  }
 
-    String xml = "<oneBLOB name=\"" + this.getName() + "\" size=\"" + size + "\" format=\"" + value.getFormat() + "\">" + data + "</oneBLOB>";
+  /**
+   * Writes the &lt;oneBLOB&gt; XML string encoding the data in chunks, without building the whole string.
+   * The data is compressed if it is bigger than the compression threshold of the Property.
+   * @param out the <code>Writer</code> to which the XML string is written.
+   * @throws IOException if there is some problem reading the data or writing.
+   */
+  @Override
+  protected void writeXMLOneElement(Writer out) throws IOException {
+    INDIBLOBValue v = value;
+    int threshold = getProperty().getCompressionThreshold();
+
+    if ((threshold >= 0) && (v.getSize() > threshold) && !v.getFormat().endsWith(".z")) {
+      out.write("<oneBLOB name=\"" + getEscapedName() + "\" size=\"" + v.getSize() + "\" format=\"" + XMLToString.escape(v.getFormat()) + ".z\">");
+      v.writeCompressedBase64(out);
+    } else {
+      out.write("<oneBLOB name=\"" + getEscapedName() + "\" size=\"" + v.getSize() + "\" format=\"" + XMLToString.escape(v.getFormat()) + "\">");
+      v.writeBase64(out);
+    }
 
-    return xml;
+    out.write("</oneBLOB>");
   }
 
   @Override
@@ -98,7 +131,7 @@ public class INDIBLOBElement extends INDIElement {
 
   @Override
   protected String getXMLDefElement() {
-    String xml = "<defBLOB name=\"" + this.getName() + "\" label=\"" + getLabel() + "\" />";
+    String xml = "<defBLOB name=\"" + getEscapedName() + "\" label=\"" + getEscapedLabel() + "\" />";
     
     return xml;
   }
@@ -20,7 +20,6 @@ package laazotea.indi.driver;
 import laazotea.indi.Constants;
 import laazotea.indi.Constants.PropertyPermissions;
 import laazotea.indi.Constants.PropertyStates;
-import laazotea.indi.INDIDateFormat;
 
 /**
  * A class representing a INDI BLOB Property.
@@ -30,6 +29,12 @@ import laazotea.indi.INDIDateFormat;
  */
 public class INDIBLOBProperty extends INDIProperty {
 
+  /**
+   * The size above which the values are sent compressed (-1 to never
+   * compress them).
+   */
+  private int compressionThreshold = -1;
+
   /**
    * Constructs an instance of
    * <code>INDIBLOBProperty</code> with a particular
@@ -120,44 +125,53 @@ public class INDIBLOBProperty extends INDIProperty {
     super(driver, name, null, null, state, permission, 0);
   }
 
-  @Override
-  public INDIBLOBElement getElement(String name) {
-    return (INDIBLOBElement) super.getElement(name);
+  /**
+   * Sets the size above which the values of the Elements are sent compressed
+   * in the zlib format, adding <code>.z</code> to their format. Big values are
+   * compressed in blocks in parallel while they are sent. Values whose format
+   * already ends with <code>.z</code> are never compressed again. By default
+   * the values are not compressed.
+   *
+   * @param compressionThreshold The size in bytes above which the values are
+   * compressed (-1 to never compress them).
+   */
+  public void setCompressionThreshold(int compressionThreshold) {
+    this.compressionThreshold = compressionThreshold;
   }
 
-  @Override
-  protected String getXMLPropertyDefinitionInit() {
-    String xml = "<defBLOBVector device=\"" + getDriver().getName() + "\" name=\"" + getName() + "\" label=\"" + getLabel() + "\" group=\"" + getGroup() + "\" state=\"" + Constants.getPropertyStateAsString(getState()) + "\" perm=\"" + Constants.getPropertyPermissionAsString(getPermission()) + "\" timeout=\"" + getTimeout() + "\" timestamp=\"" + INDIDateFormat.getCurrentTimestamp() + "\">";
-
-    return xml;
+  /**
+   * Gets the size above which the values of the Elements are sent compressed.
+   *
+   * @return The size in bytes above which the values are compressed (-1 if
+   * they are never compressed).
+   */
+  public int getCompressionThreshold() {
+    return compressionThreshold;
   }
 
   @Override
-  protected String getXMLPropertyDefinitionInit(String message) {
-    String xml = "<defBLOBVector device=\"" + getDriver().getName() + "\" name=\"" + getName() + "\" label=\"" + getLabel() + "\" group=\"" + getGroup() + "\" state=\"" + Constants.getPropertyStateAsString(getState()) + "\" perm=\"" + Constants.getPropertyPermissionAsString(getPermission()) + "\" timeout=\"" + getTimeout() + "\" timestamp=\"" + INDIDateFormat.getCurrentTimestamp() + "\" message=\"" + message + "\">";
-
-    return xml;
+  public INDIBLOBElement getElement(String name) {
+    return (INDIBLOBElement) super.getElement(name);
   }
 
   @Override
-  protected String getXMLPropertyDefinitionEnd() {
-    String xml = "</defBLOBVector>";
-
-    return xml;
+  protected void appendXMLPropertyDefinitionInit(StringBuilder xml, String message) {
+    appendXMLInitHead(xml, "defBLOBVector", true);
+    xml.append(" perm=\"").append(Constants.getPropertyPermissionAsString(getPermission())).append('"');
+    appendXMLInitTail(xml, true, message);
   }
 
   @Override
-  protected String getXMLPropertySetInit() {
-    String xml = "<setBLOBVector device=\"" + getDriver().getName() + "\" name=\"" + getName() + "\" state=\"" + Constants.getPropertyStateAsString(getState()) + "\" timeout=\"" + getTimeout() + "\" timestamp=\"" + INDIDateFormat.getCurrentTimestamp() + "\">";
+  protected String getXMLPropertyDefinitionEnd() {
+    String xml = "</defBLOBVector>";
 
     return xml;
   }
 
   @Override
-  protected String getXMLPropertySetInit(String message) {
-    String xml = "<setBLOBVector device=\"" + getDriver().getName() + "\" name=\"" + getName() + "\" state=\"" + Constants.getPropertyStateAsString(getState()) + "\" timeout=\"" + getTimeout() + "\" timestamp=\"" + INDIDateFormat.getCurrentTimestamp() + "\" message=\"" + message + "\">";
-
-    return xml;
+  protected void appendXMLPropertySetInit(StringBuilder xml, String message) {
+    appendXMLInitHead(xml, "setBLOBVector", false);
+    appendXMLInitTail(xml, true, message);
   }
 
   @Override
@@ -17,13 +17,27 @@
  */
 package laazotea.indi.driver;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
-import java.util.LinkedHashMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 import laazotea.indi.Constants.PropertyPermissions;
 import laazotea.indi.Constants.PropertyStates;
 import laazotea.indi.Constants.SwitchRules;
@@ -38,6 +52,22 @@ import org.w3c.dom.NodeList;
  * A class representing a Driver in the INDI Protocol. INDI Drivers should
  * extend this class. It is in charge of stablishing the connection to the
  * clients and parsing / formating any incoming / leaving messages.
+ * <p>
+ * The requests of the clients (the <code>processNewXXXValue</code> methods
+ * and the connection and disconnection of <code>INDIConnectionHandler</code>
+ * Drivers) are not run by the thread that reads the messages but by an
+ * executor, so slow hardware never keeps the Driver from reading new
+ * messages. The requests for a Property are run one at a time in the order in
+ * which they were received, while those for different Properties may run
+ * concurrently. Priority Properties (like the ones that abort a movement) use
+ * their own threads, so they are not delayed by the requests for other
+ * Properties.
+ * <p>
+ * Each message is flushed to the clients as soon as it is sent, unless the
+ * Driver groups them: explicitly with <code>beginBatch</code> /
+ * <code>endBatch</code>, or automatically within a time window (see
+ * <code>setBatchWindow</code>). The answers to <code>getProperties</code> are
+ * always sent in a single write.
  *
  * @author S. Alonso (Zerjillo) [zerjio at zerjio.com]
  * @version 1.21, April 4, 2012
@@ -47,6 +77,20 @@ public abstract class INDIDriver implements INDIProtocolParser {
   private InputStream inputStream;
   private PrintWriter out;
   private INDIProtocolReader reader;
+  /**
+   * The direct connection to the Server (<code>null</code> if the Driver
+   * communicates through the streams).
+   */
+  private INDIDriverConnection connection;
+  /**
+   * The messages received through the direct connection and not yet parsed.
+   */
+  private LinkedBlockingQueue<Document> inbound;
+  /**
+   * The thread that parses the messages received through the direct
+   * connection.
+   */
+  private Thread directReader;
   /**
    * A Switch Element for the CONNECTION property
    */
@@ -60,13 +104,114 @@ public abstract class INDIDriver implements INDIProtocolParser {
    */
   private INDISwitchProperty connectionP;
   /**
-   * A list of Properties for this Driver
+   * The Properties of this Driver by name. Modified holding its lock.
+   */
+  private ConcurrentHashMap<String, INDIProperty> properties;
+  /**
+   * The Properties of this Driver in the order in which they were added. The
+   * list cannot be modified: it is replaced when a Property is added or
+   * removed, so it can be iterated without locks nor copies.
    */
-  private LinkedHashMap<String, INDIProperty> properties;
+  private volatile List<INDIProperty> propertiesSnapshot;
   /**
    * To know if the driver has already been started or not.
    */
   private boolean started;
+  /**
+   * The limits of the update rate of some Properties (forgotten when they are
+   * removed).
+   */
+  private HashMap<INDIProperty, UpdateThrottle> throttles;
+  /**
+   * The timer that sends the delayed updates of the throttled Properties
+   * (created when needed).
+   */
+  private Timer throttleTimer;
+  /**
+   * Set when the Driver has finished: its timers have been cancelled, so the
+   * messages are sent without delays.
+   */
+  private volatile boolean finished;
+  /**
+   * The buffer in which the Property messages are built, reused for all of
+   * them. Its lock is held while sending any message, so the messages sent by
+   * different threads are never mixed.
+   */
+  private final StringBuilder xmlBuffer = new StringBuilder(1024);
+  /**
+   * The characters of the messages written to the output stream, reused for
+   * all of them.
+   */
+  private char[] xmlChars = new char[1024];
+  /**
+   * The number of open batches (see <code>beginBatch</code>). While there is
+   * any the messages are not flushed. Guarded by the lock of
+   * <code>xmlBuffer</code>.
+   */
+  private int batchDepth;
+  /**
+   * The time (in milliseconds) during which the messages are grouped before
+   * being flushed (0 to flush every message).
+   */
+  private volatile int batchWindow;
+  /**
+   * Set while a flush of the grouped messages is scheduled. Guarded by the
+   * lock of <code>xmlBuffer</code>.
+   */
+  private boolean flushScheduled;
+  /**
+   * The timer that flushes the grouped messages (created when needed, guarded
+   * by the lock of <code>xmlBuffer</code>, like the rest of the sending
+   * state).
+   */
+  private Timer batchTimer;
+  /**
+   * The messages for the direct connection that have not been handed to it
+   * yet (the stream keeps its own buffer). Guarded by the lock of
+   * <code>xmlBuffer</code>.
+   */
+  private final StringBuilder pendingXML = new StringBuilder();
+  /**
+   * The registry of the metrics.
+   */
+  private final INDIMetrics metrics = INDIMetrics.getDefault();
+  /**
+   * The metrics of the Driver (created when first used).
+   */
+  private INDIMetrics.Stats stats;
+  /**
+   * The executor that runs the requests of the clients (created when first
+   * needed if not set).
+   */
+  private Executor requestExecutor;
+  /**
+   * The executor that runs the requests for the priority Properties (created
+   * when first needed if not set).
+   */
+  private Executor priorityExecutor;
+  /**
+   * The executors created by the Driver, shut down when it finishes.
+   */
+  private final ArrayList<ExecutorService> createdExecutors = new ArrayList<ExecutorService>();
+  /**
+   * The queues of pending requests of each Property. Also the lock for the
+   * executors and the priority Properties.
+   */
+  private final HashMap<INDIProperty, RequestQueue> requestQueues = new HashMap<INDIProperty, RequestQueue>();
+  /**
+   * The Properties whose requests have priority.
+   */
+  private final HashSet<INDIProperty> priorityProperties = new HashSet<INDIProperty>();
+  /**
+   * An executor that runs the tasks in the calling thread.
+   */
+  private static final Executor CALLER_RUNS = new Executor() {
+
+    @Override
+    public void execute(Runnable command) {
+      command.run();
+    }
+  };
 
   /**
    * Constructs a INDIDriver with a particular
@@ -82,7 +227,9 @@ public abstract class INDIDriver implements INDIProtocolParser {
 
     started = false;
 
-    properties = new LinkedHashMap<String, INDIProperty>();
+    properties = new ConcurrentHashMap<String, INDIProperty>();
+    propertiesSnapshot = Collections.emptyList();
+    throttles = new HashMap<INDIProperty, UpdateThrottle>();
 
     if (this instanceof INDIConnectionHandler) {
       addConnectionProperty();
@@ -109,9 +256,23 @@ public abstract class INDIDriver implements INDIProtocolParser {
     started = true;
 
     reader = new INDIProtocolReader(this);
+    reader.setMetrics(getMetricsStats());
     reader.start();
   }
 
+  /**
+   * Gets the metrics of the Driver.
+   *
+   * @return The metrics of the Driver.
+   */
+  private INDIMetrics.Stats getMetricsStats() {
+    if (stats == null) {
+      stats = metrics.getStats(INDIMetrics.Scope.DRIVER, getName());
+    }
+
+    return stats;
+  }
+
   /**
    * Gets the started or not state of the Driver.
    *
@@ -123,9 +284,111 @@ public abstract class INDIDriver implements INDIProtocolParser {
     return started;
   }
 
+  /**
+   * Starts listening to a direct in-process connection instead of the
+   * streams: the messages sent by the Driver are handed to the
+   * <code>connection</code> and the messages received with
+   * <code>receiveXML</code> are parsed by a new Thread, avoiding to write and
+   * parse them again. Used by Servers that run the Driver in the same process.
+   *
+   * @param connection The connection to the Server.
+   * @see #receiveXML(Document)
+   */
+  public void startListening(INDIDriverConnection connection) {
+    this.connection = connection;
+    inbound = new LinkedBlockingQueue<Document>();
+
+    started = true;
+
+    directReader = new Thread("INDI Driver " + getName()) {
+
+      @Override
+      public void run() {
+        try {
+          while (!isInterrupted()) {
+            parseXML(inbound.take());
+          }
+        } catch (InterruptedException e) {
+        }
+
+        finishReader();
+
+        INDIDriver.this.connection.driverFinished();
+      }
+    };
+
+    directReader.start();
+  }
+
+  /**
+   * Queues some messages received through the direct connection to be parsed.
+   * The document must not be used by the caller any more.
+   *
+   * @param doc The messages.
+   */
+  public void receiveXML(Document doc) {
+    if (inbound != null) {
+      inbound.add(doc);
+    }
+  }
+
+  /**
+   * Stops listening to the direct connection. The messages not yet parsed are
+   * discarded.
+   */
+  public void stopListening() {
+    if (directReader != null) {
+      directReader.interrupt();
+    }
+  }
+
   @Override
   public void finishReader() {
     System.err.println("DRIVER " + getName() + " finishing");
+
+    shutdownRequestExecutors();
+    cancelTimers();
+  }
+
+  /**
+   * Cancels the timers of the delayed updates and the grouped messages,
+   * sending the grouped messages first. Later messages are sent without
+   * delays.
+   */
+  private void cancelTimers() {
+    finished = true;
+
+    synchronized (this) {
+      if (throttleTimer != null) {
+        throttleTimer.cancel();
+        throttleTimer = null;
+      }
+    }
+
+    synchronized (xmlBuffer) {
+      if (batchTimer != null) {
+        batchTimer.cancel();
+        batchTimer = null;
+      }
+
+      flushScheduled = false;
+      flushPending();
+    }
+  }
+
+  /**
+   * Shuts down the request executors created by the Driver. The requests
+   * already queued are still run, the new ones are run by the thread that
+   * reads the messages.
+   */
+  private void shutdownRequestExecutors() {
+    synchronized (requestQueues) {
+      for (int i = 0 ; i < createdExecutors.size() ; i++) {
+        createdExecutors.get(i).shutdown();
+      }
+
+      createdExecutors.clear();
+    }
   }
 
   /**
@@ -210,6 +473,7 @@ public abstract class INDIDriver implements INDIProtocolParser {
     }
 
     NodeList nodes = el.getChildNodes();
+    boolean measure = metrics.isEnabled();
 
     for (int i = 0 ; i < nodes.getLength() ; i++) {
       Node n = nodes.item(i);
@@ -219,6 +483,10 @@ public abstract class INDIDriver implements INDIProtocolParser {
 
         String name = child.getNodeName();
 
+        if (measure) {
+          getMetricsStats().increment(INDIMetrics.Counter.MESSAGES_IN);
+        }
+
         if (name.equals("getProperties")) {
           processGetProperties(child);
         } else if (name.equals("newTextVector")) {
@@ -252,11 +520,18 @@ public abstract class INDIDriver implements INDIProtocolParser {
 
     INDIElementAndValue[] evs = processINDIElements(prop, xml);
 
-    Date timestamp = INDIDateFormat.parseTimestamp(xml.getAttribute("timestamp"));
+    final Date timestamp = INDIDateFormat.parseTimestamp(xml.getAttribute("timestamp"));
+
+    final INDITextProperty property = (INDITextProperty) prop;
+    final INDITextElementAndValue[] newEvs = Arrays.copyOf(evs, evs.length, INDITextElementAndValue[].class);
 
-    INDITextElementAndValue[] newEvs = Arrays.copyOf(evs, evs.length, INDITextElementAndValue[].class);
+    dispatchRequest(property, new Runnable() {
 
-    processNewTextValue((INDITextProperty) prop, timestamp, newEvs);
+      @Override
+      public void run() {
+        processNewTextValue(property, timestamp, newEvs);
+      }
+    });
   }
 
   /**
@@ -295,15 +570,22 @@ public abstract class INDIDriver implements INDIProtocolParser {
 
     INDIElementAndValue[] evs = processINDIElements(prop, xml);
 
-    Date timestamp = INDIDateFormat.parseTimestamp(xml.getAttribute("timestamp"));
+    final Date timestamp = INDIDateFormat.parseTimestamp(xml.getAttribute("timestamp"));
 
-    INDISwitchElementAndValue[] newEvs = Arrays.copyOf(evs, evs.length, INDISwitchElementAndValue[].class);
+    final INDISwitchProperty property = (INDISwitchProperty) prop;
+    final INDISwitchElementAndValue[] newEvs = Arrays.copyOf(evs, evs.length, INDISwitchElementAndValue[].class);
 
-    if ((this instanceof INDIConnectionHandler) && (prop == connectionP)) { // If it is the CONNECTION property
-      handleConnectionProperty(newEvs, timestamp);
-    } else {  // if it is any other property
-      processNewSwitchValue((INDISwitchProperty) prop, timestamp, newEvs);
-    }
+    dispatchRequest(property, new Runnable() {
+
+      @Override
+      public void run() {
+        if ((INDIDriver.this instanceof INDIConnectionHandler) && (property == connectionP)) { // If it is the CONNECTION property
+          handleConnectionProperty(newEvs, timestamp);
+        } else {  // if it is any other property
+          processNewSwitchValue(property, timestamp, newEvs);
+        }
+      }
+    });
   }
 
   /**
@@ -374,11 +656,18 @@ public abstract class INDIDriver implements INDIProtocolParser {
 
     INDIElementAndValue[] evs = processINDIElements(prop, xml);
 
-    Date timestamp = INDIDateFormat.parseTimestamp(xml.getAttribute("timestamp"));
+    final Date timestamp = INDIDateFormat.parseTimestamp(xml.getAttribute("timestamp"));
+
+    final INDINumberProperty property = (INDINumberProperty) prop;
+    final INDINumberElementAndValue[] newEvs = Arrays.copyOf(evs, evs.length, INDINumberElementAndValue[].class);
 
-    INDINumberElementAndValue[] newEvs = Arrays.copyOf(evs, evs.length, INDINumberElementAndValue[].class);
+    dispatchRequest(property, new Runnable() {
 
-    processNewNumberValue((INDINumberProperty) prop, timestamp, newEvs);
+      @Override
+      public void run() {
+        processNewNumberValue(property, timestamp, newEvs);
+      }
+    });
   }
 
   /**
@@ -413,11 +702,270 @@ public abstract class INDIDriver implements INDIProtocolParser {
 
     INDIElementAndValue[] evs = processINDIElements(prop, xml);
 
-    Date timestamp = INDIDateFormat.parseTimestamp(xml.getAttribute("timestamp"));
+    final Date timestamp = INDIDateFormat.parseTimestamp(xml.getAttribute("timestamp"));
+
+    final INDIBLOBProperty property = (INDIBLOBProperty) prop;
+    final INDIBLOBElementAndValue[] newEvs = Arrays.copyOf(evs, evs.length, INDIBLOBElementAndValue[].class);
+
+    dispatchRequest(property, new Runnable() {
+
+      @Override
+      public void run() {
+        try {
+          processNewBLOBValue(property, timestamp, newEvs);
+        } finally {
+          for (int i = 0 ; i < newEvs.length ; i++) {
+            if (newEvs[i].getElement().getValue() != newEvs[i].getValue()) {  // Not taken by the Driver
+              newEvs[i].getValue().release();
+            }
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Sets the executor that runs the requests of the clients. By default each
+   * Driver uses its own pool of daemon threads, shut down when the Driver
+   * finishes. The requests for a Property are never run concurrently, whatever
+   * the executor.
+   *
+   * @param executor The executor. If <code>null</code> the requests are run
+   * by the thread that reads the messages, as soon as they are parsed.
+   */
+  protected void setRequestExecutor(Executor executor) {
+    synchronized (requestQueues) {
+      requestExecutor = (executor == null) ? CALLER_RUNS : executor;
+    }
+  }
+
+  /**
+   * Sets the executor that runs the requests for the priority Properties. By
+   * default each Driver uses its own pool of daemon threads, different from
+   * the one of the other requests.
+   *
+   * @param executor The executor. If <code>null</code> the requests are run
+   * by the thread that reads the messages, as soon as they are parsed.
+   * @see #setPriorityProperty
+   */
+  protected void setPriorityRequestExecutor(Executor executor) {
+    synchronized (requestQueues) {
+      priorityExecutor = (executor == null) ? CALLER_RUNS : executor;
+    }
+  }
+
+  /**
+   * Sets if the requests for a Property have priority: they are run by their
+   * own executor, so they do not wait for the requests for other Properties
+   * to get a thread. Useful for the Properties that abort or stop a movement.
+   *
+   * @param property The Property.
+   * @param priority <code>true</code> if the requests for the Property have
+   * priority.
+   * @see #setPriorityRequestExecutor
+   */
+  protected void setPriorityProperty(INDIProperty property, boolean priority) {
+    synchronized (requestQueues) {
+      if (priority) {
+        priorityProperties.add(property);
+      } else {
+        priorityProperties.remove(property);
+      }
+    }
+  }
+
+  /**
+   * Gets the queue of requests of a Property, creating it if needed.
+   *
+   * @param property The Property.
+   * @return The queue of requests of the Property.
+   */
+  private RequestQueue getRequestQueue(INDIProperty property) {
+    synchronized (requestQueues) {
+      RequestQueue queue = requestQueues.get(property);
+
+      if (queue == null) {
+        queue = new RequestQueue(property);
+
+        requestQueues.put(property, queue);
+      }
+
+      return queue;
+    }
+  }
+
+  /**
+   * Forgets the queue of requests of a removed Property. If it still has
+   * requests to run it is forgotten when they finish.
+   *
+   * @param property The Property.
+   */
+  private void removeRequestQueue(INDIProperty property) {
+    synchronized (requestQueues) {
+      RequestQueue queue = requestQueues.get(property);
+
+      if (queue == null) {
+        return;
+      }
+
+      synchronized (queue) {
+        if (queue.running) {
+          queue.removed = true;
+        } else {
+          requestQueues.remove(property);
+        }
+      }
+    }
+  }
+
+  /**
+   * Gets the executor for the requests for a Property, creating the default
+   * one if needed.
+   *
+   * @param property The Property.
+   * @return The executor.
+   */
+  private Executor getRequestExecutor(INDIProperty property) {
+    synchronized (requestQueues) {
+      if (priorityProperties.contains(property)) {
+        if (priorityExecutor == null) {
+          priorityExecutor = createRequestExecutor("INDI Driver " + getName() + " priority request");
+        }
+
+        return priorityExecutor;
+      }
+
+      if (requestExecutor == null) {
+        requestExecutor = createRequestExecutor("INDI Driver " + getName() + " request");
+      }
+
+      return requestExecutor;
+    }
+  }
+
+  /**
+   * Creates a pool of daemon threads to run requests. Its threads are created
+   * when needed and finish after being idle for a minute.
+   *
+   * @param threadName The name of the threads.
+   * @return The pool of threads.
+   */
+  private ExecutorService createRequestExecutor(final String threadName) {
+    ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, threadName);
+
+        t.setDaemon(true);
+
+        return t;
+      }
+    });
+
+    createdExecutors.add(executor);
+
+    return executor;
+  }
+
+  /**
+   * Queues a request of a client for a Property, to be run after the previous
+   * requests for that Property.
+   *
+   * @param property The Property.
+   * @param request The request.
+   */
+  private void dispatchRequest(INDIProperty property, Runnable request) {
+    getRequestQueue(property).add(request);
+  }
+
+  /**
+   * The pending requests for a Property. They are run one after another by a
+   * task of the request executor, which is only submitted while there are
+   * requests to run.
+   */
+  private class RequestQueue implements Runnable {
+
+    /**
+     * The Property.
+     */
+    private final INDIProperty property;
+    /**
+     * The pending requests.
+     */
+    private ArrayDeque<Runnable> requests = new ArrayDeque<Runnable>();
+    /**
+     * Set while there is a task running the requests.
+     */
+    private boolean running = false;
+    /**
+     * Set if the Property has been removed, to forget the queue when its
+     * requests finish.
+     */
+    private boolean removed = false;
+
+    /**
+     * Constructs the queue of requests of a Property.
+     *
+     * @param property The Property.
+     */
+    public RequestQueue(INDIProperty property) {
+      this.property = property;
+    }
+
+    /**
+     * Adds a request, starting a task to run it if there is none.
+     *
+     * @param request The request.
+     */
+    public void add(Runnable request) {
+      synchronized (this) {
+        requests.add(request);
+
+        if (running) {
+          return;
+        }
+
+        running = true;
+      }
+
+      try {
+        getRequestExecutor(property).execute(this);
+      } catch (RejectedExecutionException e) {  // The executor has been shut down
+        run();
+      }
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        Runnable request;
+
+        synchronized (this) {
+          request = requests.poll();
+
+          if (request == null) {
+            running = false;
+
+            if (!removed) {
+              return;
+            }
+          }
+        }
+
+        if (request == null) {  // The Property was removed while running its requests
+          removeRequestQueue(property);
 
-    INDIBLOBElementAndValue[] newEvs = Arrays.copyOf(evs, evs.length, INDIBLOBElementAndValue[].class);
+          return;
+        }
 
-    processNewBLOBValue((INDIBLOBProperty) prop, timestamp, newEvs);
+        try {
+          request.run();
+        } catch (RuntimeException e) {
+          printMessage("Error processing a request: " + e);
+        }
+      }
+    }
   }
 
   /**
@@ -426,6 +974,10 @@ public abstract class INDIDriver implements INDIProtocolParser {
    * It will be called with correct Properties and Elements. Any incorrect BLOB
    * Message received will be discarded and this method will not be called.
    *
+   * The values that are not set to their Elements are released when this
+   * method returns (see <code>INDIBLOBValue.release</code>), so their data
+   * must be read or copied before.
+   *
    * @param property The BLOB Property asked to change.
    * @param timestamp The timestamp of the received message
    * @param elementsAndValues An array of pairs of BLOB Elements and its
@@ -573,11 +1125,17 @@ public abstract class INDIDriver implements INDIProtocolParser {
       if (p != null) {
         sendDefXXXVectorMessage(p, null);
       }
-    } else {  // Send all of them
-      ArrayList<INDIProperty> props = getPropertiesAsList();
+    } else {  // Send all of them in a single write
+      List<INDIProperty> props = propertiesSnapshot;
 
-      for (int i = 0 ; i < props.size() ; i++) {
-        sendDefXXXVectorMessage(props.get(i), null);
+      beginBatch();
+
+      try {
+        for (int i = 0 ; i < props.size() ; i++) {
+          sendDefXXXVectorMessage(props.get(i), null);
+        }
+      } finally {
+        endBatch();
       }
     }
   }
@@ -604,11 +1162,35 @@ public abstract class INDIDriver implements INDIProtocolParser {
    * message.
    */
   protected void addProperty(INDIProperty property, String message) {
-    if (!properties.containsValue(property)) {
-      properties.put(property.getName(), property);
+    synchronized (properties) {
+      if (hasProperty(property)) {
+        return;
+      }
+
+      INDIProperty previous = properties.put(property.getName(), property);
+      ArrayList<INDIProperty> snapshot = new ArrayList<INDIProperty>(propertiesSnapshot);
+
+      if (previous == null) {
+        snapshot.add(property);
+      } else {  // Replaces the Property with the same name in its position
+        snapshot.set(snapshot.indexOf(previous), property);
+      }
 
-      sendDefXXXVectorMessage(property, message);
+      propertiesSnapshot = Collections.unmodifiableList(snapshot);
     }
+
+    sendDefXXXVectorMessage(property, message);
+  }
+
+  /**
+   * Checks if a Property belongs to the Driver (it has been added and not
+   * removed).
+   *
+   * @param property The Property.
+   * @return <code>true</code> if the Property belongs to the Driver.
+   */
+  private boolean hasProperty(INDIProperty property) {
+    return properties.get(property.getName()) == property;
   }
 
   /**
@@ -634,10 +1216,347 @@ public abstract class INDIDriver implements INDIProtocolParser {
    * message.
    */
   protected void updateProperty(INDIProperty property, String message) {
-    if (properties.containsValue(property)) {
-      String msg = property.getXMLPropertySet(message);
+    if (hasProperty(property)) {
+      UpdateThrottle throttle;
 
-      sendXML(msg);
+      synchronized (throttles) {
+        throttle = throttles.get(property);
+      }
+
+      if ((throttle != null) && !finished && !throttle.mustSendNow(message)) {
+        return;  // It will be sent later with its latest values
+      }
+
+      sendXMLPropertySet(property, message);
+    }
+  }
+
+  /**
+   * Limits the rate at which the updates of a Property are sent to the
+   * clients. If <code>updateProperty</code> is called more often, only the
+   * latest values are sent, at most <code>maxRate</code> times per second. The
+   * updates that change the state of the Property or include a message are
+   * always sent immediately. Useful for Properties that are polled from the
+   * hardware in a tight loop, like the coordinates of a slewing telescope.
+   *
+   * @param property The Property.
+   * @param maxRate The maximum number of updates per second. If 0 or negative
+   * the updates are not limited.
+   * @see #removeProperty(INDIProperty)
+   */
+  protected void setMaximumUpdateRate(INDIProperty property, double maxRate) {
+    synchronized (throttles) {
+      if (maxRate <= 0) {
+        throttles.remove(property);
+      } else {
+        throttles.put(property, new UpdateThrottle(property, (long) (1000 / maxRate)));
+      }
+    }
+  }
+
+  /**
+   * Opens a batch of messages: until the matching <code>endBatch</code> the
+   * messages of the Driver are kept and then sent to the clients in a single
+   * write, instead of flushing each one. Useful around sequences that send
+   * many messages, like adding all the Properties when connecting. Batches
+   * may be nested, and the messages sent by other threads meanwhile are also
+   * held. Should be closed in a <code>finally</code> block.
+   */
+  protected void beginBatch() {
+    synchronized (xmlBuffer) {
+      batchDepth++;
+    }
+  }
+
+  /**
+   * Closes a batch of messages opened by <code>beginBatch</code>. When the
+   * last one is closed the held messages are sent.
+   */
+  protected void endBatch() {
+    synchronized (xmlBuffer) {
+      if (batchDepth == 0) {
+        return;
+      }
+
+      batchDepth--;
+
+      if (batchDepth == 0) {
+        flushPending();
+      }
+    }
+  }
+
+  /**
+   * Sets the time during which the messages are grouped before being sent:
+   * the messages sent within that time after a first one go to the clients
+   * in the same write, at the cost of delaying them up to that time. By
+   * default (0) each message is flushed as soon as it is sent.
+   *
+   * @param millis The time (in milliseconds) during which the messages are
+   * grouped. If 0 or negative they are not grouped.
+   */
+  protected void setBatchWindow(int millis) {
+    batchWindow = Math.max(0, millis);
+  }
+
+  /**
+   * Sends the held messages now, or schedules it at the end of the batch
+   * window, unless a batch is open. Must be called holding the lock of
+   * <code>xmlBuffer</code> after each message.
+   */
+  private void messageSent() {
+    if (batchDepth > 0) {
+      return;
+    }
+
+    int window = batchWindow;
+
+    if ((window == 0) || finished) {
+      flushPending();
+
+      return;
+    }
+
+    if (!flushScheduled) {
+      flushScheduled = true;
+
+      if (batchTimer == null) {
+        batchTimer = new Timer("INDI batch " + getName(), true);
+      }
+
+      batchTimer.schedule(new TimerTask() {
+
+        @Override
+        public void run() {
+          synchronized (xmlBuffer) {
+            flushScheduled = false;
+
+            if (batchDepth == 0) {
+              flushPending();
+            }
+          }
+        }
+      }, window);
+    }
+  }
+
+  /**
+   * Sends the held messages to the clients. Must be called holding the lock
+   * of <code>xmlBuffer</code>.
+   */
+  private void flushPending() {
+    if (connection == null) {
+      out.flush();
+    } else if (pendingXML.length() > 0) {
+      String xml = pendingXML.toString();
+
+      pendingXML.setLength(0);
+      connection.receiveFromDriver(xml);
+    }
+  }
+
+  /**
+   * Checks if the messages are being held instead of being sent one by one.
+   * Must be called holding the lock of <code>xmlBuffer</code>.
+   *
+   * @return <code>true</code> if there is an open batch or a batch window.
+   */
+  private boolean isBatching() {
+    return (batchDepth > 0) || (batchWindow > 0);
+  }
+
+  /**
+   * Sends the delayed update of a throttled Property (if it has not been
+   * removed).
+   *
+   * @param property The Property.
+   */
+  private void sendDelayedUpdate(INDIProperty property) {
+    if (hasProperty(property)) {
+      sendXMLPropertySet(property, null);
+    }
+  }
+
+  /**
+   * Sends the <code>setXXXVector</code> message of a Property. The messages
+   * are built in a reused buffer, but the values of BLOB Properties are
+   * encoded and written to the stream in chunks, without building the whole
+   * message (unless using a direct connection, which takes whole messages).
+   *
+   * @param property The Property.
+   * @param message The message to be sent with the values (may be
+   * <code>null</code>).
+   */
+  private void sendXMLPropertySet(INDIProperty property, String message) {
+    if (!(property instanceof INDIBLOBProperty)) {
+      synchronized (xmlBuffer) {
+        long start = System.nanoTime();
+
+        xmlBuffer.setLength(0);
+        property.appendXMLPropertySet(xmlBuffer, message);
+
+        recordSerialization(property, start);
+        sendXMLBuffer();
+      }
+
+      return;
+    }
+
+    if (connection != null) {
+      sendXML(property.getXMLPropertySet(message));
+
+      return;
+    }
+
+    synchronized (xmlBuffer) {
+      try {
+        property.writeXMLPropertySet(out, message);
+      } catch (IOException e) {
+      }
+
+      messageSent();
+
+      if (metrics.isEnabled()) {
+        getMetricsStats().increment(INDIMetrics.Counter.MESSAGES_OUT);
+      }
+    }
+  }
+
+  /**
+   * Gets the timer for the delayed updates, creating it if needed.
+   *
+   * @return The timer for the delayed updates.
+   */
+  private synchronized Timer getThrottleTimer() {
+    if (throttleTimer == null) {
+      throttleTimer = new Timer("INDI update throttle " + getName(), true);
+    }
+
+    return throttleTimer;
+  }
+
+  /**
+   * The limit of the update rate of a Property. Keeps track of the last sent
+   * update and schedules the sending of the latest values when updates are
+   * too frequent.
+   */
+  private class UpdateThrottle {
+
+    /**
+     * The Property.
+     */
+    private INDIProperty property;
+    /**
+     * The minimum time (in milliseconds) between two updates.
+     */
+    private long minInterval;
+    /**
+     * The time of the last sent update.
+     */
+    private long lastSent;
+    /**
+     * The state of the Property in the last sent update.
+     */
+    private PropertyStates lastState;
+    /**
+     * Set when there is a delayed update scheduled.
+     */
+    private boolean scheduled;
+    /**
+     * Set when some update has not been sent yet.
+     */
+    private boolean pending;
+
+    /**
+     * Constructs a new limit.
+     *
+     * @param property The Property.
+     * @param minInterval The minimum time (in milliseconds) between two
+     * updates.
+     */
+    public UpdateThrottle(INDIProperty property, long minInterval) {
+      this.property = property;
+      this.minInterval = minInterval;
+
+      lastSent = 0;
+      lastState = null;
+      scheduled = false;
+      pending = false;
+    }
+
+    /**
+     * Decides if an update must be sent right now. If not, it schedules the
+     * sending of the latest values of the Property.
+     *
+     * @param message The message of the update.
+     * @return <code>true</code> if the update must be sent now.
+     * <code>false</code> if it will be sent later.
+     */
+    public synchronized boolean mustSendNow(String message) {
+      long now = System.currentTimeMillis();
+      PropertyStates state = property.getState();
+
+      if ((message != null) || (state != lastState) || (now - lastSent >= minInterval)) {
+        lastSent = now;
+        lastState = state;
+        pending = false;
+
+        return true;
+      }
+
+      pending = true;
+
+      schedule(now);
+
+      return false;
+    }
+
+    /**
+     * Schedules the sending of the latest values of the Property when the
+     * minimum interval since the last update has passed.
+     *
+     * @param now The current time.
+     */
+    private void schedule(long now) {
+      if (!scheduled) {
+        scheduled = true;
+
+        getThrottleTimer().schedule(new TimerTask() {
+
+          @Override
+          public void run() {
+            sendScheduled();
+          }
+        }, Math.max(1, lastSent + minInterval - now));
+      }
+    }
+
+    /**
+     * Sends the latest values of the Property, unless they have been already
+     * sent by a later update.
+     */
+    private void sendScheduled() {
+      synchronized (this) {
+        scheduled = false;
+
+        if (!pending) {  // Already sent
+          return;
+        }
+
+        long now = System.currentTimeMillis();
+
+        if (now - lastSent < minInterval) {  // Another update has been sent meanwhile
+          schedule(now);
+
+          return;
+        }
+
+        lastSent = now;
+        lastState = property.getState();
+        pending = false;
+      }
+
+      sendDelayedUpdate(property);
     }
   }
 
@@ -651,13 +1570,83 @@ public abstract class INDIDriver implements INDIProtocolParser {
    * @param message
    */
   private void sendDefXXXVectorMessage(INDIProperty property, String message) {
-    String msg = property.getXMLPropertyDefinition(message);
+    synchronized (xmlBuffer) {
+      long start = System.nanoTime();
 
-    sendXML(msg);
+      xmlBuffer.setLength(0);
+      property.appendXMLPropertyDefinition(xmlBuffer, message);
+
+      recordSerialization(property, start);
+      sendXMLBuffer();
+    }
+  }
+
+  /**
+   * Records the time taken to serialize a message of a Property in the
+   * metrics of the Property and the Driver.
+   *
+   * @param property The Property.
+   * @param start The time (<code>System.nanoTime()</code>) in which the
+   * serialization started.
+   */
+  private void recordSerialization(INDIProperty property, long start) {
+    if (!metrics.isEnabled()) {
+      return;
+    }
+
+    long time = System.nanoTime() - start;
+    INDIMetrics.Stats propertyStats = metrics.getPropertyStats(getName(), property.getName());
+
+    propertyStats.increment(INDIMetrics.Counter.MESSAGES_OUT);
+    propertyStats.record(INDIMetrics.Distribution.SERIALIZATION_TIME, time);
+    getMetricsStats().record(INDIMetrics.Distribution.SERIALIZATION_TIME, time);
+  }
+
+  /**
+   * Counts a message sent by the Driver.
+   *
+   * @param length The number of characters of the message.
+   */
+  private void countSent(int length) {
+    if (metrics.isEnabled()) {
+      getMetricsStats().count(INDIMetrics.Counter.MESSAGES_OUT, INDIMetrics.Counter.BYTES_OUT, length);
+    }
+  }
+
+  /**
+   * Sends the message built in <code>xmlBuffer</code> to the clients, writing
+   * its characters straight to the output stream. Must be called holding the
+   * lock of <code>xmlBuffer</code>.
+   */
+  private void sendXMLBuffer() {
+    countSent(xmlBuffer.length());
+
+    if (connection != null) {
+      if (isBatching()) {
+        pendingXML.append(xmlBuffer);
+        messageSent();
+      } else {
+        connection.receiveFromDriver(xmlBuffer.toString());
+      }
+
+      return;
+    }
+
+    int length = xmlBuffer.length();
+
+    if (xmlChars.length < length) {
+      xmlChars = new char[Math.max(length, 2 * xmlChars.length)];
+    }
+
+    xmlBuffer.getChars(0, length, xmlChars, 0);
+
+    out.write(xmlChars, 0, length);
+    messageSent();
   }
 
   /**
-   * Sends a XML message to the clients.
+   * Sends a XML message to the clients. It may be called by several threads:
+   * the messages are sent whole, one after another.
    *
    * @param XML The message to be sended.
    */
@@ -665,8 +1654,23 @@ public abstract class INDIDriver implements INDIProtocolParser {
     /*
      * if (XML.length() < 500) { printMessage(XML); }
      */
-    out.print(XML);
-    out.flush();
+    synchronized (xmlBuffer) {
+      countSent(XML.length());
+
+      if (connection != null) {
+        if (isBatching()) {
+          pendingXML.append(XML);
+          messageSent();
+        } else {
+          connection.receiveFromDriver(XML);
+        }
+
+        return;
+      }
+
+      out.print(XML);
+      messageSent();
+    }
   }
 
   /**
@@ -676,7 +1680,9 @@ public abstract class INDIDriver implements INDIProtocolParser {
   /**
    * Removes a Property from the Device. A XML message about it will be send to
    * the clients. Drivers must call this method if they want to remove a
-   * Property.
+   * Property. Its limit of the update rate (see
+   * <code>setMaximumUpdateRate</code>) is forgotten: it must be set again if
+   * the Property is added again.
    *
    * @param property The property to be removed
    */
@@ -694,11 +1700,25 @@ public abstract class INDIDriver implements INDIProtocolParser {
    * client.
    */
   protected void removeProperty(INDIProperty property, String message) {
-    if (properties.containsValue(property)) {
-      properties.remove(property.getName());
+    synchronized (properties) {
+      if (!properties.remove(property.getName(), property)) {
+        return;
+      }
 
-      sendDelPropertyMessage(property, message);
+      ArrayList<INDIProperty> snapshot = new ArrayList<INDIProperty>(propertiesSnapshot);
+
+      snapshot.remove(property);
+
+      propertiesSnapshot = Collections.unmodifiableList(snapshot);
     }
+
+    removeRequestQueue(property);
+
+    synchronized (throttles) {
+      throttles.remove(property);
+    }
+
+    sendDelPropertyMessage(property, message);
   }
 
   /**
@@ -721,15 +1741,19 @@ public abstract class INDIDriver implements INDIProtocolParser {
    * <code>null</code>).
    */
   private void sendDelPropertyMessage(String message) {
-    String mm = "";
+    StringBuilder msg = new StringBuilder(128);
+
+    msg.append("<delProperty device=\"").append(this.getName());
+    msg.append("\" timestamp=\"");
+    INDIDateFormat.appendCurrentTimestamp(msg).append('"');
 
     if (message != null) {
-      mm = " message=\"" + message + "\"";
+      msg.append(" message=\"").append(message).append('"');
     }
 
-    String msg = "<delProperty device=\"" + this.getName() + "\" timestamp=\"" + INDIDateFormat.getCurrentTimestamp() + "\"" + mm + " />";
+    msg.append(" />");
 
-    sendXML(msg);
+    sendXML(msg.toString());
   }
 
   /**
@@ -741,15 +1765,19 @@ public abstract class INDIDriver implements INDIProtocolParser {
    * <code>null</code>).
    */
   private void sendDelPropertyMessage(INDIProperty property, String message) {
-    String mm = "";
+    StringBuilder msg = new StringBuilder(128);
+
+    msg.append("<delProperty device=\"").append(this.getName()).append("\" name=\"").append(property.getName());
+    msg.append("\" timestamp=\"");
+    INDIDateFormat.appendCurrentTimestamp(msg).append('"');
 
     if (message != null) {
-      mm = " message=\"" + message + "\"";
+      msg.append(" message=\"").append(message).append('"');
     }
 
-    String msg = "<delProperty device=\"" + this.getName() + "\" name=\"" + property.getName() + "\" timestamp=\"" + INDIDateFormat.getCurrentTimestamp() + "\"" + mm + " />";
+    msg.append(" />");
 
-    sendXML(msg);
+    sendXML(msg.toString());
   }
 
   /**
@@ -770,7 +1798,18 @@ public abstract class INDIDriver implements INDIProtocolParser {
    * @return A List of all the Properties in the Driver.
    */
   public ArrayList<INDIProperty> getPropertiesAsList() {
-    return new ArrayList<INDIProperty>(properties.values());
+    return new ArrayList<INDIProperty>(propertiesSnapshot);
+  }
+
+  /**
+   * Gets all the Properties in the Driver, in the order in which they were
+   * added, without copying them. The list cannot be modified and does not
+   * change: later additions or removals of Properties produce a new list.
+   *
+   * @return A list of all the Properties in the Driver.
+   */
+  public List<INDIProperty> getProperties() {
+    return propertiesSnapshot;
   }
 
   /**
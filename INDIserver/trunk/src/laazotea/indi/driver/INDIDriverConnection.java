@@ -0,0 +1,43 @@
+/*
+ *  This file is part of INDI for Java Driver.
+ * 
+ *  INDI for Java Driver is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License 
+ *  as published by the Free Software Foundation, either version 3 of 
+ *  the License, or (at your option) any later version.
+ * 
+ *  INDI for Java Driver is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java Driver.  If not, see 
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi.driver;
+
+/**
+ * A direct in-process connection between a Driver and the Server that runs
+ * it. The messages of the Driver are handed to the connection as they are
+ * generated, instead of being written to a stream and read and parsed again
+ * by another thread.
+ *
+ * @version 1.3, October 18, 2026
+ * @see INDIDriver#startListening(INDIDriverConnection)
+ */
+public interface INDIDriverConnection {
+
+  /**
+   * Receives some messages from the Driver. Called by the thread of the Driver
+   * that generates them.
+   *
+   * @param xml The messages (one or more complete XML elements).
+   */
+  void receiveFromDriver(String xml);
+
+  /**
+   * Notifies that the Driver has stopped listening to the connection.
+   */
+  void driverFinished();
+}
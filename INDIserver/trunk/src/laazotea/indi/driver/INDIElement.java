@@ -17,6 +17,9 @@
  */
 package laazotea.indi.driver;
 
+import java.io.IOException;
+import java.io.Writer;
+import laazotea.indi.XMLToString;
 import org.w3c.dom.Element;
 
 
@@ -43,6 +46,19 @@ public abstract class INDIElement {
    */
   private String label;
 
+  /**
+   * The name of the Element escaped for the XML messages.
+   */
+  private String escapedName;
+  /**
+   * The label of the Element escaped for the XML messages.
+   */
+  private String escapedLabel;
+  /**
+   * The beginning of the &lt;oneXXX&gt; XML string (built when first needed).
+   */
+  private String oneElementHead;
+
   /**
    * The Property to which this Element belongs.
    */
@@ -83,6 +99,9 @@ public abstract class INDIElement {
         this.label = label;
       }
     }
+
+    escapedName = XMLToString.escape(this.name);
+    escapedLabel = XMLToString.escape(this.label);
     
     property.addElement(this);
   }
@@ -110,6 +129,9 @@ public abstract class INDIElement {
     this.name = name;
 
     this.label = name;
+
+    escapedName = XMLToString.escape(this.name);
+    escapedLabel = escapedName;
     
     property.addElement(this);
   }
@@ -141,6 +163,24 @@ public abstract class INDIElement {
   }
 
 
+  /**
+   * Gets the name of the Element escaped to be included in a XML message.
+   *
+   * @return The escaped name of the Element.
+   */
+  protected String getEscapedName() {
+    return escapedName;
+  }
+
+  /**
+   * Gets the label of the Element escaped to be included in a XML message.
+   *
+   * @return The escaped label of the Element.
+   */
+  protected String getEscapedLabel() {
+    return escapedLabel;
+  }
+
   /**
    * Gets the current value of the Element.
    *
@@ -168,12 +208,56 @@ public abstract class INDIElement {
    * @return the &lt;oneXXX&gt; XML string describing the current value of the Element.
    */
   protected abstract String getXMLOneElement();
+
+  /**
+   * Appends a &lt;oneXXX&gt; XML string describing the current value of the Element.
+   * The Elements override it to append their values without building intermediate strings.
+   * @param xml the <code>StringBuilder</code> to which the XML string is appended.
+   */
+  protected void appendXMLOneElement(StringBuilder xml) {
+    xml.append(getXMLOneElement());
+  }
+
+  /**
+   * Appends the beginning of the &lt;oneXXX&gt; XML string of the Element (the opening tag with its name),
+   * which is built only once.
+   * @param xml the <code>StringBuilder</code> to which the XML string is appended.
+   * @param tagName the name of the XML element (<code>oneNumber</code>, <code>oneSwitch</code>, ...).
+   */
+  protected void appendXMLOneElementHead(StringBuilder xml, String tagName) {
+    String head = oneElementHead;
+
+    if (head == null) {
+      head = "<" + tagName + " name=\"" + escapedName + "\">";
+      oneElementHead = head;
+    }
+
+    xml.append(head);
+  }
+
+  /**
+   * Writes a &lt;oneXXX&gt; XML string describing the current value of the Element.
+   * Elements with big values may override it to write them without building the whole string.
+   * @param out the <code>Writer</code> to which the XML string is written.
+   * @throws IOException if there is some problem writing.
+   */
+  protected void writeXMLOneElement(Writer out) throws IOException {
+    out.write(getXMLOneElement());
+  }
   
   /**
    * Gets a &lt;defXXX&gt; XML string describing the current value and properties of the Element.
    * @return The &lt;defXXX&gt; XML string describing the current value and properties of the Element.
    */
   protected abstract String getXMLDefElement();
+
+  /**
+   * Appends a &lt;defXXX&gt; XML string describing the current value and properties of the Element.
+   * @param xml the <code>StringBuilder</code> to which the XML string is appended.
+   */
+  protected void appendXMLDefElement(StringBuilder xml) {
+    xml.append(getXMLDefElement());
+  }
   
   /**
    * Gets the name of the element and its current value
@@ -94,11 +94,17 @@ public class INDILightElement extends INDIElement {
 
   @Override
   public String getXMLOneElement() {
-    String v = Constants.getLightStateAsString(state);
+    StringBuilder xml = new StringBuilder(48);
 
-    String xml = "<oneLight name=\"" + this.getName() + "\">" + v + "</oneLight>";
+    appendXMLOneElement(xml);
 
-    return xml;
+    return xml.toString();
+  }
+
+  @Override
+  protected void appendXMLOneElement(StringBuilder xml) {
+    appendXMLOneElementHead(xml, "oneLight");
+    xml.append(Constants.getLightStateAsString(state)).append("</oneLight>");
   }
 
   @Override
@@ -108,11 +114,16 @@ public class INDILightElement extends INDIElement {
 
   @Override
   protected String getXMLDefElement() {
-    String v = Constants.getLightStateAsString(state);
+    StringBuilder xml = new StringBuilder(96);
 
-    String xml = "<defLight name=\"" + this.getName() + "\" label=\"" + getLabel() + "\">" + v + "</defLight>";
+    appendXMLDefElement(xml);
 
-    return xml;
+    return xml.toString();
+  }
+
+  @Override
+  protected void appendXMLDefElement(StringBuilder xml) {
+    xml.append("<defLight name=\"").append(getEscapedName()).append("\" label=\"").append(getEscapedLabel()).append("\">").append(Constants.getLightStateAsString(state)).append("</defLight>");
   }
 
   @Override
@@ -17,10 +17,8 @@
  */
 package laazotea.indi.driver;
 
-import laazotea.indi.Constants;
 import laazotea.indi.Constants.PropertyPermissions;
 import laazotea.indi.Constants.PropertyStates;
-import laazotea.indi.INDIDateFormat;
 
 /**
  * A class representing a INDI Light Property.
@@ -74,17 +72,9 @@ public class INDILightProperty extends INDIProperty {
   }
     
   @Override
-  protected String getXMLPropertyDefinitionInit() {
-    String xml = "<defLightVector device=\"" + getDriver().getName() + "\" name=\"" + getName() + "\" label=\"" + getLabel() + "\" group=\"" + getGroup() + "\" state=\"" + Constants.getPropertyStateAsString(getState()) + "\" timestamp=\"" + INDIDateFormat.getCurrentTimestamp() + "\">";
-
-    return xml;
-  }
-
-  @Override
-  protected String getXMLPropertyDefinitionInit(String message) {
-    String xml = "<defLightVector device=\"" + getDriver().getName() + "\" name=\"" + getName() + "\" label=\"" + getLabel() + "\" group=\"" + getGroup() + "\" state=\"" + Constants.getPropertyStateAsString(getState()) + "\" timestamp=\"" + INDIDateFormat.getCurrentTimestamp() + "\" message=\"" + message + "\">";
-
-    return xml;
+  protected void appendXMLPropertyDefinitionInit(StringBuilder xml, String message) {
+    appendXMLInitHead(xml, "defLightVector", true);
+    appendXMLInitTail(xml, false, message);
   }
 
   @Override
@@ -95,17 +85,9 @@ public class INDILightProperty extends INDIProperty {
   }
 
   @Override
-  protected String getXMLPropertySetInit() {
-    String xml = "<setLightVector device=\"" + getDriver().getName() + "\" name=\"" + getName() + "\" state=\"" + Constants.getPropertyStateAsString(getState()) + "\" timestamp=\"" + INDIDateFormat.getCurrentTimestamp() + "\">";
-
-    return xml;
-  }
-
-  @Override
-  protected String getXMLPropertySetInit(String message) {
-    String xml = "<setLightVector device=\"" + getDriver().getName() + "\" name=\"" + getName() + "\" state=\"" + Constants.getPropertyStateAsString(getState()) + "\" timestamp=\"" + INDIDateFormat.getCurrentTimestamp() + "\" message=\"" + message + "\">";
-
-    return xml;
+  protected void appendXMLPropertySetInit(StringBuilder xml, String message) {
+    appendXMLInitHead(xml, "setLightVector", false);
+    appendXMLInitTail(xml, false, message);
   }
 
   @Override
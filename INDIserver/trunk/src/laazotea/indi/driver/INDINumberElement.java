@@ -20,6 +20,7 @@ package laazotea.indi.driver;
 import java.util.Formatter;
 import java.util.Locale;
 import laazotea.indi.INDISexagesimalFormatter;
+import laazotea.indi.XMLToString;
 import org.w3c.dom.Element;
 
 /**
@@ -415,9 +416,17 @@ public class INDINumberElement extends INDIElement {
 
   @Override
   public String getXMLOneElement() {
-    String xml = "<oneNumber name=\"" + this.getName() + "\">" + value + "</oneNumber>";
+    StringBuilder xml = new StringBuilder(64);
 
-    return xml;
+    appendXMLOneElement(xml);
+
+    return xml.toString();
+  }
+
+  @Override
+  protected void appendXMLOneElement(StringBuilder xml) {
+    appendXMLOneElementHead(xml, "oneNumber");
+    xml.append(value).append("</oneNumber>");
   }
 
   @Override
@@ -427,9 +436,18 @@ public class INDINumberElement extends INDIElement {
 
   @Override
   protected String getXMLDefElement() {
-    String xml = "<defNumber name=\"" + this.getName() + "\" label=\"" + getLabel() + "\" format=\"" + numberFormat + "\" min=\"" + min + "\" max=\"" + max + "\" step=\"" + step + "\">" + value + "</defNumber>";
+    StringBuilder xml = new StringBuilder(128);
 
-    return xml;
+    appendXMLDefElement(xml);
+
+    return xml.toString();
+  }
+
+  @Override
+  protected void appendXMLDefElement(StringBuilder xml) {
+    xml.append("<defNumber name=\"").append(getEscapedName()).append("\" label=\"").append(getEscapedLabel()).append("\" format=\"");
+    XMLToString.appendEscaped(xml, numberFormat);
+    xml.append("\" min=\"").append(min).append("\" max=\"").append(max).append("\" step=\"").append(step).append("\">").append(value).append("</defNumber>");
   }
 
   @Override
@@ -17,11 +17,16 @@
  */
 package laazotea.indi.driver;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
-import java.util.List;
+import laazotea.indi.Constants;
 import laazotea.indi.Constants.PropertyPermissions;
 import laazotea.indi.Constants.PropertyStates;
+import laazotea.indi.INDIDateFormat;
+import laazotea.indi.XMLToString;
 
 /**
  * A class representing a INDI Property. The subclasses
@@ -69,6 +74,26 @@ public abstract class INDIProperty {
    * A list of Elements for this Property
    */
   private LinkedHashMap<String, INDIElement> elements;
+  /**
+   * The Elements of this Property in order, replaced (never modified) when an
+   * Element is added, to go through them without copying them.
+   */
+  private volatile INDIElement[] elementArray;
+  /**
+   * The beginning of the opening XML element &lt;setXXXVector&gt; and the
+   * Driver name with which it was built (built when first needed).
+   */
+  private volatile String[] setInitHead;
+  /**
+   * The beginning of the opening XML element &lt;defXXXVector&gt; and the
+   * Driver name with which it was built (built when first needed).
+   */
+  private volatile String[] definitionInitHead;
+  /**
+   * The length of the last &lt;setXXXVector&gt; message, to size the next
+   * one.
+   */
+  private int setLength;
   /**
    * <code>true</code> if property has completely init (sent to any client).
    */
@@ -148,6 +173,8 @@ public abstract class INDIProperty {
     }
 
     this.elements = new LinkedHashMap<String, INDIElement>();
+    this.elementArray = new INDIElement[0];
+    this.setLength = 256;
 
     isInit = false;
   }
@@ -281,6 +308,8 @@ public abstract class INDIProperty {
     if (!isInit) {  // We still can add new properties
       if (!elements.containsValue(element)) {
         elements.put(element.getName(), element);
+
+        elementArray = elements.values().toArray(new INDIElement[elements.size()]);
       }
     }
   }
@@ -306,7 +335,17 @@ public abstract class INDIProperty {
    * <code>List</code> of Elements belonging to this Property.
    */
   public ArrayList<INDIElement> getElementsAsList() {
-    return new ArrayList<INDIElement>(elements.values());
+    return new ArrayList<INDIElement>(Arrays.asList(elementArray));
+  }
+
+  /**
+   * Gets the Elements of this Property without copying them. The array must
+   * not be modified.
+   *
+   * @return the Elements of this Property.
+   */
+  INDIElement[] getElementArray() {
+    return elementArray;
   }
 
   /**
@@ -315,12 +354,12 @@ public abstract class INDIProperty {
    * @return the names of the Elements of this Property.
    */
   public String[] getElementNames() {
-    List<INDIElement> l = getElementsAsList();
+    INDIElement[] l = elementArray;
 
-    String[] names = new String[l.size()];
+    String[] names = new String[l.length];
 
-    for (int i = 0 ; i < l.size() ; i++) {
-      names[i] = l.get(i).getName();
+    for (int i = 0 ; i < l.length ; i++) {
+      names[i] = l[i].getName();
     }
 
     return names;
@@ -333,14 +372,16 @@ public abstract class INDIProperty {
    * @return a String representation of the property and its values.
    */
   public String getNameStateAndValuesAsString() {
-    String aux = getName() + " - " + getState() + "\n";
-    List<INDIElement> l = getElementsAsList();
+    StringBuilder aux = new StringBuilder();
+    INDIElement[] l = elementArray;
+
+    aux.append(getName()).append(" - ").append(getState()).append("\n");
 
-    for (int i = 0 ; i < l.size() ; i++) {
-      aux += "  " + l.get(i).getNameAndValueAsString() + "\n";
+    for (int i = 0 ; i < l.length ; i++) {
+      aux.append("  ").append(l[i].getNameAndValueAsString()).append("\n");
     }
 
-    return aux;
+    return aux.toString();
   }
 
   /**
@@ -362,23 +403,32 @@ public abstract class INDIProperty {
    * @return The XML code to define the property.
    */
   protected String getXMLPropertyDefinition(String message) {
-    String xml;
+    StringBuilder xml = new StringBuilder(512);
 
-    if (message == null) {
-      xml = getXMLPropertyDefinitionInit();
-    } else {
-      xml = getXMLPropertyDefinitionInit(message);
-    }
+    appendXMLPropertyDefinition(xml, message);
 
-    List<INDIElement> elem = getElementsAsList();
+    return xml.toString();
+  }
 
-    for (int i = 0 ; i < elements.size() ; i++) {
-      xml += elem.get(i).getXMLDefElement();
-    }
+  /**
+   * Appends the XML code to define the property with a <code>message</code>.
+   * Should not usually be called by the Drivers.
+   *
+   * @param xml The <code>StringBuilder</code> to which the XML code is
+   * appended.
+   * @param message An message to be sent to the client when defining the
+   * property (may be <code>null</code>).
+   */
+  protected void appendXMLPropertyDefinition(StringBuilder xml, String message) {
+    appendXMLPropertyDefinitionInit(xml, message);
+
+    INDIElement[] elem = elementArray;
 
-    xml += getXMLPropertyDefinitionEnd();
+    for (int i = 0 ; i < elem.length ; i++) {
+      elem[i].appendXMLDefElement(xml);
+    }
 
-    return xml;
+    xml.append(getXMLPropertyDefinitionEnd());
   }
 
   /**
@@ -400,23 +450,61 @@ public abstract class INDIProperty {
    * @return The XML code to set the values of the property.
    */
   protected String getXMLPropertySet(String message) {
-    String xml;
+    StringBuilder xml = new StringBuilder(setLength + 32);
+
+    appendXMLPropertySet(xml, message);
+
+    setLength = xml.length();
+
+    return xml.toString();
+  }
+
+  /**
+   * Appends the XML code to set the values of the property with a
+   * <code>message</code>. Should not usually be called by the Drivers.
+   *
+   * @param xml The <code>StringBuilder</code> to which the XML code is
+   * appended.
+   * @param message An message to be sent to the client when setting the values
+   * of the property (may be <code>null</code>).
+   */
+  protected void appendXMLPropertySet(StringBuilder xml, String message) {
+    appendXMLPropertySetInit(xml, message);
+
+    INDIElement[] elem = elementArray;
 
+    for (int i = 0 ; i < elem.length ; i++) {
+      elem[i].appendXMLOneElement(xml);
+    }
+
+    xml.append(getXMLPropertySetEnd());
+  }
+
+  /**
+   * Writes the XML code to set the values of the property with a
+   * <code>message</code>, without building it as a whole. Used to send
+   * Properties with big values (BLOBs). Should not usually be called by the
+   * Drivers.
+   *
+   * @param out The <code>Writer</code> to which the XML code is written.
+   * @param message An message to be sent to the client when setting the values
+   * of the property (may be <code>null</code>).
+   * @throws IOException if there is some problem writing.
+   */
+  protected void writeXMLPropertySet(Writer out, String message) throws IOException {
     if (message == null) {
-      xml = getXMLPropertySetInit();
+      out.write(getXMLPropertySetInit());
     } else {
-      xml = getXMLPropertySetInit(message);
+      out.write(getXMLPropertySetInit(message));
     }
 
-    List<INDIElement> elem = getElementsAsList();
+    INDIElement[] elem = elementArray;
 
-    for (int i = 0 ; i < elem.size() ; i++) {
-      xml += elem.get(i).getXMLOneElement();
+    for (int i = 0 ; i < elem.length ; i++) {
+      elem[i].writeXMLOneElement(out);
     }
 
-    xml += getXMLPropertySetEnd();
-
-    return xml;
+    out.write(getXMLPropertySetEnd());
   }
 
   /**
@@ -424,7 +512,13 @@ public abstract class INDIProperty {
    *
    * @return the opening XML Element &lt;defXXXVector&gt; for this Property.
    */
-  protected abstract String getXMLPropertyDefinitionInit();
+  protected String getXMLPropertyDefinitionInit() {
+    StringBuilder xml = new StringBuilder(256);
+
+    appendXMLPropertyDefinitionInit(xml, null);
+
+    return xml.toString();
+  }
 
   /**
    * Gets the opening XML Element &lt;defXXXVector&gt; for this Property with a
@@ -433,7 +527,24 @@ public abstract class INDIProperty {
    * @param message A message to be sent to the client.
    * @return the opening XML Element &lt;defXXXVector&gt; for this Property.
    */
-  protected abstract String getXMLPropertyDefinitionInit(String message);
+  protected String getXMLPropertyDefinitionInit(String message) {
+    StringBuilder xml = new StringBuilder(256);
+
+    appendXMLPropertyDefinitionInit(xml, message);
+
+    return xml.toString();
+  }
+
+  /**
+   * Appends the opening XML Element &lt;defXXXVector&gt; for this Property
+   * with a <code>message</code> to the client.
+   *
+   * @param xml The <code>StringBuilder</code> to which the XML Element is
+   * appended.
+   * @param message A message to be sent to the client (may be
+   * <code>null</code>).
+   */
+  protected abstract void appendXMLPropertyDefinitionInit(StringBuilder xml, String message);
 
   /**
    * Gets the closing XML Element &lt;/defXXXVector&gt; for this Property.
@@ -447,7 +558,13 @@ public abstract class INDIProperty {
    *
    * @return the opening XML Element &lt;setXXXVector&gt; for this Property.
    */
-  protected abstract String getXMLPropertySetInit();
+  protected String getXMLPropertySetInit() {
+    StringBuilder xml = new StringBuilder(192);
+
+    appendXMLPropertySetInit(xml, null);
+
+    return xml.toString();
+  }
 
   /**
    * Gets the opening XML Element &lt;setXXXVector&gt; for this Property with a
@@ -456,7 +573,88 @@ public abstract class INDIProperty {
    * @param message A message to be sent to the client.
    * @return the opening XML Element &lt;setXXXVector&gt; for this Property.
    */
-  protected abstract String getXMLPropertySetInit(String message);
+  protected String getXMLPropertySetInit(String message) {
+    StringBuilder xml = new StringBuilder(192);
+
+    appendXMLPropertySetInit(xml, message);
+
+    return xml.toString();
+  }
+
+  /**
+   * Appends the opening XML Element &lt;setXXXVector&gt; for this Property
+   * with a <code>message</code> to the client.
+   *
+   * @param xml The <code>StringBuilder</code> to which the XML Element is
+   * appended.
+   * @param message A message to be sent to the client (may be
+   * <code>null</code>).
+   */
+  protected abstract void appendXMLPropertySetInit(StringBuilder xml, String message);
+
+  /**
+   * Appends the beginning of an opening XML Element &lt;defXXXVector&gt; or
+   * &lt;setXXXVector&gt; for this Property, up to its <code>state</code>
+   * attribute. The part that does not change (with the escaped names) is
+   * built only once.
+   *
+   * @param xml The <code>StringBuilder</code> to which the XML code is
+   * appended.
+   * @param tagName The name of the XML Element.
+   * @param definition <code>true</code> for a &lt;defXXXVector&gt; (with the
+   * <code>label</code> and <code>group</code> attributes).
+   */
+  protected void appendXMLInitHead(StringBuilder xml, String tagName, boolean definition) {
+    String driverName = driver.getName();
+    String[] head = definition ? definitionInitHead : setInitHead;
+
+    if ((head == null) || !head[0].equals(driverName)) {
+      String h = "<" + tagName + " device=\"" + XMLToString.escape(driverName) + "\" name=\"" + XMLToString.escape(name) + "\"";
+
+      if (definition) {
+        h += " label=\"" + XMLToString.escape(label) + "\" group=\"" + XMLToString.escape(group) + "\"";
+      }
+
+      head = new String[]{driverName, h + " state=\""};
+
+      if (definition) {
+        definitionInitHead = head;
+      } else {
+        setInitHead = head;
+      }
+    }
+
+    xml.append(head[1]).append(Constants.getPropertyStateAsString(state)).append('"');
+  }
+
+  /**
+   * Appends the end of an opening XML Element &lt;defXXXVector&gt; or
+   * &lt;setXXXVector&gt; for this Property: the <code>timeout</code>,
+   * <code>timestamp</code> and <code>message</code> attributes.
+   *
+   * @param xml The <code>StringBuilder</code> to which the XML code is
+   * appended.
+   * @param withTimeout <code>true</code> to include the <code>timeout</code>
+   * attribute.
+   * @param message A message to be sent to the client (may be
+   * <code>null</code>).
+   */
+  protected void appendXMLInitTail(StringBuilder xml, boolean withTimeout, String message) {
+    if (withTimeout) {
+      xml.append(" timeout=\"").append(timeout).append('"');
+    }
+
+    xml.append(" timestamp=\"");
+    INDIDateFormat.appendCurrentTimestamp(xml).append('"');
+
+    if (message != null) {
+      xml.append(" message=\"");
+      XMLToString.appendEscaped(xml, message);
+      xml.append('"');
+    }
+
+    xml.append('>');
+  }
 
   /**
    * Gets the closing XML Element &lt;/setXXXVector&gt; for this Property.
@@ -118,11 +118,17 @@ public class INDISwitchElement extends INDIElement {
 
   @Override
   public String getXMLOneElement() {
-    String stat = Constants.getSwitchStatusAsString(status);
+    StringBuilder xml = new StringBuilder(48);
 
-    String xml = "<oneSwitch name=\"" + this.getName() + "\">" + stat + "</oneSwitch>";
+    appendXMLOneElement(xml);
 
-    return xml;
+    return xml.toString();
+  }
+
+  @Override
+  protected void appendXMLOneElement(StringBuilder xml) {
+    appendXMLOneElementHead(xml, "oneSwitch");
+    xml.append(Constants.getSwitchStatusAsString(status)).append("</oneSwitch>");
   }
 
   @Override
@@ -132,11 +138,16 @@ public class INDISwitchElement extends INDIElement {
 
   @Override
   protected String getXMLDefElement() {
-    String stat = Constants.getSwitchStatusAsString(status);
+    StringBuilder xml = new StringBuilder(96);
 
-    String xml = "<defSwitch name=\"" + this.getName() + "\" label=\"" + getLabel() + "\">" + stat + "</defSwitch>";
+    appendXMLDefElement(xml);
 
-    return xml;
+    return xml.toString();
+  }
+
+  @Override
+  protected void appendXMLDefElement(StringBuilder xml) {
+    xml.append("<defSwitch name=\"").append(getEscapedName()).append("\" label=\"").append(getEscapedLabel()).append("\">").append(Constants.getSwitchStatusAsString(status)).append("</defSwitch>");
   }
 
   @Override
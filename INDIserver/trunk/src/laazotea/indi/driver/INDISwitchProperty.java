@@ -17,14 +17,11 @@
  */
 package laazotea.indi.driver;
 
-import java.util.ArrayList;
-import java.util.List;
 import laazotea.indi.Constants;
 import laazotea.indi.Constants.PropertyPermissions;
 import laazotea.indi.Constants.PropertyStates;
 import laazotea.indi.Constants.SwitchRules;
 import laazotea.indi.Constants.SwitchStatus;
-import laazotea.indi.INDIDateFormat;
 
 /**
  * A class representing a INDI Switch Property.
@@ -165,10 +162,10 @@ public class INDISwitchProperty extends INDIProperty {
    * allows only one ON simultaneous value the condition is hold.
    */
   protected void resetAllSwitches() {
-    ArrayList<INDIElement> list = getElementsAsList();
+    INDIElement[] list = getElementArray();
 
-    for (int i = 0 ; i < list.size() ; i++) {
-      INDIElement e = list.get(i);
+    for (int i = 0 ; i < list.length ; i++) {
+      INDIElement e = list[i];
 
       e.setValue(SwitchStatus.OFF);
     }
@@ -216,10 +213,10 @@ public class INDISwitchProperty extends INDIProperty {
   private int getSelectedCount() {
     int selectedCount = 0;
 
-    List<INDIElement> list = getElementsAsList();
+    INDIElement[] list = getElementArray();
 
-    for (int i = 0 ; i < list.size() ; i++) {
-      INDISwitchElement el = (INDISwitchElement) list.get(i);
+    for (int i = 0 ; i < list.length ; i++) {
+      INDISwitchElement el = (INDISwitchElement) list[i];
       //     System.out.println("-->" + el.getName() + el.getValue());
       if (el.getValue() == SwitchStatus.ON) {
         selectedCount++;
@@ -235,17 +232,11 @@ public class INDISwitchProperty extends INDIProperty {
   }
 
   @Override
-  protected String getXMLPropertyDefinitionInit() {
-    String xml = "<defSwitchVector device=\"" + getDriver().getName() + "\" name=\"" + getName() + "\" label=\"" + getLabel() + "\" group=\"" + getGroup() + "\" state=\"" + Constants.getPropertyStateAsString(getState()) + "\" perm=\"" + Constants.getPropertyPermissionAsString(getPermission()) + "\" rule=\"" + Constants.getSwitchRuleAsString(getRule()) + "\" timeout=\"" + getTimeout() + "\" timestamp=\"" + INDIDateFormat.getCurrentTimestamp() + "\">";
-
-    return xml;
-  }
-
-  @Override
-  protected String getXMLPropertyDefinitionInit(String message) {
-    String xml = "<defSwitchVector device=\"" + getDriver().getName() + "\" name=\"" + getName() + "\" label=\"" + getLabel() + "\" group=\"" + getGroup() + "\" state=\"" + Constants.getPropertyStateAsString(getState()) + "\" perm=\"" + Constants.getPropertyPermissionAsString(getPermission()) + "\" rule=\"" + Constants.getSwitchRuleAsString(getRule()) + "\" timeout=\"" + getTimeout() + "\" timestamp=\"" + INDIDateFormat.getCurrentTimestamp() + "\" message=\"" + message + "\">";
-
-    return xml;
+  protected void appendXMLPropertyDefinitionInit(StringBuilder xml, String message) {
+    appendXMLInitHead(xml, "defSwitchVector", true);
+    xml.append(" perm=\"").append(Constants.getPropertyPermissionAsString(getPermission())).append('"');
+    xml.append(" rule=\"").append(Constants.getSwitchRuleAsString(getRule())).append('"');
+    appendXMLInitTail(xml, true, message);
   }
 
   @Override
@@ -256,17 +247,9 @@ public class INDISwitchProperty extends INDIProperty {
   }
 
   @Override
-  protected String getXMLPropertySetInit() {
-    String xml = "<setSwitchVector device=\"" + getDriver().getName() + "\" name=\"" + getName() + "\" state=\"" + Constants.getPropertyStateAsString(getState()) + "\" timeout=\"" + getTimeout() + "\" timestamp=\"" + INDIDateFormat.getCurrentTimestamp() + "\">";
-
-    return xml;
-  }
-
-  @Override
-  protected String getXMLPropertySetInit(String message) {
-    String xml = "<setSwitchVector device=\"" + getDriver().getName() + "\" name=\"" + getName() + "\" state=\"" + Constants.getPropertyStateAsString(getState()) + "\" timeout=\"" + getTimeout() + "\" timestamp=\"" + INDIDateFormat.getCurrentTimestamp() + "\" message=\"" + message + "\">";
-
-    return xml;
+  protected void appendXMLPropertySetInit(StringBuilder xml, String message) {
+    appendXMLInitHead(xml, "setSwitchVector", false);
+    appendXMLInitTail(xml, true, message);
   }
 
   @Override
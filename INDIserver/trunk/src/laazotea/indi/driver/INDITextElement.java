@@ -17,6 +17,7 @@
  */
 package laazotea.indi.driver;
 
+import laazotea.indi.XMLToString;
 import org.w3c.dom.Element;
 
 /**
@@ -87,9 +88,18 @@ public class INDITextElement extends INDIElement {
 
   @Override
   public String getXMLOneElement() {
-    String xml = "<oneText name=\"" + this.getName() + "\">" + value + "</oneText>";
+    StringBuilder xml = new StringBuilder(64 + value.length());
 
-    return xml;
+    appendXMLOneElement(xml);
+
+    return xml.toString();
+  }
+
+  @Override
+  protected void appendXMLOneElement(StringBuilder xml) {
+    appendXMLOneElementHead(xml, "oneText");
+    XMLToString.appendEscaped(xml, value);
+    xml.append("</oneText>");
   }
 
   @Override
@@ -99,9 +109,18 @@ public class INDITextElement extends INDIElement {
 
   @Override
   protected String getXMLDefElement() {
-    String xml = "<defText name=\"" + this.getName() + "\" label=\"" + getLabel() + "\">" + value + "</defText>";
+    StringBuilder xml = new StringBuilder(96 + value.length());
 
-    return xml;
+    appendXMLDefElement(xml);
+
+    return xml.toString();
+  }
+
+  @Override
+  protected void appendXMLDefElement(StringBuilder xml) {
+    xml.append("<defText name=\"").append(getEscapedName()).append("\" label=\"").append(getEscapedLabel()).append("\">");
+    XMLToString.appendEscaped(xml, value);
+    xml.append("</defText>");
   }
 
   @Override
@@ -21,10 +21,15 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.*;
+import java.nio.channels.ServerSocketChannel;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.jar.JarEntry;
 import java.util.jar.JarInputStream;
 import laazotea.indi.INDIException;
+import laazotea.indi.INDIMetrics;
+import laazotea.indi.INDIRawMessage;
 import laazotea.indi.driver.INDIDriver;
 import org.w3c.dom.Element;
 
@@ -54,7 +59,16 @@ public abstract class AbstractINDIServer implements Runnable {
    * A list of clients (and devices if they are snooping) connected to the
    * server.
    */
-  private ArrayList<INDIDeviceListener> clients;
+  private List<INDIDeviceListener> clients;
+  /**
+   * The index of the clients by the Devices and Properties they listen to.
+   */
+  private INDIRoutingTable routingTable;
+  /**
+   * The cache of the Properties of the Devices (<code>null</code> if
+   * disabled).
+   */
+  private INDIPropertyCache propertyCache;
   /**
    * The port to which the Server listens.
    */
@@ -63,6 +77,29 @@ public abstract class AbstractINDIServer implements Runnable {
    * The socket to which the Server listens.
    */
   private ServerSocket socket;
+  /**
+   * The number of selector threads serving the Clients. If 0 every Client has
+   * its own reading thread and writes synchronously.
+   */
+  private int selectorThreads;
+  /**
+   * The policy of the outbound queues of the Clients.
+   */
+  private INDIOutboundQueue.OverflowPolicy clientQueuePolicy = INDIOutboundQueue.OverflowPolicy.COALESCE;
+  /**
+   * The maximum number of bytes in the outbound queues of the Clients.
+   */
+  private long clientQueueMaxBytes = 8 * 1024 * 1024;
+  /**
+   * The maximum time (in milliseconds) that a message may wait in the outbound
+   * queues of the Clients (only for the <code>DISCONNECT</code> policy).
+   */
+  private long clientQueueMaxLagMillis = 30000;
+  /**
+   * The recorder of the messages received from the Devices and Clients
+   * (<code>null</code> if they are not being recorded).
+   */
+  private volatile INDIMessageRecorder recorder;
 
   /**
    * Constructs a new Server. The Server begins to listen to the default port.
@@ -84,12 +121,31 @@ public abstract class AbstractINDIServer implements Runnable {
     initServer();
   }
 
+  /**
+   * Constructs a new Server. The Server begins to listen to a particular port.
+   * The Clients are served by non blocking channels with a few selector
+   * threads, so a slow Client never blocks the others and many Clients can be
+   * connected without a thread for each one of them.
+   *
+   * @param listeningPort The port to which the Server will listen.
+   * @param selectorThreads The number of selector threads. If 0 every Client
+   * has its own reading thread (as with the other constructors).
+   */
+  protected AbstractINDIServer(int listeningPort, int selectorThreads) {
+    this.listeningPort = listeningPort;
+    this.selectorThreads = Math.max(0, selectorThreads);
+
+    initServer();
+  }
+
   /**
    * Inits the Server and launches the listening thread.
    */
   private void initServer() {
     devices = new ArrayList<INDIDevice>();
-    clients = new ArrayList<INDIDeviceListener>();
+    clients = new CopyOnWriteArrayList<INDIDeviceListener>();
+    routingTable = new INDIRoutingTable(clients);
+    propertyCache = new INDIPropertyCache(256 * 1024);
 
     Thread serverThread = new Thread(this);
     serverThread.start();
@@ -110,6 +166,12 @@ public abstract class AbstractINDIServer implements Runnable {
    */
   @Override
   public void run() {
+    if (selectorThreads > 0) {
+      runSelectorThreads();
+
+      return;
+    }
+
     try {
       socket = new ServerSocket(listeningPort);
     } catch (IOException e) {
@@ -132,11 +194,7 @@ public abstract class AbstractINDIServer implements Runnable {
 
       if (clientSocket != null) {
         if (acceptClient(clientSocket)) {
-          INDIClient client = new INDIClient(clientSocket, this);
-
-          clients.add(client);
-
-          System.err.println("Client " + client.getInetAddress() + " connected");
+          addClient(new INDIClient(clientSocket, this));
         } else {
           try {
             clientSocket.close();
@@ -149,6 +207,176 @@ public abstract class AbstractINDIServer implements Runnable {
     }
   }
 
+  /**
+   * Opens a non blocking server channel and launches the selector threads
+   * that accept and serve the Clients.
+   */
+  private void runSelectorThreads() {
+    INDISelectorThread[] threads = new INDISelectorThread[selectorThreads];
+
+    try {
+      ServerSocketChannel serverChannel = ServerSocketChannel.open();
+      serverChannel.socket().bind(new InetSocketAddress(listeningPort));
+      socket = serverChannel.socket();
+
+      for (int i = 0 ; i < threads.length ; i++) {
+        threads[i] = new INDISelectorThread(this);
+      }
+
+      threads[0].acceptConnections(serverChannel, threads);
+    } catch (IOException e) {
+      System.err.println("Could not listen on port: " + listeningPort + " (maybe busy)");
+      System.exit(-1);
+    }
+
+    System.err.println("Listening to port " + listeningPort + " (" + selectorThreads + " selector threads)");
+    System.err.flush();
+
+    for (int i = 0 ; i < threads.length ; i++) {
+      threads[i].start();
+    }
+  }
+
+  /**
+   * Sets the limits of the outbound queues of the Clients connected from now
+   * on.
+   *
+   * @param policy What to do when the queue of a Client is full. With
+   * <code>BLOCK</code> the selector threads never wait for the queues of the
+   * Clients (they are the ones that empty them): they queue the messages
+   * beyond the limit.
+   * @param maxBytes The maximum number of bytes waiting to be sent to a
+   * Client.
+   * @param maxLagMillis The maximum time (in milliseconds) that a message may
+   * wait to be sent to a Client (only for the <code>DISCONNECT</code>
+   * policy).
+   */
+  protected void setClientQueueLimits(INDIOutboundQueue.OverflowPolicy policy, long maxBytes, long maxLagMillis) {
+    this.clientQueuePolicy = policy;
+    this.clientQueueMaxBytes = maxBytes;
+    this.clientQueueMaxLagMillis = maxLagMillis;
+  }
+
+  /**
+   * Creates the outbound queue of a new Client. May be overriden to have
+   * different limits for some Clients.
+   *
+   * @param client The new Client.
+   * @return The outbound queue for the Client.
+   */
+  protected INDIOutboundQueue createOutboundQueue(INDIClient client) {
+    return new INDIOutboundQueue(clientQueuePolicy, clientQueueMaxBytes, clientQueueMaxLagMillis);
+  }
+
+  /**
+   * Enables or disables the cache of the Properties of the Devices, used to
+   * answer the <code>getProperties</code> messages of the Clients without
+   * asking the Devices. Must be called before loading any Device.
+   *
+   * @param enabled <code>true</code> to enable the cache (the default).
+   * <code>false</code> to disable it.
+   */
+  protected void setPropertyCacheEnabled(boolean enabled) {
+    if (!enabled) {
+      propertyCache = null;
+    } else if (propertyCache == null) {
+      propertyCache = new INDIPropertyCache(256 * 1024);
+    }
+  }
+
+  /**
+   * Gets the cache of the Properties of the Devices.
+   *
+   * @return The cache of the Properties of the Devices or <code>null</code>
+   * if it is disabled.
+   */
+  protected INDIPropertyCache getPropertyCache() {
+    return propertyCache;
+  }
+
+  /**
+   * Starts or stops recording the messages received from the Devices and
+   * Clients, to replay them later with <code>INDIReplay</code>. The previous
+   * recorder (if any) is not closed.
+   *
+   * @param recorder The recorder of the messages (<code>null</code> to stop
+   * recording them).
+   */
+  protected void setMessageRecorder(INDIMessageRecorder recorder) {
+    this.recorder = recorder;
+  }
+
+  /**
+   * Gets the recorder of the messages received from the Devices and Clients.
+   *
+   * @return The recorder of the messages or <code>null</code> if they are not
+   * being recorded.
+   */
+  INDIMessageRecorder getMessageRecorder() {
+    return recorder;
+  }
+
+  /**
+   * Gets the metrics of the flow of messages through the Server, its Devices
+   * and Clients. They may be published by adding reporters to them, for
+   * example a <code>INDIMetricsEndpoint</code>.
+   *
+   * @return The metrics of the Server.
+   */
+  protected INDIMetrics getMetrics() {
+    return INDIMetrics.getDefault();
+  }
+
+  /**
+   * Starts tracing the fan-out of a message read from a Device, so that the
+   * time from its reading to its writing to the last Client is recorded. The
+   * Server must add every recipient to the returned trace before sending
+   * the message to it, and then call its <code>finish</code> method.
+   *
+   * @param device The Device that sent the message (<code>null</code> if
+   * unknown, then the fan-out is measured from now).
+   * @param message The message.
+   * @return The trace of the fan-out (<code>null</code> if the metrics are
+   * not being recorded).
+   */
+  protected INDIMetrics.FanOut traceFanOut(INDIDevice device, INDIRawMessage message) {
+    INDIMetrics metrics = getMetrics();
+
+    if (!metrics.isEnabled()) {
+      return null;
+    }
+
+    INDIMetrics.Stats stats;
+
+    if (message.getProperty().length() > 0) {
+      stats = metrics.getPropertyStats(message.getDevice(), message.getProperty());
+    } else if (device != null) {
+      stats = device.getMetricsStats();
+    } else {
+      return null;
+    }
+
+    long readTime = (device == null) ? System.nanoTime() : device.getReadTime();
+    INDIMetrics.FanOut fanOut = metrics.startFanOut(stats, readTime);
+
+    message.setFanOut(fanOut);
+
+    return fanOut;
+  }
+
+  /**
+   * Adds a new Client to the list of clients.
+   *
+   * @param client The Client to add.
+   */
+  void addClient(INDIClient client) {
+    client.setRoutingTable(routingTable);
+    clients.add(client);
+    routingTable.rebuild();
+
+    System.err.println("Client " + client.getInetAddress() + " connected");
+  }
+
   /**
    * Loads all INDI for Java Drivers in a JAR file.
    *
@@ -249,11 +477,12 @@ public abstract class AbstractINDIServer implements Runnable {
   }
 
   /**
-   * Loads a Network Driver.
+   * Loads a Network Driver. The connection is opened (and opened again when
+   * lost) by a thread of the Device, so this method does not wait for it.
    *
    * @param host The host of the Network Driver.
    * @param port The port of the Network Driver.
-   * @throws INDIException if there is any problem with the connection.
+   * @throws INDIException if the Network Driver is already loaded.
    */
   protected synchronized void loadNetworkDriver(String host, int port) throws INDIException {
     String networkName = host + ":" + port;
@@ -315,6 +544,17 @@ public abstract class AbstractINDIServer implements Runnable {
     return found;
   }
 
+  /**
+   * Loads a Device created outside the Server (for example the replayed ones
+   * of <code>INDIReplay</code>), starts its reading process and asks for its
+   * properties.
+   *
+   * @param device The Device to load.
+   */
+  protected synchronized void loadDevice(INDIDevice device) {
+    addDevice(device);
+  }
+
   /**
    * Adds a Device to the list of devices, starts its reading process and asks
    * for the properties.
@@ -323,13 +563,15 @@ public abstract class AbstractINDIServer implements Runnable {
    */
   private void addDevice(INDIDevice device) {
     devices.add(device);
+    device.setRoutingTable(routingTable);
     clients.add(device);
+    routingTable.rebuild();
 
     device.startReading();
 
     String message = "<getProperties version=\"1.7\" />";  // Force the device to send its properties for already connected clients
 
-    device.sendXMLMessage(message);
+    device.sendXMLMessage(new INDIRawMessage(message, "getProperties", "", ""));
   }
 
   /**
@@ -407,6 +649,26 @@ public abstract class AbstractINDIServer implements Runnable {
 
     devices.remove(device);
     clients.remove(device);
+    routingTable.rebuild();
+
+    getMetrics().remove(INDIMetrics.Scope.DEVICE, device.getDeviceIdentifier());
+
+    forgetDevices(names);
+  }
+
+  /**
+   * Forgets the Properties of some Devices that are not available anymore:
+   * they are removed from the cache and the listening Clients are sent
+   * <code>delProperty</code> messages.
+   *
+   * @param names The names of the Devices.
+   */
+  protected void forgetDevices(String[] names) {
+    if (propertyCache != null) {
+      for (int i = 0 ; i < names.length ; i++) {
+        propertyCache.remove(names[i], "");
+      }
+    }
 
     notifyClientsDeviceRemoved(names);
   }
@@ -422,22 +684,18 @@ public abstract class AbstractINDIServer implements Runnable {
     for (int h = 0 ; h < deviceNames.length ; h++) {
       String deviceName = deviceNames[h];
 
-      String message = "<delProperty device=\"" + deviceName + "\" />";
-
-      ArrayList<INDIDeviceListener> list = this.getClientsListeningToDevice(deviceName);
+      INDIRawMessage message = new INDIRawMessage("<delProperty device=\"" + deviceName + "\" />", "delProperty", deviceName, "");
 
-      for (int i = 0 ; i < list.size() ; i++) {
-        INDIDeviceListener c = list.get(i);
+      INDIDeviceListener[] list = this.getListenersToDevice(deviceName);
 
-        c.sendXMLMessage(message);
+      for (int i = 0 ; i < list.length ; i++) {
+        list[i].sendXMLMessage(message);
       }
 
-      ArrayList<INDIDeviceListener> list2 = this.getClientsListeningToSingleProperties(deviceName);
+      INDIDeviceListener[] list2 = this.getListenersToSingleProperties(deviceName);
 
-      for (int i = 0 ; i < list2.size() ; i++) {
-        INDIDeviceListener c = list2.get(i);
-
-        c.sendXMLMessage(message);
+      for (int i = 0 ; i < list2.length ; i++) {
+        list2[i].sendXMLMessage(message);
       }
     }
   }
@@ -450,6 +708,9 @@ public abstract class AbstractINDIServer implements Runnable {
    */
   protected void removeClient(INDIClient client) {
     clients.remove(client);
+    routingTable.rebuild();
+
+    getMetrics().remove(INDIMetrics.Scope.CLIENT, client.getInetAddress());
   }
 
   /**
@@ -539,10 +800,12 @@ public abstract class AbstractINDIServer implements Runnable {
    * @param xml The message to send.
    */
   protected void sendXMLMessageToAllDevices(Element xml) {
+    INDIRawMessage message = INDIRawMessage.fromElement(xml);
+
     for (int i = 0 ; i < devices.size() ; i++) {
       INDIDevice d = devices.get(i);
 
-      d.sendXMLMessage(xml);
+      d.sendXMLMessage(message);
     }
   }
 
@@ -552,11 +815,13 @@ public abstract class AbstractINDIServer implements Runnable {
    * @param xml The message to send.
    */
   protected void sendXMLMessageToAllClients(Element xml) {
+    INDIRawMessage message = INDIRawMessage.fromElement(xml);
+
     for (int i = 0 ; i < clients.size() ; i++) {
       INDIDeviceListener c = clients.get(i);
 
       if (c instanceof INDIClient) {
-        c.sendXMLMessage(xml);
+        c.sendXMLMessage(message);
       }
     }
   }
@@ -569,17 +834,7 @@ public abstract class AbstractINDIServer implements Runnable {
    * @return A list of Clients that listen to a Property.
    */
   protected ArrayList<INDIDeviceListener> getClientsListeningToProperty(String deviceName, String propertyName) {
-    ArrayList<INDIDeviceListener> list = new ArrayList<INDIDeviceListener>();
-
-    for (int i = 0 ; i < clients.size() ; i++) {
-      INDIDeviceListener c = clients.get(i);
-
-      if (c.listensToProperty(deviceName, propertyName)) {
-        list.add(c);
-      }
-    }
-
-    return list;
+    return toList(getListenersToProperty(deviceName, propertyName));
   }
 
   /**
@@ -590,17 +845,7 @@ public abstract class AbstractINDIServer implements Runnable {
    * Device.
    */
   protected ArrayList<INDIDeviceListener> getClientsListeningToSingleProperties(String deviceName) {
-    ArrayList<INDIDeviceListener> list = new ArrayList<INDIDeviceListener>();
-
-    for (int i = 0 ; i < clients.size() ; i++) {
-      INDIDeviceListener c = clients.get(i);
-
-      if (c.listensToSingleProperty(deviceName)) {
-        list.add(c);
-      }
-    }
-
-    return list;
+    return toList(getListenersToSingleProperties(deviceName));
   }
 
   /**
@@ -610,14 +855,54 @@ public abstract class AbstractINDIServer implements Runnable {
    * @return A list of Clients that specifically listen to a Device.
    */
   protected ArrayList<INDIDeviceListener> getClientsListeningToDevice(String deviceName) {
-    ArrayList<INDIDeviceListener> list = new ArrayList<INDIDeviceListener>();
+    return toList(getListenersToDevice(deviceName));
+  }
 
-    for (int i = 0 ; i < clients.size() ; i++) {
-      INDIDeviceListener c = clients.get(i);
+  /**
+   * Gets the Clients that listen to a Property. The array is shared (no
+   * allocation is done) and must not be modified.
+   *
+   * @param deviceName The name of the Device of the Property.
+   * @param propertyName The name of the Property.
+   * @return The Clients that listen to a Property.
+   */
+  protected INDIDeviceListener[] getListenersToProperty(String deviceName, String propertyName) {
+    return routingTable.getListenersToProperty(deviceName, propertyName);
+  }
 
-      if (c.listensToDevice(deviceName)) {
-        list.add(c);
-      }
+  /**
+   * Gets the Clients that specifically listen to a Property of a Device. The
+   * array is shared (no allocation is done) and must not be modified.
+   *
+   * @param deviceName The name of the Device.
+   * @return The Clients that specifically listen to a Property of a Device.
+   */
+  protected INDIDeviceListener[] getListenersToSingleProperties(String deviceName) {
+    return routingTable.getListenersToSingleProperties(deviceName);
+  }
+
+  /**
+   * Gets the Clients that listen to a Device. The array is shared (no
+   * allocation is done) and must not be modified.
+   *
+   * @param deviceName The name of the Device.
+   * @return The Clients that listen to a Device.
+   */
+  protected INDIDeviceListener[] getListenersToDevice(String deviceName) {
+    return routingTable.getListenersToDevice(deviceName);
+  }
+
+  /**
+   * Copies an array of Clients into a new list.
+   *
+   * @param listeners The array of Clients.
+   * @return A new list with the Clients.
+   */
+  private ArrayList<INDIDeviceListener> toList(INDIDeviceListener[] listeners) {
+    ArrayList<INDIDeviceListener> list = new ArrayList<INDIDeviceListener>(listeners.length);
+
+    for (int i = 0 ; i < listeners.length ; i++) {
+      list.add(listeners[i]);
     }
 
     return list;
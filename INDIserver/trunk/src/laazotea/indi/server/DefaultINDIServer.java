@@ -19,6 +19,8 @@ package laazotea.indi.server;
 
 import java.net.Socket;
 import java.util.ArrayList;
+import laazotea.indi.INDIMetrics;
+import laazotea.indi.INDIRawMessage;
 import org.w3c.dom.Element;
 
 /**
@@ -54,6 +56,16 @@ public class DefaultINDIServer extends AbstractINDIServer {
   public DefaultINDIServer(int port) {
     super(port);
   }
+
+  /**
+   * Constructs the server with a particular port, serving the Clients with
+   * non blocking channels and some selector threads.
+   * @param port The port to which the server will listen.
+   * @param selectorThreads The number of selector threads (0 to use a reading thread per Client).
+   */
+  public DefaultINDIServer(int port, int selectorThreads) {
+    super(port, selectorThreads);
+  }
   
   /**
    * Sends the <code>defXXXVector</code> message to the appropriate Clients.
@@ -65,13 +77,17 @@ public class DefaultINDIServer extends AbstractINDIServer {
     String deviceName = xml.getAttribute("device").trim();
     String propertyName = xml.getAttribute("name").trim();
 
-    ArrayList<INDIDeviceListener> list = getClientsListeningToProperty(deviceName, propertyName);
+    INDIRawMessage message = INDIRawMessage.fromElement(xml);
 
-    for (int i = 0; i < list.size(); i++) {
-      INDIDeviceListener c = list.get(i);
+    INDIPropertyCache cache = getPropertyCache();
 
-      c.sendXMLMessage(xml);
+    if (cache != null) {
+      cache.define(message);
     }
+
+    INDIDeviceListener[] list = getListenersToProperty(deviceName, propertyName);
+
+    sendXMLMessageToListeners(device, list, message);
   }
 
   /**
@@ -84,13 +100,20 @@ public class DefaultINDIServer extends AbstractINDIServer {
     String deviceName = xml.getAttribute("device").trim();
     String propertyName = xml.getAttribute("name").trim();
 
-    ArrayList<INDIDeviceListener> list = getClientsListeningToProperty(deviceName, propertyName);
+    INDIPropertyCache cache = getPropertyCache();
+    INDIDeviceListener[] list = getListenersToProperty(deviceName, propertyName);
+
+    if ((cache == null) && !anyAccepts(list, deviceName, propertyName, xml.getNodeName().equals("setBLOBVector"))) {
+      return;
+    }
 
-    for (int i = 0; i < list.size(); i++) {
-      INDIDeviceListener c = list.get(i);
+    INDIRawMessage message = INDIRawMessage.fromElement(xml);
 
-      c.sendXMLMessage(xml);
+    if (cache != null) {
+      cache.update(message, xml);
     }
+
+    sendXMLMessageToListeners(device, list, message);
   }
 
   /**
@@ -105,12 +128,10 @@ public class DefaultINDIServer extends AbstractINDIServer {
     if (deviceName.length() == 0) {
       sendXMLMessageToAllClients(xml);
     } else {
-      ArrayList<INDIDeviceListener> list = getClientsListeningToDevice(deviceName);
+      INDIDeviceListener[] list = getListenersToDevice(deviceName);
 
-      for (int i = 0; i < list.size(); i++) {
-        INDIDeviceListener c = list.get(i);
-
-        c.sendXMLMessage(xml);
+      if (list.length > 0) {
+        sendXMLMessageToListeners(device, list, INDIRawMessage.fromElement(xml));
       }
     }
   }
@@ -123,18 +144,24 @@ public class DefaultINDIServer extends AbstractINDIServer {
   @Override
   protected void notifyDeviceListenersDelProperty(INDIDevice device, Element xml) {
     String deviceName = xml.getAttribute("device").trim();
+    String propertyName = xml.getAttribute("name").trim();
 
-    ArrayList<INDIDeviceListener> list = getClientsListeningToDevice(deviceName);
+    INDIPropertyCache cache = getPropertyCache();
 
-    for (int i = 0; i < list.size(); i++) {
-      INDIDeviceListener c = list.get(i);
+    if ((cache != null) && (deviceName.length() > 0)) {
+      cache.remove(deviceName, propertyName);
+    }
+
+    INDIDeviceListener[] list = getListenersToDevice(deviceName);
 
-      c.sendXMLMessage(xml);
+    if (list.length > 0) {
+      sendXMLMessageToListeners(device, list, INDIRawMessage.fromElement(xml));
     }
   }
 
     /**
-   * Sends the <code>getProperties</code> message to the appropriate Devices.
+   * Answers the <code>getProperties</code> message with the cached Properties
+   * and sends it to the appropriate Devices whose Properties are not cached.
    * @param client The Client sending the message.
    * @param xml The message
    */
@@ -143,6 +170,31 @@ public class DefaultINDIServer extends AbstractINDIServer {
 //    System.err.println("CLIENT ASKED FOR PROPERTIES");
 
     String device = xml.getAttribute("device").trim();
+    INDIPropertyCache cache = getPropertyCache();
+
+    if (cache != null) {
+      String property = xml.getAttribute("name").trim();
+
+      if (device.length() == 0) {
+        sendCachedProperties(client, cache, "", "");
+
+        ArrayList<INDIDevice> devices = getDevices();
+
+        for (int i = 0; i < devices.size(); i++) {
+          INDIDevice d = devices.get(i);
+
+          if (!isCached(d, cache)) {
+            d.sendXMLMessage(xml);
+          }
+        }
+
+        return;
+      }
+
+      if (cache.hasDevice(device) && sendCachedProperties(client, cache, device, property)) {
+        return;
+      }
+    }
 
     INDIDevice d = this.getDevice(device);
 
@@ -153,6 +205,59 @@ public class DefaultINDIServer extends AbstractINDIServer {
     }
   }
 
+  /**
+   * Sends the cached Properties to a Client. The Clients hold the messages of
+   * the Devices that they receive meanwhile (see
+   * <code>INDIClient.sendXMLMessage</code>), so a newer value never arrives
+   * before the cached ones.
+   * @param client The Client.
+   * @param cache The cache.
+   * @param device The Device name (empty for all the Devices).
+   * @param property The Property name (empty for all the Properties).
+   * @return <code>true</code> if there was any cached Property to send. <code>false</code> otherwise.
+   */
+  private boolean sendCachedProperties(INDIDeviceListener client, INDIPropertyCache cache, String device, String property) {
+    ArrayList<INDIRawMessage> messages = new ArrayList<INDIRawMessage>();
+
+    cache.getMessages(device, property, messages);
+
+    for (int i = 0; i < messages.size(); i++) {
+      INDIRawMessage message = messages.get(i);
+
+      if (client.acceptsMessage(message)) {
+        if (client instanceof INDIClient) {
+          ((INDIClient) client).sendCachedMessage(message);
+        } else {
+          client.sendXMLMessage(message);
+        }
+      }
+    }
+
+    return !messages.isEmpty();
+  }
+
+  /**
+   * Determines if all the Properties of a Device are cached (all its names have some cached Property).
+   * @param device The Device.
+   * @param cache The cache.
+   * @return <code>true</code> if the Properties of the Device are cached. <code>false</code> otherwise.
+   */
+  private boolean isCached(INDIDevice device, INDIPropertyCache cache) {
+    String[] names = device.getNames();
+
+    if (names.length == 0) {
+      return false;
+    }
+
+    for (int i = 0; i < names.length; i++) {
+      if (!cache.hasDevice(names[i])) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
     /**
    * Sends the <code>newXXXVector</code> message to the appropriate Devices.
    * @param client The Client sending the message.
@@ -182,6 +287,52 @@ public class DefaultINDIServer extends AbstractINDIServer {
     }
   }
 
+  /**
+   * Sends a message to a list of listeners, skipping the ones whose BLOB
+   * enable settings reject it. The message is serialized only once (or not at
+   * all if the original text is available) and the same bytes are sent to all
+   * of them. Its fan-out is traced if the metrics are being recorded.
+   * @param device The Device that sent the message.
+   * @param list The listeners.
+   * @param message The message.
+   */
+  private void sendXMLMessageToListeners(INDIDevice device, INDIDeviceListener[] list, INDIRawMessage message) {
+    INDIMetrics.FanOut fanOut = traceFanOut(device, message);
+
+    for (int i = 0; i < list.length; i++) {
+      if (list[i].acceptsMessage(message)) {
+        if ((fanOut != null) && (list[i] instanceof INDIClient)) {  // Only the Clients notify the trace when they write it
+          fanOut.addRecipient();
+        }
+
+        list[i].sendXMLMessage(message);
+      }
+    }
+
+    if (fanOut != null) {
+      fanOut.finish();
+    }
+  }
+
+  /**
+   * Determines if any listener of a list accepts a message according to its
+   * BLOB enable settings.
+   * @param list The listeners.
+   * @param deviceName The Device name of the message.
+   * @param propertyName The Property name of the message.
+   * @param blob <code>true</code> if the message is a <code>setBLOBVector</code>.
+   * @return <code>true</code> if any listener accepts the message. <code>false</code> otherwise.
+   */
+  private boolean anyAccepts(INDIDeviceListener[] list, String deviceName, String propertyName, boolean blob) {
+    for (int i = 0; i < list.length; i++) {
+      if (list[i].acceptsMessage(deviceName, propertyName, blob)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
   /**
    * Accepts all Clients.
    * @param socket 
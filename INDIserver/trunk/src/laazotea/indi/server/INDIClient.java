@@ -17,10 +17,18 @@
  */
 package laazotea.indi.server;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import laazotea.indi.Constants;
+import laazotea.indi.Constants.BLOBEnables;
+import laazotea.indi.INDIMetrics;
 import laazotea.indi.INDIProtocolParser;
+import laazotea.indi.INDIRawMessage;
 import laazotea.indi.INDIProtocolReader;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -47,22 +55,174 @@ public class INDIClient extends INDIDeviceListener implements INDIProtocolParser
    * The reader.
    */
   private INDIProtocolReader reader;
+  /**
+   * The messages waiting to be sent to the Client.
+   */
+  private INDIOutboundQueue queue;
+  /**
+   * The String representation of the host and port of the Client.
+   */
+  private String inetAddress;
+  /**
+   * The registry of the metrics.
+   */
+  private INDIMetrics metrics;
+  /**
+   * The metrics of the Client (created when first used).
+   */
+  private INDIMetrics.Stats stats;
+  /**
+   * The messages held while the cached Properties are being sent to the Client
+   * (<code>null</code> if they are not).
+   */
+  private ArrayList<INDIRawMessage> held;
+  /**
+   * The lock for the held messages.
+   */
+  private final Object heldLock = new Object();
 
   /**
    * Constructs a new INDIClient that connects to the server and starts listening to it.
+   * The Client does not receive BLOBs until it asks for them with a <code>enableBLOB</code> message.
    * @param socket The socket to communicate with the Client.
    * @param server The Server to which the Client is connected.
    */
   public INDIClient(Socket socket, AbstractINDIServer server) {
+    super(BLOBEnables.NEVER);
+
     this.socket = socket;
     this.server = server;
 
+    inetAddress = socket.getInetAddress().getHostAddress() + ":" + socket.getPort();
+    queue = server.createOutboundQueue(this);
+    metrics = INDIMetrics.getDefault();
+
     reader = new INDIProtocolReader(this);
+    reader.setMetrics(getMetricsStats());
     reader.start();
+
+    new Writer().start();
+  }
+
+  /**
+   * Constructs a new INDIClient that does not have its own socket nor reading
+   * thread. Used by Clients with other transports (see
+   * <code>INDINIOClient</code>), which must feed the <code>parseXML</code>
+   * method and override the methods to send messages.
+   * @param server The Server to which the Client is connected.
+   */
+  protected INDIClient(AbstractINDIServer server) {
+    super(BLOBEnables.NEVER);
+
+    this.server = server;
+
+    queue = server.createOutboundQueue(this);
+    metrics = INDIMetrics.getDefault();
+  }
+
+  /**
+   * Gets the queue of messages waiting to be sent to the Client, to check its
+   * depth and the number of dropped messages.
+   * @return The outbound queue of the Client.
+   */
+  public INDIOutboundQueue getOutboundQueue() {
+    return queue;
+  }
+
+  /**
+   * Gets the metrics of the Client, which include the state of its outbound
+   * queue.
+   * @return The metrics of the Client.
+   */
+  protected INDIMetrics.Stats getMetricsStats() {
+    if (stats == null) {
+      INDIMetrics.Stats s = metrics.getStats(INDIMetrics.Scope.CLIENT, getInetAddress());
+
+      s.setGauge("queuedMessages", new INDIMetrics.Gauge() {
+
+        @Override
+        public long getValue() {
+          return queue.getDepth();
+        }
+      });
+      s.setGauge("queuedBytes", new INDIMetrics.Gauge() {
+
+        @Override
+        public long getValue() {
+          return queue.getBytes();
+        }
+      });
+      s.setGauge("maxQueuedMessages", new INDIMetrics.Gauge() {
+
+        @Override
+        public long getValue() {
+          return queue.getMaxDepth();
+        }
+      });
+      s.setGauge("droppedMessages", new INDIMetrics.Gauge() {
+
+        @Override
+        public long getValue() {
+          return queue.getDroppedMessages();
+        }
+      });
+      s.setGauge("coalescedMessages", new INDIMetrics.Gauge() {
+
+        @Override
+        public long getValue() {
+          return queue.getCoalescedMessages();
+        }
+      });
+
+      stats = s;
+    }
+
+    return stats;
+  }
+
+  /**
+   * Records the metrics of some messages written to the Client: their number
+   * and size, their delivery latencies and the fan-outs they complete.
+   * @param messages The written messages.
+   * @param depth The number of messages that were in the outbound queue when
+   * they were taken from it.
+   */
+  protected void messagesWritten(List<INDIRawMessage> messages, int depth) {
+    if (!metrics.isEnabled()) {
+      return;
+    }
+
+    INDIMetrics.Stats s = getMetricsStats();
+    long now = 0;
+    long bytes = 0;
+
+    for (int i = 0; i < messages.size(); i++) {
+      INDIRawMessage m = messages.get(i);
+
+      bytes += m.getSize();
+
+      INDIMetrics.FanOut fanOut = m.getFanOut();
+
+      if (fanOut != null) {
+        if (now == 0) {
+          now = System.nanoTime();
+        }
+
+        if (fanOut.delivered(now)) {
+          s.record(INDIMetrics.Distribution.DELIVERY_LATENCY, now - fanOut.getReadTime());
+        }
+      }
+    }
+
+    s.add(INDIMetrics.Counter.MESSAGES_OUT, messages.size());
+    s.add(INDIMetrics.Counter.BYTES_OUT, bytes);
+    s.record(INDIMetrics.Distribution.QUEUE_DEPTH, depth);
   }
 
   // Must be called if when writting to the client there is a communication error. This will make the reading thread to stop
-  private void disconnect() {
+  private synchronized void disconnect() {
+    queue.close();
+
     if (socket != null) {
       try {
         reader.setStop(true);
@@ -80,6 +240,8 @@ public class INDIClient extends INDIDeviceListener implements INDIProtocolParser
 
   @Override
   public void finishReader() {
+    queue.close();
+
     server.removeClient(this);
 
     System.err.println("CLIENT " + getInetAddress() + " finishing");
@@ -90,7 +252,7 @@ public class INDIClient extends INDIDeviceListener implements INDIProtocolParser
    * @return A String representation of the host and port of the Client.
    */
   public String getInetAddress() {
-    return socket.getInetAddress().getHostAddress() + ":" + socket.getPort();
+    return inetAddress;
   }
 
   @Override
@@ -102,6 +264,8 @@ public class INDIClient extends INDIDeviceListener implements INDIProtocolParser
     }
 
     NodeList nodes = el.getChildNodes();
+    boolean measure = metrics.isEnabled();
+    INDIMessageRecorder recorder = server.getMessageRecorder();
 
     for (int i = 0; i < nodes.getLength(); i++) {
       Node n = nodes.item(i);
@@ -111,6 +275,14 @@ public class INDIClient extends INDIDeviceListener implements INDIProtocolParser
 
         String name = child.getNodeName();
 
+        if (measure) {
+          getMetricsStats().increment(INDIMetrics.Counter.MESSAGES_IN);
+        }
+
+        if (recorder != null) {
+          recorder.recordClient(this, child);
+        }
+
         if (name.equals("getProperties")) {
           processGetProperties(child);
         } else if (name.equals("newTextVector")) {
@@ -128,6 +300,12 @@ public class INDIClient extends INDIDeviceListener implements INDIProtocolParser
     }
   }
 
+  /**
+   * Stores the BLOB enable setting requested by the Client for a Device or
+   * Property (the Server only sends it the BLOBs it asked for) and forwards
+   * the message to the Device if the Client listens to it.
+   * @param xml The <code>enableBLOB</code> message.
+   */
   private void processEnableBLOB(Element xml) {
     String device = xml.getAttribute("device").trim();
     if (device.length() == 0) {
@@ -135,6 +313,13 @@ public class INDIClient extends INDIDeviceListener implements INDIProtocolParser
     }
 
     String property = xml.getAttribute("name").trim();
+
+    try {
+      setBLOBEnable(device, property, Constants.parseBLOBEnable(xml.getTextContent().trim()));
+    } catch (IllegalArgumentException e) {
+      return;
+    }
+
     boolean listens = false;
 
     if (property.length() == 0) {
@@ -178,24 +363,95 @@ public class INDIClient extends INDIDeviceListener implements INDIProtocolParser
     String device = xml.getAttribute("device").trim();
     String property = xml.getAttribute("name").trim();
 
-    if (device.length() == 0) {
-      setListenToAllDevices(true);
-    } else {
-      if (property.length() == 0) {
-        addDeviceToListen(device);
+    // The messages of the Devices are held until the cached Properties are queued, so that they never overtake them
+    synchronized (heldLock) {
+      held = new ArrayList<INDIRawMessage>();
+    }
+
+    try {
+      if (device.length() == 0) {
+        setListenToAllDevices(true);
       } else {
-        addPropertyToListen(device, property);
+        if (property.length() == 0) {
+          addDeviceToListen(device);
+        } else {
+          addPropertyToListen(device, property);
+        }
       }
+
+      server.notifyClientListenersGetProperties(this, xml);
+    } finally {
+      releaseHeldMessages();
     }
+  }
+
+  /**
+   * Queues the messages held while the cached Properties were being sent and
+   * stops holding them.
+   */
+  private void releaseHeldMessages() {
+    while (true) {
+      ArrayList<INDIRawMessage> messages;
+
+      synchronized (heldLock) {
+        if (held.isEmpty()) {
+          held = null;
+
+          return;
+        }
 
-    server.notifyClientListenersGetProperties(this, xml);
+        messages = held;
+        held = new ArrayList<INDIRawMessage>();
+      }
+
+      for (int i = 0; i < messages.size(); i++) {
+        queueMessage(messages.get(i));
+      }
+    }
   }
 
   protected void sendXMLMessage(String xml) {
-    try {
-      socket.getOutputStream().write(xml.getBytes());
-      socket.getOutputStream().flush();
-    } catch (IOException e) {
+    sendXMLMessage(new INDIRawMessage(xml));
+  }
+
+  /**
+   * Sends a message to the Client. While the cached Properties are being sent
+   * to it (see <code>sendCachedMessage</code>) the message is held and queued
+   * after them.
+   * @param message The message to be sent.
+   */
+  @Override
+  public void sendXMLMessage(INDIRawMessage message) {
+    synchronized (heldLock) {
+      if (held != null) {
+        held.add(message);
+
+        return;
+      }
+    }
+
+    queueMessage(message);
+  }
+
+  /**
+   * Sends a cached message to the Client, answering its
+   * <code>getProperties</code> message. It is never held.
+   * @param message The message to be sent.
+   */
+  protected void sendCachedMessage(INDIRawMessage message) {
+    queueMessage(message);
+  }
+
+  /**
+   * Queues a message to be sent to the Client by its writer thread. If the
+   * Client does not read its messages and its queue is full the Client may be
+   * disconnected, depending on the policy of the queue.
+   * @param message The message to be sent.
+   */
+  protected void queueMessage(INDIRawMessage message) {
+    if (!queue.offer(message) && !queue.isClosed()) {
+      System.err.println("CLIENT " + getInetAddress() + " does not read its messages, disconnecting");
+
       disconnect();
     }
   }
@@ -208,4 +464,37 @@ public class INDIClient extends INDIDeviceListener implements INDIProtocolParser
       return null;
     }
   }
+
+  /**
+   * The thread that writes the queued messages to the socket.
+   */
+  private class Writer extends Thread {
+
+    @Override
+    public void run() {
+      ArrayList<INDIRawMessage> messages = new ArrayList<INDIRawMessage>();
+
+      try {
+        OutputStream os = new BufferedOutputStream(socket.getOutputStream(), 16384);
+
+        while (queue.take(messages, 64)) {
+          for (int i = 0; i < messages.size(); i++) {
+            messages.get(i).writeTo(os);
+          }
+
+          int depth = queue.getDepth();
+
+          if (depth == 0) {
+            os.flush();
+          }
+
+          messagesWritten(messages, messages.size() + depth);
+
+          messages.clear();
+        }
+      } catch (IOException e) {
+        disconnect();
+      }
+    }
+  }
 }
@@ -22,8 +22,10 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import laazotea.indi.Constants;
 import laazotea.indi.INDIException;
+import laazotea.indi.INDIMetrics;
 import laazotea.indi.INDIProtocolParser;
 import laazotea.indi.INDIProtocolReader;
+import laazotea.indi.INDIRawMessage;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -46,6 +48,19 @@ public abstract class INDIDevice extends INDIDeviceListener implements INDIProto
    * The reader that reads from the Device.
    */
   private INDIProtocolReader reader;
+  /**
+   * The registry of the metrics.
+   */
+  private INDIMetrics metrics;
+  /**
+   * The metrics of the Device (created when first used).
+   */
+  private INDIMetrics.Stats stats;
+  /**
+   * The time (<code>System.nanoTime()</code>) in which the messages being
+   * parsed were read.
+   */
+  private long readTime;
 
   /**
    * Constructs a new
@@ -57,6 +72,8 @@ public abstract class INDIDevice extends INDIDeviceListener implements INDIProto
    */
   protected INDIDevice(AbstractINDIServer server) throws INDIException {
     this.server = server;
+
+    metrics = INDIMetrics.getDefault();
   }
 
   /**
@@ -65,11 +82,53 @@ public abstract class INDIDevice extends INDIDeviceListener implements INDIProto
    */
   protected void startReading() {
     reader = new INDIProtocolReader(this);
+    reader.setMetrics(getMetricsStats());
     reader.start();
   }
 
+  /**
+   * Gets the metrics of the Device.
+   *
+   * @return The metrics of the Device.
+   */
+  protected INDIMetrics.Stats getMetricsStats() {
+    if (stats == null) {
+      stats = metrics.getStats(INDIMetrics.Scope.DEVICE, getDeviceIdentifier());
+    }
+
+    return stats;
+  }
+
+  /**
+   * Gets the time in which the messages being parsed were read, from which
+   * the fan-out latencies are measured. Only meaningful while the Server is
+   * being notified about them.
+   *
+   * @return The time (<code>System.nanoTime()</code>) in which the messages
+   * being parsed were read.
+   */
+  protected long getReadTime() {
+    return readTime;
+  }
+
   @Override
   public void parseXML(Document doc) {
+    parseXML(doc, (reader == null) ? System.nanoTime() : reader.getReadTime());
+  }
+
+  /**
+   * Parses some messages of the Device.
+   *
+   * @param doc The messages.
+   * @param readTime The time (<code>System.nanoTime()</code>) in which they
+   * were read.
+   */
+  protected void parseXML(Document doc, long readTime) {
+    this.readTime = readTime;
+
+    boolean measure = metrics.isEnabled();
+    INDIMessageRecorder recorder = server.getMessageRecorder();
+
     Element el = doc.getDocumentElement();
 
     if (el.getNodeName().compareTo("INDI") != 0) {
@@ -86,6 +145,14 @@ public abstract class INDIDevice extends INDIDeviceListener implements INDIProto
 
         String nodeName = child.getNodeName();
 
+        if (measure) {
+          getMetricsStats().increment(INDIMetrics.Counter.MESSAGES_IN);
+        }
+
+        if (recorder != null) {
+          recorder.recordDevice(this, child);
+        }
+
         if (nodeName.equals("getProperties")) {
           processGetProperties(child);
         } else if (nodeName.equals("defTextVector")) {
@@ -148,6 +215,15 @@ public abstract class INDIDevice extends INDIDeviceListener implements INDIProto
    */
   protected abstract boolean hasName(String name);
 
+  /**
+   * Forgets all the Properties of the Device while it is not available (for
+   * example, a Network Device that lost its connection), without removing it
+   * from the Server. The Device must define them again when it is available.
+   */
+  protected void forgetProperties() {
+    server.forgetDevices(getNames());
+  }
+
   /**
    * Gets the names that the Device is attending (might be more than one in Network Devices).
    * @return the names that the Device is attending.
@@ -205,6 +281,8 @@ public abstract class INDIDevice extends INDIDeviceListener implements INDIProto
       return;
     }
 
+    countPropertyMessage(device, property);
+
     server.notifyDeviceListenersDefXXXVector(this, xml);
   }
 
@@ -228,9 +306,23 @@ public abstract class INDIDevice extends INDIDeviceListener implements INDIProto
       return;
     }
 
+    countPropertyMessage(device, property);
+
     server.notifyDeviceListenersSetXXXVector(this, xml);
   }
 
+  /**
+   * Counts a message of a Property received from the Device.
+   *
+   * @param device The name of the Device.
+   * @param property The name of the Property.
+   */
+  private void countPropertyMessage(String device, String property) {
+    if (metrics.isEnabled()) {
+      metrics.getPropertyStats(device.trim(), property).increment(INDIMetrics.Counter.MESSAGES_IN);
+    }
+  }
+
   /**
    * Processes the
    * <code>message</code> XML message.
@@ -263,7 +355,9 @@ public abstract class INDIDevice extends INDIDeviceListener implements INDIProto
    * Stops the reader and closes its connections.
    */
   public void destroy() {
-    reader.setStop(true);
+    if (reader != null) {
+      reader.setStop(true);
+    }
 
     closeConnections();
   }
@@ -275,9 +369,18 @@ public abstract class INDIDevice extends INDIDeviceListener implements INDIProto
 
   @Override
   protected void sendXMLMessage(String xml) {
-//    System.err.println(xml);
+    sendXMLMessage(new INDIRawMessage(xml));
+  }
+
+  @Override
+  public void sendXMLMessage(INDIRawMessage message) {
+//    System.err.println(message);
+    if (metrics.isEnabled()) {
+      getMetricsStats().count(INDIMetrics.Counter.MESSAGES_OUT, INDIMetrics.Counter.BYTES_OUT, message.getSize());
+    }
+
     try {
-      getOutputStream().write(xml.getBytes());
+      message.writeTo(getOutputStream());
       getOutputStream().flush();
     } catch (IOException e) {
       destroy();
@@ -17,8 +17,11 @@
  */
 package laazotea.indi.server;
 
-import java.util.ArrayList;
-import laazotea.indi.XMLToString;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import laazotea.indi.Constants.BLOBEnables;
+import laazotea.indi.INDIRawMessage;
 import org.w3c.dom.Element;
 
 /**
@@ -36,29 +39,73 @@ public abstract class INDIDeviceListener {
    */
   private boolean listenToAllDevices;
   /**
-   * A list of devices that are listened.
+   * The devices that are listened.
    */
-  private ArrayList<String> devicesToListen;
+  private HashSet<String> devicesToListen;
   /**
-   * A list of properties that are listened. It consists on pairs of device,property names, separated by &|&
+   * The properties that are listened, by device name.
    */
-  private ArrayList<String> propertiesToListen; 
+  private HashMap<String, HashSet<String>> propertiesToListen;
+  /**
+   * The routing table of the server, to be notified when the listened devices
+   * or properties change (<code>null</code> if not yet added to a server).
+   */
+  private INDIRoutingTable routingTable;
+  /**
+   * The BLOB enable setting of the devices that have not set any.
+   */
+  private BLOBEnables defaultBLOBEnable;
+  /**
+   * The BLOB enable settings of whole devices, by device name.
+   */
+  private HashMap<String, BLOBEnables> deviceBLOBEnables;
+  /**
+   * The BLOB enable settings of single properties, by device name.
+   */
+  private HashMap<String, HashMap<String, BLOBEnables>> propertyBLOBEnables;
+  /**
+   * <code>true</code> if any device or property is set to <code>ONLY</code>,
+   * so the messages that are not BLOBs must be checked.
+   */
+  private volatile boolean anyBLOBOnly;
 
   /**
-   * Constructs a new <code>INDIDeviceListener</code>.
+   * Constructs a new <code>INDIDeviceListener</code> that receives the BLOBs
+   * along with the rest of the messages.
    */
   protected INDIDeviceListener() {
+    this(BLOBEnables.ALSO);
+  }
+
+  /**
+   * Constructs a new <code>INDIDeviceListener</code>.
+   * @param defaultBLOBEnable The BLOB enable setting of the devices for which no <code>enableBLOB</code> message has been received.
+   */
+  protected INDIDeviceListener(BLOBEnables defaultBLOBEnable) {
     listenToAllDevices = false;
 
-    devicesToListen = new ArrayList<String>();
-    propertiesToListen = new ArrayList<String>();
+    devicesToListen = new HashSet<String>();
+    propertiesToListen = new HashMap<String, HashSet<String>>();
+
+    this.defaultBLOBEnable = defaultBLOBEnable;
+    deviceBLOBEnables = new HashMap<String, BLOBEnables>();
+    propertyBLOBEnables = new HashMap<String, HashMap<String, BLOBEnables>>();
+    anyBLOBOnly = defaultBLOBEnable == BLOBEnables.ONLY;
+  }
+
+  /**
+   * Sets the routing table of the server to which the listener has been added.
+   * @param routingTable The routing table.
+   */
+  void setRoutingTable(INDIRoutingTable routingTable) {
+    this.routingTable = routingTable;
   }
 
   /**
    * 
    * @return <code>true</code> if the listener listens to all the devices. <code>false</code> otherwise.
    */
-  public boolean listensToAllDevices() {
+  public synchronized boolean listensToAllDevices() {
     return listenToAllDevices;
   }
 
@@ -67,7 +114,15 @@ public abstract class INDIDeviceListener {
    * @param deviceName The Device name to be listened.
    */
   protected void addDeviceToListen(String deviceName) {
-    devicesToListen.add(deviceName);
+    boolean changed;
+
+    synchronized (this) {
+      changed = devicesToListen.add(deviceName);
+    }
+
+    if (changed) {
+      subscriptionsChanged();
+    }
   }
 
   /**
@@ -76,7 +131,22 @@ public abstract class INDIDeviceListener {
    * @param propertyName The Property name to be listened.
    */
   protected void addPropertyToListen(String deviceName, String propertyName) {
-    propertiesToListen.add(deviceName + "&|&" + propertyName);
+    boolean changed;
+
+    synchronized (this) {
+      HashSet<String> properties = propertiesToListen.get(deviceName);
+
+      if (properties == null) {
+        properties = new HashSet<String>();
+        propertiesToListen.put(deviceName, properties);
+      }
+
+      changed = properties.add(propertyName);
+    }
+
+    if (changed) {
+      subscriptionsChanged();
+    }
   }
 
   /**
@@ -84,7 +154,29 @@ public abstract class INDIDeviceListener {
    * @param listenToAllDevices The new value of the flag.
    */
   protected void setListenToAllDevices(boolean listenToAllDevices) {
-    this.listenToAllDevices = listenToAllDevices;
+    boolean changed;
+
+    synchronized (this) {
+      changed = this.listenToAllDevices != listenToAllDevices;
+
+      this.listenToAllDevices = listenToAllDevices;
+    }
+
+    if (changed) {
+      subscriptionsChanged();
+    }
+  }
+
+  /**
+   * Notifies the routing table of the server that the listened devices or
+   * properties have changed.
+   */
+  private void subscriptionsChanged() {
+    INDIRoutingTable table = routingTable;
+
+    if (table != null) {
+      table.rebuild();
+    }
   }
 
   /**
@@ -92,7 +184,7 @@ public abstract class INDIDeviceListener {
    * @param deviceName The Device name to check.
    * @return <code>true</code> if the listener listens to the Device. <code>false</code> otherwise.
    */
-  protected boolean listensToDevice(String deviceName) {
+  protected synchronized boolean listensToDevice(String deviceName) {
     if (listenToAllDevices) {
       return true;
     }
@@ -111,12 +203,14 @@ public abstract class INDIDeviceListener {
    * @param propertyName The Property name to check.
    * @return <code>true</code> if the listener listens to the Property. <code>false</code> otherwise.
    */
-  protected boolean listensToProperty(String deviceName, String propertyName) {
+  protected synchronized boolean listensToProperty(String deviceName, String propertyName) {
     if (listensToDevice(deviceName)) {
       return true;
     }
 
-    if (propertiesToListen.contains(deviceName + "&|&" + propertyName)) {
+    HashSet<String> properties = propertiesToListen.get(deviceName);
+
+    if ((properties != null) && properties.contains(propertyName)) {
       return true;
     }
 
@@ -128,14 +222,129 @@ public abstract class INDIDeviceListener {
    * @param deviceName The Device name to check.
    * @return <code>true</code> if the listener listens specifically to any Property of the Device. <code>false</code> otherwise.
    */
-  protected boolean listensToSingleProperty(String deviceName) {
-    for (int i = 0; i < propertiesToListen.size(); i++) {
-      if (propertiesToListen.get(i).startsWith(deviceName + "&|&")) {
-        return true;
+  protected synchronized boolean listensToSingleProperty(String deviceName) {
+    return propertiesToListen.containsKey(deviceName);
+  }
+
+  /**
+   * Adds to a set the names of the Devices that are specifically listened
+   * (either completely or some of their Properties).
+   * @param deviceNames The set to which the names are added.
+   */
+  synchronized void addListenedDeviceNames(Set<String> deviceNames) {
+    deviceNames.addAll(devicesToListen);
+    deviceNames.addAll(propertiesToListen.keySet());
+  }
+
+  /**
+   * Adds to a set the names of the Properties of a Device that are
+   * specifically listened.
+   * @param deviceName The Device name.
+   * @param propertyNames The set to which the names are added.
+   */
+  synchronized void addListenedPropertyNames(String deviceName, Set<String> propertyNames) {
+    HashSet<String> properties = propertiesToListen.get(deviceName);
+
+    if (properties != null) {
+      propertyNames.addAll(properties);
+    }
+  }
+
+  /**
+   * Sets how the listener wants to receive the BLOBs of a Device or of one of
+   * its Properties, as requested by a <code>enableBLOB</code> message. A
+   * setting for a whole Device replaces the previous settings of its
+   * Properties.
+   * @param deviceName The Device name.
+   * @param propertyName The Property name (empty for the whole Device).
+   * @param enable The new setting.
+   */
+  protected synchronized void setBLOBEnable(String deviceName, String propertyName, BLOBEnables enable) {
+    if (propertyName.length() == 0) {
+      deviceBLOBEnables.put(deviceName, enable);
+      propertyBLOBEnables.remove(deviceName);
+    } else {
+      HashMap<String, BLOBEnables> properties = propertyBLOBEnables.get(deviceName);
+
+      if (properties == null) {
+        properties = new HashMap<String, BLOBEnables>();
+        propertyBLOBEnables.put(deviceName, properties);
       }
+
+      properties.put(propertyName, enable);
     }
 
-    return false;
+    anyBLOBOnly = (defaultBLOBEnable == BLOBEnables.ONLY) || deviceBLOBEnables.containsValue(BLOBEnables.ONLY);
+
+    for (HashMap<String, BLOBEnables> properties : propertyBLOBEnables.values()) {
+      anyBLOBOnly |= properties.containsValue(BLOBEnables.ONLY);
+    }
+  }
+
+  /**
+   * Gets how the listener wants to receive the BLOBs of a Property.
+   * @param deviceName The Device name.
+   * @param propertyName The Property name (empty for the setting of the whole Device).
+   * @return The BLOB enable setting of the Property.
+   */
+  public synchronized BLOBEnables getBLOBEnable(String deviceName, String propertyName) {
+    HashMap<String, BLOBEnables> properties = propertyBLOBEnables.get(deviceName);
+
+    if (properties != null) {
+      BLOBEnables enable = properties.get(propertyName);
+
+      if (enable != null) {
+        return enable;
+      }
+    }
+
+    BLOBEnables enable = deviceBLOBEnables.get(deviceName);
+
+    if (enable != null) {
+      return enable;
+    }
+
+    return defaultBLOBEnable;
+  }
+
+  /**
+   * Determines if a message about a Property must be sent to the listener
+   * according to its BLOB enable settings: <code>setBLOBVector</code> messages
+   * are only sent if the Property is set to <code>ALSO</code> or
+   * <code>ONLY</code> and the rest of the messages are not sent if it is set
+   * to <code>ONLY</code>.
+   * @param deviceName The Device name.
+   * @param propertyName The Property name (empty for messages about the whole Device).
+   * @param blob <code>true</code> if the message is a <code>setBLOBVector</code>.
+   * @return <code>true</code> if the message must be sent to the listener. <code>false</code> otherwise.
+   */
+  public boolean acceptsMessage(String deviceName, String propertyName, boolean blob) {
+    if (!blob && !anyBLOBOnly) {
+      return true;
+    }
+
+    BLOBEnables enable = getBLOBEnable(deviceName, propertyName);
+
+    if (blob) {
+      return enable != BLOBEnables.NEVER;
+    }
+
+    return enable != BLOBEnables.ONLY;
+  }
+
+  /**
+   * Determines if a message must be sent to the listener according to its
+   * BLOB enable settings.
+   * @param message The message.
+   * @return <code>true</code> if the message must be sent to the listener. <code>false</code> otherwise.
+   * @see #acceptsMessage(String, String, boolean)
+   */
+  public boolean acceptsMessage(INDIRawMessage message) {
+    if (message.getDevice().length() == 0) {
+      return true;
+    }
+
+    return acceptsMessage(message.getDevice(), message.getProperty(), message.getElementName().equals("setBLOBVector"));
   }
 
   /**
@@ -143,9 +352,16 @@ public abstract class INDIDeviceListener {
    * @param xml The message to be sent.
    */
   public void sendXMLMessage(Element xml) {
-    String message = XMLToString.transform(xml);
+    sendXMLMessage(INDIRawMessage.fromElement(xml));
+  }
 
-    sendXMLMessage(message);
+  /**
+   * Sends an already serialized message to the listener. The same message may
+   * be sent to several listeners, so it must not be modified.
+   * @param message The message to be sent.
+   */
+  public void sendXMLMessage(INDIRawMessage message) {
+    sendXMLMessage(message.getXML());
   }
 
   /**
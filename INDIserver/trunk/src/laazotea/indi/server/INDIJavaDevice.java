@@ -17,24 +17,36 @@
  */
 package laazotea.indi.server;
 
-import com.Ostermiller.util.CircularByteBuffer;
-import java.io.IOException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
 import laazotea.indi.INDIException;
+import laazotea.indi.INDIIncrementalParser;
+import laazotea.indi.INDIMetrics;
+import laazotea.indi.INDIRawMessage;
 import laazotea.indi.driver.INDIDriver;
+import laazotea.indi.driver.INDIDriverConnection;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 
 /**
  * A class that represent a Java Device (created with the INDI Driver library).
+ * The Driver runs in the same process and is connected directly to the
+ * Device: the messages of the Driver are parsed once in the thread that sends
+ * them and the messages to the Driver are handed to it already parsed, without
+ * intermediate buffers nor reading threads.
  *
  * @author S. Alonso (Zerjillo) [zerjio at zerjio.com]
  * @version 1.21, April 4, 2012
  *
  * @see laazotea.indi.driver
  */
-public class INDIJavaDevice extends INDIDevice {
+public class INDIJavaDevice extends INDIDevice implements INDIDriverConnection {
 
   /**
    * The Driver
@@ -45,13 +57,35 @@ public class INDIJavaDevice extends INDIDevice {
    */
   private String identifier;
   /**
-   * A buffer to send information to the Driver.
+   * A placeholder input stream for the Driver constructor (the Driver does
+   * not read from it).
    */
-  private CircularByteBuffer toDriver;
+  private InputStream toDriver;
   /**
-   * A buffer to get information from the Driver.
+   * The output stream for the Driver constructor. Anything written to it is
+   * parsed as the messages sent with <code>receiveFromDriver</code>.
    */
-  private CircularByteBuffer fromDriver;
+  private OutputStream fromDriver;
+  /**
+   * The parser of the messages from the Driver.
+   */
+  private INDIIncrementalParser fromDriverParser;
+  /**
+   * The parser of the text messages to the Driver.
+   */
+  private INDIIncrementalParser toDriverParser;
+  /**
+   * Used to create the documents with the element messages to the Driver.
+   */
+  private DocumentBuilder docBuilder;
+  /**
+   * The messages received from the Driver before the Device started reading.
+   */
+  private StringBuilder pendingFromDriver;
+  /**
+   * Set when the Device has started reading from the Driver.
+   */
+  private boolean reading;
   /**
    * The class of the Driver.
    */
@@ -77,12 +111,23 @@ public class INDIJavaDevice extends INDIDevice {
     this.identifier = identifier;
     this.driverClass = driverClass;
     
-    toDriver = new CircularByteBuffer(CircularByteBuffer.INFINITE_SIZE);
-    fromDriver = new CircularByteBuffer(CircularByteBuffer.INFINITE_SIZE);
+    pendingFromDriver = new StringBuilder();
+    reading = false;
+
+    try {
+      fromDriverParser = new INDIIncrementalParser();
+      toDriverParser = new INDIIncrementalParser();
+      docBuilder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+    } catch (Exception e) {
+      throw new INDIException("Problem creating the XML parsers");
+    }
+
+    toDriver = new ByteArrayInputStream(new byte[0]);
+    fromDriver = new DriverOutputStream();
     
     try {
       Constructor c = driverClass.getConstructor(InputStream.class, OutputStream.class);
-      this.driver = (INDIDriver) c.newInstance(toDriver.getInputStream(), fromDriver.getOutputStream());
+      this.driver = (INDIDriver) c.newInstance(toDriver, fromDriver);
     } catch (InstantiationException ex) {
       throw new INDIException("Problem instantiating driver (not an INDIfor Java Driver?)");
     } catch (IllegalAccessException ex) {
@@ -94,8 +139,112 @@ public class INDIJavaDevice extends INDIDevice {
     } catch (ClassCastException ex) {
       throw new INDIException("Problem instantiating driver (not an INDIfor Java Driver?)"); 
     }
-    
-    driver.startListening();
+  }
+
+  /**
+   * Starts the Driver, connected directly to this Device. The messages that
+   * the Driver sent while being constructed are parsed now.
+   */
+  @Override
+  protected void startReading() {
+    synchronized (fromDriverParser) {
+      reading = true;
+
+      if (pendingFromDriver.length() > 0) {
+        String pending = pendingFromDriver.toString();
+        pendingFromDriver = null;
+
+        receiveFromDriver(pending);
+      }
+    }
+
+    driver.startListening(this);
+  }
+
+  /**
+   * Parses some messages sent by the Driver and deals with them. Called in the
+   * thread of the Driver that sends them.
+   *
+   * @param xml The messages.
+   */
+  @Override
+  public void receiveFromDriver(String xml) {
+    synchronized (fromDriverParser) {
+      if (!reading) {
+        pendingFromDriver.append(xml);
+
+        return;
+      }
+
+      long start = System.nanoTime();
+
+      Document doc = fromDriverParser.parse(xml);
+
+      INDIMetrics metrics = INDIMetrics.getDefault();
+
+      if (metrics.isEnabled()) {
+        INDIMetrics.Stats stats = getMetricsStats();
+
+        stats.add(INDIMetrics.Counter.BYTES_IN, xml.length());
+        stats.record(INDIMetrics.Distribution.PARSE_TIME, System.nanoTime() - start);
+      }
+
+      if (doc != null) {
+        parseXML(doc, start);
+      }
+    }
+  }
+
+  @Override
+  public void driverFinished() {
+    finishReader();
+  }
+
+  /**
+   * Hands a message to the Driver without serializing it. The message is
+   * copied into a new document that only the Driver will use.
+   *
+   * @param xml The message to be sent.
+   */
+  @Override
+  public void sendXMLMessage(Element xml) {
+    Document doc;
+
+    synchronized (docBuilder) {
+      doc = docBuilder.newDocument();
+    }
+
+    Element root = doc.createElement("INDI");
+    doc.appendChild(root);
+    root.appendChild(INDIIncrementalParser.importElement(doc, xml));
+
+    if (INDIMetrics.getDefault().isEnabled()) {
+      getMetricsStats().increment(INDIMetrics.Counter.MESSAGES_OUT);
+    }
+
+    driver.receiveXML(doc);
+  }
+
+  /**
+   * Parses an already serialized message and hands it to the Driver.
+   *
+   * @param message The message to be sent.
+   */
+  @Override
+  public void sendXMLMessage(INDIRawMessage message) {
+    if (INDIMetrics.getDefault().isEnabled()) {
+      getMetricsStats().count(INDIMetrics.Counter.MESSAGES_OUT, INDIMetrics.Counter.BYTES_OUT, message.getSize());
+    }
+
+    Document doc;
+
+    synchronized (toDriverParser) {
+      doc = toDriverParser.parse(message.getXML());
+    }
+
+    if (doc != null) {
+      driver.receiveXML(doc);
+    }
   }
 
   /**
@@ -144,32 +293,41 @@ public class INDIJavaDevice extends INDIDevice {
   
   @Override
   public void closeConnections() {
-    try {
-      toDriver.getInputStream().close();
-    } catch (IOException e) {
-    }
-    try {
-      toDriver.getOutputStream().close();
-    } catch (IOException e) {
-    }
-    try {
-      fromDriver.getInputStream().close();
-    } catch (IOException e) {
-    }
-    try {
-      fromDriver.getOutputStream().close();
-    } catch (IOException e) {
-    }
+    driver.stopListening();
   }
   
+  /**
+   * There is no stream from the Driver: its messages are received through
+   * <code>receiveFromDriver</code>.
+   *
+   * @return An empty stream.
+   */
   @Override
   public InputStream getInputStream() {
-    return fromDriver.getInputStream();
+    return new ByteArrayInputStream(new byte[0]);
   }
   
+  /**
+   * There is no stream to the Driver: the messages are handed to it by the
+   * <code>sendXMLMessage</code> methods.
+   *
+   * @return A stream whose contents are parsed and handed to the Driver when
+   * flushed.
+   */
   @Override
   public OutputStream getOutputStream() {
-    return toDriver.getOutputStream();
+    return new ByteArrayOutputStream() {
+
+      @Override
+      public synchronized void flush() {
+        if (size() > 0) {
+          String xml = toString();
+          reset();
+
+          sendXMLMessage(new INDIRawMessage(xml));
+        }
+      }
+    };
   }
   
   @Override
@@ -204,4 +362,22 @@ public class INDIJavaDevice extends INDIDevice {
   public String toString() {
     return "Java Device: " + identifier + " - " + driverClass.getName();
   }
+
+  /**
+   * The stream given to the Driver to write its messages (only used if the
+   * Driver writes directly to its output). The written bytes are parsed when
+   * the stream is flushed.
+   */
+  private class DriverOutputStream extends ByteArrayOutputStream {
+
+    @Override
+    public synchronized void flush() {
+      if (size() > 0) {
+        String xml = toString();
+        reset();
+
+        receiveFromDriver(xml);
+      }
+    }
+  }
 }
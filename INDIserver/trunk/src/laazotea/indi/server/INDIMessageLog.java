@@ -0,0 +1,358 @@
+/*
+ *  This file is part of INDI for Java Server.
+ * 
+ *  INDI for Java Server is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License 
+ *  as published by the Free Software Foundation, either version 3 of 
+ *  the License, or (at your option) any later version.
+ * 
+ *  INDI for Java Server is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java Server.  If not, see 
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi.server;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+
+/**
+ * A reader of the logs written by <code>INDIMessageRecorder</code>. The
+ * messages are read one by one, so logs of any length can be replayed.
+ *
+ * @version 1.3, October 18, 2026
+ * @see INDIMessageRecorder
+ * @see INDIReplay
+ */
+public class INDIMessageLog {
+
+  /**
+   * The magic bytes at the beginning of the logs.
+   */
+  static final byte[] MAGIC = {'I', 'N', 'D', 'I', 'L', 'O', 'G'};
+  /**
+   * The version of the format of the logs.
+   */
+  static final int VERSION = 1;
+  /**
+   * The type of the records that define a source.
+   */
+  static final int SOURCE = 1;
+  /**
+   * The type of the records with a message.
+   */
+  static final int MESSAGE = 2;
+  /**
+   * The kind of the sources that are Devices.
+   */
+  public static final int DEVICE = 0;
+  /**
+   * The kind of the sources that are Clients.
+   */
+  public static final int CLIENT = 1;
+  /**
+   * The stream from which the log is read.
+   */
+  private DataInputStream in;
+  /**
+   * The wall clock time (in milliseconds) in which the recording started.
+   */
+  private long startTime;
+  /**
+   * The kinds of the sources, by identifier.
+   */
+  private ArrayList<Integer> kinds;
+  /**
+   * The names of the sources, by identifier.
+   */
+  private ArrayList<String> names;
+  /**
+   * The time (in nanoseconds since the first message) of the last message
+   * read.
+   */
+  private long time;
+  /**
+   * Set when the first message has been read.
+   */
+  private boolean started;
+
+  /**
+   * Opens a log and reads its header.
+   *
+   * @param in The stream with the log. It is buffered by the reader.
+   * @throws IOException If the stream does not contain a log or it cannot be
+   * read.
+   */
+  public INDIMessageLog(InputStream in) throws IOException {
+    this.in = new DataInputStream(new BufferedInputStream(in, 65536));
+
+    byte[] magic = new byte[MAGIC.length];
+
+    this.in.readFully(magic);
+
+    for (int i = 0 ; i < MAGIC.length ; i++) {
+      if (magic[i] != MAGIC[i]) {
+        throw new IOException("Not an INDI message log");
+      }
+    }
+
+    int version = this.in.readUnsignedByte();
+
+    if (version != VERSION) {
+      throw new IOException("Unsupported INDI message log version " + version);
+    }
+
+    startTime = this.in.readLong();
+    kinds = new ArrayList<Integer>();
+    names = new ArrayList<String>();
+    time = 0;
+    started = false;
+  }
+
+  /**
+   * Opens a log file and reads its header.
+   *
+   * @param file The file.
+   * @throws IOException If the file does not contain a log or it cannot be
+   * read.
+   */
+  public INDIMessageLog(File file) throws IOException {
+    this(new FileInputStream(file));
+  }
+
+  /**
+   * Gets the wall clock time in which the recording started.
+   *
+   * @return The time (in milliseconds since the epoch) in which the recording
+   * started.
+   */
+  public long getStartTime() {
+    return startTime;
+  }
+
+  /**
+   * Reads the next message of the log.
+   *
+   * @return The message or <code>null</code> at the end of the log (a
+   * truncated last record is ignored, as it happens if the recording was not
+   * closed).
+   * @throws IOException If the log is not valid or it cannot be read.
+   */
+  public Entry next() throws IOException {
+    try {
+      while (true) {
+        int type = in.read();
+
+        if (type == -1) {
+          return null;
+        }
+
+        if (type == SOURCE) {
+          int id = (int) readVarLong(in);
+          int kind = in.readUnsignedByte();
+          String name = readText(in);
+
+          if (id != names.size()) {
+            throw new IOException("Invalid source " + id + " in the INDI message log");
+          }
+
+          kinds.add(kind);
+          names.add(name);
+        } else if (type == MESSAGE) {
+          int id = (int) readVarLong(in);
+          long delta = readVarLong(in);
+          String text = readText(in);
+
+          if ((id < 0) || (id >= names.size())) {
+            throw new IOException("Unknown source " + id + " in the INDI message log");
+          }
+
+          if (started) {  // The time of the first message is 0
+            time += delta;
+          }
+
+          started = true;
+
+          return new Entry(kinds.get(id), names.get(id), time, text);
+        } else {
+          throw new IOException("Invalid record type " + type + " in the INDI message log");
+        }
+      }
+    } catch (EOFException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Closes the log.
+   */
+  public void close() {
+    try {
+      in.close();
+    } catch (IOException e) {
+    }
+  }
+
+  /**
+   * Writes a non negative number with a variable length (7 bits per byte,
+   * least significant first).
+   *
+   * @param out The stream.
+   * @param value The number.
+   * @throws IOException If there is any problem writing the number.
+   */
+  static void writeVarLong(DataOutputStream out, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.writeByte((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+
+    out.writeByte((int) value);
+  }
+
+  /**
+   * Reads a number written by <code>writeVarLong</code>.
+   *
+   * @param in The stream.
+   * @return The number.
+   * @throws IOException If there is any problem reading the number.
+   */
+  static long readVarLong(DataInputStream in) throws IOException {
+    long value = 0;
+
+    for (int shift = 0 ; shift < 64 ; shift += 7) {
+      int b = in.readUnsignedByte();
+
+      value |= (long) (b & 0x7F) << shift;
+
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+
+    throw new IOException("Invalid number in the INDI message log");
+  }
+
+  /**
+   * Writes a text as its UTF-8 length and bytes.
+   *
+   * @param out The stream.
+   * @param text The text.
+   * @throws IOException If there is any problem writing the text.
+   */
+  static void writeText(DataOutputStream out, String text) throws IOException {
+    byte[] bytes = text.getBytes("UTF-8");
+
+    writeVarLong(out, bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * Reads a text written by <code>writeText</code>.
+   *
+   * @param in The stream.
+   * @return The text.
+   * @throws IOException If there is any problem reading the text.
+   */
+  static String readText(DataInputStream in) throws IOException {
+    long length = readVarLong(in);
+
+    if (length > Integer.MAX_VALUE) {
+      throw new IOException("Invalid text in the INDI message log");
+    }
+
+    byte[] bytes = new byte[(int) length];
+
+    in.readFully(bytes);
+
+    return new String(bytes, "UTF-8");
+  }
+
+  /**
+   * A message of the log.
+   */
+  public static final class Entry {
+
+    /**
+     * The kind of the source of the message.
+     */
+    private final int kind;
+    /**
+     * The name of the source of the message.
+     */
+    private final String source;
+    /**
+     * The time of the message.
+     */
+    private final long time;
+    /**
+     * The text of the message.
+     */
+    private final String text;
+
+    /**
+     * Constructs a new message.
+     *
+     * @param kind The kind of the source of the message.
+     * @param source The name of the source of the message.
+     * @param time The time (in nanoseconds since the first message) of the
+     * message.
+     * @param text The text of the message.
+     */
+    private Entry(int kind, String source, long time, String text) {
+      this.kind = kind;
+      this.source = source;
+      this.time = time;
+      this.text = text;
+    }
+
+    /**
+     * Gets the kind of the source of the message.
+     *
+     * @return <code>DEVICE</code> or <code>CLIENT</code>.
+     */
+    public int getKind() {
+      return kind;
+    }
+
+    /**
+     * Gets the name of the source of the message (the identifier of the
+     * Device or the address of the Client).
+     *
+     * @return The name of the source of the message.
+     */
+    public String getSource() {
+      return source;
+    }
+
+    /**
+     * Gets the time of the message.
+     *
+     * @return The time (in nanoseconds since the first message) in which the
+     * message was received.
+     */
+    public long getTime() {
+      return time;
+    }
+
+    /**
+     * Gets the text of the message.
+     *
+     * @return The text of the message.
+     */
+    public String getText() {
+      return text;
+    }
+  }
+}
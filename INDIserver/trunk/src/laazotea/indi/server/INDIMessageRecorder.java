@@ -0,0 +1,209 @@
+/*
+ *  This file is part of INDI for Java Server.
+ * 
+ *  INDI for Java Server is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License 
+ *  as published by the Free Software Foundation, either version 3 of 
+ *  the License, or (at your option) any later version.
+ * 
+ *  INDI for Java Server is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java Server.  If not, see 
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi.server;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import laazotea.indi.INDIRawMessage;
+import org.w3c.dom.Element;
+
+/**
+ * A recorder of the messages received by the Server from its Devices and
+ * Clients, to replay them later (see <code>INDIReplay</code>). The messages
+ * are written to a compact binary log with the time in which they were
+ * received. The contents of big BLOBs may be cut to keep the log small: their
+ * <code>size</code> is then the one of the cut data and a compressed
+ * <code>format</code> loses its <code>.z</code> suffix (see
+ * <code>INDIRawMessage.getXML(long)</code>), so the replayed messages are well
+ * formed, but they do not hold the original images.
+ * <p>
+ * The log starts with the <code>INDILOG</code> magic, a format version byte
+ * and the wall clock time (in milliseconds) in which the recording started.
+ * Then come the records, each one starting with its type:
+ * <ul>
+ * <li><code>SOURCE</code>: a variable length identifier, the kind of source
+ * (Device or Client) and its name. Written before the first message of
+ * every source.</li>
+ * <li><code>MESSAGE</code>: the identifier of its source, the nanoseconds
+ * since the previous message and the UTF-8 text of the message, all of them
+ * prefixed by their variable length size.</li>
+ * </ul>
+ *
+ * @version 1.3, October 18, 2026
+ * @see AbstractINDIServer#setMessageRecorder(INDIMessageRecorder)
+ * @see INDIMessageLog
+ */
+public class INDIMessageRecorder {
+
+  /**
+   * The stream to which the log is written.
+   */
+  private DataOutputStream out;
+  /**
+   * The maximum length of the BLOB payloads in the log.
+   */
+  private long maxBLOBLength;
+  /**
+   * The identifiers of the sources already written, by kind and name.
+   */
+  private HashMap<String, Integer> sources;
+  /**
+   * The time (<code>System.nanoTime()</code>) of the previous message.
+   */
+  private long lastTime;
+  /**
+   * The number of recorded messages.
+   */
+  private long messages;
+  /**
+   * Set when the log has been closed (or could not be written).
+   */
+  private boolean closed;
+
+  /**
+   * Constructs a new recorder and writes the header of the log.
+   *
+   * @param out The stream to which the log is written. It is buffered by the
+   * recorder.
+   * @param maxBLOBLength The maximum number of Base64 characters of every BLOB
+   * payload in the log (<code>Long.MAX_VALUE</code> to keep them whole).
+   * @throws IOException If the header cannot be written.
+   */
+  public INDIMessageRecorder(OutputStream out, long maxBLOBLength) throws IOException {
+    this.out = new DataOutputStream(new BufferedOutputStream(out, 65536));
+    this.maxBLOBLength = maxBLOBLength;
+
+    sources = new HashMap<String, Integer>();
+    lastTime = System.nanoTime();
+    messages = 0;
+    closed = false;
+
+    this.out.write(INDIMessageLog.MAGIC);
+    this.out.writeByte(INDIMessageLog.VERSION);
+    this.out.writeLong(System.currentTimeMillis());
+  }
+
+  /**
+   * Constructs a new recorder that writes the log to a file.
+   *
+   * @param file The file.
+   * @param maxBLOBLength The maximum number of Base64 characters of every BLOB
+   * payload in the log (<code>Long.MAX_VALUE</code> to keep them whole).
+   * @throws IOException If the file cannot be created.
+   */
+  public INDIMessageRecorder(File file, long maxBLOBLength) throws IOException {
+    this(new FileOutputStream(file), maxBLOBLength);
+  }
+
+  /**
+   * Records a message received from a Device.
+   *
+   * @param device The Device.
+   * @param xml The message.
+   */
+  void recordDevice(INDIDevice device, Element xml) {
+    record(INDIMessageLog.DEVICE, device.getDeviceIdentifier(), xml);
+  }
+
+  /**
+   * Records a message received from a Client.
+   *
+   * @param client The Client.
+   * @param xml The message.
+   */
+  void recordClient(INDIClient client, Element xml) {
+    record(INDIMessageLog.CLIENT, client.getInetAddress(), xml);
+  }
+
+  /**
+   * Records a message. If the log cannot be written the recording stops.
+   *
+   * @param kind The kind of source.
+   * @param source The name of the source.
+   * @param xml The message.
+   */
+  private void record(int kind, String source, Element xml) {
+    String text = INDIRawMessage.fromElement(xml).getXML(maxBLOBLength);
+
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+
+      try {
+        String key = kind + source;
+        Integer id = sources.get(key);
+
+        if (id == null) {
+          id = sources.size();
+          sources.put(key, id);
+
+          out.writeByte(INDIMessageLog.SOURCE);
+          INDIMessageLog.writeVarLong(out, id);
+          out.writeByte(kind);
+          INDIMessageLog.writeText(out, source);
+        }
+
+        long now = System.nanoTime();
+
+        out.writeByte(INDIMessageLog.MESSAGE);
+        INDIMessageLog.writeVarLong(out, id);
+        INDIMessageLog.writeVarLong(out, Math.max(0, now - lastTime));
+        INDIMessageLog.writeText(out, text);
+
+        lastTime = now;
+        messages++;
+      } catch (IOException e) {
+        System.err.println("Could not record the messages: " + e.getMessage());
+
+        close();
+      }
+    }
+  }
+
+  /**
+   * Gets the number of recorded messages.
+   *
+   * @return The number of recorded messages.
+   */
+  public synchronized long getMessages() {
+    return messages;
+  }
+
+  /**
+   * Writes the pending records and closes the log. The messages received
+   * later are not recorded.
+   */
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+
+    closed = true;
+
+    try {
+      out.close();
+    } catch (IOException e) {
+    }
+  }
+}
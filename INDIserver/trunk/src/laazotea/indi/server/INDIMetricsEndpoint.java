@@ -0,0 +1,217 @@
+/*
+ *  This file is part of INDI for Java Server.
+ * 
+ *  INDI for Java Server is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License 
+ *  as published by the Free Software Foundation, either version 3 of 
+ *  the License, or (at your option) any later version.
+ * 
+ *  INDI for Java Server is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java Server.  If not, see 
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import laazotea.indi.INDIMetrics;
+import laazotea.indi.INDIMetricsReporter;
+
+/**
+ * A reporter that serves the metrics through a minimal HTTP endpoint bound to
+ * the loopback interface: <code>/metrics</code> answers with the text report
+ * and <code>/metrics.json</code> with the JSON one. The requests are served
+ * one after another by a single thread.
+ *
+ * @version 1.3, October 18, 2026
+ * @see AbstractINDIServer#getMetrics()
+ */
+public class INDIMetricsEndpoint implements INDIMetricsReporter {
+
+  /**
+   * The time (in milliseconds) to wait for the request of a connection.
+   */
+  private static final int REQUEST_TIMEOUT = 2000;
+  /**
+   * The maximum length of the request line and headers.
+   */
+  private static final int MAX_REQUEST_LENGTH = 8192;
+  /**
+   * The port to which the endpoint listens.
+   */
+  private int port;
+  /**
+   * The socket to which the endpoint listens.
+   */
+  private ServerSocket socket;
+  /**
+   * The metrics to serve.
+   */
+  private INDIMetrics metrics;
+
+  /**
+   * Constructs a new endpoint.
+   *
+   * @param port The local port to which the endpoint will listen (0 for any
+   * free one).
+   */
+  public INDIMetricsEndpoint(int port) {
+    this.port = port;
+  }
+
+  /**
+   * Gets the port to which the endpoint listens.
+   *
+   * @return The port to which the endpoint listens.
+   */
+  public synchronized int getPort() {
+    return (socket == null) ? port : socket.getLocalPort();
+  }
+
+  @Override
+  public synchronized void start(INDIMetrics metrics) throws IOException {
+    if (socket != null) {
+      return;
+    }
+
+    this.metrics = metrics;
+
+    final ServerSocket s = new ServerSocket(port, 8, InetAddress.getByName("127.0.0.1"));
+    socket = s;
+
+    Thread thread = new Thread("INDI metrics endpoint") {
+
+      @Override
+      public void run() {
+        while (!s.isClosed()) {
+          Socket client;
+
+          try {
+            client = s.accept();
+          } catch (IOException e) {
+            break;
+          }
+
+          serve(client);
+        }
+      }
+    };
+
+    thread.setDaemon(true);
+    thread.start();
+
+    System.err.println("Serving metrics at http://127.0.0.1:" + s.getLocalPort() + "/metrics");
+  }
+
+  @Override
+  public synchronized void stop() {
+    if (socket != null) {
+      try {
+        socket.close();
+      } catch (IOException e) {
+      }
+
+      socket = null;
+    }
+  }
+
+  /**
+   * Answers the request of a connection and closes it.
+   *
+   * @param client The connection.
+   */
+  private void serve(Socket client) {
+    try {
+      client.setSoTimeout(REQUEST_TIMEOUT);
+
+      String path = readPath(client.getInputStream());
+      String status = "200 OK";
+      String type = "text/plain";
+      String body;
+
+      int query = (path == null) ? -1 : path.indexOf('?');
+
+      if (query != -1) {
+        path = path.substring(0, query);
+      }
+
+      if ("/metrics.json".equals(path)) {
+        type = "application/json";
+        body = metrics.getJSON();
+      } else if ("/metrics".equals(path) || "/".equals(path)) {
+        body = metrics.getText();
+      } else {
+        status = "404 Not Found";
+        body = "Not found\n";
+      }
+
+      byte[] content = body.getBytes("UTF-8");
+      String header = "HTTP/1.0 " + status + "\r\nContent-Type: " + type + "; charset=UTF-8\r\nContent-Length: " + content.length + "\r\nConnection: close\r\n\r\n";
+
+      OutputStream os = client.getOutputStream();
+
+      os.write(header.getBytes("UTF-8"));
+      os.write(content);
+      os.flush();
+    } catch (IOException e) {
+    } finally {
+      try {
+        client.close();
+      } catch (IOException e) {
+      }
+    }
+  }
+
+  /**
+   * Reads the request line and the headers of a <code>GET</code> request.
+   *
+   * @param is The stream of the connection.
+   * @return The requested path (<code>null</code> if the request is not a
+   * <code>GET</code> one).
+   * @throws IOException If there is any problem reading the request.
+   */
+  private static String readPath(InputStream is) throws IOException {
+    StringBuilder line = new StringBuilder();
+    String requestLine = null;
+    int read = 0;
+
+    while (read < MAX_REQUEST_LENGTH) {
+      int c = is.read();
+
+      if (c == -1) {
+        break;
+      }
+
+      read++;
+
+      if (c == '\n') {
+        if (requestLine == null) {
+          requestLine = line.toString().trim();
+        } else if (line.toString().trim().length() == 0) {
+          break;  // End of the headers
+        }
+
+        line.setLength(0);
+      } else {
+        line.append((char) c);
+      }
+    }
+
+    if ((requestLine == null) || !requestLine.startsWith("GET ")) {
+      return null;
+    }
+
+    int end = requestLine.indexOf(' ', 4);
+
+    return (end == -1) ? requestLine.substring(4) : requestLine.substring(4, end);
+  }
+}
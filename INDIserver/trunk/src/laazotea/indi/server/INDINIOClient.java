@@ -0,0 +1,361 @@
+/*
+ *  This file is part of INDI for Java Server.
+ *
+ *  INDI for Java Server is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java Server is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java Server.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import laazotea.indi.INDIIncrementalParser;
+import laazotea.indi.INDIMetrics;
+import laazotea.indi.INDIRawMessage;
+import org.w3c.dom.Document;
+
+/**
+ * A Client connected through a non blocking channel. It has no thread of its
+ * own: a <code>INDISelectorThread</code> reads from the channel and writes the
+ * queued messages to it, so sending a message to this Client does not block
+ * the sender.
+ *
+ * @version 1.3, October 18, 2026
+ * @see INDISelectorThread
+ */
+public class INDINIOClient extends INDIClient {
+
+  /**
+   * The maximum number of buffers written in a single gathering write.
+   */
+  private static final int MAX_GATHERED_BUFFERS = 64;
+  /**
+   * The channel to communicate with the Client.
+   */
+  private SocketChannel channel;
+  /**
+   * The selector thread in charge of the channel.
+   */
+  private INDISelectorThread selectorThread;
+  /**
+   * The key of the channel in the selector.
+   */
+  private SelectionKey key;
+  /**
+   * The String representation of the host and port of the Client.
+   */
+  private String inetAddress;
+  /**
+   * The bytes read from the channel and not yet decoded.
+   */
+  private ByteBuffer readBuffer;
+  /**
+   * The decoded characters not yet parsed.
+   */
+  private CharBuffer charBuffer;
+  /**
+   * The decoder of the received bytes.
+   */
+  private CharsetDecoder decoder;
+  /**
+   * The parser of the received characters.
+   */
+  private INDIIncrementalParser parser;
+  /**
+   * The messages taken from the outbound queue by the selector thread. Only
+   * accessed by the selector thread.
+   */
+  private ArrayList<INDIRawMessage> taken;
+  /**
+   * The messages taken by the selector thread and not completely written.
+   * Only accessed by the selector thread.
+   */
+  private ArrayDeque<ByteBuffer> writing;
+  /**
+   * The messages of <code>writing</code>, whose metrics are recorded when
+   * they are completely written. Only accessed by the selector thread.
+   */
+  private ArrayList<INDIRawMessage> written;
+  /**
+   * Set when the Client is already queued in the selector thread to write its
+   * messages.
+   */
+  private AtomicBoolean writeRequested;
+  /**
+   * Set when the Client must be closed because it does not read its messages.
+   */
+  private volatile boolean closeRequested;
+  /**
+   * Set when the Client has been closed.
+   */
+  private volatile boolean closed;
+
+  /**
+   * Constructs a new Client for a channel.
+   *
+   * @param channel The channel to communicate with the Client.
+   * @param selectorThread The selector thread in charge of the channel.
+   * @param server The Server to which the Client is connected.
+   * @throws IOException If the channel cannot be set to non blocking mode or
+   * the parser cannot be created.
+   */
+  public INDINIOClient(SocketChannel channel, INDISelectorThread selectorThread, AbstractINDIServer server) throws IOException {
+    super(server);
+
+    this.channel = channel;
+    this.selectorThread = selectorThread;
+
+    Socket s = channel.socket();
+    inetAddress = s.getInetAddress().getHostAddress() + ":" + s.getPort();
+
+    channel.configureBlocking(false);
+
+    readBuffer = ByteBuffer.allocate(16384);
+    charBuffer = CharBuffer.allocate(16384);
+    decoder = Charset.forName(INDIRawMessage.ENCODING).newDecoder();
+    decoder.onMalformedInput(CodingErrorAction.REPLACE);
+    decoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    try {
+      parser = new INDIIncrementalParser();
+    } catch (Exception e) {
+      throw new IOException("Could not create the XML parser");
+    }
+
+    taken = new ArrayList<INDIRawMessage>();
+    writing = new ArrayDeque<ByteBuffer>();
+    written = new ArrayList<INDIRawMessage>();
+    writeRequested = new AtomicBoolean(false);
+    closeRequested = false;
+    closed = false;
+  }
+
+  /**
+   * Gets the channel to communicate with the Client.
+   *
+   * @return The channel to communicate with the Client.
+   */
+  protected SocketChannel getChannel() {
+    return channel;
+  }
+
+  /**
+   * Sets the key of the channel in the selector. Called by the selector thread
+   * when the channel is registered.
+   *
+   * @param key The key of the channel.
+   */
+  protected void setKey(SelectionKey key) {
+    this.key = key;
+  }
+
+  @Override
+  public String getInetAddress() {
+    return inetAddress;
+  }
+
+  /**
+   * Queues a message to be written by the selector thread. Only blocks if the
+   * policy of the outbound queue is <code>BLOCK</code> and it is full, and
+   * never in a selector thread (like when replaying the cached Properties to
+   * a Client): they are the ones that empty the queues, so they would wait
+   * forever. If the Client must be disconnected the selector thread is asked
+   * to close it.
+   *
+   * @param message The message to be sent.
+   */
+  @Override
+  protected void queueMessage(INDIRawMessage message) {
+    if (closed) {
+      return;
+    }
+
+    boolean mayWait = !(Thread.currentThread() instanceof INDISelectorThread);
+
+    if (!getOutboundQueue().offer(message, mayWait)) {
+      closeRequested = true;
+    }
+
+    if (writeRequested.compareAndSet(false, true)) {
+      selectorThread.requestWrite(this);
+    }
+  }
+
+  /**
+   * Reads the available bytes of the channel and parses the complete
+   * messages. Called by the selector thread when the channel is readable.
+   *
+   * @throws IOException If there is any problem reading or the channel has
+   * been closed by the Client.
+   */
+  protected void readFromChannel() throws IOException {
+    int n = channel.read(readBuffer);
+
+    if (n == -1) {
+      throw new IOException("Channel closed");
+    }
+
+    long start = System.nanoTime();
+
+    readBuffer.flip();
+
+    boolean overflow = true;
+
+    while (overflow) {
+      overflow = decoder.decode(readBuffer, charBuffer, false).isOverflow();
+
+      charBuffer.flip();
+
+      Document doc = parser.parse(charBuffer.array(), charBuffer.arrayOffset() + charBuffer.position(), charBuffer.remaining());
+
+      charBuffer.clear();
+
+      if (doc != null) {
+        parseXML(doc);
+      }
+    }
+
+    readBuffer.compact();
+
+    if (INDIMetrics.getDefault().isEnabled()) {
+      INDIMetrics.Stats stats = getMetricsStats();
+
+      stats.add(INDIMetrics.Counter.BYTES_IN, n);
+      stats.record(INDIMetrics.Distribution.PARSE_TIME, System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Writes as many queued messages as possible with gathering writes. Called
+   * by the selector thread. The messages are taken from the outbound queue in
+   * batches, and a new batch is only taken when the previous one has been
+   * completely written, so the messages of a slow Client wait in its queue,
+   * where its limits and policy apply to them.
+   *
+   * @return <code>true</code> if all the queued messages have been written.
+   * <code>false</code> if the channel cannot accept more bytes right now.
+   * @throws IOException If there is any problem writing to the channel.
+   */
+  protected boolean writeToChannel() throws IOException {
+    writeRequested.set(false);
+
+    if (closeRequested) {
+      System.err.println("CLIENT " + getInetAddress() + " does not read its messages, disconnecting");
+
+      throw new IOException("Client too slow");
+    }
+
+    int depth = getOutboundQueue().getDepth();
+
+    while (true) {
+      if (writing.isEmpty()) {  // Only one batch is taken at a time: the rest stays subject to the limits of the queue
+        if (getOutboundQueue().poll(taken, MAX_GATHERED_BUFFERS) == 0) {
+          break;
+        }
+
+        for (int i = 0 ; i < taken.size() ; i++) {
+          taken.get(i).addBuffers(writing);
+        }
+
+        written.addAll(taken);
+        taken.clear();
+      }
+
+      ByteBuffer[] buffers = new ByteBuffer[Math.min(writing.size(), MAX_GATHERED_BUFFERS)];
+      int i = 0;
+
+      for (ByteBuffer w : writing) {
+        if (i == buffers.length) {
+          break;
+        }
+
+        buffers[i] = w;
+        i++;
+      }
+
+      long bytes = channel.write(buffers);
+
+      while (!writing.isEmpty() && !writing.peekFirst().hasRemaining()) {
+        writing.removeFirst();
+      }
+
+      if ((bytes == 0) && !writing.isEmpty()) {
+        return false;
+      }
+    }
+
+    if (!written.isEmpty()) {
+      messagesWritten(written, depth);
+
+      written.clear();
+    }
+
+    return true;
+  }
+
+  /**
+   * Determines if there are messages waiting to be written.
+   *
+   * @return <code>true</code> if there are messages waiting to be written.
+   * <code>false</code> otherwise.
+   */
+  protected boolean hasPendingMessages() {
+    return !writing.isEmpty() || (getOutboundQueue().getDepth() > 0);
+  }
+
+  /**
+   * Closes the channel and removes the Client from the Server.
+   */
+  protected void close() {
+    if (closed) {
+      return;
+    }
+
+    closed = true;
+
+    if (key != null) {
+      key.cancel();
+    }
+
+    try {
+      channel.close();
+    } catch (IOException e) {
+    }
+
+    writing.clear();
+    written.clear();
+
+    finishReader();
+  }
+
+  /**
+   * There is no input stream: the messages are read by the selector thread.
+   *
+   * @return <code>null</code>
+   */
+  @Override
+  public InputStream getInputStream() {
+    return null;
+  }
+}
@@ -17,6 +17,7 @@
  */
 package laazotea.indi.server;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -24,20 +25,71 @@ import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import laazotea.indi.INDIException;
+import laazotea.indi.INDIMetrics;
+import laazotea.indi.INDIProtocolReader;
+import laazotea.indi.INDIRawMessage;
+import org.w3c.dom.Document;
 
 /**
  * A class that represent a Network Device (another INDI server).
  *
+ * The connection is made by a thread of its own, so loading the Device does
+ * not block the Server. If the connection is lost it is opened again after a
+ * delay that doubles with every failed attempt, and the <code>getProperties</code>
+ * and <code>enableBLOB</code> messages sent to the Device are sent again, so
+ * its Clients keep receiving its Properties. Meanwhile its Properties are
+ * deleted, so the Clients and the cache of the Server never keep stale ones.
+ * The messages are written by another thread in batches, so a slow link never
+ * blocks the senders.
+ *
  * @author S. Alonso (Zerjillo) [zerjio at zerjio.com]
  * @version 1.2, April 2, 2012
  */
 public class INDINetworkDevice extends INDIDevice {
 
   /**
-   * The socket to connect for the INDI Server
+   * The time (in milliseconds) to wait for a connection to be established.
+   */
+  private static final int CONNECT_TIMEOUT = 20000;
+  /**
+   * The delay (in milliseconds) before the first reconnection attempt.
+   */
+  private static final long MIN_RECONNECT_DELAY = 500;
+  /**
+   * The maximum delay (in milliseconds) between two connection attempts.
    */
-  private Socket socket;
+  private static final long MAX_RECONNECT_DELAY = 30000;
+  /**
+   * The time (in milliseconds) a connection must last to reset the delay of
+   * the reconnection attempts.
+   */
+  private static final long STABLE_CONNECTION_TIME = 10000;
+  /**
+   * The maximum number of bytes waiting to be written to the remote Server.
+   */
+  private static final long MAX_QUEUED_BYTES = 4 * 1024 * 1024;
+  /**
+   * The maximum time (in milliseconds) a message may wait to be written. If
+   * the remote Server does not read its messages for longer the connection is
+   * opened again.
+   */
+  private static final long MAX_QUEUE_LAG = 30000;
+  /**
+   * The maximum number of messages written at once.
+   */
+  private static final int MAX_BATCH = 64;
+  /**
+   * The socket to connect for the INDI Server (<code>null</code> while not
+   * connected).
+   */
+  private volatile Socket socket;
   /**
    * The host to connect for the INDI Server
    */
@@ -47,32 +99,52 @@ public class INDINetworkDevice extends INDIDevice {
    */
   private int port;
   /**
-   * A list of names of the Device (it may be more than one)
+   * The names of the Device (it may be more than one)
+   */
+  private Set<String> names;
+  /**
+   * The messages waiting to be written to the current connection
+   * (<code>null</code> while not connected).
+   */
+  private volatile INDIOutboundQueue queue;
+  /**
+   * The reader of the current connection.
    */
-  private ArrayList<String> names;
+  private volatile INDIProtocolReader reader;
+  /**
+   * The <code>getProperties</code> and <code>enableBLOB</code> messages sent
+   * to the Device, by their element, Device and Property, to send them again
+   * on every new connection. Also the lock to publish a new connection.
+   */
+  private final LinkedHashMap<String, INDIRawMessage> subscriptions;
+  /**
+   * The thread that connects to the remote Server and reads from it.
+   */
+  private Thread connector;
+  /**
+   * Set when the Device has been destroyed.
+   */
+  private volatile boolean destroyed;
 
   /**
-   * Constructs a new Network Device and connects to it.
+   * Constructs a new Network Device. The connection is opened when the
+   * Device starts reading.
    * @param server The server which listens to this Device.
    * @param host The host to connect for the Device.
    * @param port The port to connect for the Device.
-   * @throws INDIException if there is any problem with the connection.
+   * @throws INDIException Not thrown: the connection problems are dealt with
+   * by retrying the connection.
    */
   protected INDINetworkDevice(AbstractINDIServer server, String host, int port) throws INDIException {
     super(server);
 
-    names = new ArrayList<String>();
+    names = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    subscriptions = new LinkedHashMap<String, INDIRawMessage>();
 
     this.host = host;
     this.port = port;
 
-    try {
-      socket = new Socket();
-
-      socket.connect(new InetSocketAddress(host, port), 20000);
-    } catch (IOException e) {
-      throw new INDIException("Problem connecting to " + host + ":" + port);
-    }
+    destroyed = false;
   }
 
   /**
@@ -83,6 +155,220 @@ public class INDINetworkDevice extends INDIDevice {
     return host + ":" + port;
   }
 
+  /**
+   * Starts the thread that connects to the remote Server, reads from it and
+   * reconnects when the connection is lost.
+   */
+  @Override
+  protected void startReading() {
+    connector = new Thread("INDI Network Device " + getNetworkName()) {
+
+      @Override
+      public void run() {
+        connectAndRead();
+      }
+    };
+
+    connector.setDaemon(true);
+    connector.start();
+  }
+
+  /**
+   * The body of the connecting thread: opens the connection, reads from it
+   * until it is lost and waits before opening it again, until the Device is
+   * destroyed.
+   */
+  private void connectAndRead() {
+    Random random = new Random();
+    int failures = 0;
+
+    while (!destroyed) {
+      Socket s = new Socket();
+
+      try {
+        s.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+        s.setTcpNoDelay(true);
+      } catch (IOException e) {
+        close(s);
+
+        if (!waitToReconnect(failures++, random, "Problem connecting to ")) {
+          break;
+        }
+
+        continue;
+      }
+
+      long connected = System.currentTimeMillis();
+
+      System.err.println("Connected to Network Device " + getNetworkName());
+
+      readConnection(s);
+
+      if (System.currentTimeMillis() - connected >= STABLE_CONNECTION_TIME) {
+        failures = 0;
+      }
+
+      if (!waitToReconnect(failures++, random, "Lost connection to ")) {
+        break;
+      }
+    }
+
+    super.finishReader();
+  }
+
+  /**
+   * Waits before a new connection attempt. The delay doubles with every
+   * failure, with a random variation of 20% to spread the attempts of
+   * several Devices.
+   * @param failures The number of consecutive failures.
+   * @param random The source of the random variations.
+   * @param reason The beginning of the message to print.
+   * @return <code>true</code> if a new attempt must be done.
+   * <code>false</code> if the Device has been destroyed.
+   */
+  private boolean waitToReconnect(int failures, Random random, String reason) {
+    if (destroyed) {
+      return false;
+    }
+
+    long delay = MIN_RECONNECT_DELAY << Math.min(failures, 16);
+
+    delay = Math.min(delay, MAX_RECONNECT_DELAY);
+    delay = (long) (delay * (0.8 + 0.4 * random.nextDouble()));
+
+    System.err.println(reason + getNetworkName() + ", reconnecting in " + delay + " ms");
+
+    try {
+      Thread.sleep(delay);
+    } catch (InterruptedException e) {
+      return false;
+    }
+
+    return !destroyed;
+  }
+
+  /**
+   * Uses a new connection: sends the subscriptions again, starts its writer
+   * and reads from it until it is lost. Then the Properties of the Device are
+   * deleted.
+   * @param s The socket of the connection.
+   */
+  private void readConnection(Socket s) {
+    OutputStream os;
+
+    try {
+      os = new BufferedOutputStream(s.getOutputStream(), 16384);
+    } catch (IOException e) {
+      close(s);
+
+      return;
+    }
+
+    INDIOutboundQueue q = new INDIOutboundQueue(INDIOutboundQueue.OverflowPolicy.DISCONNECT, MAX_QUEUED_BYTES, MAX_QUEUE_LAG);
+    INDIProtocolReader r = new INDIProtocolReader(this);
+
+    r.setMetrics(getMetricsStats());
+
+    synchronized (subscriptions) {
+      Iterator<INDIRawMessage> it = subscriptions.values().iterator();
+
+      while (it.hasNext()) {
+        q.offer(it.next());
+      }
+
+      socket = s;
+      reader = r;
+      queue = q;
+    }
+
+    if (destroyed) {  // Destroyed while connecting
+      close(s);
+    }
+
+    Thread writer = new Writer(s, os, q);
+    writer.start();
+
+    r.start();
+
+    try {
+      r.join();
+    } catch (InterruptedException e) {
+      r.setStop(true);
+    }
+
+    synchronized (subscriptions) {
+      socket = null;
+      queue = null;
+    }
+
+    q.close();
+    close(s);
+
+    if (!destroyed) {  // They are defined again by the next connection
+      forgetProperties();
+    }
+  }
+
+  /**
+   * Closes a socket, ignoring any error.
+   * @param s The socket.
+   */
+  private static void close(Socket s) {
+    try {
+      s.close();
+    } catch (IOException e) {
+    }
+  }
+
+  /**
+   * Called when the reader of a connection ends. The Device is only removed
+   * from the Server when the connecting thread ends.
+   */
+  @Override
+  public void finishReader() {
+  }
+
+  @Override
+  public void parseXML(Document doc) {
+    INDIProtocolReader r = reader;
+
+    parseXML(doc, (r == null) ? System.nanoTime() : r.getReadTime());
+  }
+
+  /**
+   * Queues a message to be written to the remote Server. The
+   * <code>getProperties</code> and <code>enableBLOB</code> messages are kept
+   * to be sent again on every new connection. Other messages are discarded if
+   * there is no connection. If the remote Server does not read its messages
+   * the connection is opened again.
+   * @param message The message to be sent.
+   */
+  @Override
+  public void sendXMLMessage(INDIRawMessage message) {
+    String element = message.getElementName();
+    INDIOutboundQueue q;
+
+    if (element.equals("getProperties") || element.equals("enableBLOB")) {
+      synchronized (subscriptions) {
+        subscriptions.put(element + "|" + message.getDevice() + "|" + message.getProperty(), message);
+
+        q = queue;
+      }
+    } else {
+      q = queue;
+    }
+
+    if ((q != null) && !q.offer(message) && !q.isClosed()) {
+      System.err.println("Network Device " + getNetworkName() + " does not read its messages, reconnecting");
+
+      Socket s = socket;
+
+      if (s != null) {
+        close(s);
+      }
+    }
+  }
+
   /**
    * Deals with a possible new Device name, adding it if it is new.
    *
@@ -90,9 +376,7 @@ public class INDINetworkDevice extends INDIDevice {
    */
   @Override
   protected void dealWithPossibleNewDeviceName(String possibleNewName) {
-    if (!names.contains(possibleNewName)) {
-      names.add(possibleNewName);
-    }
+    names.add(possibleNewName);
   }
 
   /**
@@ -106,25 +390,34 @@ public class INDINetworkDevice extends INDIDevice {
    */
   @Override
   protected boolean hasName(String name) {
-    if (names.contains(name)) {
-      return true;
-    }
-
-    return false;
+    return names.contains(name);
   }
 
+  /**
+   * Closes the current connection and stops reconnecting. The Device is
+   * removed from the Server when the connecting thread ends.
+   */
   @Override
   public void closeConnections() {
-    try {
-      socket.close();
-    } catch (IOException e) {
+    destroyed = true;
+
+    Socket s = socket;
+
+    if (s != null) {
+      close(s);
+    }
+
+    if (connector != null) {
+      connector.interrupt();
     }
   }
 
   @Override
   public InputStream getInputStream() {
+    Socket s = socket;
+
     try {
-      return socket.getInputStream();
+      return (s == null) ? null : s.getInputStream();
     } catch (IOException e) {
     }
 
@@ -133,8 +426,10 @@ public class INDINetworkDevice extends INDIDevice {
 
   @Override
   public OutputStream getOutputStream() {
+    Socket s = socket;
+
     try {
-      return socket.getOutputStream();
+      return (s == null) ? null : s.getOutputStream();
     } catch (IOException e) {
     }
 
@@ -153,13 +448,7 @@ public class INDINetworkDevice extends INDIDevice {
 
   @Override
   protected String[] getNames() {
-    String[] ns = new String[names.size()];
-
-    for (int i = 0; i < ns.length; i++) {
-      ns[i] = names.get(i);
-    }
-
-    return ns;
+    return names.toArray(new String[0]);
   }
 
   /**
@@ -171,4 +460,72 @@ public class INDINetworkDevice extends INDIDevice {
   public String toString() {
     return "Network Device: " + this.getNetworkName() + " - " + Arrays.deepToString(getNames());
   }
+
+  /**
+   * The thread that writes the queued messages of a connection in batches,
+   * flushing them when the queue is empty.
+   */
+  private class Writer extends Thread {
+
+    /**
+     * The socket of the connection.
+     */
+    private Socket s;
+    /**
+     * The buffered stream of the connection.
+     */
+    private OutputStream os;
+    /**
+     * The queue of the connection.
+     */
+    private INDIOutboundQueue q;
+
+    /**
+     * Constructs a new writer.
+     * @param s The socket of the connection.
+     * @param os The buffered stream of the connection.
+     * @param q The queue of the connection.
+     */
+    public Writer(Socket s, OutputStream os, INDIOutboundQueue q) {
+      super("INDI Network Device " + getNetworkName() + " writer");
+
+      this.s = s;
+      this.os = os;
+      this.q = q;
+
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      ArrayList<INDIRawMessage> messages = new ArrayList<INDIRawMessage>();
+      INDIMetrics metrics = INDIMetrics.getDefault();
+
+      try {
+        while (q.take(messages, MAX_BATCH)) {
+          long bytes = 0;
+
+          for (int i = 0 ; i < messages.size() ; i++) {
+            messages.get(i).writeTo(os);
+            bytes += messages.get(i).getSize();
+          }
+
+          if (q.getDepth() == 0) {
+            os.flush();
+          }
+
+          if (metrics.isEnabled()) {
+            INDIMetrics.Stats stats = getMetricsStats();
+
+            stats.add(INDIMetrics.Counter.MESSAGES_OUT, messages.size());
+            stats.add(INDIMetrics.Counter.BYTES_OUT, bytes);
+          }
+
+          messages.clear();
+        }
+      } catch (IOException e) {
+        close(s);
+      }
+    }
+  }
 }
@@ -0,0 +1,616 @@
+/*
+ *  This file is part of INDI for Java Server.
+ *
+ *  INDI for Java Server is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java Server is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java Server.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi.server;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import laazotea.indi.INDIRawMessage;
+
+/**
+ * A bounded queue of the messages waiting to be sent to a Client. The
+ * messages are queued by the threads that send them and taken by the writer of
+ * the Client, so a Client that does not read its messages does not block the
+ * senders. What happens when the queue is full depends on its
+ * <code>OverflowPolicy</code>.
+ *
+ * @version 1.3, October 18, 2026
+ * @see INDIClient
+ */
+public class INDIOutboundQueue {
+
+  /**
+   * The possible behaviours of a full queue.
+   */
+  public enum OverflowPolicy {
+
+    /**
+     * A new <code>setXXXVector</code> message replaces the latest one of the
+     * same Property still in the queue if both carry the same elements and
+     * none of them has a <code>message</code> (the latest value wins). If the queue is
+     * full the oldest <code>setXXXVector</code> messages are dropped. If it
+     * is still full the Client is disconnected.
+     */
+    COALESCE,
+    /**
+     * The Client is disconnected if the queue is full or its oldest message
+     * has been waiting too long.
+     */
+    DISCONNECT,
+    /**
+     * The sender waits until there is room in the queue (except if it cannot
+     * wait, like the selector threads, which are the ones that empty the
+     * queues of their Clients: then the message is queued beyond the limit).
+     */
+    BLOCK
+  }
+
+  /**
+   * A queued message.
+   */
+  private static class Entry {
+
+    /**
+     * The message (replaced when coalescing).
+     */
+    private INDIRawMessage message;
+    /**
+     * The time in which the entry was queued.
+     */
+    private long time;
+    /**
+     * The key of the Property for <code>setXXXVector</code> messages
+     * (<code>null</code> for other messages).
+     */
+    private String key;
+    /**
+     * The names of the elements of a <code>setXXXVector</code> message that
+     * may be coalesced (<code>null</code> if it must not be).
+     */
+    private String elements;
+  }
+  /**
+   * The policy of the queue.
+   */
+  private OverflowPolicy policy;
+  /**
+   * The maximum number of bytes in the queue.
+   */
+  private long maxBytes;
+  /**
+   * The maximum time (in milliseconds) a message may wait in the queue with
+   * the <code>DISCONNECT</code> policy.
+   */
+  private long maxLagMillis;
+  /**
+   * The queued messages.
+   */
+  private LinkedList<Entry> entries;
+  /**
+   * The latest queued <code>setXXXVector</code> message of every Property, to
+   * coalesce them.
+   */
+  private HashMap<String, Entry> pendingSets;
+  /**
+   * The number of bytes in the queue.
+   */
+  private long bytes;
+  /**
+   * The number of messages dropped.
+   */
+  private long droppedMessages;
+  /**
+   * The number of messages replaced by a newer one.
+   */
+  private long coalescedMessages;
+  /**
+   * The maximum number of messages that have been in the queue.
+   */
+  private int maxDepth;
+  /**
+   * Set when the queue has been closed.
+   */
+  private boolean closed;
+
+  /**
+   * Constructs a new queue.
+   *
+   * @param policy The policy of the queue.
+   * @param maxBytes The maximum number of bytes in the queue. A single message
+   * bigger than this (like a big BLOB) is accepted if the messages already
+   * queued are within the limit (with the <code>COALESCE</code> policy once
+   * every <code>setXXXVector</code> message has been dropped).
+   * @param maxLagMillis The maximum time (in milliseconds) a message may wait
+   * in the queue. Only used with the <code>DISCONNECT</code> policy.
+   */
+  public INDIOutboundQueue(OverflowPolicy policy, long maxBytes, long maxLagMillis) {
+    this.policy = policy;
+    this.maxBytes = maxBytes;
+    this.maxLagMillis = maxLagMillis;
+
+    entries = new LinkedList<Entry>();
+    pendingSets = new HashMap<String, Entry>();
+    bytes = 0;
+    droppedMessages = 0;
+    coalescedMessages = 0;
+    maxDepth = 0;
+    closed = false;
+  }
+
+  /**
+   * Gets the policy of the queue.
+   *
+   * @return The policy of the queue.
+   */
+  public OverflowPolicy getPolicy() {
+    return policy;
+  }
+
+  /**
+   * Queues a message.
+   *
+   * @param message The message.
+   * @return <code>true</code> if the message has been queued (or coalesced).
+   * <code>false</code> if the Client must be disconnected because it does not
+   * read its messages, or if the queue is closed.
+   */
+  public boolean offer(INDIRawMessage message) {
+    return offer(message, true);
+  }
+
+  /**
+   * Queues a message.
+   *
+   * @param message The message.
+   * @param mayWait <code>false</code> if the sender must never wait, even with
+   * the <code>BLOCK</code> policy (then the message is queued beyond the limit
+   * of the queue).
+   * @return <code>true</code> if the message has been queued (or coalesced).
+   * <code>false</code> if the Client must be disconnected because it does not
+   * read its messages, or if the queue is closed.
+   */
+  public synchronized boolean offer(INDIRawMessage message, boolean mayWait) {
+    if (closed) {
+      return false;
+    }
+
+    String key = getSetKey(message);
+    String elements = null;
+
+    if (key == null) {
+      forgetSets(message);
+    } else if (policy == OverflowPolicy.COALESCE) {
+      elements = getCoalescedElements(message);
+
+      Entry e = pendingSets.get(key);
+
+      if ((e != null) && (elements != null) && elements.equals(e.elements)) {  // Replace the older value
+        bytes += message.getSize() - e.message.getSize();
+        e.message = message;
+        coalescedMessages++;
+
+        return true;
+      }
+    }
+
+    long size = message.getSize();
+
+    if (!entries.isEmpty() && isFull(size)) {
+      if (policy == OverflowPolicy.DISCONNECT) {
+        return false;
+      } else if (policy == OverflowPolicy.COALESCE) {
+        dropOldestSets(size);
+
+        if (!entries.isEmpty() && isFull(size)) {
+          return false;
+        }
+      } else if (mayWait) {
+        while (!closed && !entries.isEmpty() && isFull(size)) {
+          try {
+            wait();
+          } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+
+            break;
+          }
+        }
+
+        if (closed) {
+          return false;
+        }
+      }
+    }
+
+    if ((policy == OverflowPolicy.DISCONNECT) && !entries.isEmpty()) {
+      if (System.currentTimeMillis() - entries.getFirst().time > maxLagMillis) {
+        return false;
+      }
+    }
+
+    Entry e = new Entry();
+    e.message = message;
+    e.time = System.currentTimeMillis();
+    e.key = key;
+    e.elements = elements;
+
+    entries.add(e);
+    bytes += size;
+
+    if (key != null) {
+      pendingSets.put(key, e);
+    }
+
+    if (entries.size() > maxDepth) {
+      maxDepth = entries.size();
+    }
+
+    notifyAll();
+
+    return true;
+  }
+
+  /**
+   * Checks if there is no room for a new message. A message bigger than the
+   * limit only needs the queued messages to be within the limit.
+   *
+   * @param size The size of the new message.
+   * @return <code>true</code> if the new message does not fit in the queue.
+   */
+  private boolean isFull(long size) {
+    if (size > maxBytes) {
+      return bytes > maxBytes;
+    }
+
+    return bytes + size > maxBytes;
+  }
+
+  /**
+   * Takes some messages from the queue, waiting until there is at least one.
+   *
+   * @param messages The list to which the messages are added.
+   * @param max The maximum number of messages to take.
+   * @return <code>true</code> if some messages have been taken.
+   * <code>false</code> if the queue has been closed or the thread has been
+   * interrupted.
+   */
+  public synchronized boolean take(List<INDIRawMessage> messages, int max) {
+    while (!closed && entries.isEmpty()) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        return false;
+      }
+    }
+
+    if (closed) {
+      return false;
+    }
+
+    poll(messages, max);
+
+    return true;
+  }
+
+  /**
+   * Takes some messages from the queue without waiting.
+   *
+   * @param messages The list to which the messages are added.
+   * @param max The maximum number of messages to take.
+   * @return The number of messages taken.
+   */
+  public synchronized int poll(List<INDIRawMessage> messages, int max) {
+    int n = 0;
+
+    while (!entries.isEmpty() && (n < max)) {
+      Entry e = entries.removeFirst();
+
+      remove(e);
+
+      messages.add(e.message);
+      n++;
+    }
+
+    if (n > 0) {
+      notifyAll();
+    }
+
+    return n;
+  }
+
+  /**
+   * Closes the queue, discarding the queued messages and waking up any waiting
+   * thread.
+   */
+  public synchronized void close() {
+    closed = true;
+
+    entries.clear();
+    pendingSets.clear();
+    bytes = 0;
+
+    notifyAll();
+  }
+
+  /**
+   * Determines if the queue has been closed.
+   *
+   * @return <code>true</code> if the queue has been closed. <code>false</code>
+   * otherwise.
+   */
+  public synchronized boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * Gets the number of messages in the queue.
+   *
+   * @return The number of messages in the queue.
+   */
+  public synchronized int getDepth() {
+    return entries.size();
+  }
+
+  /**
+   * Gets the maximum number of messages that have been in the queue.
+   *
+   * @return The maximum number of messages that have been in the queue.
+   */
+  public synchronized int getMaxDepth() {
+    return maxDepth;
+  }
+
+  /**
+   * Gets the number of bytes in the queue.
+   *
+   * @return The number of bytes in the queue.
+   */
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+  /**
+   * Gets the number of messages dropped because the queue was full.
+   *
+   * @return The number of messages dropped.
+   */
+  public synchronized long getDroppedMessages() {
+    return droppedMessages;
+  }
+
+  /**
+   * Gets the number of messages replaced by a newer value of the same
+   * Property.
+   *
+   * @return The number of messages coalesced.
+   */
+  public synchronized long getCoalescedMessages() {
+    return coalescedMessages;
+  }
+
+  /**
+   * Updates the counters when an entry leaves the queue.
+   *
+   * @param e The entry.
+   */
+  private void remove(Entry e) {
+    bytes -= e.message.getSize();
+
+    if ((e.key != null) && (pendingSets.get(e.key) == e)) {
+      pendingSets.remove(e.key);
+    }
+  }
+
+  /**
+   * Drops the oldest <code>setXXXVector</code> messages until there is room
+   * for a new message.
+   *
+   * @param size The size of the new message.
+   */
+  private void dropOldestSets(long size) {
+    Iterator<Entry> it = entries.iterator();
+
+    while (it.hasNext() && isFull(size)) {
+      Entry e = it.next();
+
+      if (e.key != null) {
+        it.remove();
+        remove(e);
+
+        droppedMessages++;
+      }
+    }
+
+    notifyAll();
+  }
+
+  /**
+   * A message that is not a <code>setXXXVector</code> one (for example a new
+   * definition or the deletion of a Property) must not be overtaken by later
+   * values of the Property: the queued <code>setXXXVector</code> messages of
+   * the Property are not coalesced any more.
+   *
+   * @param message The message.
+   */
+  private void forgetSets(INDIRawMessage message) {
+    if (pendingSets.isEmpty() || (message.getDevice().length() == 0)) {
+      return;
+    }
+
+    if (message.getProperty().length() == 0) {
+      String prefix = message.getDevice() + "\u0000";
+      Iterator<String> it = pendingSets.keySet().iterator();
+
+      while (it.hasNext()) {
+        if (it.next().startsWith(prefix)) {
+          it.remove();
+        }
+      }
+    } else {
+      pendingSets.remove(message.getDevice() + "\u0000" + message.getProperty());
+    }
+  }
+
+  /**
+   * Gets the names of the elements carried by a <code>setXXXVector</code>
+   * message, which may only replace (or be replaced by) another one with the
+   * same elements: the values of the other elements would be lost otherwise.
+   *
+   * @param message The message.
+   * @return The names of the elements, separated by null characters.
+   * <code>null</code> if the message must never be coalesced because it has
+   * a <code>message</code> for the Client.
+   */
+  private static String getCoalescedElements(INDIRawMessage message) {
+    String xml = message.getXML(0);  // Without the BLOB contents
+    StringBuilder names = new StringBuilder();
+    int depth = 0;
+    int i = xml.indexOf('<');
+
+    while ((i >= 0) && (i + 1 < xml.length())) {
+      char c = xml.charAt(i + 1);
+
+      if ((c == '?') || (c == '!')) {
+        i = xml.indexOf('<', i + 1);
+
+        continue;
+      }
+
+      if (c == '/') {
+        depth--;
+        i = xml.indexOf('<', i + 1);
+
+        continue;
+      }
+
+      int end = findTagEnd(xml, i);
+
+      if (end < 0) {
+        return null;
+      }
+
+      String tag = xml.substring(i, end + 1);
+
+      if (depth == 0) {
+        if (getAttribute(tag, "message") != null) {
+          return null;
+        }
+      } else if (depth == 1) {
+        String name = getAttribute(tag, "name");
+
+        if (name != null) {
+          names.append(name).append('\u0000');
+        }
+      }
+
+      if (xml.charAt(end - 1) != '/') {
+        depth++;
+      }
+
+      i = xml.indexOf('<', end);
+    }
+
+    return names.toString();
+  }
+
+  /**
+   * Finds the end of a start tag, skipping the quoted attribute values.
+   *
+   * @param xml The text.
+   * @param start The position of the <code>&lt;</code> of the tag.
+   * @return The position of the <code>&gt;</code> of the tag (-1 if it is not
+   * complete).
+   */
+  private static int findTagEnd(String xml, int start) {
+    char quote = 0;
+
+    for (int i = start + 1 ; i < xml.length() ; i++) {
+      char c = xml.charAt(i);
+
+      if (quote != 0) {
+        if (c == quote) {
+          quote = 0;
+        }
+      } else if ((c == '"') || (c == '\'')) {
+        quote = c;
+      } else if (c == '>') {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * Gets the value of an attribute of a start tag, as written.
+   *
+   * @param tag The start tag.
+   * @param name The name of the attribute.
+   * @return The value of the attribute (<code>null</code> if the tag does not
+   * have it).
+   */
+  private static String getAttribute(String tag, String name) {
+    int i = 0;
+
+    while ((i = tag.indexOf(name, i + 1)) > 0) {
+      int j = i + name.length();
+
+      while ((j < tag.length()) && Character.isWhitespace(tag.charAt(j))) {
+        j++;
+      }
+
+      if (Character.isWhitespace(tag.charAt(i - 1)) && (j < tag.length()) && (tag.charAt(j) == '=')) {
+        j++;
+
+        while ((j < tag.length()) && Character.isWhitespace(tag.charAt(j))) {
+          j++;
+        }
+
+        if (j < tag.length()) {
+          char quote = tag.charAt(j);
+          int end = tag.indexOf(quote, j + 1);
+
+          if (end > j) {
+            return tag.substring(j + 1, end);
+          }
+        }
+
+        return null;
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Gets the coalescing key of a message.
+   *
+   * @param message The message.
+   * @return The key of the Property for <code>setXXXVector</code> messages.
+   * <code>null</code> for other messages.
+   */
+  private String getSetKey(INDIRawMessage message) {
+    String name = message.getElementName();
+
+    if (name.startsWith("set") && name.endsWith("Vector")) {
+      return message.getDevice() + "\u0000" + message.getProperty();
+    }
+
+    return null;
+  }
+}
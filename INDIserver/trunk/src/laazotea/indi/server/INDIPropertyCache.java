@@ -0,0 +1,274 @@
+/*
+ *  This file is part of INDI for Java Server.
+ *
+ *  INDI for Java Server is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java Server is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java Server.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi.server;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import laazotea.indi.INDIRawMessage;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * A cache of the last definition and the latest value of every Property of the
+ * Devices of a Server, kept as already serialized messages. It allows the
+ * Server to answer the <code>getProperties</code> messages of new Clients
+ * without asking the Drivers (and their hardware) to send all their Properties
+ * again.
+ *
+ * The <code>setXXXVector</code> messages may carry only some of the elements
+ * of a Property, so the cache keeps, for every element, the latest message that
+ * carried it. Replaying those messages in the order they were received gives
+ * the latest value of all the elements.
+ *
+ * The values of BLOB Properties are only cached if they are not bigger than a
+ * limit.
+ *
+ * @version 1.3, October 18, 2026
+ * @see AbstractINDIServer
+ */
+public class INDIPropertyCache {
+
+  /**
+   * The cached messages of a Property.
+   */
+  private static class Entry {
+
+    /**
+     * The last <code>defXXXVector</code> message of the Property.
+     */
+    private INDIRawMessage definition;
+    /**
+     * The latest <code>setXXXVector</code> message that carried each element
+     * of the Property, in the order they were received. The empty name maps to
+     * the latest message, which carries the current state of the Property.
+     */
+    private LinkedHashMap<String, INDIRawMessage> values = new LinkedHashMap<String, INDIRawMessage>();
+  }
+  /**
+   * The cached Properties by Device and Property names, in order of
+   * definition.
+   */
+  private LinkedHashMap<String, LinkedHashMap<String, Entry>> devices;
+  /**
+   * The maximum size (in bytes) of a cached <code>setBLOBVector</code>
+   * message.
+   */
+  private int maxBLOBBytes;
+
+  /**
+   * Constructs a new empty cache.
+   *
+   * @param maxBLOBBytes The maximum size (in bytes) of a cached
+   * <code>setBLOBVector</code> message. Bigger ones are not cached (only the
+   * definition of their Property is).
+   */
+  public INDIPropertyCache(int maxBLOBBytes) {
+    this.maxBLOBBytes = maxBLOBBytes;
+
+    devices = new LinkedHashMap<String, LinkedHashMap<String, Entry>>();
+  }
+
+  /**
+   * Stores the definition of a Property. Any previous value of the Property
+   * is discarded.
+   *
+   * @param message The <code>defXXXVector</code> message.
+   */
+  public synchronized void define(INDIRawMessage message) {
+    String deviceName = message.getDevice();
+    String propertyName = message.getProperty();
+
+    if ((deviceName.length() == 0) || (propertyName.length() == 0)) {
+      return;
+    }
+
+    LinkedHashMap<String, Entry> properties = devices.get(deviceName);
+
+    if (properties == null) {
+      properties = new LinkedHashMap<String, Entry>();
+      devices.put(deviceName, properties);
+    }
+
+    Entry e = properties.get(propertyName);
+
+    if (e == null) {
+      e = new Entry();
+      properties.put(propertyName, e);
+    }
+
+    e.definition = message;
+    e.values.clear();
+  }
+
+  /**
+   * Stores the latest value of some elements of a Property. It is ignored if
+   * the Property has not been defined.
+   *
+   * @param message The <code>setXXXVector</code> message.
+   * @param xml The parsed message, to know the elements that it carries.
+   */
+  public synchronized void update(INDIRawMessage message, Element xml) {
+    LinkedHashMap<String, Entry> properties = devices.get(message.getDevice());
+
+    if (properties == null) {
+      return;
+    }
+
+    Entry e = properties.get(message.getProperty());
+
+    if (e == null) {
+      return;
+    }
+
+    boolean tooBig = message.getElementName().equals("setBLOBVector") && (message.getSize() > maxBLOBBytes);
+
+    NodeList nodes = xml.getChildNodes();
+
+    for (int i = 0; i < nodes.getLength(); i++) {
+      Node n = nodes.item(i);
+
+      if (n instanceof Element) {
+        String name = ((Element) n).getAttribute("name").trim();
+
+        if (name.length() > 0) {
+          e.values.remove(name);  // Moves it to the end
+
+          if (!tooBig) {
+            e.values.put(name, message);
+          }
+        }
+      }
+    }
+
+    if (!tooBig) {
+      e.values.remove("");
+      e.values.put("", message);
+    }
+  }
+
+  /**
+   * Removes a Property or all the Properties of a Device.
+   *
+   * @param deviceName The Device name.
+   * @param propertyName The Property name (empty to remove all the
+   * Properties of the Device).
+   */
+  public synchronized void remove(String deviceName, String propertyName) {
+    if (propertyName.length() == 0) {
+      devices.remove(deviceName);
+
+      return;
+    }
+
+    LinkedHashMap<String, Entry> properties = devices.get(deviceName);
+
+    if (properties != null) {
+      properties.remove(propertyName);
+
+      if (properties.isEmpty()) {
+        devices.remove(deviceName);
+      }
+    }
+  }
+
+  /**
+   * Determines if there is any cached Property of a Device.
+   *
+   * @param deviceName The Device name.
+   * @return <code>true</code> if there is any cached Property of the Device.
+   * <code>false</code> otherwise.
+   */
+  public synchronized boolean hasDevice(String deviceName) {
+    return devices.containsKey(deviceName);
+  }
+
+  /**
+   * Gets the cached messages (definition followed by the messages with the
+   * latest values of its elements) of a
+   * Property, of all the Properties of a Device or of all the Devices.
+   *
+   * @param deviceName The Device name (empty for all the Devices).
+   * @param propertyName The Property name (empty for all the Properties).
+   * @param messages The list to which the messages are added.
+   */
+  public synchronized void getMessages(String deviceName, String propertyName, List<INDIRawMessage> messages) {
+    if (deviceName.length() == 0) {
+      Iterator<LinkedHashMap<String, Entry>> it = devices.values().iterator();
+
+      while (it.hasNext()) {
+        addMessages(it.next(), "", messages);
+      }
+    } else {
+      LinkedHashMap<String, Entry> properties = devices.get(deviceName);
+
+      if (properties != null) {
+        addMessages(properties, propertyName, messages);
+      }
+    }
+  }
+
+  /**
+   * Adds the cached messages of a Property or all the Properties of a Device
+   * to a list.
+   *
+   * @param properties The cached Properties of the Device.
+   * @param propertyName The Property name (empty for all the Properties).
+   * @param messages The list to which the messages are added.
+   */
+  private void addMessages(LinkedHashMap<String, Entry> properties, String propertyName, List<INDIRawMessage> messages) {
+    if (propertyName.length() == 0) {
+      Iterator<Entry> it = properties.values().iterator();
+
+      while (it.hasNext()) {
+        addMessages(it.next(), messages);
+      }
+    } else {
+      Entry e = properties.get(propertyName);
+
+      if (e != null) {
+        addMessages(e, messages);
+      }
+    }
+  }
+
+  /**
+   * Adds the cached messages of a Property to a list.
+   *
+   * @param e The cached messages of the Property.
+   * @param messages The list to which the messages are added.
+   */
+  private void addMessages(Entry e, List<INDIRawMessage> messages) {
+    messages.add(e.definition);
+
+    // The elements of a message are contiguous and the messages are in the order they were received
+    INDIRawMessage last = null;
+    Iterator<INDIRawMessage> it = e.values.values().iterator();
+
+    while (it.hasNext()) {
+      INDIRawMessage m = it.next();
+
+      if (m != last) {
+        messages.add(m);
+
+        last = m;
+      }
+    }
+  }
+}
@@ -0,0 +1,452 @@
+/*
+ *  This file is part of INDI for Java Server.
+ * 
+ *  INDI for Java Server is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License 
+ *  as published by the Free Software Foundation, either version 3 of 
+ *  the License, or (at your option) any later version.
+ * 
+ *  INDI for Java Server is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java Server.  If not, see 
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.xml.parsers.ParserConfigurationException;
+import laazotea.indi.INDIException;
+import laazotea.indi.INDIIncrementalParser;
+import laazotea.indi.INDIRawMessage;
+import org.w3c.dom.Document;
+
+/**
+ * Replays a log written by <code>INDIMessageRecorder</code> through a Server,
+ * to reproduce a session or to load test the Server with real traffic. Every
+ * Device and Client of the log is replaced by a fake one that sends its
+ * recorded messages to the Server (as if they were read from its connection)
+ * and discards the ones sent to it. The real Clients and Devices of the
+ * Server receive the replayed messages as usual.
+ * <p>
+ * The messages are replayed by a single thread in the order of the log, so
+ * the sequence of messages seen by the Server is always the same. They may
+ * keep their recorded timing (scaled by a speed factor) or be sent as fast as
+ * possible.
+ * <p>
+ * The BLOBs of a log recorded with a limit of their length are replayed cut,
+ * so such logs should not be replayed to Clients that need the real BLOBs
+ * (like image processing ones).
+ *
+ * @version 1.3, October 18, 2026
+ * @see AbstractINDIServer#setMessageRecorder(INDIMessageRecorder)
+ */
+public class INDIReplay {
+
+  /**
+   * The Server through which the messages are replayed.
+   */
+  private AbstractINDIServer server;
+  /**
+   * The log.
+   */
+  private File log;
+  /**
+   * The speed factor of the replay (<code>0</code> or less for as fast as
+   * possible).
+   */
+  private double speed;
+  /**
+   * The fake Devices, by their name in the log.
+   */
+  private HashMap<String, ReplayDevice> devices;
+  /**
+   * The fake Clients, by their name in the log.
+   */
+  private HashMap<String, ReplayClient> clients;
+  /**
+   * The number of replayed messages.
+   */
+  private long messages;
+  /**
+   * The number of characters of the replayed messages.
+   */
+  private long characters;
+  /**
+   * The number of messages received by the fake Clients.
+   */
+  private long received;
+  /**
+   * The time (in nanoseconds) that the last replay took.
+   */
+  private long elapsed;
+
+  /**
+   * Constructs a new replay of a log.
+   *
+   * @param server The Server through which the messages are replayed.
+   * @param log The log.
+   * @param speed The speed factor of the replay: <code>1</code> keeps the
+   * recorded timing, <code>2</code> is twice as fast, and <code>0</code> (or
+   * less) sends the messages as fast as possible.
+   */
+  public INDIReplay(AbstractINDIServer server, File log, double speed) {
+    this.server = server;
+    this.log = log;
+    this.speed = speed;
+
+    devices = new HashMap<String, ReplayDevice>();
+    clients = new HashMap<String, ReplayClient>();
+  }
+
+  /**
+   * Replays the log, blocking until its last message has been sent. The fake
+   * Devices and Clients are removed from the Server at the end.
+   *
+   * @throws IOException If the log cannot be read.
+   * @throws INDIException If the XML parser cannot be created.
+   */
+  public void run() throws IOException, INDIException {
+    INDIMessageLog in = new INDIMessageLog(log);
+    INDIIncrementalParser parser;
+
+    try {
+      parser = new INDIIncrementalParser();
+    } catch (ParserConfigurationException e) {
+      in.close();
+
+      throw new INDIException("Could not create the XML parser: " + e.getMessage());
+    }
+
+    messages = 0;
+    characters = 0;
+    received = 0;
+
+    long start = System.nanoTime();
+
+    try {
+      INDIMessageLog.Entry entry;
+
+      while ((entry = in.next()) != null) {
+        if (speed > 0) {
+          waitUntil(start + (long) (entry.getTime() / speed));
+        }
+
+        parser.reset();
+        Document doc = parser.parse(entry.getText());
+
+        if (doc == null) {
+          continue;
+        }
+
+        if (entry.getKind() == INDIMessageLog.DEVICE) {
+          getDevice(entry.getSource()).parseXML(doc);
+        } else {
+          getClient(entry.getSource()).parseXML(doc);
+        }
+
+        messages++;
+        characters += entry.getText().length();
+      }
+    } finally {
+      in.close();
+
+      elapsed = System.nanoTime() - start;
+
+      removeAll();
+    }
+  }
+
+  /**
+   * Waits until a time.
+   *
+   * @param time The time (<code>System.nanoTime()</code>) to wait for.
+   */
+  private void waitUntil(long time) {
+    long wait;
+
+    while ((wait = time - System.nanoTime()) > 0) {
+      try {
+        Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+
+        return;
+      }
+    }
+  }
+
+  /**
+   * Gets the fake Device of a source of the log, loading it in the Server
+   * the first time.
+   *
+   * @param source The name of the source.
+   * @return The fake Device.
+   * @throws INDIException If the Device cannot be created.
+   */
+  private ReplayDevice getDevice(String source) throws INDIException {
+    ReplayDevice device = devices.get(source);
+
+    if (device == null) {
+      device = new ReplayDevice(source);
+      devices.put(source, device);
+
+      server.loadDevice(device);
+    }
+
+    return device;
+  }
+
+  /**
+   * Gets the fake Client of a source of the log, connecting it to the Server
+   * the first time.
+   *
+   * @param source The name of the source.
+   * @return The fake Client.
+   */
+  private ReplayClient getClient(String source) {
+    ReplayClient client = clients.get(source);
+
+    if (client == null) {
+      client = new ReplayClient(source);
+      clients.put(source, client);
+
+      server.addClient(client);
+    }
+
+    return client;
+  }
+
+  /**
+   * Removes the fake Devices and Clients from the Server.
+   */
+  private void removeAll() {
+    ArrayList<ReplayClient> c = new ArrayList<ReplayClient>(clients.values());
+
+    for (int i = 0 ; i < c.size() ; i++) {
+      received += c.get(i).getReceived();
+
+      c.get(i).finishReader();
+    }
+
+    ArrayList<ReplayDevice> d = new ArrayList<ReplayDevice>(devices.values());
+
+    for (int i = 0 ; i < d.size() ; i++) {
+      d.get(i).destroy();
+    }
+
+    clients.clear();
+    devices.clear();
+  }
+
+  /**
+   * Gets the number of messages sent by the last replay.
+   *
+   * @return The number of replayed messages.
+   */
+  public long getMessages() {
+    return messages;
+  }
+
+  /**
+   * Gets the number of characters of the messages sent by the last replay.
+   *
+   * @return The number of characters of the replayed messages.
+   */
+  public long getCharacters() {
+    return characters;
+  }
+
+  /**
+   * Gets the number of messages that the Server sent to the fake Clients in
+   * the last replay.
+   *
+   * @return The number of messages received by the fake Clients.
+   */
+  public long getReceived() {
+    return received;
+  }
+
+  /**
+   * Gets the time that the last replay took.
+   *
+   * @return The time (in nanoseconds) that the last replay took.
+   */
+  public long getElapsedTime() {
+    return elapsed;
+  }
+
+  /**
+   * Gets a summary of the last replay.
+   *
+   * @return A summary of the last replay.
+   */
+  @Override
+  public String toString() {
+    double seconds = elapsed / 1e9;
+    long rate = (seconds > 0) ? (long) (messages / seconds) : 0;
+
+    return "Replayed " + messages + " messages (" + characters + " characters) in "
+            + String.format("%.3f", seconds) + " s (" + rate + " messages/s), "
+            + received + " messages sent to the replayed Clients";
+  }
+
+  /**
+   * A fake Device that sends the messages of a Device of the log and discards
+   * the ones sent to it.
+   */
+  private class ReplayDevice extends INDIDevice {
+
+    /**
+     * The name of the Device in the log.
+     */
+    private String source;
+    /**
+     * The names of the Device.
+     */
+    private Set<String> names;
+
+    /**
+     * Constructs a new fake Device.
+     *
+     * @param source The name of the Device in the log.
+     * @throws INDIException Never.
+     */
+    private ReplayDevice(String source) throws INDIException {
+      super(server);
+
+      this.source = source;
+
+      names = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    }
+
+    /**
+     * The messages are fed by the replay, there is nothing to read.
+     */
+    @Override
+    protected void startReading() {
+    }
+
+    @Override
+    public void sendXMLMessage(INDIRawMessage message) {
+    }
+
+    @Override
+    protected void dealWithPossibleNewDeviceName(String possibleNewName) {
+      names.add(possibleNewName);
+    }
+
+    @Override
+    protected boolean hasName(String name) {
+      return names.contains(name);
+    }
+
+    @Override
+    protected String[] getNames() {
+      return names.toArray(new String[0]);
+    }
+
+    @Override
+    public void closeConnections() {
+      finishReader();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      return new ByteArrayInputStream(new byte[0]);
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+      return new OutputStream() {
+
+        @Override
+        public void write(int b) {
+        }
+      };
+    }
+
+    @Override
+    public String getDeviceIdentifier() {
+      return "replay:" + source;
+    }
+
+    @Override
+    public boolean isDevice(String deviceIdentifier) {
+      return getDeviceIdentifier().equals(deviceIdentifier);
+    }
+  }
+
+  /**
+   * A fake Client that sends the messages of a Client of the log and counts
+   * the ones sent to it.
+   */
+  private class ReplayClient extends INDIClient {
+
+    /**
+     * The name of the Client in the log.
+     */
+    private String source;
+    /**
+     * The number of messages sent to the Client.
+     */
+    private long count;
+    /**
+     * The list passed to <code>messagesWritten</code>, to record the metrics
+     * of the Client.
+     */
+    private List<INDIRawMessage> written;
+
+    /**
+     * Constructs a new fake Client.
+     *
+     * @param source The name of the Client in the log.
+     */
+    private ReplayClient(String source) {
+      super(server);
+
+      this.source = source;
+
+      written = new ArrayList<INDIRawMessage>(1);
+    }
+
+    @Override
+    public String getInetAddress() {
+      return "replay:" + source;
+    }
+
+    /**
+     * The messages are "delivered" as soon as they are sent.
+     */
+    @Override
+    protected synchronized void queueMessage(INDIRawMessage message) {
+      count++;
+
+      written.add(message);
+      messagesWritten(written, 0);
+      written.clear();
+    }
+
+    /**
+     * Gets the number of messages sent to the Client.
+     *
+     * @return The number of messages sent to the Client.
+     */
+    private synchronized long getReceived() {
+      return count;
+    }
+  }
+}
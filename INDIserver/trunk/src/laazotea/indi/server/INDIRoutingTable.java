@@ -0,0 +1,242 @@
+/*
+ *  This file is part of INDI for Java Server.
+ *
+ *  INDI for Java Server is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java Server is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java Server.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * An index of the listeners of a Server by the Devices and Properties they
+ * listen to. The recipients of every Device and Property are precomputed in
+ * arrays that are never modified: the whole index is rebuilt (copy on write)
+ * when a listener is added or removed or changes what it listens to, which is
+ * rare compared to the number of routed messages. Routing a message is
+ * therefore a couple of map lookups, without any allocation.
+ *
+ * @version 1.3, October 18, 2026
+ * @see AbstractINDIServer
+ */
+public class INDIRoutingTable {
+
+  /**
+   * An empty array of listeners.
+   */
+  private static final INDIDeviceListener[] EMPTY = new INDIDeviceListener[0];
+
+  /**
+   * An immutable snapshot of the index.
+   */
+  private static class Snapshot {
+
+    /**
+     * The listeners that listen to every Device.
+     */
+    private INDIDeviceListener[] allDevices = EMPTY;
+    /**
+     * The listeners of each (specifically listened) Device.
+     */
+    private HashMap<String, INDIDeviceListener[]> devices = new HashMap<String, INDIDeviceListener[]>();
+    /**
+     * The listeners of each (specifically listened) Property, by Device and
+     * Property names.
+     */
+    private HashMap<String, HashMap<String, INDIDeviceListener[]>> properties = new HashMap<String, HashMap<String, INDIDeviceListener[]>>();
+    /**
+     * The listeners of some single Properties of each Device.
+     */
+    private HashMap<String, INDIDeviceListener[]> singleProperties = new HashMap<String, INDIDeviceListener[]>();
+  }
+  /**
+   * The listeners of the Server.
+   */
+  private List<INDIDeviceListener> listeners;
+  /**
+   * The current snapshot of the index.
+   */
+  private volatile Snapshot snapshot;
+
+  /**
+   * Constructs a new routing table.
+   *
+   * @param listeners The listeners of the Server. The table must be rebuilt
+   * whenever the list changes.
+   */
+  public INDIRoutingTable(List<INDIDeviceListener> listeners) {
+    this.listeners = listeners;
+
+    snapshot = new Snapshot();
+  }
+
+  /**
+   * Gets the listeners of a Device.
+   *
+   * @param deviceName The Device name.
+   * @return The listeners of the Device. Must not be modified.
+   */
+  public INDIDeviceListener[] getListenersToDevice(String deviceName) {
+    Snapshot s = snapshot;
+
+    INDIDeviceListener[] l = s.devices.get(deviceName);
+
+    if (l == null) {
+      return s.allDevices;
+    }
+
+    return l;
+  }
+
+  /**
+   * Gets the listeners of a Property.
+   *
+   * @param deviceName The Device name.
+   * @param propertyName The Property name.
+   * @return The listeners of the Property. Must not be modified.
+   */
+  public INDIDeviceListener[] getListenersToProperty(String deviceName, String propertyName) {
+    Snapshot s = snapshot;
+
+    HashMap<String, INDIDeviceListener[]> p = s.properties.get(deviceName);
+
+    if (p != null) {
+      INDIDeviceListener[] l = p.get(propertyName);
+
+      if (l != null) {
+        return l;
+      }
+    }
+
+    return getListenersToDevice(deviceName);
+  }
+
+  /**
+   * Gets the listeners of some single Properties of a Device.
+   *
+   * @param deviceName The Device name.
+   * @return The listeners of some single Properties of the Device. Must not be
+   * modified.
+   */
+  public INDIDeviceListener[] getListenersToSingleProperties(String deviceName) {
+    INDIDeviceListener[] l = snapshot.singleProperties.get(deviceName);
+
+    if (l == null) {
+      return EMPTY;
+    }
+
+    return l;
+  }
+
+  /**
+   * Rebuilds the index from the current listeners and what they listen to.
+   */
+  public synchronized void rebuild() {
+    Snapshot s = new Snapshot();
+
+    INDIDeviceListener[] all = listeners.toArray(EMPTY);
+
+    ArrayList<INDIDeviceListener> l = new ArrayList<INDIDeviceListener>();
+
+    for (int i = 0 ; i < all.length ; i++) {
+      if (all[i].listensToAllDevices()) {
+        l.add(all[i]);
+      }
+    }
+
+    s.allDevices = toArray(l);
+
+    HashSet<String> deviceNames = new HashSet<String>();
+
+    for (int i = 0 ; i < all.length ; i++) {
+      all[i].addListenedDeviceNames(deviceNames);
+    }
+
+    Iterator<String> it = deviceNames.iterator();
+
+    while (it.hasNext()) {
+      String deviceName = it.next();
+
+      l.clear();
+
+      for (int i = 0 ; i < all.length ; i++) {
+        if (all[i].listensToDevice(deviceName)) {
+          l.add(all[i]);
+        }
+      }
+
+      s.devices.put(deviceName, toArray(l));
+
+      l.clear();
+
+      for (int i = 0 ; i < all.length ; i++) {
+        if (all[i].listensToSingleProperty(deviceName)) {
+          l.add(all[i]);
+        }
+      }
+
+      if (!l.isEmpty()) {
+        s.singleProperties.put(deviceName, toArray(l));
+      }
+
+      HashSet<String> propertyNames = new HashSet<String>();
+
+      for (int i = 0 ; i < all.length ; i++) {
+        all[i].addListenedPropertyNames(deviceName, propertyNames);
+      }
+
+      if (!propertyNames.isEmpty()) {
+        HashMap<String, INDIDeviceListener[]> p = new HashMap<String, INDIDeviceListener[]>();
+
+        Iterator<String> it2 = propertyNames.iterator();
+
+        while (it2.hasNext()) {
+          String propertyName = it2.next();
+
+          l.clear();
+
+          for (int i = 0 ; i < all.length ; i++) {
+            if (all[i].listensToProperty(deviceName, propertyName)) {
+              l.add(all[i]);
+            }
+          }
+
+          p.put(propertyName, toArray(l));
+        }
+
+        s.properties.put(deviceName, p);
+      }
+    }
+
+    snapshot = s;
+  }
+
+  /**
+   * Converts a list of listeners into an array.
+   *
+   * @param l The list.
+   * @return The array.
+   */
+  private INDIDeviceListener[] toArray(ArrayList<INDIDeviceListener> l) {
+    if (l.isEmpty()) {
+      return EMPTY;
+    }
+
+    return l.toArray(new INDIDeviceListener[l.size()]);
+  }
+}
@@ -0,0 +1,277 @@
+/*
+ *  This file is part of INDI for Java Server.
+ *
+ *  INDI for Java Server is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java Server is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java Server.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi.server;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A thread that serves several <code>INDINIOClient</code>s with a single
+ * selector: it reads and parses their messages and writes their queued
+ * messages when their channels are ready. One of the threads of a Server may
+ * also accept the new connections, distributing them among all the threads.
+ *
+ * @version 1.3, October 18, 2026
+ * @see INDINIOClient
+ */
+public class INDISelectorThread extends Thread {
+
+  /**
+   * The Server to which the Clients are connected.
+   */
+  private AbstractINDIServer server;
+  /**
+   * The selector of the thread.
+   */
+  private Selector selector;
+  /**
+   * The channel that accepts new connections (<code>null</code> if this
+   * thread does not accept connections).
+   */
+  private ServerSocketChannel serverChannel;
+  /**
+   * The threads among which the new connections are distributed.
+   */
+  private INDISelectorThread[] threads;
+  /**
+   * The thread to which the next connection will be assigned.
+   */
+  private int nextThread;
+  /**
+   * The new Clients waiting to be registered in the selector.
+   */
+  private ConcurrentLinkedQueue<INDINIOClient> newClients;
+  /**
+   * The Clients with new messages to be written.
+   */
+  private ConcurrentLinkedQueue<INDINIOClient> pendingWrites;
+
+  /**
+   * Constructs a new selector thread.
+   *
+   * @param server The Server to which the Clients are connected.
+   * @throws IOException If the selector cannot be opened.
+   */
+  public INDISelectorThread(AbstractINDIServer server) throws IOException {
+    super("INDI selector");
+
+    this.server = server;
+
+    selector = Selector.open();
+    newClients = new ConcurrentLinkedQueue<INDINIOClient>();
+    pendingWrites = new ConcurrentLinkedQueue<INDINIOClient>();
+  }
+
+  /**
+   * Makes this thread accept the new connections of a channel.
+   *
+   * @param serverChannel The channel that accepts the connections.
+   * @param threads The threads among which the new connections will be
+   * distributed (usually including this one).
+   * @throws IOException If the channel cannot be registered.
+   */
+  public void acceptConnections(ServerSocketChannel serverChannel, INDISelectorThread[] threads) throws IOException {
+    this.serverChannel = serverChannel;
+    this.threads = threads;
+    nextThread = 0;
+
+    serverChannel.configureBlocking(false);
+    serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+  }
+
+  /**
+   * Adds a new Client to be served by this thread.
+   *
+   * @param client The Client.
+   */
+  protected void addClient(INDINIOClient client) {
+    newClients.add(client);
+
+    selector.wakeup();
+  }
+
+  /**
+   * Asks this thread to write the queued messages of a Client.
+   *
+   * @param client The Client.
+   */
+  protected void requestWrite(INDINIOClient client) {
+    pendingWrites.add(client);
+
+    selector.wakeup();
+  }
+
+  /**
+   * The main loop of the thread.
+   */
+  @Override
+  public void run() {
+    while (true) {
+      try {
+        selector.select();
+      } catch (IOException e) {
+        System.err.println("Selector failed: " + e.getMessage());
+        return;
+      }
+
+      registerNewClients();
+
+      writePendingMessages();
+
+      Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+
+      while (it.hasNext()) {
+        SelectionKey key = it.next();
+        it.remove();
+
+        if (!key.isValid()) {
+          continue;
+        }
+
+        if (key.isAcceptable()) {
+          acceptConnection();
+          continue;
+        }
+
+        INDINIOClient client = (INDINIOClient) key.attachment();
+
+        try {
+          if (key.isReadable()) {
+            client.readFromChannel();
+          }
+
+          if (key.isValid() && key.isWritable()) {
+            write(client);
+          }
+        } catch (IOException e) {
+          client.close();
+        }
+      }
+    }
+  }
+
+  /**
+   * Accepts a new connection and assigns it to one of the threads.
+   */
+  private void acceptConnection() {
+    SocketChannel channel;
+
+    try {
+      channel = serverChannel.accept();
+    } catch (IOException e) {
+      System.err.println("Accept failed: " + e.getMessage());
+      return;
+    }
+
+    if (channel == null) {
+      return;
+    }
+
+    if (!server.acceptClient(channel.socket())) {
+      System.err.println("Client " + channel.socket().getInetAddress() + " rejected");
+
+      try {
+        channel.close();
+      } catch (IOException e) {
+      }
+
+      return;
+    }
+
+    INDISelectorThread thread = threads[nextThread];
+    nextThread = (nextThread + 1) % threads.length;
+
+    try {
+      INDINIOClient client = new INDINIOClient(channel, thread, server);
+
+      server.addClient(client);
+
+      thread.addClient(client);
+    } catch (IOException e) {
+      try {
+        channel.close();
+      } catch (IOException ee) {
+      }
+    }
+  }
+
+  /**
+   * Registers the new Clients in the selector.
+   */
+  private void registerNewClients() {
+    INDINIOClient client = newClients.poll();
+
+    while (client != null) {
+      try {
+        SelectionKey key = client.getChannel().register(selector, SelectionKey.OP_READ, client);
+        client.setKey(key);
+
+        if (client.hasPendingMessages()) {
+          write(client);
+        }
+      } catch (IOException e) {
+        client.close();
+      }
+
+      client = newClients.poll();
+    }
+  }
+
+  /**
+   * Writes the queued messages of the Clients that requested it.
+   */
+  private void writePendingMessages() {
+    INDINIOClient client = pendingWrites.poll();
+
+    while (client != null) {
+      SelectionKey key = client.getChannel().keyFor(selector);
+
+      if ((key != null) && key.isValid()) {
+        try {
+          write(client);
+        } catch (IOException e) {
+          client.close();
+        }
+      }
+
+      client = pendingWrites.poll();
+    }
+  }
+
+  /**
+   * Writes the queued messages of a Client, waiting for the channel to be
+   * writable if not all of them can be written right now.
+   *
+   * @param client The Client.
+   * @throws IOException If there is any problem writing to the channel.
+   */
+  private void write(INDINIOClient client) throws IOException {
+    SelectionKey key = client.getChannel().keyFor(selector);
+
+    if (client.writeToChannel()) {
+      key.interestOps(SelectionKey.OP_READ);
+    } else {
+      key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+  }
+}
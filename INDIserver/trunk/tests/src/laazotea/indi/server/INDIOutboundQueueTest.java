@@ -0,0 +1,185 @@
+/*
+ *  This file is part of INDI for Java Server.
+ *
+ *  INDI for Java Server is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java Server is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java Server.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi.server;
+
+import java.util.ArrayList;
+import laazotea.indi.INDIRawMessage;
+
+/**
+ * Checks that the <code>COALESCE</code> policy of
+ * <code>INDIOutboundQueue</code> never loses the value of an element: the
+ * <code>setXXXVector</code> messages of a Property may carry only some of its
+ * elements, and they may arrive while the previous ones are still queued.
+ *
+ * @version 1.3, October 18, 2026
+ */
+public class INDIOutboundQueueTest {
+
+  /**
+   * The number of failed checks.
+   */
+  private static int failures = 0;
+
+  /**
+   * Runs the checks.
+   *
+   * @param args Not used.
+   */
+  public static void main(String[] args) {
+    partialSetsAreKept();
+    sameElementsAreCoalesced();
+    onlyTheLatestSetIsReplaced();
+    setsWithMessagesAreKept();
+
+    if (failures > 0) {
+      System.err.println(failures + " checks failed");
+      System.exit(1);
+    }
+
+    System.out.println("All checks passed");
+  }
+
+  /**
+   * A set of element B does not replace a queued set of element A.
+   */
+  private static void partialSetsAreKept() {
+    INDIOutboundQueue q = newQueue();
+
+    q.offer(set("", "A", "1"));
+    q.offer(set("", "B", "2"));
+
+    check("partial sets are kept", take(q), set("", "A", "1"), set("", "B", "2"));
+  }
+
+  /**
+   * A set with the same elements replaces the queued one.
+   */
+  private static void sameElementsAreCoalesced() {
+    INDIOutboundQueue q = newQueue();
+
+    q.offer(set("", "A", "1", "B", "1"));
+    q.offer(set("", "A", "2", "B", "2"));
+
+    check("same elements are coalesced", take(q), set("", "A", "2", "B", "2"));
+  }
+
+  /**
+   * Only the latest queued set of the Property may be replaced, so the sets
+   * keep their order.
+   */
+  private static void onlyTheLatestSetIsReplaced() {
+    INDIOutboundQueue q = newQueue();
+
+    q.offer(set("", "A", "1"));
+    q.offer(set("", "B", "1"));
+    q.offer(set("", "A", "2"));
+    q.offer(set("", "A", "3"));
+
+    check("only the latest set is replaced", take(q), set("", "A", "1"), set("", "B", "1"), set("", "A", "3"));
+  }
+
+  /**
+   * The sets with a <code>message</code> for the Client are never replaced
+   * nor replace others.
+   */
+  private static void setsWithMessagesAreKept() {
+    INDIOutboundQueue q = newQueue();
+
+    q.offer(set("Slewing", "A", "1"));
+    q.offer(set("", "A", "2"));
+    q.offer(set("Done", "A", "3"));
+
+    check("sets with messages are kept", take(q), set("Slewing", "A", "1"), set("", "A", "2"), set("Done", "A", "3"));
+  }
+
+  /**
+   * Creates a queue that coalesces and is never full in these checks.
+   *
+   * @return The queue.
+   */
+  private static INDIOutboundQueue newQueue() {
+    return new INDIOutboundQueue(INDIOutboundQueue.OverflowPolicy.COALESCE, 1000000, 10000);
+  }
+
+  /**
+   * Creates a <code>setNumberVector</code> message of a Property.
+   *
+   * @param message The <code>message</code> attribute (empty for none).
+   * @param namesAndValues The names and values of the elements.
+   * @return The message.
+   */
+  private static INDIRawMessage set(String message, String... namesAndValues) {
+    StringBuilder xml = new StringBuilder("<setNumberVector device=\"Telescope\" name=\"COORDS\" state=\"Busy\"");
+
+    if (message.length() > 0) {
+      xml.append(" message=\"").append(message).append("\"");
+    }
+
+    xml.append(">");
+
+    for (int i = 0 ; i < namesAndValues.length ; i += 2) {
+      xml.append("<oneNumber name=\"").append(namesAndValues[i]).append("\">").append(namesAndValues[i + 1]).append("</oneNumber>");
+    }
+
+    xml.append("</setNumberVector>");
+
+    return new INDIRawMessage(xml.toString(), "setNumberVector", "Telescope", "COORDS");
+  }
+
+  /**
+   * Takes all the messages of a queue.
+   *
+   * @param q The queue.
+   * @return The texts of the messages.
+   */
+  private static ArrayList<String> take(INDIOutboundQueue q) {
+    ArrayList<INDIRawMessage> messages = new ArrayList<INDIRawMessage>();
+    ArrayList<String> texts = new ArrayList<String>();
+
+    q.poll(messages, Integer.MAX_VALUE);
+
+    for (int i = 0 ; i < messages.size() ; i++) {
+      texts.add(messages.get(i).getXML());
+    }
+
+    return texts;
+  }
+
+  /**
+   * Checks that the messages taken from a queue are the expected ones.
+   *
+   * @param name The name of the check.
+   * @param taken The texts of the messages taken.
+   * @param expected The expected messages.
+   */
+  private static void check(String name, ArrayList<String> taken, INDIRawMessage... expected) {
+    ArrayList<String> texts = new ArrayList<String>();
+
+    for (int i = 0 ; i < expected.length ; i++) {
+      texts.add(expected[i].getXML());
+    }
+
+    if (taken.equals(texts)) {
+      System.out.println("OK   " + name);
+    } else {
+      System.out.println("FAIL " + name + ": expected " + texts + " but got " + taken);
+
+      failures++;
+    }
+  }
+}